@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj;
+
+import net.bither.bitherj.core.BloomFilterBenchmark;
+import net.bither.bitherj.core.CoinSelectorBenchmark;
+import net.bither.bitherj.core.PeerFramingBenchmark;
+import net.bither.bitherj.core.TxSigHasherBenchmark;
+import net.bither.bitherj.crypto.ECBackendBenchmark;
+import net.bither.bitherj.crypto.ScryptBenchmark;
+import net.bither.bitherj.crypto.mnemonic.PBKDF2SHA512Benchmark;
+import net.bither.bitherj.utils.Base58Benchmark;
+import net.bither.bitherj.utils.RawTxFetcherBenchmark;
+import net.bither.bitherj.utils.Sha256HasherBenchmark;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks named on the command line, or all of them when none is. Each prints what
+ * it measured.
+ */
+public class Benchmarks {
+    public static void main(String[] args) throws Exception {
+        List<String> names = Arrays.asList(args);
+        if (names.isEmpty() || names.contains("sha256")) {
+            Sha256HasherBenchmark.main(new String[0]);
+        }
+        if (names.isEmpty() || names.contains("bloom")) {
+            BloomFilterBenchmark.main(new String[0]);
+        }
+        if (names.isEmpty() || names.contains("ec")) {
+            ECBackendBenchmark.main(new String[0]);
+        }
+        if (names.isEmpty() || names.contains("sighash")) {
+            TxSigHasherBenchmark.main(new String[0]);
+        }
+        if (names.isEmpty() || names.contains("rawtx")) {
+            RawTxFetcherBenchmark.main(new String[0]);
+        }
+        if (names.isEmpty() || names.contains("coins")) {
+            CoinSelectorBenchmark.main(new String[0]);
+        }
+        if (names.isEmpty() || names.contains("framing")) {
+            PeerFramingBenchmark.main(new String[0]);
+        }
+        if (names.isEmpty() || names.contains("base58")) {
+            Base58Benchmark.main(new String[0]);
+        }
+        if (names.isEmpty() || names.contains("pbkdf2")) {
+            PBKDF2SHA512Benchmark.main(new String[0]);
+        }
+        if (names.isEmpty() || names.contains("scrypt")) {
+            ScryptBenchmark.main(new String[0]);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Inserts wallet sized element sets through the per-function reference hash and through the
+ * one pass filter and prints both insert rates.
+ */
+public class BloomFilterBenchmark {
+    public static void main(String[] args) {
+        Random random = new Random(5);
+        List<byte[]> elements = new ArrayList<byte[]>();
+        for (int i = 0; i < 2000; i++) {
+            // pubs, hash160s and outpoints
+            byte[] element = new byte[i % 3 == 0 ? 33 : (i % 3 == 1 ? 20 : 36)];
+            random.nextBytes(element);
+            elements.add(element);
+        }
+        int rounds = 50;
+        BloomFilter filter = new BloomFilter(elements.size(), BloomFilter
+                .BLOOM_REDUCED_FALSEPOSITIVE_RATE, random.nextLong(), BloomFilter.BloomUpdate
+                .UPDATE_ALL);
+        BloomFilterTest.ReferenceFilter reference = new BloomFilterTest.ReferenceFilter(filter
+                .bitcoinSerialize());
+        // warm up the JIT before taking numbers
+        for (int i = 0; i < rounds; i++) {
+            filter.insertAll(elements);
+            for (byte[] element : elements) {
+                reference.insert(element);
+            }
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (byte[] element : elements) {
+                reference.insert(element);
+            }
+        }
+        long referenceNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            filter.insertAll(elements);
+        }
+        long filterNanos = System.nanoTime() - start;
+        System.out.println(String.format("bloom insert, %d hash funcs: reference %dns, " +
+                "one pass %dns per element", reference.hashFuncs, referenceNanos / rounds /
+                elements.size(), filterNanos / rounds / elements.size()));
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.core;
+
+/**
+ * Selects the inputs paying a third of wallets of 10000 and 50000 outs, greedily and with each
+ * {@link CoinSelector.Strategy}, and prints the inputs, fee, change and time of each.
+ */
+public class CoinSelectorBenchmark {
+    public static void main(String[] args) {
+        for (int count : new int[]{10000, 50000}) {
+            long[] values = CoinSelectorTest.largeWallet(count);
+            long amount = CoinSelectorTest.total(values) / 3;
+            CoinSelector.Payment payment = CoinSelectorTest.payment(amount);
+
+            long start = System.nanoTime();
+            int greedyInputs = CoinSelectorTest.greedy(values, payment, amount);
+            long greedyMicros = (System.nanoTime() - start) / 1000;
+            StringBuilder report = new StringBuilder(String.format("%d outs, greedy %d inputs " +
+                    "in %dus", count, greedyInputs, greedyMicros));
+
+            for (CoinSelector.Strategy strategy : CoinSelectorTest.strategies()) {
+                start = System.nanoTime();
+                CoinSelector.Selection selection = strategy.select(values, CoinSelectorTest
+                        .sizes(count), payment, CoinSelectorTest.deadline());
+                long micros = (System.nanoTime() - start) / 1000;
+                if (selection != null) {
+                    report.append(String.format(", %s %d inputs fee %d change %d in %dus",
+                            strategy.getClass().getSimpleName(), selection.getIndexes().length,
+                            selection.getFee(), selection.getChange(), micros));
+                } else {
+                    report.append(String.format(", %s none in %dus", strategy.getClass()
+                            .getSimpleName(), micros));
+                }
+            }
+            System.out.println(report);
+        }
+    }
+}
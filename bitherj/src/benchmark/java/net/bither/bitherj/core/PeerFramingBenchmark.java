@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.core;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import net.bither.bitherj.message.BitcoinSerializer;
+import net.bither.bitherj.message.Message;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Frames a flood of inv and tx messages read a tcp segment at a time, and prints the bytes
+ * allocated per message where the JVM reports thread allocation, and the time taken.
+ */
+public class PeerFramingBenchmark {
+    private static final int ReadBufferSize = 65536;
+    private static final int Count = 20000;
+
+    public static void main(String[] args) throws Exception {
+        // the serializer logs every message in hex at debug, which would be all that is measured
+        ((Logger) LoggerFactory.getLogger(BitcoinSerializer.class)).setLevel(Level.INFO);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        BitcoinSerializer serializer = new BitcoinSerializer();
+        for (int i = 0; i < Count; i++) {
+            serializer.serialize(PeerFramingTest.inv(i, 1), stream);
+            serializer.serialize(PeerFramingTest.tx(i, 25), stream);
+        }
+        byte[] bytes = stream.toByteArray();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long allocated = -1;
+        long millis = 0;
+        // the last round is measured, once everything is warmed up
+        for (int round = 0; round < 3; round++) {
+            CountingHandler handler = new CountingHandler();
+            long start = System.currentTimeMillis();
+            long before = allocatedBytes(threads, thread);
+            PeerFramingTest.feed(handler, bytes, ReadBufferSize, 1448, null);
+            if (before >= 0) {
+                allocated = allocatedBytes(threads, thread) - before;
+            }
+            millis = System.currentTimeMillis() - start;
+            if (handler.count != Count * 2) {
+                throw new IllegalStateException("framed " + handler.count + " messages");
+            }
+        }
+        if (allocated >= 0) {
+            System.out.println(String.format("%d inv and tx messages, %d bytes on the wire: %d " +
+                    "bytes allocated, %d per message, in %dms", Count * 2, bytes.length,
+                    allocated, allocated / (Count * 2), millis));
+        } else {
+            System.out.println(String.format("%d inv and tx messages, %d bytes on the wire in " +
+                    "%dms", Count * 2, bytes.length, millis));
+        }
+    }
+
+    /**
+     * Bytes allocated by the thread so far, or -1 where the JVM does not report it.
+     */
+    private static long allocatedBytes(ThreadMXBean threads, long thread) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread);
+        }
+        return -1;
+    }
+
+    private static class CountingHandler extends PeerFramingTest.CollectingHandler {
+        private int count;
+
+        @Override
+        protected void processMessage(Message m) {
+            count++;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.crypto.ECKey;
+import net.bither.bitherj.crypto.TransactionSignature;
+import net.bither.bitherj.script.ScriptBuilder;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Hashes every input of 10, 100 and 1000 input txs for signing, through serialized simplified
+ * copies of the tx and through {@link TxSigHasher}, and prints the time of each.
+ */
+public class TxSigHasherBenchmark {
+    public static void main(String[] args) {
+        Random random = new Random(7);
+        byte sigHashType = (byte) TransactionSignature.calcSigHashValue(TransactionSignature
+                .SigHash.ALL, false);
+        for (int inCount : new int[]{10, 100, 1000}) {
+            Tx tx = TxSigHasherTest.randomTx(random, inCount, 2);
+            byte[] script = ScriptBuilder.createOutputScript(new ECKey(BigInteger.valueOf
+                    (inCount), null, true).toAddress()).getProgram();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < inCount; i++) {
+                TxSigHasherTest.referenceHash(tx, i, script, sigHashType);
+            }
+            long referenceMicros = (System.nanoTime() - start) / 1000;
+
+            start = System.nanoTime();
+            TxSigHasher hasher = new TxSigHasher(tx);
+            for (int i = 0; i < inCount; i++) {
+                hasher.hash(i, script, sigHashType);
+            }
+            long hasherMicros = (System.nanoTime() - start) / 1000;
+
+            System.out.println(String.format("sighash of all %d inputs: serialized copies %dus," +
+                    " sig hasher %dus", inCount, referenceMicros, hasherMicros));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.crypto;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares pub key derivation, signing and verification across the backends and prints the
+ * time per operation.
+ */
+public class ECBackendBenchmark {
+    public static void main(String[] args) {
+        int count = 200;
+        Random random = new Random(10);
+        BigInteger[] privs = new BigInteger[count];
+        byte[][] hashes = new byte[count][32];
+        for (int i = 0; i < count; i++) {
+            privs[i] = ECBackendTest.privateKey(random);
+            random.nextBytes(hashes[i]);
+        }
+        // one wallet key signs everything, as when verifying the inputs of our own txs
+        BigInteger walletPriv = ECBackendTest.privateKey(random);
+        byte[] walletPub = new ReferenceECBackend().publicKeyFromPrivate(walletPriv, true);
+        ECKey.ECDSASignature[] signatures = new ECKey.ECDSASignature[count];
+        for (int i = 0; i < count; i++) {
+            signatures[i] = new ReferenceECBackend().sign(hashes[i], walletPriv);
+        }
+        List<ECBackend> backends = ECBackendTest.backends();
+        backends.add(0, new ReferenceECBackend());
+        // the first round warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            for (ECBackend backend : backends) {
+                long start = System.nanoTime();
+                for (BigInteger priv : privs) {
+                    backend.publicKeyFromPrivate(priv, true);
+                }
+                long pubNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    backend.sign(hashes[i], privs[i]);
+                }
+                long signNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    backend.verify(hashes[i], signatures[i], walletPub);
+                }
+                long verifyNanos = System.nanoTime() - start;
+                if (round > 0) {
+                    System.out.println(String.format("%s backend: pub %dus, sign %dus, verify " +
+                            "%dus", backend.getName(), pubNanos / count / 1000, signNanos / count
+                            / 1000, verifyNanos / count / 1000));
+                }
+            }
+        }
+    }
+}
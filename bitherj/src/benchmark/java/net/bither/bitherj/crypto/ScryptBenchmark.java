@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.crypto;
+
+import com.lambdaworks.crypto.SCrypt;
+
+import net.bither.bitherj.crypto.bip38.Bip38;
+import net.bither.bitherj.utils.PrivateKeyUtil;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times scrypt for a wallet key and a bip38 key through lambdaworks and {@link Scrypt}, the
+ * decryption of a backup of 8 keys and a bip38 stretch, and prints the times.
+ */
+public class ScryptBenchmark {
+    public static void main(String[] args) throws Exception {
+        byte[] password = ScryptTest.passwordBytes();
+        byte[] salt = new byte[KeyCrypterScrypt.SALT_LENGTH];
+        StringBuilder report = new StringBuilder(String.format("scrypt on %d cores", Runtime
+                .getRuntime().availableProcessors()));
+        // a wallet key and a bip38 key
+        for (int p : new int[]{1, 8}) {
+            long lambdaworksJava = 0;
+            long lambdaworks = 0;
+            long java = 0;
+            long now = 0;
+            // the last round is measured, once everything is warmed up
+            for (int round = 0; round < 3; round++) {
+                long start = System.currentTimeMillis();
+                SCrypt.scryptJ(password, salt, 16384, 8, p, 32);
+                lambdaworksJava = System.currentTimeMillis() - start;
+                start = System.currentTimeMillis();
+                SCrypt.scrypt(password, salt, 16384, 8, p, 32);
+                lambdaworks = System.currentTimeMillis() - start;
+                start = System.currentTimeMillis();
+                Scrypt.scryptJ(password, salt, 16384, 8, p, 32);
+                java = System.currentTimeMillis() - start;
+                start = System.currentTimeMillis();
+                Scrypt.scrypt(password, salt, 16384, 8, p, 32);
+                now = System.currentTimeMillis() - start;
+            }
+            report.append(String.format(", N=16384 r=8 p=%d: lambdaworks %dms in java, %dms " +
+                    "native where it loads, %dms in java now, %dms as used", p, lambdaworksJava,
+                    lambdaworks, java, now));
+        }
+
+        List<String> strings = new ArrayList<String>();
+        for (int i = 0; i < 8; i++) {
+            strings.add(PrivateKeyUtil.getEncryptedString(PrivateKeyUtil.encrypt(ECKey
+                    .generateECKey(new SecureRandom()), ScryptTest.Password)));
+        }
+        long start = System.currentTimeMillis();
+        for (String string : strings) {
+            PrivateKeyUtil.getECKeyFromSingleString(string, ScryptTest.Password);
+        }
+        long oneByOne = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        PrivateKeyUtil.getECKeysFromSingleStrings(strings, ScryptTest.Password);
+        report.append(String.format(", a backup of 8 keys: %dms one by one, %dms now", oneByOne,
+                System.currentTimeMillis() - start));
+
+        start = System.currentTimeMillis();
+        Bip38.bip38Stretch1(ScryptTest.Password, salt, 64);
+        report.append(String.format(", a bip38 stretch %dms", System.currentTimeMillis() - start));
+        System.out.println(report);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.crypto.mnemonic;
+
+import com.google.common.base.Charsets;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Derives a bip39 seed through the implementation before and {@link PBKDF2SHA512}, and prints
+ * the time of each and, where the JVM reports thread allocation, the bytes the new one allocates.
+ */
+public class PBKDF2SHA512Benchmark {
+    public static void main(String[] args) throws Exception {
+        String words = "legal winner thank year wave sausage worth useful legal winner thank yellow";
+        byte[] password = words.getBytes(Charsets.UTF_8);
+        byte[] salt = "mnemonicTREZOR".getBytes(Charsets.UTF_8);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long legacyMicros = 0;
+        long micros = 0;
+        long allocated = -1;
+        // the last round is measured, once everything is warmed up
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            PBKDF2SHA512Test.legacyDerive(words, "mnemonicTREZOR", 2048, 64);
+            legacyMicros = (System.nanoTime() - start) / 1000;
+            long before = allocatedBytes(threads, thread);
+            start = System.nanoTime();
+            PBKDF2SHA512.derive(password, salt, 2048, 64);
+            micros = (System.nanoTime() - start) / 1000;
+            if (before >= 0) {
+                allocated = allocatedBytes(threads, thread) - before;
+            }
+        }
+        if (allocated >= 0) {
+            System.out.println(String.format("bip39 seed, 2048 iterations: %dus before, %dus " +
+                    "now allocating %d bytes", legacyMicros, micros, allocated));
+        } else {
+            System.out.println(String.format("bip39 seed, 2048 iterations: %dus before, %dus " +
+                    "now", legacyMicros, micros));
+        }
+    }
+
+    /**
+     * Bytes allocated by the thread so far, or -1 where the JVM does not report it.
+     */
+    private static long allocatedBytes(ThreadMXBean threads, long thread) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/**
+ * Encodes and decodes hash160s, tx hashes and wif keys through the old BigInteger based Base58,
+ * the current one and the one into caller arrays, and prints the time and, where the JVM reports
+ * thread allocation, the bytes allocated for each.
+ */
+public class Base58Benchmark {
+    private static final int Count = 20000;
+
+    public static void main(String[] args) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        Random random = new Random(7);
+        for (int size : new int[]{20, 32, 38}) {
+            byte[][] inputs = new byte[Count][size];
+            String[] encoded = new String[Count];
+            for (int i = 0; i < Count; i++) {
+                random.nextBytes(inputs[i]);
+                encoded[i] = Base58.encode(inputs[i]);
+            }
+            char[] chars = new char[Base58.maxEncodedLength(size)];
+            byte[] bytes = new byte[size + 1];
+            long[] nanos = new long[6];
+            long[] allocated = new long[6];
+            // the last round is measured, once everything is warmed up
+            for (int round = 0; round < 3; round++) {
+                for (int step = 0; step < 6; step++) {
+                    long before = allocatedBytes(threads, thread);
+                    long start = System.nanoTime();
+                    for (int i = 0; i < Count; i++) {
+                        switch (step) {
+                            case 0:
+                                Base58Test.legacyEncode(inputs[i]);
+                                break;
+                            case 1:
+                                Base58.encode(inputs[i]);
+                                break;
+                            case 2:
+                                Base58.encode(inputs[i], 0, size, chars, 0);
+                                break;
+                            case 3:
+                                Base58Test.legacyDecode(encoded[i]);
+                                break;
+                            case 4:
+                                Base58.decode(encoded[i]);
+                                break;
+                            default:
+                                Base58.decode(encoded[i], bytes, 0);
+                        }
+                    }
+                    nanos[step] = (System.nanoTime() - start) / Count;
+                    allocated[step] = before < 0 ? -1 : (allocatedBytes(threads, thread) -
+                            before) / Count;
+                }
+            }
+            System.out.println(String.format("%d bytes: encode %dns %dB before, %dns %dB now, " +
+                    "%dns %dB into chars; decode %dns %dB before, %dns %dB now, %dns %dB into " +
+                    "bytes", size, nanos[0], allocated[0], nanos[1], allocated[1], nanos[2],
+                    allocated[2], nanos[3], allocated[3], nanos[4], allocated[4], nanos[5],
+                    allocated[5]));
+        }
+    }
+
+    /**
+     * Bytes allocated by the thread so far, or -1 where the JVM does not report it.
+     */
+    private static long allocatedBytes(ThreadMXBean threads, long thread) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.utils;
+
+import net.bither.bitherj.core.Tx;
+
+import java.util.Collections;
+
+/**
+ * Fetches 200 raw txs from the local stub api of {@link RawTxFetcherTest}, one after the other
+ * as the history parser used to, in parallel, and in parallel batches, and prints the time of
+ * each.
+ */
+public class RawTxFetcherBenchmark {
+    public static void main(String[] args) throws Exception {
+        RawTxFetcherTest api = new RawTxFetcherTest();
+        api.setUp();
+        try {
+            RawTxFetcher.RawTxSource single = api.singleSource();
+            long start = System.currentTimeMillis();
+            for (String hash : api.hashes) {
+                for (byte[] raw : single.getRawTxs(Collections.singletonList(hash))) {
+                    new Tx(raw);
+                }
+            }
+            long sequentialMillis = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            new RawTxFetcher(api.singleSource()).getTxs(api.hashes);
+            long parallelMillis = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            new RawTxFetcher(api.batchSource()).getTxs(api.hashes);
+            long batchMillis = System.currentTimeMillis() - start;
+
+            System.out.println(String.format("%d raw txs at %dms latency: one by one %dms, " +
+                    "parallel %dms, parallel batches %dms", api.hashes.size(), RawTxFetcherTest
+                    .Latency, sequentialMillis, parallelMillis, batchMillis));
+        } finally {
+            api.tearDown();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.utils;
+
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashes tx sized payloads from 1, 2, 4 and 8 threads through the old single locked digest and
+ * through the per-thread hasher and prints the throughput of each.
+ */
+public class Sha256HasherBenchmark {
+    private static final int Payload = 250;
+    private static final long RunMillis = 300;
+
+    public static void main(String[] args) throws Exception {
+        final byte[] payload = new byte[Payload];
+        new Random(2).nextBytes(payload);
+        final MessageDigest shared = Sha256Hasher.newDigest();
+        // warm up the JIT before taking numbers
+        for (int i = 0; i < 100000; i++) {
+            Utils.doubleDigest(payload);
+        }
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            long legacy = run(threads, new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (shared) {
+                        shared.reset();
+                        shared.update(payload, 0, payload.length);
+                        shared.digest(shared.digest());
+                    }
+                }
+            });
+            long perThread = run(threads, new Runnable() {
+                private final ThreadLocal<byte[]> out = new ThreadLocal<byte[]>() {
+                    @Override
+                    protected byte[] initialValue() {
+                        return new byte[32];
+                    }
+                };
+
+                @Override
+                public void run() {
+                    Sha256Hasher.doubleDigestInto(payload, 0, payload.length, out.get(), 0);
+                }
+            });
+            System.out.println(String.format("sha256d %d threads: locked %d/s, per-thread %d/s",
+                    threads, legacy * 1000 / RunMillis, perThread * 1000 / RunMillis));
+        }
+    }
+
+    private static long run(int threads, final Runnable op) throws InterruptedException {
+        final AtomicLong count = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long[] deadline = new long[1];
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long n = 0;
+                    while (System.currentTimeMillis() < deadline[0]) {
+                        for (int j = 0; j < 64; j++) {
+                            op.run();
+                        }
+                        n += 64;
+                    }
+                    count.addAndGet(n);
+                    done.countDown();
+                }
+            }.start();
+        }
+        deadline[0] = System.currentTimeMillis() + RunMillis;
+        start.countDown();
+        done.await();
+        return count.get();
+    }
+}
@@ -0,0 +1,21 @@
+package net.bither.bitherj.api;
+
+import net.bither.bitherj.api.http.BitherUrl;
+import net.bither.bitherj.api.http.HttpsGetResponse;
+import net.bither.bitherj.utils.Utils;
+
+/**
+ * The raw tx of one hash, hex encoded, from blockchain.info.
+ */
+public class BlockChainRawTxApi extends HttpsGetResponse<String> {
+
+    @Override
+    public void setResult(String response) throws Exception {
+        this.result = response;
+    }
+
+    public BlockChainRawTxApi(String txHash) {
+        String url = Utils.format(BitherUrl.BITHER_BC_RAW_TX, txHash);
+        setUrl(url);
+    }
+}
@@ -23,13 +23,30 @@ import javax.net.ssl.TrustManager;
 public final class ConnectHttps {
     private static final Logger log = LoggerFactory.getLogger(ConnectHttps.class);
 
+    private static TrustCert trustedCert;
+    private static SSLContext sslContext;
+
     /**
      * Utility class should not have a public constructor
      */
     private ConnectHttps() {
     }
 
-    public static void trustCerts(TrustCert cert) {
+    /**
+     * The context trusting the last cert given to {@link #trustCerts(TrustCert)}, null before.
+     */
+    public static synchronized SSLContext getSSLContext() {
+        return sslContext;
+    }
+
+    /**
+     * Trusts the cert's key store on top of the system's for https connections. The key store
+     * can only be read once, so trusting the same cert again does nothing.
+     */
+    public static synchronized void trustCerts(TrustCert cert) {
+        if (cert == trustedCert) {
+            return;
+        }
         try {
             KeyStore localTrustStore = cert.getKeyStore();
             if (localTrustStore == null) {
@@ -42,6 +59,8 @@ public final class ConnectHttps {
 
             sc.init(null, new TrustManager[]{trustManager}, new java.security.SecureRandom());
             HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
+            sslContext = sc;
+            trustedCert = cert;
         } catch (Exception e) {
             e.printStackTrace();
             log.error("can not load key store https will be disabled");
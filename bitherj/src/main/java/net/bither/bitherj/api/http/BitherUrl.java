@@ -56,6 +56,7 @@ public class BitherUrl {
     public static final String BITHER_BC_GET_BY_ADDRESS = BITHER_DNS.BITHER_BLOCKCHAIN + "rawaddr/%s";
     public static final String BITHER_BC_LATEST_BLOCK = BITHER_DNS.BITHER_BLOCKCHAIN + "latestblock";
     public static final String BITHER_BC_TX_INDEX = BITHER_DNS.BITHER_BLOCKCHAIN + "rawtx/%d?format=hex";
+    public static final String BITHER_BC_RAW_TX = BITHER_DNS.BITHER_BLOCKCHAIN + "rawtx/%s?format=hex";
 
     // bither chainBtc
     public static final String BITHER_CHAINBTC_GET_BY_ADDRESS = BITHER_DNS.BITHER_CHAINBTC_URL + "api/v1/address/%s";
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.api.http;
+
+import net.bither.bitherj.AbstractApp;
+import net.bither.bitherj.api.ConnectHttps;
+import net.bither.bitherj.api.http.HttpSetting.HttpType;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * The http clients all api calls go through, one for each {@link HttpType}. A client keeps a
+ * bounded pool of keep-alive connections, so only the first call to a host pays for the TCP and
+ * TLS handshakes, and as all https connections of a client come from one socket factory, new
+ * ones resume the TLS session. Responses are asked for gzipped and decoded on the fly.
+ * <p/>
+ * The clients keep no cookies of their own, every call brings the store it should use. Latency
+ * and errors are counted per endpoint, the host and path with the ids in it masked.
+ */
+public final class HttpClientPool {
+    public static final int MaxConnections = 24;
+    public static final int MaxConnectionsPerRoute = 6;
+    public static final int KeepAliveSeconds = 30;
+
+    private static final EnumMap<HttpType, DefaultHttpClient> clients = new EnumMap<HttpType,
+            DefaultHttpClient>(HttpType.class);
+    private static final ConcurrentHashMap<String, EndpointStats> endpointStats = new
+            ConcurrentHashMap<String, EndpointStats>();
+
+    private HttpClientPool() {
+    }
+
+    public static class EndpointStats {
+        private final AtomicLong requestCount = new AtomicLong();
+        private final AtomicLong errorCount = new AtomicLong();
+        private final AtomicLong totalMillis = new AtomicLong();
+        private final AtomicLong maxMillis = new AtomicLong();
+
+        void record(long millis, boolean error) {
+            requestCount.incrementAndGet();
+            if (error) {
+                errorCount.incrementAndGet();
+            }
+            totalMillis.addAndGet(millis);
+            long max = maxMillis.get();
+            while (millis > max && !maxMillis.compareAndSet(max, millis)) {
+                max = maxMillis.get();
+            }
+        }
+
+        public long getRequestCount() {
+            return requestCount.get();
+        }
+
+        /**
+         * Requests that failed to connect or read, or got a status of 400 and above.
+         */
+        public long getErrorCount() {
+            return errorCount.get();
+        }
+
+        public long getTotalMillis() {
+            return totalMillis.get();
+        }
+
+        public long getMaxMillis() {
+            return maxMillis.get();
+        }
+
+        public long getAverageMillis() {
+            long count = requestCount.get();
+            return count == 0 ? 0 : totalMillis.get() / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, %d errors, avg %dms, max %dms",
+                    getRequestCount(), getErrorCount(), getAverageMillis(), getMaxMillis());
+        }
+    }
+
+    public interface BodyReader {
+        /**
+         * Reads the body of a 200 response as it arrives. Whatever is left unread is skipped.
+         */
+        void read(Reader reader) throws Exception;
+    }
+
+    static class Response {
+        private final int code;
+        private final String body;
+
+        Response(int code, String body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        int getCode() {
+            return code;
+        }
+
+        /**
+         * The whole body, null when it went to a {@link BodyReader}.
+         */
+        String getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Runs the request and reads the whole response, which puts the connection back into the
+     * pool. A null cookie store means the call sends and keeps no cookies.
+     */
+    static Response execute(HttpType type, HttpUriRequest request, CookieStore cookieStore)
+            throws Exception {
+        return execute(type, request, cookieStore, null);
+    }
+
+    /**
+     * Same as {@link #execute(HttpType, HttpUriRequest, CookieStore)}, but the body of a 200
+     * response goes to the reader as it arrives instead of being read whole first.
+     */
+    static Response execute(HttpType type, HttpUriRequest request, CookieStore cookieStore,
+                            BodyReader bodyReader) throws Exception {
+        DefaultHttpClient client = getClient(type);
+        // connections the server has closed by now would fail the request
+        client.getConnectionManager().closeExpiredConnections();
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(ClientContext.COOKIE_STORE, cookieStore != null ? cookieStore :
+                new BasicCookieStore());
+        long start = System.currentTimeMillis();
+        boolean error = true;
+        try {
+            HttpResponse response = client.execute(request, context);
+            HttpEntity entity = response.getEntity();
+            int code = response.getStatusLine().getStatusCode();
+            String body;
+            if (bodyReader != null && code == 200 && entity != null) {
+                bodyReader.read(new InputStreamReader(entity.getContent(), HttpSetting
+                        .REQUEST_ENCODING));
+                // drains what the reader left, so the connection can be reused
+                EntityUtils.consume(entity);
+                body = null;
+            } else {
+                body = entity == null ? "" : EntityUtils.toString(entity, HttpSetting
+                        .REQUEST_ENCODING);
+            }
+            error = code >= 400;
+            return new Response(code, body);
+        } catch (Exception e) {
+            request.abort();
+            throw e;
+        } finally {
+            getStats(endpointOf(request.getURI())).record(System.currentTimeMillis() - start,
+                    error);
+        }
+    }
+
+    /**
+     * The counters of each endpoint called so far, by host and masked path.
+     */
+    public static Map<String, EndpointStats> getEndpointStats() {
+        return Collections.unmodifiableMap(endpointStats);
+    }
+
+    public static void resetEndpointStats() {
+        endpointStats.clear();
+    }
+
+    /**
+     * The host and path of the uri, with every path segment that looks like an id, an address
+     * or a hash masked, so the calls of one api share their counters.
+     */
+    static String endpointOf(URI uri) {
+        StringBuilder endpoint = new StringBuilder(String.valueOf(uri.getHost()));
+        String path = uri.getPath();
+        if (path != null) {
+            for (String segment : path.split("/")) {
+                if (segment.length() == 0) {
+                    continue;
+                }
+                endpoint.append('/').append(isId(segment) ? "*" : segment);
+            }
+        }
+        return endpoint.toString();
+    }
+
+    private static boolean isId(String segment) {
+        int digits = 0;
+        for (int i = 0; i < segment.length(); i++) {
+            if (Character.isDigit(segment.charAt(i))) {
+                digits++;
+            }
+        }
+        // keeps versions like v1 apart from numbers, addresses and hashes
+        return digits == segment.length() || (digits > 0 && segment.length() > 3);
+    }
+
+    private static EndpointStats getStats(String endpoint) {
+        EndpointStats stats = endpointStats.get(endpoint);
+        if (stats == null) {
+            EndpointStats created = new EndpointStats();
+            stats = endpointStats.putIfAbsent(endpoint, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    private static synchronized DefaultHttpClient getClient(HttpType type) {
+        DefaultHttpClient client = clients.get(type);
+        if (client == null) {
+            client = newClient();
+            clients.put(type, client);
+        }
+        return client;
+    }
+
+    private static DefaultHttpClient newClient() {
+        SchemeRegistry registry = SchemeRegistryFactory.createDefault();
+        if (AbstractApp.trustCert != null) {
+            ConnectHttps.trustCerts(AbstractApp.trustCert);
+        }
+        SSLContext sslContext = ConnectHttps.getSSLContext();
+        if (sslContext != null) {
+            registry.register(new Scheme("https", 443, new SSLSocketFactory(sslContext)));
+        }
+        PoolingClientConnectionManager manager = new PoolingClientConnectionManager(registry);
+        manager.setMaxTotal(MaxConnections);
+        manager.setDefaultMaxPerRoute(MaxConnectionsPerRoute);
+
+        DefaultHttpClient client = new DefaultHttpClient(manager);
+        HttpParams params = client.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, HttpSetting.HTTP_CONNECTION_TIMEOUT);
+        HttpConnectionParams.setSoTimeout(params, HttpSetting.HTTP_SO_TIMEOUT);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        client.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            private final DefaultConnectionKeepAliveStrategy serverStrategy = new
+                    DefaultConnectionKeepAliveStrategy();
+
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                // what the server allows, but no longer than we want idle sockets around
+                long duration = serverStrategy.getKeepAliveDuration(response, context);
+                if (duration <= 0 || duration > KeepAliveSeconds * 1000) {
+                    duration = KeepAliveSeconds * 1000;
+                }
+                return duration;
+            }
+        });
+        client.addRequestInterceptor(new RequestAcceptEncoding());
+        client.addResponseInterceptor(new ResponseContentEncoding());
+        return client;
+    }
+}
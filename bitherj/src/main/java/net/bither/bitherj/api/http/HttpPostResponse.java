@@ -1 +1 @@
-/* * Copyright 2014 http://Bither.net * * Licensed under the Apache License, Version 2.0 (the "License"); * you may not use this file except in compliance with the License. * You may obtain a copy of the License at * *    http://www.apache.org/licenses/LICENSE-2.0 * * Unless required by applicable law or agreed to in writing, software * distributed under the License is distributed on an "AS IS" BASIS, * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. * See the License for the specific language governing permissions and * limitations under the License. */package net.bither.bitherj.api.http;import org.apache.http.HttpEntity;import org.apache.http.HttpResponse;import org.apache.http.client.methods.HttpPost;public abstract class HttpPostResponse<T> extends BaseHttpResponse<T> {    public void handleHttpPost() throws Exception {        setHttpClient();        try {            HttpPost httpPost = new HttpPost(getUrl());            httpPost.setHeader("Accept", "application/json");            httpPost.setEntity(getHttpEntity());            HttpResponse httpResponse = getHttpClient().execute(httpPost);            String response = getReponse(httpResponse);            setResult(response);        } catch (Exception e) {            throw e;        } finally {            getHttpClient().getConnectionManager().shutdown();        }    }    public abstract HttpEntity getHttpEntity() throws Exception;}
\ No newline at end of file
+/* * Copyright 2014 http://Bither.net * * Licensed under the Apache License, Version 2.0 (the "License"); * you may not use this file except in compliance with the License. * You may obtain a copy of the License at * *    http://www.apache.org/licenses/LICENSE-2.0 * * Unless required by applicable law or agreed to in writing, software * distributed under the License is distributed on an "AS IS" BASIS, * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. * See the License for the specific language governing permissions and * limitations under the License. */package net.bither.bitherj.api.http;import org.apache.http.HttpEntity;import org.apache.http.client.methods.HttpPost;public abstract class HttpPostResponse<T> extends BaseHttpResponse<T> {    public void handleHttpPost() throws Exception {        HttpPost httpPost = new HttpPost(getUrl());        httpPost.setHeader("Accept", "application/json");        httpPost.setEntity(getHttpEntity());        String response = getReponse(httpPost);        setResult(response);    }    public abstract HttpEntity getHttpEntity() throws Exception;}
\ No newline at end of file
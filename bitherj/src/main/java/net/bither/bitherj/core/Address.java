@@ -32,9 +32,7 @@ import org.spongycastle.crypto.params.KeyParameter;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import javax.annotation.Nonnull;
 
@@ -136,57 +134,7 @@ public class Address implements Comparable<Address> {
     }
 
     public void updateBalance() {
-        this.balance = AbstractDb.txProvider.getConfirmedBalanceWithAddress(getAddress())
-                + this.calculateUnconfirmedBalance();
-    }
-
-    private long calculateUnconfirmedBalance() {
-        long balance = 0;
-
-        List<Tx> txs = AbstractDb.txProvider.getUnconfirmedTxWithAddress(this.address);
-        Collections.sort(txs);
-
-        Set<byte[]> invalidTx = new HashSet<byte[]>();
-        Set<OutPoint> spentOut = new HashSet<OutPoint>();
-        Set<OutPoint> unspendOut = new HashSet<OutPoint>();
-
-        for (int i = txs.size() - 1; i >= 0; i--) {
-            Set<OutPoint> spent = new HashSet<OutPoint>();
-            Tx tx = txs.get(i);
-
-            Set<byte[]> inHashes = new HashSet<byte[]>();
-            for (In in : tx.getIns()) {
-                spent.add(new OutPoint(in.getPrevTxHash(), in.getPrevOutSn()));
-                inHashes.add(in.getPrevTxHash());
-            }
-
-            if (tx.getBlockNo() == Tx.TX_UNCONFIRMED
-                    && (Utils.isIntersects(spent, spentOut) || Utils.isIntersects(inHashes, invalidTx))) {
-                invalidTx.add(tx.getTxHash());
-                continue;
-            }
-
-            spentOut.addAll(spent);
-            for (Out out : tx.getOuts()) {
-                if (Utils.compareString(this.getAddress(), out.getOutAddress())) {
-                    unspendOut.add(new OutPoint(tx.getTxHash(), out.getOutSn()));
-                    balance += out.getOutValue();
-                }
-            }
-            spent.clear();
-            spent.addAll(unspendOut);
-            spent.retainAll(spentOut);
-            for (OutPoint o : spent) {
-                Tx tx1 = AbstractDb.txProvider.getTxDetailByTxHash(o.getTxHash());
-                unspendOut.remove(o);
-                for (Out out : tx1.getOuts()) {
-                    if (out.getOutSn() == o.getOutSn()) {
-                        balance -= out.getOutValue();
-                    }
-                }
-            }
-        }
-        return balance;
+        this.balance = UtxoSet.getInstance().getBalance(getAddress());
     }
 
 
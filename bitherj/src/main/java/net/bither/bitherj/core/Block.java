@@ -221,10 +221,13 @@ public class Block extends Message {
     }
 
     public List<Tx> getTransactions() {
+        maybeParse();
         return this.transactions;
     }
 
     public void setTransactions(List<Tx> transactions) {
+        maybeParse();
+        transactionBytesValid = false;
         this.transactions = transactions;
     }
 
@@ -434,6 +437,7 @@ public class Block extends Message {
         // an invalid block, but if we didn't validate this then an untrusted man-in-the-middle could obtain the next
         // valid block from the network and simply replace the transactions in it with their own fictional
         // transactions that reference spent or non-existant inputs.
+        maybeParse();
         if (transactions.isEmpty())
             throw new VerificationException("Block had no transactions");
         if (this.getOptimalEncodingMessageSize() > MAX_BLOCK_SIZE)
@@ -656,16 +660,32 @@ public class Block extends Message {
                     "Performing lite parse of block transaction as block was initialised from byte array " +
                             "without providing length.  This should never need to happen."
             );
+        }
+
+        parseHeader();
+        cursor = offset + HEADER_SIZE;
+        if (bytes.length == cursor || bytes[cursor] == 0) {
+            // This message is just a header, with no transactions or an empty list of them.
             parseTransactions();
             length = cursor - offset;
-        } else {
-            transactionBytesValid = !transactionsParsed || false && length > HEADER_SIZE;
+            return;
         }
-        headerBytesValid = !headerParsed || false && length >= HEADER_SIZE;
+        // Only find where the transactions end, they are parsed by parseLazily() when first asked
+        // for and until then the block is serialized with its transaction bytes.
+        long numTransactions = readVarInt();
+        for (long i = 0; i < numTransactions; i++) {
+            cursor += Tx.calcLength(bytes, cursor);
+        }
+        length = cursor - offset;
+        transactionBytesValid = true;
+        parsed = false;
+    }
 
-        parseHeader();
+    @Override
+    protected void parseLazily() throws ProtocolException {
         parseTransactions();
-        length = cursor - offset;
+        // the txs serialize from their own bytes until they change
+        transactionBytesValid = false;
     }
 
     public int getOptimalEncodingMessageSize() {
@@ -760,6 +780,7 @@ public class Block extends Message {
     protected void unCache() {
         // Since we have alternate uncache methods to use internally this will only ever be called by a child
         // transaction so we only need to invalidate that part of the cache.
+        maybeParse();
         unCacheTransactions();
     }
 
@@ -36,6 +36,9 @@ public class BlockChain {
     protected HashMap<byte[], Block> singleBlocks;
     protected Block lastBlock;
     protected Block lastOrphanBlock;
+    // recent headers, so relaying blocks does not need a query per prev lookup
+    private final HeaderIndex headerIndex;
+    private final HeaderPipeline headerPipeline = new HeaderPipeline();
 
     BlockChain() {
         AbstractDb.blockProvider.cleanOldBlock();
@@ -43,6 +46,8 @@ public class BlockChain {
         this.singleBlocks = new HashMap<byte[], Block>();
         this.lastBlock = AbstractDb.blockProvider.getLastBlock();
         this.lastOrphanBlock = AbstractDb.blockProvider.getLastOrphanBlock();
+        this.headerIndex = new HeaderIndex();
+        this.headerIndex.load(AbstractDb.blockProvider.getLimitBlocks(HeaderIndex.LoadLimit));
     }
 
     public static BlockChain getInstance() {
@@ -62,6 +67,7 @@ public class BlockChain {
 
     public void addBlocks(List<Block> blocks) {
         AbstractDb.blockProvider.addBlocks(blocks);
+        headerIndex.putAll(blocks);
     }
 
     public Block getLastBlock() {
@@ -69,7 +75,34 @@ public class BlockChain {
     }
 
     public Block getBlock(byte[] blockHash) {
-        return AbstractDb.blockProvider.getBlock(blockHash);
+        Block block = headerIndex.get(blockHash);
+        if (block == null) {
+            block = AbstractDb.blockProvider.getBlock(blockHash);
+        }
+        return block;
+    }
+
+    private Block getMainChainBlock(byte[] blockHash) {
+        Block block = headerIndex.getMainChainBlock(blockHash);
+        if (block == null) {
+            block = AbstractDb.blockProvider.getMainChainBlock(blockHash);
+        }
+        return block;
+    }
+
+    /**
+     * Returns the main chain block steps below b, from the index when it still holds that
+     * height, otherwise by walking back through the database.
+     */
+    private Block getMainChainAncestor(Block b, int steps) {
+        Block ancestor = headerIndex.getMain(b.getBlockNo() - steps);
+        if (ancestor != null) {
+            return ancestor;
+        }
+        for (int i = 0; b != null && i < steps; i++) {
+            b = getMainChainBlock(b.getBlockPrev());
+        }
+        return b;
     }
 
     public int getBlockCount() {
@@ -87,9 +120,7 @@ public class BlockChain {
             locators.add(b.getBlockHash());
             if (++start >= 10) step *= 2;
 
-            for (int i = 0; b != null && i < step; i++) {
-                b = AbstractDb.blockProvider.getMainChainBlock(b.getBlockPrev());
-            }
+            b = getMainChainAncestor(b, step);
         }
         locators.add(BitherjSettings.GENESIS_BLOCK_HASH);
 
@@ -114,10 +145,17 @@ public class BlockChain {
                 AbstractDb.txProvider.unConfirmTxByBlockNo(block.getBlockNo());
             }
         }
+        headerIndex.removeAbove(blockNo);
         this.lastBlock = AbstractDb.blockProvider.getLastBlock();
         return true;
     }
 
+    /**
+     * Adds a batch of headers that should extend the main chain, in three stages: the headers
+     * are hashed and their proof of work checked in parallel, then linked and checked for
+     * difficulty in order up to the first one that fails, and the linked ones are stored in
+     * one transaction. Returns how many were added.
+     */
     public int relayedBlockHeadersForMainChain(List<Block> blocks) {
         if (blocks == null || blocks.size() == 0) {
             return 0;
@@ -128,7 +166,10 @@ public class BlockChain {
             log.warn("pre block is null");
             return 0;
         }
-        for (int i = 0; i < blocks.size(); i++) {
+        int verified = headerPipeline.verify(blocks);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < verified; i++) {
             Block block = blocks.get(i);
             if (!Arrays.equals(prev.getBlockHash(), block.getBlockPrev())) {
                 Block alreadyIn = getBlock(block.getBlockHash());
@@ -142,7 +183,7 @@ public class BlockChain {
             }
             block.setBlockNo(prev.getBlockNo() + 1);
             try {
-                block.verifyDifficultyFromPreviousBlock(prev);
+                verifyDifficulty(block, prev);
             } catch (Exception e) {
                 e.printStackTrace();
                 break;
@@ -152,19 +193,39 @@ public class BlockChain {
             blocksToAdd.add(block);
             prev = block;
         }
+        headerPipeline.record(HeaderPipeline.StageLink, System.nanoTime() - start);
+
+        start = System.nanoTime();
         if (blocksToAdd.size() > 0) {
             addBlocks(blocksToAdd);
             lastBlock = blocksToAdd.get(blocksToAdd.size() - 1);
         }
+        headerPipeline.record(HeaderPipeline.StageStore, System.nanoTime() - start);
         return blocksToAdd.size();
     }
 
+    public long getHeaderVerifyMillis() {
+        return headerPipeline.getTotalMillis(HeaderPipeline.StageVerify);
+    }
+
+    public long getHeaderLinkMillis() {
+        return headerPipeline.getTotalMillis(HeaderPipeline.StageLink);
+    }
+
+    public long getHeaderStoreMillis() {
+        return headerPipeline.getTotalMillis(HeaderPipeline.StageStore);
+    }
+
+    public String getHeaderSyncTimings() {
+        return headerPipeline.toString();
+    }
+
     /*
      * if result is true, means the block is in main chain, if result is false, means the block is single
      * or orphan.
      * */
     public boolean relayedBlock(Block block) throws VerificationException {
-        Block prev = AbstractDb.blockProvider.getBlock(block.getBlockPrev());
+        Block prev = getBlock(block.getBlockPrev());
 
         if (prev == null) {
 
@@ -198,7 +259,7 @@ public class BlockChain {
 
 
         // verify block difficulty
-        block.verifyDifficultyFromPreviousBlock(prev);
+        verifyDifficulty(block, prev);
 //        if (!block.verifyDifficultyFromPreviousBlock(prev)) {
 //            callback(block, NO);
 //            return;
@@ -241,7 +302,7 @@ public class BlockChain {
         int rollbackBlockNo = 0;
         if (Arrays.equals(first.getBlockPrev(), this.getLastBlock().getBlockHash())) {
             prev = this.getLastBlock();
-        } else if (AbstractDb.blockProvider.getMainChainBlock(first.getBlockPrev()) != null) {
+        } else if (getMainChainBlock(first.getBlockPrev()) != null) {
             prev = this.getSameParent(first, this.getLastBlock());
             rollbackBlockNo = prev.getBlockNo();
         }
@@ -256,6 +317,12 @@ public class BlockChain {
             try {
                 int transitionTime = 0;
                 if (block.getBlockNo() % BitherjSettings.BLOCK_DIFFICULTY_INTERVAL == 0) {
+                    // the batch is shorter than an interval, so the block an interval back is
+                    // below the fork point and on the stored main chain
+                    transitionTime = headerIndex.getMainTime(block.getBlockNo() - BitherjSettings
+                            .BLOCK_DIFFICULTY_INTERVAL);
+                }
+                if (transitionTime < 0) {
                     // We need to find a block far back in the chain. It's OK that this is expensive because it only occurs every
                     // two weeks after the initial block chain download.
                     long now = System.currentTimeMillis();
@@ -305,13 +372,33 @@ public class BlockChain {
     private boolean inMainChain(Block block) {
         Block b = this.lastBlock;
         while (b != null && b.getBlockNo() > block.getBlockNo()) {
-            b = AbstractDb.blockProvider.getBlock(b.getBlockPrev());
+            b = getBlock(b.getBlockPrev());
         }
         return b != null && Arrays.equals(b.getBlockHash(), block.getBlockHash());
     }
 
     private void addBlock(Block block) {
         AbstractDb.blockProvider.addBlock(block);
+        headerIndex.put(block);
+    }
+
+    /**
+     * Checks the difficulty of block against prev. At a transition the block an interval back
+     * is found by following prev links through the index, the database is only walked when
+     * the index does not reach that far.
+     */
+    private void verifyDifficulty(Block block, Block prev) {
+        if ((prev.getBlockNo() + 1) % BitherjSettings.BLOCK_DIFFICULTY_INTERVAL != 0) {
+            block.verifyDifficultyFromPreviousBlock(prev, 0);
+            return;
+        }
+        int transitionTime = headerIndex.ancestorTime(prev.getBlockHash(), BitherjSettings
+                .BLOCK_DIFFICULTY_INTERVAL - 1);
+        if (transitionTime < 0) {
+            block.verifyDifficultyFromPreviousBlock(prev);
+        } else {
+            block.verifyDifficultyFromPreviousBlock(prev, transitionTime);
+        }
     }
 
     private void addOrphan(Block block) {
@@ -326,10 +413,10 @@ public class BlockChain {
 
         while (b1 != null && b2 != null && !Arrays.equals(b1.getBlockHash(), b2.getBlockHash())) {
             if (b1.getBlockNo() == 0 || b1.getBlockNo() >= b2.getBlockNo()) {
-                b1 = AbstractDb.blockProvider.getBlock(b1.getBlockPrev());
+                b1 = getBlock(b1.getBlockPrev());
             }
             if (b1.getBlockNo() < b2.getBlockNo()) {
-                b2 = AbstractDb.blockProvider.getBlock(b2.getBlockPrev());
+                b2 = getBlock(b2.getBlockPrev());
             }
         }
         return b1;
@@ -341,14 +428,17 @@ public class BlockChain {
         while (!Arrays.equals(b.getBlockHash(), forkStartBlock.getBlockHash())) {
             next = AbstractDb.blockProvider.getOrphanBlockByPrevHash(b.getBlockPrev());
             AbstractDb.blockProvider.updateBlock(b.getBlockHash(), false);
-            b = AbstractDb.blockProvider.getMainChainBlock(b.getBlockPrev());
+            headerIndex.setMain(b.getBlockHash(), false);
+            b = getMainChainBlock(b.getBlockPrev());
             this.lastBlock = b;
         }
         b = next;
         AbstractDb.blockProvider.updateBlock(next.getBlockHash(), true);
+        headerIndex.setMain(next.getBlockHash(), true);
         this.lastBlock = next;
         while (!Arrays.equals(b.getBlockHash(), lastBlock.getBlockPrev())) {
             AbstractDb.blockProvider.updateBlock(b.getBlockHash(), true);
+            headerIndex.setMain(b.getBlockHash(), true);
             this.lastBlock = b;
             b = AbstractDb.blockProvider.getOrphanBlockByPrevHash(b.getBlockHash());
         }
@@ -25,7 +25,9 @@ import net.bither.bitherj.utils.VarInt;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Collection;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -190,61 +192,135 @@ public class BloomFilter extends Message {
         return (x << r) | (x >>> (32 - r));
     }
 
-    private int hash(int hashNum, byte[] object) {
-        // The following is MurmurHash3 (x86_32), see http://code.google
-        // .com/p/smhasher/source/browse/trunk/MurmurHash3.cpp
-        int h1 = (int) (hashNum * 0xFBA4C795L + nTweak);
-        final int c1 = 0xcc9e2d51;
-        final int c2 = 0x1b873593;
+    // MurmurHash3 (x86_32), see http://code.google.com/p/smhasher/source/browse/trunk/MurmurHash3
+    // .cpp. Only the seed differs between the hash functions, so the input blocks are read and
+    // mixed once into this scratch and then run through each seed's chain.
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
 
-        int numBlocks = (object.length / 4) * 4;
-        // body
+    private static final ThreadLocal<int[]> mixedBlocks = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[32];
+        }
+    };
+
+    private static int mixK1(int k1) {
+        k1 *= C1;
+        k1 = rotateLeft32(k1, 15);
+        k1 *= C2;
+        return k1;
+    }
+
+    /**
+     * Mixes the 0 to 3 bytes after the last block, given little endian in tail.
+     */
+    private static int mixTail(int tail, int tailLength) {
+        return tailLength == 0 ? 0 : mixK1(tail);
+    }
+
+    private static int[] blocksFor(int length) {
+        int[] blocks = mixedBlocks.get();
+        if (blocks.length < (length >>> 2) + 1) {
+            blocks = new int[(length >>> 2) + 1];
+            mixedBlocks.set(blocks);
+        }
+        return blocks;
+    }
+
+    /**
+     * Reads object[offset, offset + length) into mixed blocks, the last entry holds the mixed
+     * tail bytes.
+     */
+    private static int[] mix(byte[] object, int offset, int length) {
+        int[] blocks = blocksFor(length);
+        int numBlocks = length >>> 2;
+        int p = offset;
         for (int i = 0;
              i < numBlocks;
-             i += 4) {
-            int k1 = (object[i] & 0xFF) |
-                    ((object[i + 1] & 0xFF) << 8) |
-                    ((object[i + 2] & 0xFF) << 16) |
-                    ((object[i + 3] & 0xFF) << 24);
-
-            k1 *= c1;
-            k1 = rotateLeft32(k1, 15);
-            k1 *= c2;
-
-            h1 ^= k1;
-            h1 = rotateLeft32(h1, 13);
-            h1 = h1 * 5 + 0xe6546b64;
+             i++, p += 4) {
+            blocks[i] = mixK1((object[p] & 0xFF) |
+                    ((object[p + 1] & 0xFF) << 8) |
+                    ((object[p + 2] & 0xFF) << 16) |
+                    ((object[p + 3] & 0xFF) << 24));
         }
-
-        int k1 = 0;
-        switch (object.length & 3) {
-            case 3:
-                k1 ^= (object[numBlocks + 2] & 0xff) << 16;
-                // Fall through.
-            case 2:
-                k1 ^= (object[numBlocks + 1] & 0xff) << 8;
-                // Fall through.
-            case 1:
-                k1 ^= (object[numBlocks] & 0xff);
-                k1 *= c1;
-                k1 = rotateLeft32(k1, 15);
-                k1 *= c2;
-                h1 ^= k1;
-                // Fall through.
-            default:
-                // Do nothing.
-                break;
+        int tail = 0;
+        for (int i = (length & 3) - 1;
+             i >= 0;
+             i--) {
+            tail = (tail << 8) | (object[p + i] & 0xff);
         }
+        blocks[numBlocks] = mixTail(tail, length & 3);
+        return blocks;
+    }
 
-        // finalization
-        h1 ^= object.length;
-        h1 ^= h1 >>> 16;
-        h1 *= 0x85ebca6b;
-        h1 ^= h1 >>> 13;
-        h1 *= 0xc2b2ae35;
-        h1 ^= h1 >>> 16;
+    private static int[] mix(ByteBuffer object) {
+        if (object.hasArray()) {
+            return mix(object.array(), object.arrayOffset() + object.position(), object
+                    .remaining());
+        }
+        int length = object.remaining();
+        int[] blocks = blocksFor(length);
+        int numBlocks = length >>> 2;
+        int p = object.position();
+        for (int i = 0;
+             i < numBlocks;
+             i++, p += 4) {
+            blocks[i] = mixK1((object.get(p) & 0xFF) |
+                    ((object.get(p + 1) & 0xFF) << 8) |
+                    ((object.get(p + 2) & 0xFF) << 16) |
+                    ((object.get(p + 3) & 0xFF) << 24));
+        }
+        int tail = 0;
+        for (int i = (length & 3) - 1;
+             i >= 0;
+             i--) {
+            tail = (tail << 8) | (object.get(p + i) & 0xff);
+        }
+        blocks[numBlocks] = mixTail(tail, length & 3);
+        return blocks;
+    }
 
-        return (int) ((h1 & 0xFFFFFFFFL) % (data.length * 8));
+    /**
+     * Runs the mixed blocks through every hash function and checks, or with insert also sets,
+     * the bits they point at. Returns true when all bits were set already. Without insert this
+     * stops at the first clear bit.
+     */
+    private boolean probe(int[] blocks, int length, boolean insert) {
+        int numBlocks = length >>> 2;
+        long bitCount = data.length * 8L;
+        boolean present = true;
+        for (int hashNum = 0;
+             hashNum < hashFuncs;
+             hashNum++) {
+            int h1 = (int) (hashNum * 0xFBA4C795L + nTweak);
+            for (int i = 0;
+                 i < numBlocks;
+                 i++) {
+                h1 ^= blocks[i];
+                h1 = rotateLeft32(h1, 13);
+                h1 = h1 * 5 + 0xe6546b64;
+            }
+            h1 ^= blocks[numBlocks];
+
+            // finalization
+            h1 ^= length;
+            h1 ^= h1 >>> 16;
+            h1 *= 0x85ebca6b;
+            h1 ^= h1 >>> 13;
+            h1 *= 0xc2b2ae35;
+            h1 ^= h1 >>> 16;
+
+            int index = (int) ((h1 & 0xFFFFFFFFL) % bitCount);
+            if (!Utils.checkBitLE(data, index)) {
+                if (!insert) {
+                    return false;
+                }
+                present = false;
+                Utils.setBitLE(data, index);
+            }
+        }
+        return present;
     }
 
     /**
@@ -253,24 +329,65 @@ public class BloomFilter extends Message {
      * false-positive.
      */
     public boolean contains(byte[] object) {
-        for (int i = 0;
-             i < hashFuncs;
-             i++) {
-            if (!Utils.checkBitLE(data, hash(i, object))) {
-                return false;
+        return contains(object, 0, object.length);
+    }
+
+    public boolean contains(byte[] object, int offset, int length) {
+        return probe(mix(object, offset, length), length, false);
+    }
+
+    /**
+     * Checks the remaining bytes of object, its position is left unchanged.
+     */
+    public boolean contains(ByteBuffer object) {
+        return probe(mix(object), object.remaining(), false);
+    }
+
+    /**
+     * Returns true if any of the given objects matches the filter.
+     */
+    public boolean containsAny(Collection<byte[]> objects) {
+        for (byte[] object : objects) {
+            if (contains(object)) {
+                return true;
             }
         }
-        return true;
+        return false;
     }
 
     /**
      * Insert the given arbitrary data into the filter
      */
     public void insert(byte[] object) {
-        for (int i = 0;
-             i < hashFuncs;
-             i++)
-            Utils.setBitLE(data, hash(i, object));
+        insert(object, 0, object.length);
+    }
+
+    /**
+     * Inserts object[offset, offset + length). Returns false if the filter matched it already.
+     */
+    public boolean insert(byte[] object, int offset, int length) {
+        return !probe(mix(object, offset, length), length, true);
+    }
+
+    /**
+     * Inserts the remaining bytes of object, its position is left unchanged. Returns false if
+     * the filter matched it already.
+     */
+    public boolean insert(ByteBuffer object) {
+        return !probe(mix(object), object.remaining(), true);
+    }
+
+    /**
+     * Inserts all objects and returns how many of them the filter did not match before.
+     */
+    public int insertAll(Collection<byte[]> objects) {
+        int inserted = 0;
+        for (byte[] object : objects) {
+            if (insert(object, 0, object.length)) {
+                inserted++;
+            }
+        }
+        return inserted;
     }
 
     /**
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.core;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Picks the outs a tx spends, from the values and spending sizes of the candidates alone. The
+ * strategies are tried in order until one finds a selection:
+ * <ul>
+ * <li>{@link BranchAndBound} looks for outs paying the amount and the fee with too little left
+ * over for a change out,</li>
+ * <li>{@link Knapsack} approximates the smallest outs that leave at least the minimum change,</li>
+ * <li>{@link LargestFirst} takes the largest outs until they are enough.</li>
+ * </ul>
+ * The fee is the one the tx builders pay, the fee base for each started 1000 bytes. While
+ * searching every out is priced at its share of that, its size times the fee base over 1000,
+ * which never falls short of the fee of the whole tx. The searches stop with the best selection
+ * found so far once the time budget is spent.
+ */
+public class CoinSelector {
+    public static final long DefaultTimeBudgetMillis = 100;
+
+    public interface Strategy {
+        /**
+         * The selection paying for the payment, null when none is found before the deadline, a
+         * {@link System#nanoTime()}.
+         */
+        Selection select(long[] values, int[] sizes, Payment payment, long deadline);
+    }
+
+    private final List<Strategy> strategies;
+    private final long timeBudgetMillis;
+
+    public CoinSelector() {
+        this(Arrays.<Strategy>asList(new BranchAndBound(), new Knapsack(new Random()), new
+                LargestFirst()), DefaultTimeBudgetMillis);
+    }
+
+    public CoinSelector(List<Strategy> strategies, long timeBudgetMillis) {
+        this.strategies = strategies;
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    /**
+     * @param values the value of each candidate out
+     * @param sizes  the bytes an input spending each candidate adds to the tx
+     */
+    public Selection select(long[] values, int[] sizes, Payment payment) {
+        long deadline = System.nanoTime() + timeBudgetMillis * 1000000;
+        for (Strategy strategy : strategies) {
+            Selection selection = strategy.select(values, sizes, payment, deadline);
+            if (selection != null) {
+                return selection;
+            }
+        }
+        return null;
+    }
+
+    public static class Payment {
+        private final long amount;
+        private final int fixedSize;
+        private final int changeSize;
+        private final long feeBase;
+        private final long minChange;
+
+        /**
+         * @param amount     the sum of the tx's outs
+         * @param fixedSize  the size of the tx without inputs
+         * @param changeSize the bytes a change out adds
+         * @param minChange  the least change worth an out, less goes to the fee
+         */
+        public Payment(long amount, int fixedSize, int changeSize, long feeBase, long
+                minChange) {
+            this.amount = amount;
+            this.fixedSize = fixedSize;
+            this.changeSize = changeSize;
+            this.feeBase = feeBase;
+            this.minChange = minChange;
+        }
+
+        public long getFee(int size) {
+            return (size / 1000 + 1) * feeBase;
+        }
+
+        long getCost(int size) {
+            return (size * feeBase + 999) / 1000;
+        }
+
+        /**
+         * What the outs' effective values have to add up to, with or without a change out.
+         */
+        long getTarget(boolean withChange) {
+            return amount + feeBase + getCost(fixedSize + (withChange ? changeSize : 0));
+        }
+
+        long[] getEffectiveValues(long[] values, int[] sizes) {
+            long[] effectiveValues = new long[values.length];
+            for (int i = 0; i < values.length; i++) {
+                effectiveValues[i] = values[i] - getCost(sizes[i]);
+            }
+            return effectiveValues;
+        }
+
+        /**
+         * The selection of the outs at the indexes, with change when it is allowed and at least
+         * the minimum, null when they do not pay for the tx.
+         */
+        Selection finish(long[] values, int[] sizes, int[] indexes, boolean allowChange) {
+            long total = 0;
+            int size = fixedSize;
+            for (int index : indexes) {
+                total += values[index];
+                size += sizes[index];
+            }
+            if (allowChange) {
+                long fee = getFee(size + changeSize);
+                long change = total - amount - fee;
+                if (change >= minChange) {
+                    return new Selection(indexes, fee, change);
+                }
+            }
+            long fee = total - amount;
+            if (fee < getFee(size)) {
+                return null;
+            }
+            return new Selection(indexes, fee, 0);
+        }
+    }
+
+    public static class Selection {
+        private final int[] indexes;
+        private final long fee;
+        private final long change;
+
+        Selection(int[] indexes, long fee, long change) {
+            this.indexes = indexes;
+            this.fee = fee;
+            this.change = change;
+        }
+
+        public int[] getIndexes() {
+            return indexes;
+        }
+
+        public long getFee() {
+            return fee;
+        }
+
+        /**
+         * The value of the change out, 0 for none.
+         */
+        public long getChange() {
+            return change;
+        }
+    }
+
+    /**
+     * A depth first search over the outs by descending effective value, including each before
+     * leaving it out, for the outs exceeding the target by the least and by less than a change
+     * out would cost plus the minimum change.
+     */
+    public static class BranchAndBound implements Strategy {
+        private static final int MaxTries = 100000;
+
+        @Override
+        public Selection select(long[] values, int[] sizes, Payment payment, long deadline) {
+            long[] effectiveValues = payment.getEffectiveValues(values, sizes);
+            int[] order = descending(effectiveValues);
+            int n = 0;
+            while (n < order.length && effectiveValues[order[n]] > 0) {
+                n++;
+            }
+            long[] value = new long[n];
+            // what the outs from each position on add up to
+            long[] rest = new long[n + 1];
+            for (int i = n - 1; i >= 0; i--) {
+                value[i] = effectiveValues[order[i]];
+                rest[i] = rest[i + 1] + value[i];
+            }
+            long target = payment.getTarget(false);
+            long maxExcess = payment.getCost(payment.changeSize) + payment.minChange;
+            if (rest[0] < target) {
+                return null;
+            }
+
+            int[] included = new int[n];
+            int includedCount = 0;
+            int[] best = null;
+            long bestExcess = Long.MAX_VALUE;
+            long sum = 0;
+            int position = 0;
+            for (int tries = 0; tries < MaxTries; tries++) {
+                if ((tries & 0x3ff) == 0 && best != null && System.nanoTime() > deadline) {
+                    break;
+                }
+                boolean backtrack = false;
+                if (sum + rest[position] < target || sum > target + maxExcess) {
+                    backtrack = true;
+                } else if (sum >= target) {
+                    if (sum - target < bestExcess) {
+                        bestExcess = sum - target;
+                        best = Arrays.copyOf(included, includedCount);
+                        if (bestExcess == 0) {
+                            break;
+                        }
+                    }
+                    backtrack = true;
+                }
+                if (backtrack) {
+                    if (includedCount == 0) {
+                        break;
+                    }
+                    // leave the last included out, and the ones of its value right after it
+                    int last = included[--includedCount];
+                    sum -= value[last];
+                    position = last + 1;
+                    while (position < n && value[position] == value[last]) {
+                        position++;
+                    }
+                } else {
+                    included[includedCount++] = position;
+                    sum += value[position];
+                    position++;
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            for (int i = 0; i < best.length; i++) {
+                best[i] = order[best[i]];
+            }
+            return payment.finish(values, sizes, best, false);
+        }
+    }
+
+    /**
+     * The randomized subset approximation of bitcoin core: an out matching the target with
+     * change exactly, all the smaller outs when they just make it, otherwise the best of random
+     * subsets of the smaller outs or the smallest larger out.
+     */
+    public static class Knapsack implements Strategy {
+        private static final int Iterations = 1000;
+
+        private final Random random;
+
+        public Knapsack(Random random) {
+            this.random = random;
+        }
+
+        @Override
+        public Selection select(long[] values, int[] sizes, Payment payment, long deadline) {
+            long[] effectiveValues = payment.getEffectiveValues(values, sizes);
+            long target = payment.getTarget(true);
+            long withMinChange = target + payment.minChange;
+            int[] order = descending(effectiveValues);
+            int lowestLarger = -1;
+            int smallerCount = 0;
+            long smallerTotal = 0;
+            for (int index : order) {
+                long value = effectiveValues[index];
+                if (value == target) {
+                    return payment.finish(values, sizes, new int[]{index}, true);
+                } else if (value >= withMinChange) {
+                    lowestLarger = index;
+                } else if (value > 0) {
+                    order[smallerCount++] = index;
+                    smallerTotal += value;
+                }
+            }
+            int[] smaller = Arrays.copyOf(order, smallerCount);
+            if (smallerTotal == target) {
+                return payment.finish(values, sizes, smaller, true);
+            }
+            if (smallerTotal < target) {
+                return lowestLarger < 0 ? null : payment.finish(values, sizes, new
+                        int[]{lowestLarger}, true);
+            }
+
+            long[] value = new long[smallerCount];
+            for (int i = 0; i < smallerCount; i++) {
+                value[i] = effectiveValues[smaller[i]];
+            }
+            boolean[] best = new boolean[smallerCount];
+            long bestSum = approximateBestSubset(value, smallerTotal, target, best, deadline);
+            if (bestSum != target && smallerTotal >= withMinChange) {
+                // close above the target only leaves dust, aim for change instead
+                bestSum = approximateBestSubset(value, smallerTotal, withMinChange, best,
+                        deadline);
+            }
+            if (lowestLarger >= 0 && ((bestSum != target && bestSum < withMinChange) ||
+                    effectiveValues[lowestLarger] <= bestSum)) {
+                return payment.finish(values, sizes, new int[]{lowestLarger}, true);
+            }
+            int count = 0;
+            for (boolean included : best) {
+                if (included) {
+                    count++;
+                }
+            }
+            int[] indexes = new int[count];
+            count = 0;
+            for (int i = 0; i < smallerCount; i++) {
+                if (best[i]) {
+                    indexes[count++] = smaller[i];
+                }
+            }
+            return payment.finish(values, sizes, indexes, true);
+        }
+
+        private long approximateBestSubset(long[] value, long total, long target, boolean[]
+                best, long deadline) {
+            Arrays.fill(best, true);
+            long bestSum = total;
+            boolean[] included = new boolean[value.length];
+            for (int rep = 0; rep < Iterations && bestSum != target; rep++) {
+                if (rep > 0 && System.nanoTime() > deadline) {
+                    break;
+                }
+                Arrays.fill(included, false);
+                long sum = 0;
+                boolean reached = false;
+                for (int pass = 0; pass < 2 && !reached; pass++) {
+                    for (int i = 0; i < value.length; i++) {
+                        // the first pass picks at random, the second adds what is left
+                        if (pass == 0 ? random.nextBoolean() : !included[i]) {
+                            sum += value[i];
+                            included[i] = true;
+                            if (sum >= target) {
+                                reached = true;
+                                if (sum < bestSum) {
+                                    bestSum = sum;
+                                    System.arraycopy(included, 0, best, 0, value.length);
+                                }
+                                sum -= value[i];
+                                included[i] = false;
+                            }
+                        }
+                    }
+                }
+            }
+            return bestSum;
+        }
+    }
+
+    /**
+     * The largest outs until they pay for the tx with change.
+     */
+    public static class LargestFirst implements Strategy {
+        @Override
+        public Selection select(long[] values, int[] sizes, Payment payment, long deadline) {
+            long[] effectiveValues = payment.getEffectiveValues(values, sizes);
+            long target = payment.getTarget(true);
+            int[] order = descending(effectiveValues);
+            long sum = 0;
+            for (int i = 0; i < order.length && effectiveValues[order[i]] > 0; i++) {
+                sum += effectiveValues[order[i]];
+                if (sum >= target) {
+                    return payment.finish(values, sizes, Arrays.copyOf(order, i + 1), true);
+                }
+            }
+            return null;
+        }
+    }
+
+    private static int[] descending(final long[] values) {
+        Integer[] order = new Integer[values.length];
+        for (int i = 0; i < values.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                long v1 = values[i1];
+                long v2 = values[i2];
+                return v1 == v2 ? i1 - i2 : (v2 > v1 ? 1 : -1);
+            }
+        });
+        int[] result = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+}
@@ -721,19 +721,39 @@ public class DesktopHDMKeychain extends AbstractHD {
                         .INTERNAL_ROOT_PATH);
     }
 
+    public int externalAddressCountForBloomFilter() {
+        return allGeneratedExternalAddressCount();
+    }
+
+    public int addExternalElementsForBloomFilter(List<byte[]> elements, int fromIndex) {
+        int count = allGeneratedExternalAddressCount();
+        for (int i = fromIndex; i < count; i++) {
+            byte[] pubByte = addressForPath(AbstractHD.PathType.EXTERNAL_ROOT_PATH, i).getPubKey();
+            elements.add(pubByte);
+            elements.add(Utils.sha256hash160(pubByte));
+        }
+        return count;
+    }
+
     public void addElementsForBloomFilter(BloomFilter filter) {
+        filter.insertAll(getElementsForBloomFilter());
+    }
+
+    public List<byte[]> getElementsForBloomFilter() {
         List<HDMAddress.Pubs> pubses = AbstractDb.desktopTxProvider.getPubs(AbstractHD.PathType.EXTERNAL_ROOT_PATH);
+        List<byte[]> elements = new ArrayList<byte[]>(pubses.size() * 2);
         for (HDMAddress.Pubs pub : pubses) {
             byte[] pubByte = pub.getMultiSigScript().getProgram();
-            filter.insert(pubByte);
-            filter.insert(Utils.sha256hash160(pubByte));
+            elements.add(pubByte);
+            elements.add(Utils.sha256hash160(pubByte));
             // System.out.println("address:" + Utils.toP2SHAddress(Utils.sha256hash160(pubByte)));
         }
         List<Out> outs = AbstractDb.desktopTxProvider.getUnspendOutByHDAccountWithPath
                 (getHdSeedId(), AbstractHD.PathType.INTERNAL_ROOT_PATH);
         for (Out out : outs) {
-            filter.insert(out.getOutpointData());
+            elements.add(out.getOutpointData());
         }
+        return elements;
     }
 
     private long calculateUnconfirmedBalance() {
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.exception.VerificationException;
+import net.bither.bitherj.message.FilteredBlockMessage;
+import net.bither.bitherj.utils.Sha256Hash;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The merkleblocks of one peer on their way to the chain. Each block's header and partial
+ * merkle tree are verified on a pool shared by all peers while the peer's thread goes on
+ * reading, the tx messages that follow are paired with their block through a table keyed by
+ * tx hash, and blocks come out verified and with all their txs in the order they arrived,
+ * which is height order for the blocks we ask for.
+ * <p/>
+ * Only the peer's thread calls into a pipeline.
+ */
+class FilteredBlockPipeline {
+    // blocks waiting for their verification before the peer's thread waits for the oldest one
+    static final int MaxQueuedBlocks = 500;
+    // pool threads only live while blocks are coming in
+    private static final long IdleSeconds = 30;
+
+    private static final ThreadPoolExecutor pool;
+
+    static {
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        pool = new ThreadPoolExecutor(threadCount, threadCount, IdleSeconds, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setName("merkleblock verify " + index.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * A block with the txs that matched the filter, in the order the peer sent them.
+     */
+    static class Entry {
+        private final Block block;
+        private final Future<Void> verification;
+        private final List<Tx> txs;
+        private int missingTxCount;
+
+        private Entry(Block block, Future<Void> verification, int txCount) {
+            this.block = block;
+            this.verification = verification;
+            this.txs = new ArrayList<Tx>(txCount);
+            this.missingTxCount = txCount;
+        }
+
+        Block getBlock() {
+            return block;
+        }
+
+        List<Tx> getTxs() {
+            return txs;
+        }
+    }
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+    private final HashMap<Sha256Hash, Entry> pendingTxs = new HashMap<Sha256Hash, Entry>();
+
+    /**
+     * Queues the block and starts verifying it.
+     */
+    void add(final FilteredBlockMessage m) {
+        Future<Void> verification = pool.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws VerificationException {
+                m.verify();
+                return null;
+            }
+        });
+        Block block = m.getBlock();
+        Entry entry = new Entry(block, verification, block.getTxHashes().size());
+        for (byte[] txHash : block.getTxHashes()) {
+            Entry previous = pendingTxs.put(new Sha256Hash(txHash), entry);
+            if (previous != null) {
+                // a hash matched twice, the tx is only sent once and goes to this block
+                previous.missingTxCount--;
+            }
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * Hands a tx to the block waiting for it. Returns false when no block is, so it is a loose
+     * tx.
+     */
+    boolean provideTransaction(Tx tx) {
+        Entry entry = pendingTxs.remove(new Sha256Hash(tx.getTxHash()));
+        if (entry == null) {
+            return false;
+        }
+        entry.txs.add(tx);
+        entry.missingTxCount--;
+        return true;
+    }
+
+    boolean isWaitingForTxs() {
+        return !pendingTxs.isEmpty();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void clear() {
+        for (Entry entry : entries) {
+            entry.verification.cancel(false);
+        }
+        entries.clear();
+        pendingTxs.clear();
+    }
+
+    /**
+     * Takes the blocks from the front of the queue that have all their txs and are verified.
+     * With flush set, waits for the verification of every block that has its txs, otherwise
+     * only once too many blocks are queued.
+     *
+     * @throws VerificationException for the first block that failed, the pipeline is cleared
+     */
+    List<Entry> takeCompleted(boolean flush) throws VerificationException {
+        List<Entry> completed = new ArrayList<Entry>();
+        while (!entries.isEmpty()) {
+            Entry entry = entries.peek();
+            if (entry.missingTxCount > 0) {
+                break;
+            }
+            if (!flush && !entry.verification.isDone() && entries.size() <= MaxQueuedBlocks) {
+                break;
+            }
+            try {
+                entry.verification.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                clear();
+                if (e.getCause() instanceof VerificationException) {
+                    throw (VerificationException) e.getCause();
+                }
+                throw new VerificationException("merkleblock verification failed", e.getCause());
+            }
+            entries.poll();
+            completed.add(entry);
+        }
+        return completed;
+    }
+}
@@ -39,11 +39,9 @@ import org.slf4j.LoggerFactory;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 public class HDAccount extends Address {
     public static final String HDAccountPlaceHolder = "HDAccount";
@@ -278,11 +276,10 @@ public class HDAccount extends Address {
                 (getInternalPub());
         int firstIndex = allGeneratedInternalAddressCount();
         ArrayList<HDAccountAddress> as = new ArrayList<HDAccountAddress>();
-        for (int i = firstIndex;
-             i < firstIndex + count;
-             i++) {
-            as.add(new HDAccountAddress(root.deriveSoftened(i).getPubKey(), AbstractHD.PathType
-                    .INTERNAL_ROOT_PATH, i, isSyncedComplete, hdSeedId));
+        for (HDKeyDerivation.DerivedPub pub : HDKeyDerivation.derivePubs(root, firstIndex,
+                count)) {
+            as.add(new HDAccountAddress(pub.address, pub.pub, AbstractHD.PathType.INTERNAL_ROOT_PATH, pub
+                    .index, false, isSyncedComplete, hdSeedId));
         }
         AbstractDb.hdAccountAddressProvider.addAddress(as);
         log.info("HD supplied {} internal addresses", as.size());
@@ -293,11 +290,10 @@ public class HDAccount extends Address {
                 (getExternalPub());
         int firstIndex = allGeneratedExternalAddressCount();
         ArrayList<HDAccountAddress> as = new ArrayList<HDAccountAddress>();
-        for (int i = firstIndex;
-             i < firstIndex + count;
-             i++) {
-            as.add(new HDAccountAddress(root.deriveSoftened(i).getPubKey(), AbstractHD.PathType
-                    .EXTERNAL_ROOT_PATH, i, isSyncedComplete, hdSeedId));
+        for (HDKeyDerivation.DerivedPub pub : HDKeyDerivation.derivePubs(root, firstIndex,
+                count)) {
+            as.add(new HDAccountAddress(pub.address, pub.pub, AbstractHD.PathType.EXTERNAL_ROOT_PATH, pub
+                    .index, false, isSyncedComplete, hdSeedId));
         }
         AbstractDb.hdAccountAddressProvider.addAddress(as);
         log.info("HD supplied {} external addresses", as.size());
@@ -404,61 +400,7 @@ public class HDAccount extends Address {
     }
 
     public void updateBalance() {
-        this.balance = AbstractDb.hdAccountAddressProvider.getHDAccountConfirmedBalance(hdSeedId)
-                + calculateUnconfirmedBalance();
-    }
-
-    private long calculateUnconfirmedBalance() {
-        long balance = 0;
-
-        List<Tx> txs = AbstractDb.hdAccountAddressProvider.getHDAccountUnconfirmedTx(this.hdSeedId);
-        Collections.sort(txs);
-
-        Set<byte[]> invalidTx = new HashSet<byte[]>();
-        Set<OutPoint> spentOut = new HashSet<OutPoint>();
-        Set<OutPoint> unspendOut = new HashSet<OutPoint>();
-
-        for (int i = txs.size() - 1;
-             i >= 0;
-             i--) {
-            Set<OutPoint> spent = new HashSet<OutPoint>();
-            Tx tx = txs.get(i);
-
-            Set<byte[]> inHashes = new HashSet<byte[]>();
-            for (In in : tx.getIns()) {
-                spent.add(new OutPoint(in.getPrevTxHash(), in.getPrevOutSn()));
-                inHashes.add(in.getPrevTxHash());
-            }
-
-            if (tx.getBlockNo() == Tx.TX_UNCONFIRMED
-                    && (Utils.isIntersects(spent, spentOut) || Utils.isIntersects(inHashes,
-                    invalidTx))) {
-                invalidTx.add(tx.getTxHash());
-                continue;
-            }
-
-            spentOut.addAll(spent);
-            HashSet<String> addressSet = getBelongAccountAddresses(tx.getOutAddressList());
-            for (Out out : tx.getOuts()) {
-                if (addressSet.contains(out.getOutAddress())) {
-                    unspendOut.add(new OutPoint(tx.getTxHash(), out.getOutSn()));
-                    balance += out.getOutValue();
-                }
-            }
-            spent.clear();
-            spent.addAll(unspendOut);
-            spent.retainAll(spentOut);
-            for (OutPoint o : spent) {
-                Tx tx1 = AbstractDb.txProvider.getTxDetailByTxHash(o.getTxHash());
-                unspendOut.remove(o);
-                for (Out out : tx1.getOuts()) {
-                    if (out.getOutSn() == o.getOutSn()) {
-                        balance -= out.getOutValue();
-                    }
-                }
-            }
-        }
-        return balance;
+        this.balance = UtxoSet.getInstance().getHDAccountBalance(hdSeedId);
     }
 
     public List<HDAccountAddress> getRelatedAddressesForTx(Tx tx, List<String> inAddresses) {
@@ -560,7 +502,7 @@ public class HDAccount extends Address {
 
     public Tx newTx(String[] toAddresses, Long[] amounts) throws TxBuilderException,
             MnemonicException.MnemonicLengthException {
-        List<Out> outs = AbstractDb.hdAccountAddressProvider.getUnspendOutByHDAccount(hdSeedId);
+        List<Out> outs = UtxoSet.getInstance().getUnspendOuts(hdSeedId);
         Tx tx = TxBuilder.getInstance().buildTxFromAllAddress(outs, getNewChangeAddress(), Arrays
                 .asList(amounts), Arrays.asList(toAddresses));
         return tx;
@@ -609,23 +551,48 @@ public class HDAccount extends Address {
                         .PathType.INTERNAL_ROOT_PATH);
     }
 
+    public int externalAddressCountForBloomFilter() {
+        return allGeneratedExternalAddressCount();
+    }
+
+    /**
+     * Adds the external keys generated from fromIndex on to elements and returns the index to
+     * continue from next time, so a live filter can follow new receiving addresses without a
+     * rebuild.
+     */
+    public int addExternalElementsForBloomFilter(List<byte[]> elements, int fromIndex) {
+        int count = allGeneratedExternalAddressCount();
+        for (int i = fromIndex; i < count; i++) {
+            byte[] pub = addressForPath(AbstractHD.PathType.EXTERNAL_ROOT_PATH, i).getPub();
+            elements.add(pub);
+            elements.add(Utils.sha256hash160(pub));
+        }
+        return count;
+    }
+
     public void addElementsForBloomFilter(BloomFilter filter) {
+        filter.insertAll(getElementsForBloomFilter());
+    }
+
+    public List<byte[]> getElementsForBloomFilter() {
         List<byte[]> pubs = AbstractDb.hdAccountAddressProvider.getPubs(this.hdSeedId, AbstractHD
                 .PathType.EXTERNAL_ROOT_PATH);
+        List<byte[]> elements = new ArrayList<byte[]>(pubs.size() * 2);
         for (byte[] pub : pubs) {
-            filter.insert(pub);
-            filter.insert(Utils.sha256hash160(pub));
+            elements.add(pub);
+            elements.add(Utils.sha256hash160(pub));
         }
         List<Out> outs = AbstractDb.hdAccountAddressProvider.getUnspendOutByHDAccountWithPath
                 (getHdSeedId(), AbstractHD.PathType.INTERNAL_ROOT_PATH);
         for (Out out : outs) {
-            filter.insert(out.getOutpointData());
+            elements.add(out.getOutpointData());
         }
         outs = AbstractDb.hdAccountAddressProvider.getUnconfirmedSpentOutByHDAccountWithPath
                 (getHdSeedId(), AbstractHD.PathType.INTERNAL_ROOT_PATH);
         for (Out out : outs) {
-            filter.insert(out.getOutpointData());
+            elements.add(out.getOutpointData());
         }
+        return elements;
     }
 
     public long getBalance() {
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.BitherjSettings;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The recent block headers in primitive arrays, looked up by hash through an open addressing
+ * table keyed on the first eight hash bytes, and for the main chain also by height. It holds
+ * the last few difficulty intervals, which is what prev lookups, locators and difficulty
+ * transitions need; anything older is left to the database.
+ * <p/>
+ * All methods are synchronized, the index is small and every call is short.
+ */
+class HeaderIndex {
+    static final int LoadLimit = BitherjSettings.BLOCK_DIFFICULTY_INTERVAL * 3;
+    // heights kept below the main chain tip when the index is compacted
+    private static final int KeepHeights = BitherjSettings.BLOCK_DIFFICULTY_INTERVAL * 2;
+    private static final int HashLength = 32;
+
+    private int count;
+    private byte[] hashes;
+    private byte[] prevs;
+    private byte[] roots;
+    private long[] versions;
+    private long[] bits;
+    private long[] nonces;
+    private int[] times;
+    private int[] heights;
+    private boolean[] mains;
+
+    // slot + 1 for each used bucket, 0 for empty
+    private int[] table;
+
+    // slot of the main chain block at baseHeight + i, -1 if unknown
+    private int[] mainByHeight;
+    private int baseHeight;
+    private int topHeight = -1;
+
+    HeaderIndex() {
+        allocate(64);
+    }
+
+    /**
+     * Replaces the content with the given blocks, in any order.
+     */
+    synchronized void load(List<Block> blocks) {
+        allocate(Math.max(64, blocks.size() * 2));
+        mainByHeight = null;
+        topHeight = -1;
+        for (int i = blocks.size() - 1; i >= 0; i--) {
+            putBlock(blocks.get(i));
+        }
+    }
+
+    synchronized void put(Block block) {
+        putBlock(block);
+        if (count > LoadLimit) {
+            compact(topHeight - KeepHeights, Integer.MAX_VALUE);
+        }
+    }
+
+    synchronized void putAll(List<Block> blocks) {
+        for (Block block : blocks) {
+            putBlock(block);
+        }
+        if (count > LoadLimit) {
+            compact(topHeight - KeepHeights, Integer.MAX_VALUE);
+        }
+    }
+
+    synchronized Block get(byte[] hash) {
+        int slot = find(hash, 0);
+        return slot < 0 ? null : toBlock(slot);
+    }
+
+    synchronized Block getMainChainBlock(byte[] hash) {
+        int slot = find(hash, 0);
+        return slot < 0 || !mains[slot] ? null : toBlock(slot);
+    }
+
+    /**
+     * Returns the main chain block at the height, null if it is not in the index.
+     */
+    synchronized Block getMain(int height) {
+        int slot = mainSlot(height);
+        return slot < 0 ? null : toBlock(slot);
+    }
+
+    /**
+     * Returns the time of the main chain block at the height, -1 if it is not in the index.
+     */
+    synchronized int getMainTime(int height) {
+        int slot = mainSlot(height);
+        return slot < 0 ? -1 : times[slot];
+    }
+
+    /**
+     * Follows prev links steps times from the block with the hash and returns the time of the
+     * block it ends at, -1 if the walk leaves the index.
+     */
+    synchronized int ancestorTime(byte[] hash, int steps) {
+        int slot = find(hash, 0);
+        for (int i = 0; slot >= 0 && i < steps; i++) {
+            slot = find(prevs, slot * HashLength);
+        }
+        return slot < 0 ? -1 : times[slot];
+    }
+
+    synchronized void setMain(byte[] hash, boolean isMain) {
+        int slot = find(hash, 0);
+        if (slot < 0) {
+            return;
+        }
+        mains[slot] = isMain;
+        if (isMain) {
+            setMainSlot(heights[slot], slot);
+        } else if (mainSlot(heights[slot]) == slot) {
+            mainByHeight[heights[slot] - baseHeight] = -1;
+        }
+    }
+
+    /**
+     * Drops every block above the height, as a rollback does in the database.
+     */
+    synchronized void removeAbove(int height) {
+        compact(Integer.MIN_VALUE, height);
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    private void putBlock(Block block) {
+        byte[] hash = block.getBlockHash();
+        int slot = find(hash, 0);
+        if (slot >= 0) {
+            // like the insert or ignore behind it, a stored block only changes through setMain
+            return;
+        }
+        if (count == heights.length) {
+            grow(count * 2);
+        }
+        slot = count++;
+        System.arraycopy(hash, 0, hashes, slot * HashLength, HashLength);
+        System.arraycopy(block.getBlockPrev(), 0, prevs, slot * HashLength, HashLength);
+        System.arraycopy(block.getBlockRoot(), 0, roots, slot * HashLength, HashLength);
+        versions[slot] = block.getBlockVer();
+        bits[slot] = block.getBlockBits();
+        nonces[slot] = block.getBlockNonce();
+        times[slot] = block.getBlockTime();
+        heights[slot] = block.getBlockNo();
+        mains[slot] = block.isMain();
+        insert(slot);
+        if (block.isMain()) {
+            setMainSlot(block.getBlockNo(), slot);
+        }
+    }
+
+    private Block toBlock(int slot) {
+        int offset = slot * HashLength;
+        return new Block(Arrays.copyOfRange(hashes, offset, offset + HashLength),
+                versions[slot], Arrays.copyOfRange(prevs, offset, offset + HashLength),
+                Arrays.copyOfRange(roots, offset, offset + HashLength), times[slot], bits[slot],
+                nonces[slot], heights[slot], mains[slot]);
+    }
+
+    private int mainSlot(int height) {
+        if (mainByHeight == null || height < baseHeight || height > topHeight) {
+            return -1;
+        }
+        return mainByHeight[height - baseHeight];
+    }
+
+    private void setMainSlot(int height, int slot) {
+        if (mainByHeight == null) {
+            mainByHeight = new int[64];
+            Arrays.fill(mainByHeight, -1);
+            baseHeight = height;
+        } else if (height < baseHeight) {
+            // leave as much room below as there is above, loading walks down one at a time
+            int newBase = height - mainByHeight.length;
+            int shift = baseHeight - newBase;
+            int[] grown = new int[mainByHeight.length + shift];
+            Arrays.fill(grown, -1);
+            System.arraycopy(mainByHeight, 0, grown, shift, mainByHeight.length);
+            mainByHeight = grown;
+            baseHeight = newBase;
+        } else if (height - baseHeight >= mainByHeight.length) {
+            int length = mainByHeight.length;
+            mainByHeight = Arrays.copyOf(mainByHeight, Math.max(length * 2, height -
+                    baseHeight + 1));
+            Arrays.fill(mainByHeight, length, mainByHeight.length, -1);
+        }
+        mainByHeight[height - baseHeight] = slot;
+        if (height > topHeight) {
+            topHeight = height;
+        }
+    }
+
+    /**
+     * Keeps the blocks with minHeight <= height <= maxHeight and rebuilds the lookups.
+     */
+    private void compact(int minHeight, int maxHeight) {
+        int kept = 0;
+        for (int slot = 0; slot < count; slot++) {
+            if (heights[slot] >= minHeight && heights[slot] <= maxHeight) {
+                if (kept != slot) {
+                    move(slot, kept);
+                }
+                kept++;
+            }
+        }
+        count = kept;
+        table = new int[tableSizeFor(heights.length)];
+        mainByHeight = null;
+        topHeight = -1;
+        for (int slot = 0; slot < count; slot++) {
+            insert(slot);
+            if (mains[slot]) {
+                setMainSlot(heights[slot], slot);
+            }
+        }
+    }
+
+    private void move(int from, int to) {
+        System.arraycopy(hashes, from * HashLength, hashes, to * HashLength, HashLength);
+        System.arraycopy(prevs, from * HashLength, prevs, to * HashLength, HashLength);
+        System.arraycopy(roots, from * HashLength, roots, to * HashLength, HashLength);
+        versions[to] = versions[from];
+        bits[to] = bits[from];
+        nonces[to] = nonces[from];
+        times[to] = times[from];
+        heights[to] = heights[from];
+        mains[to] = mains[from];
+    }
+
+    private void allocate(int capacity) {
+        count = 0;
+        hashes = new byte[capacity * HashLength];
+        prevs = new byte[capacity * HashLength];
+        roots = new byte[capacity * HashLength];
+        versions = new long[capacity];
+        bits = new long[capacity];
+        nonces = new long[capacity];
+        times = new int[capacity];
+        heights = new int[capacity];
+        mains = new boolean[capacity];
+        table = new int[tableSizeFor(capacity)];
+    }
+
+    private void grow(int capacity) {
+        hashes = Arrays.copyOf(hashes, capacity * HashLength);
+        prevs = Arrays.copyOf(prevs, capacity * HashLength);
+        roots = Arrays.copyOf(roots, capacity * HashLength);
+        versions = Arrays.copyOf(versions, capacity);
+        bits = Arrays.copyOf(bits, capacity);
+        nonces = Arrays.copyOf(nonces, capacity);
+        times = Arrays.copyOf(times, capacity);
+        heights = Arrays.copyOf(heights, capacity);
+        mains = Arrays.copyOf(mains, capacity);
+        table = new int[tableSizeFor(capacity)];
+        for (int slot = 0; slot < count; slot++) {
+            insert(slot);
+        }
+    }
+
+    private static int tableSizeFor(int capacity) {
+        return Integer.highestOneBit(capacity * 2 - 1) << 1;
+    }
+
+    private void insert(int slot) {
+        int mask = table.length - 1;
+        int bucket = bucket(hashes, slot * HashLength) & mask;
+        while (table[bucket] != 0) {
+            bucket = (bucket + 1) & mask;
+        }
+        table[bucket] = slot + 1;
+    }
+
+    private int find(byte[] hash, int offset) {
+        int mask = table.length - 1;
+        int bucket = bucket(hash, offset) & mask;
+        while (table[bucket] != 0) {
+            int slot = table[bucket] - 1;
+            if (equalHash(hash, offset, slot)) {
+                return slot;
+            }
+            bucket = (bucket + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean equalHash(byte[] hash, int offset, int slot) {
+        int stored = slot * HashLength;
+        for (int i = 0; i < HashLength; i++) {
+            if (hashes[stored + i] != hash[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int bucket(byte[] hash, int offset) {
+        long prefix = 0;
+        for (int i = 0; i < 8; i++) {
+            prefix = (prefix << 8) | (hash[offset + i] & 0xff);
+        }
+        prefix ^= prefix >>> 33;
+        prefix *= 0xff51afd7ed558ccdL;
+        prefix ^= prefix >>> 33;
+        return (int) prefix;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.exception.VerificationException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The stages a batch of headers goes through on its way into the chain: the context free
+ * checks (hash and proof of work) run in parallel on a small pool, linking and the difficulty
+ * checks run in order on the caller's thread, and the linked headers are stored in one
+ * transaction. The pipeline keeps how long each stage took, for the last batch and in total.
+ */
+class HeaderPipeline {
+    private static final Logger log = LoggerFactory.getLogger(HeaderPipeline.class);
+
+    static final int StageVerify = 0;
+    static final int StageLink = 1;
+    static final int StageStore = 2;
+    private static final String[] StageNames = new String[]{"verify", "link", "store"};
+
+    // headers per verify task, a full HeadersMessage of 2000 makes 8 tasks
+    private static final int ChunkSize = 250;
+    // pool threads only live while headers are coming in
+    private static final long IdleSeconds = 30;
+
+    private final ThreadPoolExecutor pool;
+
+    private final long[] lastNanos = new long[StageNames.length];
+    private final long[] totalNanos = new long[StageNames.length];
+    private long batchCount;
+    private long headerCount;
+
+    HeaderPipeline() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    HeaderPipeline(int threadCount) {
+        pool = new ThreadPoolExecutor(threadCount, threadCount, IdleSeconds, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setName("header verify " + index.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Hashes every header and checks its proof of work and timestamp, spread over the pool with
+     * the calling thread taking the first chunk. Returns the index of the first header that
+     * fails, or the size of the list when all of them pass.
+     */
+    int verify(final List<Block> blocks) {
+        long start = System.nanoTime();
+        int size = blocks.size();
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int from = ChunkSize; from < size; from += ChunkSize) {
+            final int chunkFrom = from;
+            final int chunkTo = Math.min(size, from + ChunkSize);
+            futures.add(pool.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return verifyRange(blocks, chunkFrom, chunkTo);
+                }
+            }));
+        }
+        int valid = verifyRange(blocks, 0, Math.min(size, ChunkSize));
+        int from = ChunkSize;
+        for (Future<Integer> future : futures) {
+            int chunkValid;
+            try {
+                chunkValid = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                chunkValid = from;
+            } catch (ExecutionException e) {
+                log.warn("header verify task failed", e.getCause());
+                chunkValid = from;
+            }
+            // only the prefix up to the first bad header counts, later chunks are still
+            // collected so no task is left running
+            if (valid == from) {
+                valid = chunkValid;
+            }
+            from += ChunkSize;
+        }
+        synchronized (this) {
+            batchCount++;
+            headerCount += size;
+        }
+        record(StageVerify, System.nanoTime() - start);
+        return valid;
+    }
+
+    synchronized void record(int stage, long nanos) {
+        lastNanos[stage] = nanos;
+        totalNanos[stage] += nanos;
+    }
+
+    synchronized long getLastMillis(int stage) {
+        return TimeUnit.NANOSECONDS.toMillis(lastNanos[stage]);
+    }
+
+    synchronized long getTotalMillis(int stage) {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos[stage]);
+    }
+
+    synchronized long getBatchCount() {
+        return batchCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("header pipeline: %d batches, %d headers", batchCount,
+                headerCount));
+        for (int stage = 0; stage < StageNames.length; stage++) {
+            builder.append(String.format(", %s %dms (last %dms)", StageNames[stage],
+                    getTotalMillis(stage), getLastMillis(stage)));
+        }
+        return builder.toString();
+    }
+
+    private static int verifyRange(List<Block> blocks, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Block block = blocks.get(i);
+            try {
+                block.getBlockHash();
+                block.verifyHeader();
+            } catch (VerificationException e) {
+                log.warn("header {} failed verification: {}", i, e.getMessage());
+                return i;
+            }
+        }
+        return to;
+    }
+}
@@ -71,6 +71,7 @@ public class In extends Message {
     }
 
     public void setPrevTxHash(byte[] prevTxHash) {
+        unCacheTx();
         this.prevTxHash = prevTxHash;
     }
 
@@ -79,6 +80,7 @@ public class In extends Message {
     }
 
     public void setPrevOutSn(int prevOutSn) {
+        unCacheTx();
         this.prevOutSn = prevOutSn;
     }
 
@@ -87,6 +89,7 @@ public class In extends Message {
     }
 
     public void setInSignature(byte[] inSignature) {
+        unCacheTx();
         this.inSignature = inSignature;
     }
 
@@ -103,6 +106,7 @@ public class In extends Message {
     }
 
     public void setInSequence(long inSequence) {
+        unCacheTx();
         this.inSequence = inSequence;
     }
 
@@ -114,6 +118,13 @@ public class In extends Message {
         return tx;
     }
 
+    // a tx parsed from the wire is serialized from its bytes until any part of it changes
+    private void unCacheTx() {
+        if (tx != null) {
+            tx.unCache();
+        }
+    }
+
     public void setTx(Tx tx) {
         this.tx = tx;
         this.txHash = tx.getTxHash();
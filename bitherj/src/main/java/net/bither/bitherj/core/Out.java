@@ -135,6 +135,7 @@ public class Out extends Message {
     }
 
     public void setOutScript(byte[] outScript) {
+        unCacheTx();
         this.outScript = outScript;
     }
 
@@ -143,6 +144,7 @@ public class Out extends Message {
     }
 
     public void setOutValue(long outValue) {
+        unCacheTx();
         this.outValue = outValue;
     }
 
@@ -184,6 +186,13 @@ public class Out extends Message {
         return tx;
     }
 
+    // a tx parsed from the wire is serialized from its bytes until any part of it changes
+    private void unCacheTx() {
+        if (tx != null) {
+            tx.unCache();
+        }
+    }
+
     public void setTx(Tx tx) {
         this.tx = tx;
         this.txHash = tx.getTxHash();
@@ -71,12 +71,8 @@ public class Peer extends PeerSocketHandler {
 
     private static final int GET_BLOCK_DATA_PIECE_SIZE = 1;
 
-    private static final int MAX_PEER_MANAGER_WAITING_TASK_COUNT = 1;
-
     private static final int RELAY_BLOCK_COUNT_WHEN_SYNC = 1;
 
-    private static final int PEER_MANAGER_MAX_TASK_CHECKING_INTERVAL = 100;
-
     private static final Logger log = LoggerFactory.getLogger(Peer.class);
     private static final int TimeOutDelay = 7000;
 
@@ -109,11 +105,11 @@ public class Peer extends PeerSocketHandler {
 
     private boolean sentVerAck, gotVerAck;
 
-    private final HashSet<Sha256Hash> currentTxHashes, knownTxHashes, requestedBlockHashes;
+    private final HashSet<Sha256Hash> knownTxHashes, requestedBlockHashes;
     private final LinkedHashSet<Sha256Hash> currentBlockHashes;
     private final HashMap<Sha256Hash, HashSet<Tx>> needToRequestDependencyDict;
     private final ArrayList<Sha256Hash> invBlockHashes;
-    private Block currentFilteredBlock;
+    private final FilteredBlockPipeline filteredBlocks;
     private VersionMessage versionMessage;
     private boolean bloomFilterSent;
 
@@ -133,7 +129,7 @@ public class Peer extends PeerSocketHandler {
         peerPort = BitherjSettings.port;
         state = State.Disconnected;
         peerServices = 1;
-        currentTxHashes = new HashSet<Sha256Hash>();
+        filteredBlocks = new FilteredBlockPipeline();
         currentBlockHashes = new LinkedHashSet<Sha256Hash>();
         knownTxHashes = new HashSet<Sha256Hash>();
         requestedBlockHashes = new HashSet<Sha256Hash>();
@@ -191,9 +187,8 @@ public class Peer extends PeerSocketHandler {
             return;
         }
 
-        if (currentFilteredBlock != null && !(m instanceof Tx)) {
-            currentFilteredBlock = null;
-            currentTxHashes.clear();
+        if (filteredBlocks.isWaitingForTxs() && !(m instanceof Tx)) {
+            filteredBlocks.clear();
             exceptionCaught(new ProtocolException("Expect more tx for current filtering block, but got a " + m.getClass().getSimpleName() + " message"));
         }
 
@@ -480,8 +475,8 @@ public class Peer extends PeerSocketHandler {
     }
 
     private void startFilteredBlock(FilteredBlockMessage m) {
+        // the header and the partial merkle tree are verified on the pipeline's pool
         Block block = m.getBlock();
-        block.verifyHeader();
 
         log.info("peer[{}:{}] receive filtered block {} with {} tx",
                 this.peerAddress.getHostAddress(), this.peerPort,
@@ -492,99 +487,75 @@ public class Peer extends PeerSocketHandler {
         if (requestedBlockHashes.contains(new Sha256Hash(block.getBlockHash()))) {
             return;
         }
-        ArrayList<Sha256Hash> txHashes = new ArrayList<Sha256Hash>();
         for (byte[] txHash : block.getTxHashes()) {
-            txHashes.add(new Sha256Hash(txHash));
             log.info("peer[{}:{}] receive filtered block {} tx {}",
                     this.peerAddress.getHostAddress(), this.peerPort,
                     Utils.hashToString(m.getBlock().getBlockHash()), Utils.hashToString(txHash));
         }
-//        txHashes.removeAll(knownTxHashes);
 
-        // wait util we get all the tx messages before processing the block
-        if (txHashes.size() > 0) {
-            currentFilteredBlock = block;
-            currentTxHashes.clear();
-            currentTxHashes.addAll(txHashes);
-        } else {
-            if (this.synchronising && this.syncBlockHashes.contains(new Sha256Hash(block.getBlockHash()))) {
-                this.syncBlockHashes.remove(new Sha256Hash(block.getBlockHash()));
-                this.syncBlocks.add(block);
-
-                if (this.syncBlockHashes.size() == 0 && this.syncBlocks.size() > 0) {
-                    PeerManager.instance().relayedBlocks(this, this.syncBlocks);
-                    this.syncBlocks.clear();
-                } else if (this.syncBlocks.size() >= RELAY_BLOCK_COUNT_WHEN_SYNC) {
-                    PeerManager.instance().relayedBlocks(this, this.syncBlocks);
-                    this.syncBlocks.clear();
-                }
-            } else {
-                PeerManager.instance().relayedBlock(this, block);
-            }
-        }
+        // blocks are relayed once their txs are in, the last one we asked for is waited for
+        filteredBlocks.add(m);
+        relayCompletedBlocks(currentBlockHashes.size() == 0);
         if (currentBlockHashes.size() == 0) {
-            boolean waitingLoged = false;
-            while (PeerManager.instance().waitingTaskCount() >
-                    MAX_PEER_MANAGER_WAITING_TASK_COUNT) {
-                try {
-                    if (!waitingLoged) {
-                        if (BitherjSettings.LOG_DEBUG) {
-                            log.info("Peer {} waiting for PeerManager task count {}", peerAddress
-                                    .getHostAddress(), PeerManager.instance().waitingTaskCount());
-                        }
-                        waitingLoged = true;
+            final byte[] blockHash = block.getBlockHash();
+            // ask for more blocks only when PeerManager has caught up with the ones we relayed,
+            // without holding the network thread while it works
+            PeerManager.instance().executeAfterChainTasks(new Runnable() {
+                @Override
+                public void run() {
+                    if (invBlockHashes.size() > 0) {
+                        sendGetBlocksDataNextPiece();
+                    } else {
+                        sendGetBlocksMessage(Arrays.asList(new byte[][]{blockHash, BlockChain
+                                .getInstance().getBlockLocatorArray().get(0)}), null);
                     }
-                    Thread.sleep(PEER_MANAGER_MAX_TASK_CHECKING_INTERVAL);
-                } catch (InterruptedException e) {
                 }
+            });
+        }
+    }
+
+    /**
+     * Relays the merkleblocks that are verified and have all their matched txs, each after its
+     * txs, in the order they came in.
+     */
+    private void relayCompletedBlocks(boolean flush) throws VerificationException {
+        for (FilteredBlockPipeline.Entry entry : filteredBlocks.takeCompleted(flush)) {
+            for (Tx tx : entry.getTxs()) {
+                PeerManager.instance().relayedTransaction(this, tx, true);
             }
+            relayBlock(entry.getBlock());
+        }
+    }
 
-            if (invBlockHashes.size() > 0) {
-                sendGetBlocksDataNextPiece();
-            } else {
-                sendGetBlocksMessage(Arrays.asList(new byte[][]{block.getBlockHash(), BlockChain
-                        .getInstance().getBlockLocatorArray().get(0)}), null);
+    private void relayBlock(Block block) {
+        if (this.synchronising && this.syncBlockHashes.contains(new Sha256Hash(block.getBlockHash()))) {
+            this.syncBlockHashes.remove(new Sha256Hash(block.getBlockHash()));
+            this.syncBlocks.add(block);
+
+            if (this.syncBlockHashes.size() == 0 && this.syncBlocks.size() > 0) {
+                PeerManager.instance().relayedBlocks(this, this.syncBlocks);
+                this.syncBlocks.clear();
+            } else if (this.syncBlocks.size() >= RELAY_BLOCK_COUNT_WHEN_SYNC) {
+                PeerManager.instance().relayedBlocks(this, this.syncBlocks);
+                this.syncBlocks.clear();
             }
+        } else {
+            PeerManager.instance().relayedBlock(this, block);
         }
     }
 
     private void processTransaction(Tx tx) throws VerificationException {
-        if (currentFilteredBlock != null) { // we're collecting tx messages for a merkleblock
-            PeerManager.instance().relayedTransaction(this, tx, true);
-            // we can't we byte array hash or BigInteger as the key.
-            // byte array can't be compared
-            // BigInteger can't be cast back to byte array
-            // so we use Sha256Hash class here as key
-            boolean removed = currentTxHashes.remove(new Sha256Hash(tx.getTxHash()));
-            log.info("peer[{}:{}] receive tx {} filtering block: {}, remaining tx {}, remove {}",
+        if (filteredBlocks.provideTransaction(tx)) { // the tx of a merkleblock
+            log.info("peer[{}:{}] receive tx {} of a filtered block, {} blocks queued",
                     this.peerAddress.getHostAddress(), this.peerPort,
-                    Utils.hashToString(tx.getTxHash()), Utils.hashToString(currentFilteredBlock
-                            .getBlockHash()), currentTxHashes.size(),
-                    removed ? "success" : "failed");
-            if (currentTxHashes.size() == 0) { // we received the entire block including all
-                // matched tx
-                Block block = currentFilteredBlock;
-                currentFilteredBlock = null;
-                currentTxHashes.clear();
-                if (this.synchronising && this.syncBlockHashes.contains(new Sha256Hash(block.getBlockHash()))) {
-                    this.syncBlockHashes.remove(new Sha256Hash(block.getBlockHash()));
-                    this.syncBlocks.add(block);
-
-                    if (this.syncBlockHashes.size() == 0 && this.syncBlocks.size() > 0) {
-                        PeerManager.instance().relayedBlocks(this, this.syncBlocks);
-                        this.syncBlocks.clear();
-                    } else if (this.syncBlocks.size() >= RELAY_BLOCK_COUNT_WHEN_SYNC) {
-                        PeerManager.instance().relayedBlocks(this, this.syncBlocks);
-                        this.syncBlocks.clear();
-                    }
-                } else {
-                    PeerManager.instance().relayedBlock(this, block);
-                }
+                    Utils.hashToString(tx.getTxHash()), filteredBlocks.size());
+            if (!filteredBlocks.isWaitingForTxs()) {
+                relayCompletedBlocks(currentBlockHashes.size() == 0);
             }
         } else {
             log.info("peer[{}:{}] receive tx {}", this.peerAddress.getHostAddress(),
                     this.peerPort, Utils.hashToString(tx.getTxHash()));
-            if (AddressManager.getInstance().isTxRelated(tx, tx.getInAddresses())) {
+            if (PeerManager.instance().isRelayedTxRelated(tx)) {
                 unrelatedTxRelayCount = 0;
             } else {
                 unrelatedTxRelayCount++;
@@ -968,9 +939,10 @@ public class Peer extends PeerSocketHandler {
         }
 
         if (filterBlockCount + blochHashCount > BLOOMFILTER_UPDATE_BLOCK_INTERVAL) {
-            log.info("{} rebuilding bloom filter after {} blocks",
+            // the remote filter fills up with every outpoint it matched, resending ours
+            // resets it
+            log.info("{} reloading bloom filter after {} blocks",
                     getPeerAddress().getHostAddress(), filterBlockCount);
-            PeerManager.instance().requestBloomFilterRecalculate();
             sendFilterLoadMessage(PeerManager.instance().bloomFilterForPeer(this));
         }
 
@@ -22,6 +22,7 @@ import net.bither.bitherj.db.AbstractDb;
 import net.bither.bitherj.exception.ProtocolException;
 import net.bither.bitherj.net.NioClientManager;
 import net.bither.bitherj.utils.DnsDiscovery;
+import net.bither.bitherj.utils.KeyedExecutor;
 import net.bither.bitherj.utils.Sha256Hash;
 import net.bither.bitherj.utils.Utils;
 
@@ -33,19 +34,17 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.CancellationException;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class PeerManager {
 
@@ -57,31 +56,68 @@ public class PeerManager {
     private static final int MaxPeerCount = 100;
     private static final int MaxConnectFailure = 20;
 
+    // Executor lanes. Work in one lane runs in order, different lanes run in parallel. Peer
+    // connection state, sync state and the block chain all live in the chain lane,
+    // unconfirmed txs relayed by a peer run in that peer's own lane.
+    private static final String ChainLane = "chain";
+    private static final String BloomLane = "bloom";
+    private static final String PeerAddressLane = "peer addresses";
+    // stop reading from a peer once this many of its tasks are waiting, resume at the low mark
+    private static final int PeerTaskHighWaterMark = 500;
+    private static final int PeerTaskLowWaterMark = 100;
+    // stop reading from every peer once this many chain tasks are waiting, resume at the low mark
+    private static final int ChainTaskHighWaterMark = 5000;
+    private static final int ChainTaskLowWaterMark = 2000;
+    // heights of the txs blocks confirmed lately, for loose txs registered after their block
+    private static final int RecentlyConfirmedTxCount = 2000;
+    private static final int MaxChainTasksBeforeNextBlocks = 1;
+
     private static Object newInstanceLock = new Object();
 
     private static PeerManager instance;
 
-    private PeerManagerExecutorService executor;
+    private final KeyedExecutor executor;
+    // wallet writes (registering and confirming txs) from different lanes never overlap
+    private final Object walletLock = new Object();
+    // guarded by walletLock
+    private final LinkedHashMap<Sha256Hash, Integer> recentlyConfirmedTxs = new
+            LinkedHashMap<Sha256Hash, Integer>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Sha256Hash, Integer> eldest) {
+            return size() > RecentlyConfirmedTxCount;
+        }
+    };
+    private final Object bloomFilterLock = new Object();
+    private final AtomicBoolean bloomFilterReloadPending = new AtomicBoolean(false);
 
     private AtomicBoolean running;
     private AtomicBoolean connected;
 
     private long tweak, syncStartHeight, filterUpdateHeight;
-    private long lastRelayTime;
+    private volatile long lastRelayTime;
 //    public long earliestKeyTime;
 
-    private BloomFilter bloomFilter;
-    private int bloomFilterElementCount;
+    private final WalletBloomFilter walletBloomFilter;
     private double filterFpRate;
 
+    // relayed txs checked for being the wallet's, and how many of them turned out unrelated in
+    // memory, by the database check and when registering them
+    private final AtomicLong relayedTxCount = new AtomicLong();
+    private final AtomicLong unrelatedInMemoryCount = new AtomicLong();
+    private final AtomicLong unrelatedByDbCheckCount = new AtomicLong();
+    private final AtomicLong notRegisteredCount = new AtomicLong();
+
     private int connectFailure;
-    private final HashSet<Peer> connectedPeers;
-    private final HashSet<Peer> abandonPeers;
-    private final HashMap<Sha256Hash, HashSet<Peer>> txRelays;
-    private final HashMap<Sha256Hash, Tx> publishedTx;
+    private final Set<Peer> connectedPeers;
+    private final Set<Peer> abandonPeers;
+    // peers whose own lane is backlogged, and whether the chain lane is
+    private final Set<Peer> backloggedPeers;
+    private volatile boolean chainBacklogged;
+    private final ConcurrentHashMap<Sha256Hash, Set<Peer>> txRelays;
+    private final ConcurrentHashMap<Sha256Hash, Tx> publishedTx;
 
-    private boolean synchronizing;
-    private Peer downloadingPeer;
+    private volatile boolean synchronizing;
+    private volatile Peer downloadingPeer;
 
     private Timer syncTimeOutTimer;
     private HashMap<Sha256Hash, Timer> publishTxTimeoutTimers;
@@ -102,13 +138,40 @@ public class PeerManager {
     private PeerManager() {
         running = new AtomicBoolean(false);
         connected = new AtomicBoolean(false);
-        connectedPeers = new HashSet<Peer>();
-        abandonPeers = new HashSet<Peer>();
-        txRelays = new HashMap<Sha256Hash, HashSet<Peer>>();
-        publishedTx = new HashMap<Sha256Hash, Tx>();
+        connectedPeers = newPeerSet();
+        abandonPeers = newPeerSet();
+        backloggedPeers = newPeerSet();
+        txRelays = new ConcurrentHashMap<Sha256Hash, Set<Peer>>();
+        publishedTx = new ConcurrentHashMap<Sha256Hash, Tx>();
         tweak = new Random().nextLong();
+        walletBloomFilter = new WalletBloomFilter(tweak);
 //        earliestKeyTime = new Date().getTime() / 1000;//TODO how to set this field
-        executor = new PeerManagerExecutorService();
+        executor = new KeyedExecutor("PeerManager", Math.min(4, Math.max(2, Runtime.getRuntime()
+                .availableProcessors())));
+        executor.setBacklogListener(new KeyedExecutor.BacklogListener() {
+            @Override
+            public void onBacklogChanged(Object key, boolean saturated) {
+                if (key instanceof Peer) {
+                    Peer peer = (Peer) key;
+                    if (saturated) {
+                        backloggedPeers.add(peer);
+                    } else {
+                        backloggedPeers.remove(peer);
+                    }
+                    log.info("Peer {} {} reading, {}", peer.getPeerAddress().getHostAddress(),
+                            saturated ? "pause" : "resume", executor);
+                    updateReadPaused(peer);
+                } else if (ChainLane.equals(key)) {
+                    chainBacklogged = saturated;
+                    log.info("Chain lane {}, {} reading from all peers, {}", saturated ?
+                            "backlogged" : "drained", saturated ? "pause" : "resume", executor);
+                    for (Peer peer : connectedPeers) {
+                        updateReadPaused(peer);
+                    }
+                }
+            }
+        }, PeerTaskHighWaterMark, PeerTaskLowWaterMark);
+        executor.setWaterMarks(ChainLane, ChainTaskHighWaterMark, ChainTaskLowWaterMark);
         initPublishedTx();
     }
 
@@ -121,6 +184,14 @@ public class PeerManager {
 
     }
 
+    /**
+     * A peer stops being read while its own lane or the chain lane, which every peer feeds, is
+     * backlogged.
+     */
+    private void updateReadPaused(Peer peer) {
+        peer.setReadPaused(chainBacklogged || backloggedPeers.contains(peer));
+    }
+
     public boolean isConnected() {
         return connected.get();
     }
@@ -132,7 +203,7 @@ public class PeerManager {
     public void start() {
         if (!running.getAndSet(true)) {
             log.info("peer manager start");
-            bloomFilter = null;
+            walletBloomFilter.invalidate();
             if (this.connectFailure >= MAX_CONNECT_FAILURE_COUNT) {
                 this.connectFailure = 0;
             }
@@ -155,10 +226,10 @@ public class PeerManager {
             log.info("peer manager stop");
             if (connected.getAndSet(false)) {
                 AbstractApp.notificationService.removeBroadcastPeerState();
-                bloomFilter = null;
+                walletBloomFilter.invalidate();
                 sendConnectedChangeBroadcast();
-                executor.getQueue().clear();
-                executor.submit(new Runnable() {
+                executor.clear();
+                executor.execute(ChainLane, new Runnable() {
                     @Override
                     public void run() {
                         for (Peer peer : connectedPeers) {
@@ -193,7 +264,7 @@ public class PeerManager {
         if (!running.get()) {
             return;
         }
-        executor.submit(new Runnable() {
+        executor.execute(ChainLane, new Runnable() {
             @Override
             public void run() {
                 Iterator<Peer> iterator = connectedPeers.iterator();
@@ -267,7 +338,7 @@ public class PeerManager {
     }
 
     private void addRelayedPeers(final List<Peer> peers) {
-        executor.submit(new Runnable() {
+        executor.execute(PeerAddressLane, new Runnable() {
             @Override
             public void run() {
                 ArrayList<Peer> result = new ArrayList<Peer>();
@@ -289,10 +360,11 @@ public class PeerManager {
         if (height != BitherjSettings.TX_UNCONFIRMED) {
             // update all tx in db
             log.info("update {} txs confirmation", txHashes.size());
-            AbstractDb.txProvider.confirmTx(height, txHashes);
-            // update all address 's tx and balance
-            for (Address address : AddressManager.getInstance().getAllAddresses()) {
-                address.setBlockHeight(txHashes, height);
+            synchronized (walletLock) {
+                confirmTxs(height, txHashes);
+                for (byte[] hash : txHashes) {
+                    recentlyConfirmedTxs.put(new Sha256Hash(hash), height);
+                }
             }
 
             // remove confirmed tx from publish list and relay counts
@@ -303,11 +375,20 @@ public class PeerManager {
         }
     }
 
+    // callers hold walletLock
+    private void confirmTxs(int height, List<byte[]> txHashes) {
+        AbstractDb.txProvider.confirmTx(height, txHashes);
+        // update all address 's tx and balance
+        for (Address address : AddressManager.getInstance().getAllAddresses()) {
+            address.setBlockHeight(txHashes, height);
+        }
+    }
+
     public void peerConnected(final Peer peer) {
         if (running.get()) {
             if (peer.getVersionLastBlockHeight() + 10 < getLastBlockHeight()) {
                 log.warn("Peer height low abandon : " + peer.getPeerAddress().getHostAddress());
-                executor.submit(new Runnable() {
+                executor.execute(ChainLane, new Runnable() {
                     @Override
                     public void run() {
                         abandonPeer(peer);
@@ -320,8 +401,10 @@ public class PeerManager {
             }
             log.info("Peer {} connected", peer.getPeerAddress().getHostAddress());
             connectFailure = 0;
-            bloomFilter = null;
-            executor.submit(new Runnable() {
+            if (chainBacklogged) {
+                updateReadPaused(peer);
+            }
+            executor.execute(ChainLane, new Runnable() {
                 @Override
                 public void run() {
                     peer.connectSucceed();
@@ -366,16 +449,7 @@ public class PeerManager {
                     downloadingPeer = dp;
                     connected.set(true);
 
-                    // every time a new wallet address is added, the bloom filter has to be
-                    // rebuilt, and each address is only used for
-                    // one transaction, so here we generate some spare addresses to avoid
-                    // rebuilding the filter each time a wallet
-                    // transaction is encountered during the blockchain download (generates twice
-                    // the external gap limit for both
-                    // address chains)
-
-                    bloomFilter = null; // make sure the bloom filter is updated with any newly
-                    // generated addresses
+                    // the filter picks up any newly generated addresses on its own
                     dp.sendFilterLoadMessage(bloomFilterForPeer(dp));
 
                     if (getLastBlockHeight() < dp.getVersionLastBlockHeight()) {
@@ -403,7 +477,7 @@ public class PeerManager {
                 }
             });
         } else {
-            executor.submit(new Runnable() {
+            executor.execute(ChainLane, new Runnable() {
                 @Override
                 public void run() {
                     peer.disconnect();
@@ -430,10 +504,14 @@ public class PeerManager {
         }
         cancelTimeoutTimer();
         sendSyncProgress();
+        log.info("sync stopped, {}, {}, {} relayed txs: {} unrelated in memory, {} by the db " +
+                "check, {} not registered", executor, walletBloomFilter, relayedTxCount.get(),
+                unrelatedInMemoryCount.get(), unrelatedByDbCheckCount.get(), notRegisteredCount
+                .get());
     }
 
     public void peerDisconnected(final Peer peer, final Peer.DisconnectReason reason) {
-        executor.submit(new Runnable() {
+        executor.execute(ChainLane, new Runnable() {
             @Override
             public void run() {
                 if (reason == null || reason == Peer.DisconnectReason.Normal) {
@@ -451,6 +529,7 @@ public class PeerManager {
                 }
                 int previousConnectedCount = connectedPeers.size();
                 connectedPeers.remove(peer);
+                backloggedPeers.remove(peer);
                 log.info("Peer disconnected {} , remaining {} peers , reason: " + reason, peer
                         .getPeerAddress().getHostAddress(), connectedPeers.size());
                 if (previousConnectedCount > 0 && connectedPeers.size() == 0) {
@@ -460,8 +539,8 @@ public class PeerManager {
 
                 sendPeerCountChangeNotification();
 
-                for (Sha256Hash txHash : txRelays.keySet()) {
-                    txRelays.get(txHash).remove(peer);
+                for (Set<Peer> relays : txRelays.values()) {
+                    relays.remove(peer);
                 }
 
                 if (downloadingPeer != null && downloadingPeer.equals(peer)) {
@@ -505,52 +584,125 @@ public class PeerManager {
         if (fromPeer == downloadingPeer) {
             lastRelayTime = System.currentTimeMillis();
         }
-        executor.submit(new Runnable() {
+        // loose txs were checked by isRelayedTxRelated already
+        if (isConfirmed && !mayBeRelated(tx)) {
+            return;
+        }
+        // txs of a merkle block have to be registered before the block confirms them, so they
+        // share the chain lane. Loose txs run in their peer's lane, in parallel with it.
+        executor.execute(isConfirmed ? ChainLane : fromPeer, new Runnable() {
             @Override
             public void run() {
-                boolean isRel = AddressManager.getInstance().registerTx(tx, Tx.TxNotificationType
-                        .txReceive, isConfirmed);
-                if (isRel) {
-                    boolean isAlreadyInDb = AbstractDb.txProvider.isExist(tx.getTxHash());
+                registerRelayedTx(fromPeer, tx, isConfirmed);
+            }
+        });
+    }
 
-                    if (publishedTx.get(new Sha256Hash(tx.getTxHash())) == null) {
-                        publishedTx.put(new Sha256Hash(tx.getTxHash()), tx);
-                    }
+    void registerRelayedTx(Peer fromPeer, Tx tx, boolean isConfirmed) {
+        boolean isRel;
+        boolean isAlreadyInDb;
+        synchronized (walletLock) {
+            // before registerTx, which stores it
+            isAlreadyInDb = AbstractDb.txProvider.isExist(tx.getTxHash());
+            isRel = AddressManager.getInstance().registerTx(tx, Tx.TxNotificationType
+                    .txReceive, isConfirmed);
+            if (isRel && !isConfirmed) {
+                // the block with this tx may have been connected while it waited in its peer's
+                // lane, its confirmation found nothing to confirm then
+                Integer height = recentlyConfirmedTxs.get(new Sha256Hash(tx.getTxHash()));
+                if (height != null) {
+                    confirmTxs(height, Collections.singletonList(tx.getTxHash()));
+                }
+            }
+        }
+        if (!isRel) {
+            notRegisteredCount.incrementAndGet();
+            return;
+        }
+        Sha256Hash hash = new Sha256Hash(tx.getTxHash());
+        publishedTx.putIfAbsent(hash, tx);
 
-                    // keep track of how many peers relay a tx, this indicates how likely it is
-                    // to be
-                    // confirmed in future blocks
-                    if (txRelays.get(new Sha256Hash(tx.getTxHash())) == null) {
-                        txRelays.put(new Sha256Hash(tx.getTxHash()), new HashSet<Peer>());
-                    }
+        // keep track of how many peers relay a tx, this indicates how likely it is to be
+        // confirmed in future blocks
+        if (relaysOf(hash).add(fromPeer)) {
+            tx.sawByPeer();
+        }
 
-                    long count = txRelays.get(new Sha256Hash(tx.getTxHash())).size();
-                    txRelays.get(new Sha256Hash(tx.getTxHash())).add(fromPeer);
-                    if (txRelays.get(new Sha256Hash(tx.getTxHash())).size() > count) {
-                        tx.sawByPeer();
-                    }
+        if (!isAlreadyInDb) {
+            // put the new outpoints and addresses into the filter the peers have
+            walletBloomFilter.addTx(tx);
+            reloadBloomFilter();
+        }
+    }
 
-                    if (!isAlreadyInDb) {
-                        bloomFilter = null; // reset the filter so a new one will be created with
-                        // the new
-                        // wallet addresses
+    /**
+     * Tells whether a loose tx a peer relayed is the wallet's. Bloom filter false positives are
+     * found out in memory, only the rest is checked against the database.
+     */
+    public boolean isRelayedTxRelated(Tx tx) {
+        if (!mayBeRelated(tx)) {
+            return false;
+        }
+        if (!AddressManager.getInstance().isTxRelated(tx, tx.getInAddresses())) {
+            unrelatedByDbCheckCount.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
 
-                        for (Peer p : connectedPeers) {
-                            p.sendFilterLoadMessage(bloomFilterForPeer(p));
-                        }
-                    }
+    private boolean mayBeRelated(Tx tx) {
+        relayedTxCount.incrementAndGet();
+        if (!walletBloomFilter.mayBeRelated(tx)) {
+            unrelatedInMemoryCount.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
 
-                    // after adding addresses to the filter, re-request upcoming blocks that were
-                    // requested using the old one
-                    if (downloadingPeer != null && BlockChain.getInstance().lastBlock != null) {
-                        downloadingPeer.refetchBlocksFrom(new Sha256Hash(BlockChain.getInstance()
-                                .lastBlock.getBlockHash()));
-                    }
+    /**
+     * Sends the updated bloom filter to every connected peer on the bloom lane and asks the
+     * downloading peer again for the blocks it was sent with the old filter. Requests made
+     * while a reload is already queued are folded into that one.
+     */
+    private void reloadBloomFilter() {
+        if (bloomFilterReloadPending.getAndSet(true)) {
+            return;
+        }
+        executor.execute(BloomLane, new Runnable() {
+            @Override
+            public void run() {
+                bloomFilterReloadPending.set(false);
+                for (Peer p : connectedPeers) {
+                    p.sendFilterLoadMessage(bloomFilterForPeer(p));
+                }
+
+                // after adding addresses to the filter, re-request upcoming blocks that were
+                // requested using the old one
+                Peer dp = downloadingPeer;
+                if (dp != null && BlockChain.getInstance().lastBlock != null) {
+                    dp.refetchBlocksFrom(new Sha256Hash(BlockChain.getInstance()
+                            .lastBlock.getBlockHash()));
                 }
             }
         });
     }
 
+    private Set<Peer> relaysOf(Sha256Hash txHash) {
+        Set<Peer> relays = txRelays.get(txHash);
+        if (relays == null) {
+            Set<Peer> created = newPeerSet();
+            relays = txRelays.putIfAbsent(txHash, created);
+            if (relays == null) {
+                relays = created;
+            }
+        }
+        return relays;
+    }
+
+    private static Set<Peer> newPeerSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<Peer, Boolean>());
+    }
+
     public void relayedBlockHeadersForMainChain(final Peer fromPeer, final List<Block> blocks) {
         if (!isRunning()) {
             return;
@@ -561,7 +713,7 @@ public class PeerManager {
         if (fromPeer == downloadingPeer) {
             lastRelayTime = System.currentTimeMillis();
         }
-        executor.submit(new Runnable() {
+        executor.execute(ChainLane, new Runnable() {
             @Override
             public void run() {
                 Block oldLastBlock = BlockChain.getInstance().getLastBlock();
@@ -583,9 +735,11 @@ public class PeerManager {
                             (blocks);
                     if (relayedCount == blocks.size()) {
                         log.info("Peer {} relay {} block headers OK, last block No.{}, " +
-                                "" + "total block: {}", fromPeer.getPeerAddress().getHostAddress
-                                (), relayedCount, BlockChain.getInstance().getLastBlock()
-                                .getBlockNo(), BlockChain.getInstance().getBlockCount());
+                                "" + "total block: {}, {}", fromPeer.getPeerAddress()
+                                .getHostAddress(), relayedCount, BlockChain.getInstance()
+                                .getLastBlock().getBlockNo(), BlockChain.getInstance()
+                                .getBlockCount(), BlockChain.getInstance()
+                                .getHeaderSyncTimings());
                     } else {
                         abandonPeer(fromPeer);
                         log.info("Peer {} relay {}/{} block headers. drop this peer",
@@ -645,7 +799,7 @@ public class PeerManager {
             // todo: do not check bloom filter now. may be it's useful
         }
 
-        executor.submit(new Runnable() {
+        executor.execute(ChainLane, new Runnable() {
             @Override
             public void run() {
                 Block oldLastBlock = BlockChain.getInstance().lastBlock;
@@ -713,7 +867,7 @@ public class PeerManager {
         } else {
             return;
         }
-        executor.submit(new Runnable() {
+        executor.execute(ChainLane, new Runnable() {
             @Override
             public void run() {
                 // todo:
@@ -773,16 +927,10 @@ public class PeerManager {
         }
         final Tx tx = publishedTx.get(new Sha256Hash(txHash));
         if (tx != null) {
-            bloomFilter = null;
-            executor.submit(new Runnable() {
+            executor.execute(byPeer, new Runnable() {
                 @Override
                 public void run() {
-                    if (txRelays.get(new Sha256Hash(txHash)) == null) {
-                        txRelays.put(new Sha256Hash(txHash), new HashSet<Peer>());
-                    }
-                    long count = txRelays.get(new Sha256Hash(txHash)).size();
-                    txRelays.get(new Sha256Hash(txHash)).add(byPeer);
-                    if (txRelays.get(new Sha256Hash(txHash)).size() > count) {
+                    if (relaysOf(new Sha256Hash(txHash)).add(byPeer)) {
                         tx.sawByPeer();
                     }
                 }
@@ -795,10 +943,12 @@ public class PeerManager {
         if (!isRunning()) {
             return null;
         }
-        BloomFilter filter = getBloomFilter();
-        filterFpRate = filter.getFalsePositiveRate(bloomFilterElementCount);
-        filterUpdateHeight = getLastBlockHeight();
-        return filter;
+        synchronized (bloomFilterLock) {
+            BloomFilter filter = walletBloomFilter.getFilter(targetFpRate());
+            filterFpRate = filter.getFalsePositiveRate(walletBloomFilter.getElementCount());
+            filterUpdateHeight = getLastBlockHeight();
+            return filter;
+        }
     }
 
     public void publishTransaction(final Tx tx) throws PublishUnsignedTxException {
@@ -806,11 +956,14 @@ public class PeerManager {
             throw new PublishUnsignedTxException();
         }
 
-        AddressManager.getInstance().registerTx(tx, Tx.TxNotificationType.txSend, false);
+        synchronized (walletLock) {
+            AddressManager.getInstance().registerTx(tx, Tx.TxNotificationType.txSend, false);
+        }
+        walletBloomFilter.addTx(tx);
 
         publishedTx.put(new Sha256Hash(tx.getTxHash()), tx);
 
-        executor.submit(new Runnable() {
+        executor.execute(ChainLane, new Runnable() {
             @Override
             public void run() {
 //                bloomFilter = null;
@@ -832,88 +985,61 @@ public class PeerManager {
         });
     }
 
+    /**
+     * Forces the next filter sent to a peer to be rebuilt from the database. Address and tx
+     * changes are picked up without this, it is only needed when the wallet changed in a way
+     * the live filter cannot follow.
+     */
     public void requestBloomFilterRecalculate() {
-        bloomFilter = null;
+        walletBloomFilter.invalidate();
     }
 
-    private BloomFilter getBloomFilter() {
-        if (bloomFilter == null) {
+    WalletBloomFilter getWalletBloomFilter() {
+        return walletBloomFilter;
+    }
 
-            filterUpdateHeight = getLastBlockHeight();
-            filterFpRate = BloomFilter.DEFAULT_BLOOM_FILTER_FP_RATE;
-
-            if (downloadingPeer != null && filterUpdateHeight + 500 < downloadingPeer.getVersionLastBlockHeight()) {
-                filterFpRate = BloomFilter.BLOOM_REDUCED_FALSEPOSITIVE_RATE; // lower false
-                // positive rate during chain sync
-            } else if (downloadingPeer != null && filterUpdateHeight < downloadingPeer
-                    .getVersionLastBlockHeight()) { // partially
-                // lower fp rate if we're nearly synced
-                filterFpRate -= (BloomFilter.DEFAULT_BLOOM_FILTER_FP_RATE - BloomFilter
-                        .BLOOM_REDUCED_FALSEPOSITIVE_RATE) * (downloadingPeer
-                        .getVersionLastBlockHeight() - filterUpdateHeight) / BitherjSettings
-                        .BLOCK_DIFFICULTY_INTERVAL;
-            }
+    public int getBloomFilterRebuildCount() {
+        return walletBloomFilter.getRebuildCount();
+    }
 
-            List<Out> outs = new ArrayList<Out>();
-            for (Out out : AbstractDb.txProvider.getOuts()) {
-                if (AddressManager.getInstance().getAddressHashSet().contains(out.getOutAddress()
-                )) {
-                    outs.add(out);
-                }
-            }
-            List<Address> addresses = AddressManager.getInstance().getAllAddresses();
-            int desktopHDMElementCount = 0;
-            if (AddressManager.getInstance().hasDesktopHDMKeychain()) {
-                DesktopHDMKeychain desktopHDMKeychain =
-                        AddressManager.getInstance().getDesktopHDMKeychains().get(0);
-                desktopHDMElementCount = desktopHDMKeychain.elementCountForBloomFilter();
+    public long getBloomFilterLastBuildMillis() {
+        return walletBloomFilter.getLastBuildMillis();
+    }
 
-            }
-            bloomFilterElementCount = addresses.size() * 2 + outs.size() + (AddressManager
-                    .getInstance().hasHDAccountHot() ? AddressManager.getInstance().getHDAccountHot()
-                    .elementCountForBloomFilter() : 0) + (AddressManager.getInstance()
-                    .hasHDAccountMonitored() ? AddressManager.getInstance().getHDAccountMonitored
-                    ().elementCountForBloomFilter() : 0) + desktopHDMElementCount + 100;
-
-            BloomFilter filter = new BloomFilter(bloomFilterElementCount, filterFpRate, tweak,
-                    BloomFilter.BloomUpdate.UPDATE_ALL);
-
-            for (Address address : addresses) { // add addresses to watch for any tx receiveing
-                // money to the wallet
-                byte[] pub = address.getPubKey();
-                if (pub != null && !filter.contains(pub)) {
-                    filter.insert(pub);
-                }
-                if (pub != null) {
-                    byte[] hash = Utils.sha256hash160(pub);
-                    if (hash != null && !filter.contains(hash)) {
-                        filter.insert(hash);
-                    }
-                }
-            }
+    public long getBloomFilterTotalBuildMillis() {
+        return walletBloomFilter.getTotalBuildMillis();
+    }
 
-            for (Out out : outs) {
-                byte[] outpoint = out.getOutpointData();
-                if (!filter.contains(outpoint)) {
-                    filter.insert(outpoint);
-                }
-            }
+    public long getRelayedTxCount() {
+        return relayedTxCount.get();
+    }
 
-            if (AddressManager.getInstance().hasHDAccountHot()) {
-                AddressManager.getInstance().getHDAccountHot().addElementsForBloomFilter(filter);
-            }
+    public long getRelayedTxUnrelatedInMemoryCount() {
+        return unrelatedInMemoryCount.get();
+    }
 
-            if (AddressManager.getInstance().hasHDAccountMonitored()) {
-                AddressManager.getInstance().getHDAccountMonitored().addElementsForBloomFilter(filter);
-            }
+    public long getRelayedTxUnrelatedByDbCheckCount() {
+        return unrelatedByDbCheckCount.get();
+    }
 
-            if (AddressManager.getInstance().hasDesktopHDMKeychain()) {
-                DesktopHDMKeychain desktopHDMKeychain = AddressManager.getInstance().getDesktopHDMKeychains().get(0);
-                desktopHDMKeychain.addElementsForBloomFilter(filter);
-            }
-            bloomFilter = filter;
+    public long getRelayedTxNotRegisteredCount() {
+        return notRegisteredCount.get();
+    }
+
+    private double targetFpRate() {
+        long height = getLastBlockHeight();
+        double fpRate = BloomFilter.DEFAULT_BLOOM_FILTER_FP_RATE;
+        Peer dp = downloadingPeer;
+        if (dp != null && height + 500 < dp.getVersionLastBlockHeight()) {
+            fpRate = BloomFilter.BLOOM_REDUCED_FALSEPOSITIVE_RATE; // lower false
+            // positive rate during chain sync
+        } else if (dp != null && height < dp.getVersionLastBlockHeight()) { // partially
+            // lower fp rate if we're nearly synced
+            fpRate -= (BloomFilter.DEFAULT_BLOOM_FILTER_FP_RATE - BloomFilter
+                    .BLOOM_REDUCED_FALSEPOSITIVE_RATE) * (dp.getVersionLastBlockHeight() -
+                    height) / BitherjSettings.BLOCK_DIFFICULTY_INTERVAL;
         }
-        return bloomFilter;
+        return fpRate;
     }
 
     public boolean doneSyncFromSPV() {
@@ -935,80 +1061,31 @@ public class PeerManager {
     }
 
     public int waitingTaskCount() {
-        if (executor == null || executor.getQueue() == null) {
-            return 0;
-        }
-        return executor.getQueue().size();
+        return executor.getPendingCount();
     }
 
-    static class PeerManagerExecutorService extends ThreadPoolExecutor {
-        private static final int TaskCapacity = 5000;
-        private static final int TaskCapacityWaitForRoom = 2000;
-        private ReentrantLock executeLock = new ReentrantLock();
-        private Condition fullCondition = executeLock.newCondition();
-        private boolean isWaiting = false;
-
-        public PeerManagerExecutorService() {
-            super(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
-        }
-
-        @Override
-        public void execute(Runnable command) {
-            int waiting = getQueue().size();
-            if (getQueue().size() >= TaskCapacity) {
-                isWaiting = true;
-                try {
-                    log.info("PeerManagerExecutor full capacity with " + waiting + " waiting");
-                    executeLock.lockInterruptibly();
-                    fullCondition.await();
-                    log.info("PeerManagerExecutor execute again with " + getQueue().size() + " " +
-                            "waiting");
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                } finally {
-                    executeLock.unlock();
-                }
-            }
-            super.execute(command);
-        }
+    public int waitingChainTaskCount() {
+        return executor.getPendingCount(ChainLane);
+    }
 
-        protected void afterExecute(Runnable r, Throwable t) {
-            super.afterExecute(r, t);
-            long completed = getCompletedTaskCount();
-            int waiting = getQueue().size();
-//            log.info("PeerManagerExecutor finished " + completed + " " +
-//                    "tasks, " + waiting + " tasks remaining");
-            if (t == null && r instanceof Future<?>) {
-                try {
-                    Future<?> future = (Future<?>) r;
-                    if (future.isDone()) {
-                        future.get();
-                    }
-                } catch (CancellationException ce) {
-                    t = ce;
-                } catch (ExecutionException ee) {
-                    t = ee.getCause();
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt(); // ignore/reset
-                }
-            }
-            if (t != null && t.getMessage() != null && t.getMessage().length() > 0) {
-                log.error("exception in PeerManager: " + t.getMessage());
-            }
-            if (isWaiting && waiting < TaskCapacity - TaskCapacityWaitForRoom) {
-                try {
-                    executeLock.lock();
-                    fullCondition.signal();
-                } finally {
-                    executeLock.unlock();
-                }
-                isWaiting = false;
-            }
-        }
+    /**
+     * Queue depth, task wait and run latency of the PeerManager executor, for logging.
+     */
+    public String getExecutorStatus() {
+        return executor.toString();
+    }
 
-        @Override
-        protected void finalize() {
-            super.shutdown();
+    /**
+     * Runs the task on the chain lane once the chain work queued so far is done. The
+     * downloading peer uses this to ask for the next blocks only when the blocks it already
+     * relayed are connected, instead of holding the network thread while it waits. When the
+     * chain lane is nearly idle the task runs right away on the calling thread.
+     */
+    public void executeAfterChainTasks(Runnable task) {
+        if (waitingChainTaskCount() > MaxChainTasksBeforeNextBlocks) {
+            executor.execute(ChainLane, task);
+        } else {
+            task.run();
         }
     }
 
@@ -1051,7 +1128,7 @@ public class PeerManager {
 
 
     private void publishTxTimeout(final byte[] txHash) {
-        executor.execute(new Runnable() {
+        executor.execute(ChainLane, new Runnable() {
             @Override
             public void run() {
                 cancelPublishTxTimeoutTimer(txHash);
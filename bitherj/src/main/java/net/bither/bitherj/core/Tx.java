@@ -27,9 +27,8 @@ import net.bither.bitherj.message.BlockMessage;
 import net.bither.bitherj.message.Message;
 import net.bither.bitherj.script.Script;
 import net.bither.bitherj.script.ScriptBuilder;
-import net.bither.bitherj.script.ScriptOpCodes;
 import net.bither.bitherj.utils.PrivateKeyUtil;
-import net.bither.bitherj.utils.UnsafeByteArrayOutputStream;
+import net.bither.bitherj.utils.Threading;
 import net.bither.bitherj.utils.Utils;
 import net.bither.bitherj.utils.VarInt;
 
@@ -38,7 +37,6 @@ import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.params.KeyParameter;
 import org.spongycastle.math.ec.ECPoint;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
@@ -160,6 +158,8 @@ public class Tx extends Message implements Comparable<Tx> {
 //    public int length;
 
     private transient int optimalEncodingMessageSize;
+    // set while verifySignatures runs, so every input is hashed from the same snapshot
+    private transient TxSigHasher sigHasher;
 
 
     public int getBlockNo() {
@@ -175,8 +175,13 @@ public class Tx extends Message implements Comparable<Tx> {
      */
     public byte[] getTxHash() {
         if (txHash == null) {
-            byte[] bits = bitcoinSerialize();
-            txHash = doubleDigest(bits);
+            byte[] retained = bytes;
+            if (retained != null) {
+                txHash = doubleDigest(retained, offset, length);
+            } else {
+                byte[] bits = bitcoinSerialize();
+                txHash = doubleDigest(bits);
+            }
         }
         return txHash;
     }
@@ -209,6 +214,7 @@ public class Tx extends Message implements Comparable<Tx> {
     }
 
     public void setTxVer(long txVer) {
+        unCache();
         this.txVer = txVer;
     }
 
@@ -217,6 +223,7 @@ public class Tx extends Message implements Comparable<Tx> {
     }
 
     public void setTxLockTime(long txLockTime) {
+        unCache();
         this.txLockTime = txLockTime;
     }
 
@@ -229,6 +236,7 @@ public class Tx extends Message implements Comparable<Tx> {
     }
 
     public List<In> getIns() {
+        maybeParse();
         for (In btIn : this.ins) {
             if (btIn.getTx() == null) {
                 btIn.setTx(this);
@@ -238,10 +246,12 @@ public class Tx extends Message implements Comparable<Tx> {
     }
 
     public void setIns(List<In> ins) {
+        unCache();
         this.ins = ins;
     }
 
     public List<Out> getOuts() {
+        maybeParse();
         for (Out out : this.outs) {
             if (out.getTx() == null) {
                 out.setTx(this);
@@ -251,6 +261,7 @@ public class Tx extends Message implements Comparable<Tx> {
     }
 
     public void setOuts(List<Out> outs) {
+        unCache();
         this.outs = outs;
     }
 
@@ -416,69 +427,87 @@ public class Tx extends Message implements Comparable<Tx> {
         return new Date((long) getTxTime() * 1000);
     }
 
-    protected static int calcLength(byte[] buf, int offset) {
-        VarInt varint;
-        // jump past version (uint32)
-        int cursor = offset + 4;
+    /**
+     * Walks the tx starting at offset and returns its length, checking that all of it is in buf.
+     */
+    protected static int calcLength(byte[] buf, int offset) throws ProtocolException {
+        try {
+            VarInt varint;
+            // jump past version (uint32)
+            long cursor = offset + 4;
 
-        int i;
-        long scriptLen;
+            long i;
+            long scriptLen;
 
-        varint = new VarInt(buf, cursor);
-        long txInCount = varint.value;
-        cursor += varint.getOriginalSizeInBytes();
+            varint = new VarInt(buf, (int) checkCursor(cursor, buf));
+            long txInCount = varint.value;
+            cursor += varint.getOriginalSizeInBytes();
 
-        for (i = 0;
-             i < txInCount;
-             i++) {
-            // 36 = length of previous_outpoint
-            cursor += 36;
-            varint = new VarInt(buf, cursor);
-            scriptLen = varint.value;
-            // 4 = length of sequence field (unint32)
-            cursor += scriptLen + 4 + varint.getOriginalSizeInBytes();
+            for (i = 0;
+                 i < txInCount;
+                 i++) {
+                // 36 = length of previous_outpoint
+                cursor += 36;
+                varint = new VarInt(buf, (int) checkCursor(cursor, buf));
+                scriptLen = checkScriptLength(varint.value, buf);
+                // 4 = length of sequence field (unint32)
+                cursor += scriptLen + 4 + varint.getOriginalSizeInBytes();
+            }
+
+            varint = new VarInt(buf, (int) checkCursor(cursor, buf));
+            long txOutCount = varint.value;
+            cursor += varint.getOriginalSizeInBytes();
+
+            for (i = 0;
+                 i < txOutCount;
+                 i++) {
+                // 8 = length of tx value field (uint64)
+                cursor += 8;
+                varint = new VarInt(buf, (int) checkCursor(cursor, buf));
+                scriptLen = checkScriptLength(varint.value, buf);
+                cursor += scriptLen + varint.getOriginalSizeInBytes();
+            }
+            // 4 = length of lock_time field (uint32)
+            cursor += 4;
+            return (int) (checkCursor(cursor, buf) - offset);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ProtocolException(e);
         }
+    }
 
-        varint = new VarInt(buf, cursor);
-        long txOutCount = varint.value;
-        cursor += varint.getOriginalSizeInBytes();
+    private static long checkCursor(long cursor, byte[] buf) throws ProtocolException {
+        if (cursor > buf.length) {
+            throw new ProtocolException("Tx runs past the end of its message");
+        }
+        return cursor;
+    }
 
-        for (i = 0;
-             i < txOutCount;
-             i++) {
-            // 8 = length of tx value field (uint64)
-            cursor += 8;
-            varint = new VarInt(buf, cursor);
-            scriptLen = varint.value;
-            cursor += scriptLen + varint.getOriginalSizeInBytes();
+    private static long checkScriptLength(long scriptLen, byte[] buf) throws ProtocolException {
+        if (scriptLen < 0 || scriptLen > buf.length) {
+            throw new ProtocolException("Script length out of range: " + scriptLen);
         }
-        // 4 = length of lock_time field (uint32)
-        return cursor - offset + 4;
+        return scriptLen;
     }
 
     protected void parse() throws ProtocolException {
-        //skip this if the length has been provided i.e. the tx is not part of a block
-        if (length == UNKNOWN_LENGTH) {
-            //If length hasn't been provided this tx is probably contained within a block.
-            //In parseRetain mode the block needs to know how long the transaction is
-            //unfortunately this requires a fairly deep (though not total) parse.
-            //This is due to the fact that transactions in the block's list do not include a
-            //size header and inputs/outputs are also variable length due the contained
-            //script so each must be instantiated so the scriptlength varint can be read
-            //to calculate total length of the transaction.
-            //We will still persist will this semi-light parsing because getting the lengths
-            //of the various components gains us the ability to cache the backing bytearrays
-            //so that only those subcomponents that have changed will need to be reserialized.
-
-            //parse();
-            //parsed = true;
-            length = calcLength(bytes, offset);
-            cursor = offset + length;
-        }
-        byte[] b = new byte[length];
-        System.arraycopy(bytes, cursor, b, 0, length);
-        txHash = doubleDigest(b);
+        // Only the length, version and lock time are read up front. Most relayed txs are dropped
+        // before anything looks at their ins and outs, so those are parsed by parseLazily() when
+        // first asked for, the hash when it is, and until the tx changes it is serialized
+        // straight from its bytes.
+        int txLength = calcLength(bytes, offset);
+        if (length != UNKNOWN_LENGTH && txLength > length) {
+            throw new ProtocolException("Tx is longer than its message");
+        }
+        length = txLength;
+
+        cursor = offset;
+        txVer = readUint32();
+        txLockTime = Utils.readUint32(bytes, offset + length - 4);
+        parsed = false;
+    }
 
+    @Override
+    protected void parseLazily() throws ProtocolException {
         cursor = offset;
 
         txVer = readUint32();
@@ -515,7 +544,15 @@ public class Tx extends Message implements Comparable<Tx> {
         }
         this.txLockTime = readUint32();
         optimalEncodingMessageSize += 4;
-        this.length = cursor - offset;
+    }
+
+    @Override
+    protected void unCache() {
+        // a changed tx keeps the hash it had, until recalculateTxHash()
+        if (bytes != null) {
+            getTxHash();
+        }
+        super.unCache();
     }
 
     public int getOptimalEncodingMessageSize() {
@@ -539,6 +576,7 @@ public class Tx extends Message implements Comparable<Tx> {
      * position in a block but by the data in the inputs.
      */
     public boolean isCoinBase() {
+        maybeParse();
         return ins.size() == 1 && ins.get(0).isCoinBase();
     }
 
@@ -562,6 +600,7 @@ public class Tx extends Message implements Comparable<Tx> {
      * Note that this also invalidates the length attribute
      */
     public void clearInputs() {
+        unCache();
         for (In input : ins) {
             input.setTx(null);
         }
@@ -587,6 +626,7 @@ public class Tx extends Message implements Comparable<Tx> {
      * Adds an input directly, with no checking that it's valid. Returns the new input.
      */
     public In addInput(In input) {
+        unCache();
         input.setTx(this);
         input.setInSn(this.getIns().size());
         ins.add(input);
@@ -640,6 +680,7 @@ public class Tx extends Message implements Comparable<Tx> {
      * Note that this also invalidates the length attribute
      */
     public void clearOutputs() {
+        unCache();
         for (Out output : outs) {
             output.setTx(null);
         }
@@ -653,6 +694,7 @@ public class Tx extends Message implements Comparable<Tx> {
      * Returns the given output.
      */
     public Out addOutput(Out to) {
+        unCache();
         to.setTx(this);
         to.setOutSn(this.outs.size());
         outs.add(to);
@@ -706,6 +748,7 @@ public class Tx extends Message implements Comparable<Tx> {
 
     public synchronized void signInputs(TransactionSignature.SigHash hashType, Address address,
                                         CharSequence password) throws ScriptException {
+        maybeParse();
         checkState(ins.size() > 0);
         checkState(outs.size() > 0);
 
@@ -726,6 +769,9 @@ public class Tx extends Message implements Comparable<Tx> {
 
         TransactionSignature[] signatures = new TransactionSignature[ins.size()];
         ECKey[] signingKeys = new ECKey[ins.size()];
+        // one snapshot of the tx for all the sighashes
+        TxSigHasher hasher = new TxSigHasher(this);
+        byte sigHashType = (byte) TransactionSignature.calcSigHashValue(hashType, false);
         for (int i = 0;
              i < ins.size();
              i++) {
@@ -771,8 +817,8 @@ public class Tx extends Message implements Comparable<Tx> {
             byte[] connectedPubKeyScript = input.getPrevOutScript();//input.getOutpoint()
             // .getConnectedPubKeyScript();
             if (key.hasPrivKey() || key.isEncrypted()) {
-                signatures[i] = calculateSignature(i, key, assKey, connectedPubKeyScript,
-                        hashType, anyoneCanPay);
+                signatures[i] = new TransactionSignature(key.sign(hasher.hash(i,
+                        connectedPubKeyScript, sigHashType), assKey), hashType, anyoneCanPay);
             } else {
                 // Create a dummy signature to ensure the transaction is of the correct size when
                 // we try to ensure
@@ -827,6 +873,7 @@ public class Tx extends Message implements Comparable<Tx> {
 
     public synchronized void signInputs(TransactionSignature.SigHash hashType, HashMap<String, Address> addressMap,
                                         CharSequence password) throws ScriptException {
+        maybeParse();
         checkState(ins.size() > 0);
         checkState(outs.size() > 0);
 
@@ -847,6 +894,9 @@ public class Tx extends Message implements Comparable<Tx> {
 
         TransactionSignature[] signatures = new TransactionSignature[ins.size()];
         ECKey[] signingKeys = new ECKey[ins.size()];
+        // one snapshot of the tx for all the sighashes
+        TxSigHasher hasher = new TxSigHasher(this);
+        byte sigHashType = (byte) TransactionSignature.calcSigHashValue(hashType, false);
         for (int i = 0; i < ins.size(); i++) {
             In input = ins.get(i);
             // We don't have the connected output, we assume it was signed already and move on
@@ -891,8 +941,8 @@ public class Tx extends Message implements Comparable<Tx> {
             byte[] connectedPubKeyScript = input.getPrevOutScript();//input.getOutpoint()
             // .getConnectedPubKeyScript();
             if (key.hasPrivKey() || key.isEncrypted()) {
-                signatures[i] = calculateSignature(i, key, assKey, connectedPubKeyScript,
-                        hashType, anyoneCanPay);
+                signatures[i] = new TransactionSignature(key.sign(hasher.hash(i,
+                        connectedPubKeyScript, sigHashType), assKey), hashType, anyoneCanPay);
             } else {
                 // Create a dummy signature to ensure the transaction is of the correct size when
                 // we try to ensure
@@ -943,6 +993,114 @@ public class Tx extends Message implements Comparable<Tx> {
         // Every input is now complete.
     }
 
+    /**
+     * Signs every input like {@link #signInputs(TransactionSignature.SigHash, HashMap,
+     * CharSequence)} and produces the same bytes, but spreads the work over
+     * {@link Threading#COMPUTE_POOL}: the key of each address is decrypted once instead of once
+     * per input, and the sighashes and signatures of the inputs are computed in parallel from a
+     * snapshot of the tx. Worth it for txs spending many outputs, like consolidations.
+     */
+    public void signInputsInParallel(final TransactionSignature.SigHash hashType,
+                                     HashMap<String, Address> addressMap,
+                                     final CharSequence password) throws ScriptException {
+        checkArgument(hashType == TransactionSignature.SigHash.ALL,
+                "Only SIGHASH_ALL is currently supported");
+        final TxSigHasher hasher;
+        final List<In> inputs;
+        synchronized (this) {
+            maybeParse();
+            checkState(ins.size() > 0);
+            checkState(outs.size() > 0);
+            hasher = new TxSigHasher(this);
+            inputs = new ArrayList<In>(ins);
+        }
+
+        // one key per address, the scrypt behind each of them is the slowest part
+        final List<String> addresses = new ArrayList<String>();
+        final HashMap<String, Integer> keyIndexes = new HashMap<String, Integer>();
+        final int[] inKeys = new int[inputs.size()];
+        for (int i = 0; i < inputs.size(); i++) {
+            In input = inputs.get(i);
+            if (input.getInSignature() == null || input.getInSignature().length != 0) {
+                log.warn("Re-signing an already signed transaction! Be sure this is what you " +
+                        "want" + ".");
+            }
+            String address = new Script(input.getPrevOutScript()).getToAddress();
+            Integer keyIndex = keyIndexes.get(address);
+            if (keyIndex == null) {
+                keyIndex = addresses.size();
+                keyIndexes.put(address, keyIndex);
+                addresses.add(address);
+            }
+            inKeys[i] = keyIndex;
+        }
+        final String[] encryptedKeys = new String[addresses.size()];
+        for (int i = 0; i < addresses.size(); i++) {
+            encryptedKeys[i] = addressMap.get(addresses.get(i)).getFullEncryptPrivKey();
+        }
+        final ECKey[] keys = new ECKey[addresses.size()];
+        final KeyParameter[] aesKeys = new KeyParameter[addresses.size()];
+        Threading.runInChunks(keys.length, 1, new Threading.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    ECKey key = PrivateKeyUtil.getECKeyFromSingleString(encryptedKeys[i],
+                            password);
+                    // This should never fire. If it does, the wallet is inconsistent.
+                    checkNotNull(key, "Transaction exists in wallet that we cannot redeem: %s",
+                            addresses.get(i));
+                    keys[i] = key;
+                    aesKeys[i] = key.getKeyCrypter().deriveKey(password);
+                }
+            }
+        });
+
+        final TransactionSignature[] signatures = new TransactionSignature[inputs.size()];
+        final byte sigHashType = (byte) TransactionSignature.calcSigHashValue(hashType, false);
+        try {
+            Threading.runInChunks(inputs.size(), 1, new Threading.RangeTask() {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        ECKey key = keys[inKeys[i]];
+                        if (key.hasPrivKey() || key.isEncrypted()) {
+                            byte[] hash = hasher.hash(i, inputs.get(i).getPrevOutScript(),
+                                    sigHashType);
+                            signatures[i] = new TransactionSignature(key.sign(hash,
+                                    aesKeys[inKeys[i]]), hashType, false);
+                        } else {
+                            signatures[i] = TransactionSignature.dummy();
+                        }
+                    }
+                }
+            });
+
+            // the input scripts go in one by one, the same way signInputs puts them in
+            synchronized (this) {
+                for (int i = 0; i < inputs.size(); i++) {
+                    In input = inputs.get(i);
+                    Script scriptPubKey = new Script(input.getPrevOutScript());
+                    if (scriptPubKey.isSentToAddress()) {
+                        input.setInSignature(ScriptBuilder.createInputScript(signatures[i],
+                                keys[inKeys[i]]).getProgram());
+                    } else if (scriptPubKey.isSentToRawPubKey()) {
+                        input.setInSignature(ScriptBuilder.createInputScript(signatures[i])
+                                .getProgram());
+                    } else {
+                        throw new RuntimeException("Do not understand script type: " +
+                                scriptPubKey);
+                    }
+                }
+            }
+        } finally {
+            for (ECKey key : keys) {
+                if (key != null) {
+                    key.clearPrivateKey();
+                }
+            }
+        }
+    }
+
     /**
      * Calculates a signature that is valid for being inserted into the input at the given
      * position. This is simply
@@ -1052,153 +1210,16 @@ public class Tx extends Message implements Comparable<Tx> {
         // the purposes of the code in this method:
         //
         //   https://en.bitcoin.it/wiki/Contracts
-
-        try {
-            // Store all the input scripts and clear them in preparation for signing. If we're
-            // signing a fresh
-            // transaction that step isn't very helpful, but it doesn't add much cost relative to
-            // the actual
-            // EC math so we'll do it anyway.
-            //
-            // Also store the input sequence numbers in case we are clearing them with SigHash
-            // .NONE/SINGLE
-            byte[][] inputScripts = new byte[this.getIns().size()][];
-            long[] inputSequenceNumbers = new long[this.getIns().size()];
-            for (int i = 0;
-                 i < this.getIns().size();
-                 i++) {
-                inputScripts[i] = this.getIns().get(i).getInSignature();
-                inputSequenceNumbers[i] = this.getIns().get(i).getInSequence();
-                this.getIns().get(i).setInSignature(new byte[0]);
-            }
-
-            // This step has no purpose beyond being synchronized with the reference clients bugs
-            // . OP_CODESEPARATOR
-            // is a legacy holdover from a previous, broken design of executing scripts that
-            // shipped in Bitcoin 0.1.
-            // It was seriously flawed and would have let anyone take anyone elses money. Later
-            // versions switched to
-            // the design we use today where scripts are executed independently but share a stack
-            // . This left the
-            // OP_CODESEPARATOR instruction having no purpose as it was only meant to be used
-            // internally, not actually
-            // ever put into scripts. Deleting OP_CODESEPARATOR is a step that should never be
-            // required but if we don't
-            // do it, we could split off the main chain.
-            connectedScript = Script.removeAllInstancesOfOp(connectedScript,
-                    ScriptOpCodes.OP_CODESEPARATOR);
-
-            // Set the input to the script of its output. Satoshi does this but the step has no
-            // obvious purpose as
-            // the signature covers the hash of the prevout transaction which obviously includes
-            // the output script
-            // already. Perhaps it felt safer to him in some way, or is another leftover from how
-            // the code was written.
-            In input = this.getIns().get(inputIndex);
-            input.setInSignature(connectedScript);
-
-            List<Out> outputs = this.getOuts();
-            if ((sigHashType & 0x1f) == (TransactionSignature.SigHash.NONE.ordinal() + 1)) {
-                // SIGHASH_NONE means no outputs are signed at all - the signature is effectively
-                // for a "blank cheque".
-                this.outs = new ArrayList<Out>(0);
-                // The signature isn't broken by new versions of the transaction issued by other
-                // parties.
-                for (int i = 0;
-                     i < this.getIns().size();
-                     i++)
-                    if (i != inputIndex) {
-                        this.getIns().get(i).setInSequence(0);
-                    }
-            } else if ((sigHashType & 0x1f) == (TransactionSignature.SigHash.SINGLE.ordinal() +
-                    1)) {
-                // SIGHASH_SINGLE means only sign the output at the same index as the input (ie,
-                // my output).
-                if (inputIndex >= this.getOuts().size()) {
-                    // The input index is beyond the number of outputs,
-                    // it's a buggy signature made by a broken
-                    // Bitcoin implementation. The reference client also contains a bug in
-                    // handling this case:
-                    // any transaction output that is signed in this case will result in both the
-                    // signed output
-                    // and any future outputs to this public key being steal-able by anyone who has
-                    // the resulting signature and the public key (both of which are part of the
-                    // signed tx input).
-                    // Put the transaction back to how we found it.
-                    //
-                    // TODO: Only allow this to happen if we are checking a signature,
-                    // not signing a transactions
-                    for (int i = 0;
-                         i < this.getIns().size();
-                         i++) {
-                        this.getIns().get(i).setInSignature(inputScripts[i]);
-                        this.getIns().get(i).setInSequence(inputSequenceNumbers[i]);
-                    }
-                    this.outs = outputs;
-                    // Satoshis bug is that SignatureHash was supposed to return a hash and on
-                    // this codepath it
-                    // actually returns the constant "1" to indicate an error,
-                    // which is never checked for. Oops.
-                    return Utils.hexStringToByteArray
-                            ("0100000000000000000000000000000000000000000000000000000000000000");
-                }
-                // In SIGHASH_SINGLE the outputs after the matching input index are deleted,
-                // and the outputs before
-                // that position are "nulled out". Unintuitively,
-                // the value in a "null" transaction is set to -1.
-                this.outs = new ArrayList<Out>(this.getOuts().subList(0, inputIndex + 1));
-                for (int i = 0;
-                     i < inputIndex;
-                     i++)
-                    this.getOuts().set(i, new Out(this, -1, new byte[]{}));
-                // The signature isn't broken by new versions of the transaction issued by other
-                // parties.
-                for (int i = 0;
-                     i < this.getIns().size();
-                     i++)
-                    if (i != inputIndex) {
-                        this.getIns().get(i).setInSequence(0);
-                    }
-            }
-
-            List<In> inputs = this.getIns();
-            if ((sigHashType & TransactionSignature.SIGHASH_ANYONECANPAY_VALUE) ==
-                    TransactionSignature.SIGHASH_ANYONECANPAY_VALUE) {
-                // SIGHASH_ANYONECANPAY means the signature in the input is not broken by
-                // changes/additions/removals
-                // of other inputs. For example, this is useful for building assurance contracts.
-                this.ins = new ArrayList<In>();
-                this.getIns().add(input);
-            }
-
-            ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(length == UNKNOWN_LENGTH
-                    ? 256 : length + 4);
-            bitcoinSerialize(bos);
-            // We also have to write a hash type (sigHashType is actually an unsigned char)
-            uint32ToByteStreamLE(0x000000ff & sigHashType, bos);
-            // Note that this is NOT reversed to ensure it will be signed correctly. If it were
-            // to be printed out
-            // however then we would expect that it is IS reversed.
-            byte[] hash = doubleDigest(bos.toByteArray());
-            bos.close();
-
-            // Put the transaction back to how we found it.
-            this.ins = inputs;
-            for (int i = 0;
-                 i < inputs.size();
-                 i++) {
-                inputs.get(i).setInSignature(inputScripts[i]);
-                inputs.get(i).setInSequence(inputSequenceNumbers[i]);
-            }
-            this.outs = outputs;
-            return hash;
-        } catch (IOException e) {
-            throw new RuntimeException(e);  // Cannot happen.
-        }
+        //
+        // The hash is over a simplified copy of the transaction, which the hasher builds from a
+        // snapshot of it, so this tx is never modified.
+        TxSigHasher hasher = sigHasher != null ? sigHasher : new TxSigHasher(this);
+        return hasher.hash(inputIndex, connectedScript, sigHashType);
     }
 
     @Override
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
+        maybeParse();
         uint32ToByteStreamLE(txVer, stream);
         stream.write(new VarInt(ins.size()).encode());
         for (In in : ins)
@@ -1220,6 +1241,7 @@ public class Tx extends Message implements Comparable<Tx> {
      * then data will be lost during serialization.
      */
     private void writeObject(ObjectOutputStream out) throws IOException {
+        maybeParse();
         out.defaultWriteObject();
     }
 
@@ -1227,6 +1249,7 @@ public class Tx extends Message implements Comparable<Tx> {
      * Gets the count of regular SigOps in this transactions
      */
     public int getSigOpCount() throws ScriptException {
+        maybeParse();
         int sigOps = 0;
         for (In input : ins)
             sigOps += Script.getSigOpCount(input.getInSignature());
@@ -1243,6 +1266,7 @@ public class Tx extends Message implements Comparable<Tx> {
      * @throws net.bither.bitherj.exception.VerificationException
      */
     public void verify() throws VerificationException {
+        maybeParse();
         if (ins.size() == 0 || outs.size() == 0) {
             throw new VerificationException("Transaction had no inputs or no outputs.");
         }
@@ -1337,7 +1361,7 @@ public class Tx extends Message implements Comparable<Tx> {
 
     public long amountReceivedFrom(Address address) {
         long amount = 0;
-        for (Out out : this.outs) {
+        for (Out out : getOuts()) {
             if (Utils.compareString(address.getAddress(), out.getOutAddress())) {
                 amount += out.getOutValue();
             }
@@ -1375,7 +1399,7 @@ public class Tx extends Message implements Comparable<Tx> {
             return deltaAmountFrom((HDAccount) address);
         }
         long receive = 0;
-        for (Out out : this.outs) {
+        for (Out out : getOuts()) {
             if (Utils.compareString(address.getAddress(), out.getOutAddress())) {
                 receive += out.getOutValue();
             }
@@ -1387,7 +1411,7 @@ public class Tx extends Message implements Comparable<Tx> {
     public long deltaAmountFrom(HDAccount account) {
         long receive = 0;
         HashSet<String> hashSet = account.getBelongAccountAddresses(getOutAddressList());
-        for (Out out : this.outs) {
+        for (Out out : getOuts()) {
             if (hashSet.contains(out.getOutAddress())) {
                 receive += out.getOutValue();
             }
@@ -1398,7 +1422,7 @@ public class Tx extends Message implements Comparable<Tx> {
 
     public List<String> getOutAddressList() {
         List<String> outAddressList = new ArrayList<String>();
-        for (Out out : this.outs) {
+        for (Out out : getOuts()) {
             String outAddress = out.getOutAddress();
             if (!Utils.isEmpty(outAddress)) {
                 outAddressList.add(outAddress);
@@ -1436,24 +1460,31 @@ public class Tx extends Message implements Comparable<Tx> {
 
     public List<byte[]> getUnsignedInHashes() {
         List<byte[]> result = new ArrayList<byte[]>();
+        TxSigHasher hasher = newSigHasher();
         for (In in : this.getIns()) {
             byte sigHashType = (byte) TransactionSignature.calcSigHashValue(TransactionSignature
                     .SigHash.ALL, false);
-            result.add(this.hashForSignature(in.getInSn(), in.getPrevOutScript(), sigHashType));
+            result.add(hasher.hash(in.getInSn(), in.getPrevOutScript(), sigHashType));
         }
         return result;
     }
 
     public List<byte[]> getUnsignedInHashesForHDM(byte[] pubs) {
         List<byte[]> result = new ArrayList<byte[]>();
+        TxSigHasher hasher = newSigHasher();
         for (In in : this.getIns()) {
             byte sigHashType = (byte) TransactionSignature.calcSigHashValue(TransactionSignature
                     .SigHash.ALL, false);
-            result.add(this.hashForSignature(in.getInSn(), pubs, sigHashType));
+            result.add(hasher.hash(in.getInSn(), pubs, sigHashType));
         }
         return result;
     }
 
+    // one snapshot serves the hashes of every input
+    private synchronized TxSigHasher newSigHasher() {
+        return new TxSigHasher(this);
+    }
+
     public List<byte[]> getUnsignedInHashesForDesktpHDM(byte[] pubs, int index) {
         List<byte[]> result = new ArrayList<byte[]>();
         In in = this.getIns().get(index);
@@ -1555,8 +1586,9 @@ public class Tx extends Message implements Comparable<Tx> {
     }
 
 
-    public boolean verifySignatures() {
+    public synchronized boolean verifySignatures() {
         if (this.isSigned()) {
+            sigHasher = new TxSigHasher(this);
             try {
                 for (In in : this.getIns()) {
                     Script scriptSig = new Script(in.getInSignature());
@@ -1564,7 +1596,6 @@ public class Tx extends Message implements Comparable<Tx> {
                     if (in.getPrevOutScript() == null || in.getPrevOutScript().length == 0) {
                         return false;
                     }
-                    System.out.println("in:" + in.getFromAddress() + "," + in.getInSn());
                     scriptSig.correctlySpends(this, in.getInSn(), new Script(in.getPrevOutScript
                             ()), true);
 
@@ -1575,6 +1606,8 @@ public class Tx extends Message implements Comparable<Tx> {
             } catch (Exception ex) {
                 ex.printStackTrace();
                 return false;
+            } finally {
+                sigHasher = null;
             }
             return true;
         } else {
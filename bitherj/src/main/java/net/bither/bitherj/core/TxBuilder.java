@@ -17,7 +17,6 @@
 package net.bither.bitherj.core;
 
 import net.bither.bitherj.BitherjSettings;
-import net.bither.bitherj.db.AbstractDb;
 import net.bither.bitherj.exception.TxBuilderException;
 import net.bither.bitherj.script.Script;
 import net.bither.bitherj.script.ScriptBuilder;
@@ -37,6 +36,7 @@ public class TxBuilder {
     private List<TxBuilderProtocol> txBuilders = new ArrayList<TxBuilderProtocol>();
 
     TxBuilder() {
+        txBuilders.add(new TxBuilderCoinSelection());
         txBuilders.add(new TxBuilderDefault());
     }
 
@@ -77,6 +77,8 @@ public class TxBuilder {
             // note: need all unspent out is pay-to-pubkey-hash
             if (tx != null && TxBuilder.estimationTxSize(tx.getIns().size(), tx.getOuts().size()) <= BitherjSettings.MAX_TX_SIZE) {
                 txs.add(tx);
+                // the first builder's tx is the one used, the rest need not run
+                break;
             } else if (tx != null) {
                 mayMaxTxSize = true;
             }
@@ -106,7 +108,7 @@ public class TxBuilder {
         for (long amount : amounts) {
             value += amount;
         }
-        List<Tx> unspendTxs = AbstractDb.txProvider.getUnspendTxWithAddress(address.getAddress());
+        List<Tx> unspendTxs = UtxoSet.getInstance().getUnspendTxs(address.getAddress());
         List<Out> unspendOuts = getUnspendOuts(unspendTxs);
         List<Out> canSpendOuts = getCanSpendOuts(unspendTxs);
         List<Out> canNotSpendOuts = getCanNotSpendOuts(unspendTxs);
@@ -138,6 +140,8 @@ public class TxBuilder {
             Tx tx = builder.buildTx(address, changeAddress, unspendTxs, prepareTx(amounts, addresses));
             if (tx != null && TxBuilder.estimationTxSize(tx.getIns().size(), scriptPubKey, tx.getOuts(), address.isCompressed()) <= BitherjSettings.MAX_TX_SIZE) {
                 txs.add(tx);
+                // the first builder's tx is the one used, the rest need not run
+                break;
             } else if (tx != null) {
                 mayMaxTxSize = true;
             }
@@ -341,6 +345,66 @@ class TxBuilderEmptyWallet implements TxBuilderProtocol {
     }
 }
 
+/**
+ * Spends the outs {@link CoinSelector} picks: one set needing no change when there is one,
+ * otherwise the smallest set found leaving change. Returns null when the outs can not pay, the
+ * following builders then have their try.
+ */
+class TxBuilderCoinSelection implements TxBuilderProtocol {
+    private static final int ChangeOutSize = 34;
+
+    private final CoinSelector coinSelector = new CoinSelector();
+
+    public Tx buildTx(Address address, String changeAddress, List<Tx> unspendTxs, Tx tx) {
+        Script scriptPubKey = null;
+        if (address.isHDM()) {
+            scriptPubKey = new Script(address.getPubKey());
+        } else {
+            scriptPubKey = ScriptBuilder.createOutputScript(address.address);
+        }
+        int fixedSize = TxBuilder.estimationTxSize(0, scriptPubKey, tx.getOuts(), address
+                .isCompressed());
+        int inSize = TxBuilder.estimationTxSize(1, scriptPubKey, tx.getOuts(), address
+                .isCompressed()) - fixedSize;
+        return buildTx(changeAddress, TxBuilder.getUnspendOuts(unspendTxs), tx, inSize,
+                fixedSize);
+    }
+
+    @Override
+    public Tx buildTx(String changeAddress, List<Out> unspendOuts, Tx tx) {
+        int fixedSize = TxBuilder.estimationTxSize(0, tx.getOuts().size());
+        int inSize = TxBuilder.estimationTxSize(1, tx.getOuts().size()) - fixedSize;
+        return buildTx(changeAddress, unspendOuts, tx, inSize, fixedSize);
+    }
+
+    private Tx buildTx(String changeAddress, List<Out> outs, Tx tx, int inSize, int fixedSize) {
+        long value = 0;
+        for (Out out : tx.getOuts()) {
+            value += out.getOutValue();
+        }
+        long[] values = new long[outs.size()];
+        int[] sizes = new int[outs.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = outs.get(i).getOutValue();
+            sizes[i] = inSize;
+        }
+        CoinSelector.Selection selection = coinSelector.select(values, sizes, new CoinSelector
+                .Payment(value, fixedSize, ChangeOutSize, Utils.getFeeBase(), Tx
+                .MIN_NONDUST_OUTPUT));
+        if (selection == null) {
+            return null;
+        }
+        if (selection.getChange() > 0) {
+            tx.addOutput(selection.getChange(), changeAddress);
+        }
+        for (int index : selection.getIndexes()) {
+            tx.addInput(outs.get(index));
+        }
+        tx.setSource(Tx.SourceType.self.getValue());
+        return tx;
+    }
+}
+
 class TxBuilderDefault implements TxBuilderProtocol {
     public Tx buildTx(Address address, String changeAddress, List<Tx> unspendTxs, Tx tx) {
         boolean isCompressed = address.isCompressed();
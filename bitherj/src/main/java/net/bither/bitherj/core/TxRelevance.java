@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.script.ScriptOpCodes;
+import net.bither.bitherj.utils.Utils;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * The exact elements of the wallet's bloom filter, to tell the txs peers relay because they are
+ * ours from the filter's false positives in memory. A tx matches the way it matches on the peer:
+ * by a data push of one of its scripts or by an outpoint it spends. Matching adds nothing: the
+ * outpoints of a tx only come in through {@link WalletBloomFilter#addTx(Tx)} once the wallet
+ * has registered it, so false positives the database checks reject leave no trace.
+ */
+class TxRelevance {
+    private final HashSet<Element> elements = new HashSet<Element>();
+    // the lengths of the elements, most pushes are signatures that no element is as long as
+    private final BitSet lengths = new BitSet();
+
+    synchronized void insert(byte[] element) {
+        if (elements.add(new Element(element, 0, element.length))) {
+            lengths.set(element.length);
+        }
+    }
+
+    synchronized void insertAll(Collection<byte[]> elements) {
+        for (byte[] element : elements) {
+            insert(element);
+        }
+    }
+
+    synchronized int size() {
+        return elements.size();
+    }
+
+    /**
+     * Returns false when nothing in the tx is one of the elements, so the peer only sent it as
+     * a false positive of the filter.
+     */
+    synchronized boolean matches(Tx tx) {
+        for (Out out : tx.getOuts()) {
+            if (containsPush(out.getOutScript())) {
+                return true;
+            }
+        }
+        for (In in : tx.getIns()) {
+            if (containsOutpoint(in.getPrevTxHash(), in.getPrevOutSn()) || containsPush(in
+                    .getInSignature())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean containsOutpoint(byte[] txHash, int outSn) {
+        if (txHash == null || !lengths.get(txHash.length + 4)) {
+            return false;
+        }
+        return elements.contains(new Element(WalletBloomFilter.outpoint(txHash, outSn), 0,
+                txHash.length + 4));
+    }
+
+    private boolean containsPush(byte[] script) {
+        if (script == null) {
+            return false;
+        }
+        int cursor = 0;
+        while (cursor < script.length) {
+            int opcode = script[cursor++] & 0xff;
+            long length;
+            if (opcode < ScriptOpCodes.OP_PUSHDATA1) {
+                length = opcode;
+            } else if (opcode == ScriptOpCodes.OP_PUSHDATA1) {
+                if (script.length - cursor < 1) {
+                    return false;
+                }
+                length = script[cursor] & 0xff;
+                cursor += 1;
+            } else if (opcode == ScriptOpCodes.OP_PUSHDATA2) {
+                if (script.length - cursor < 2) {
+                    return false;
+                }
+                length = (script[cursor] & 0xff) | (script[cursor + 1] & 0xff) << 8;
+                cursor += 2;
+            } else if (opcode == ScriptOpCodes.OP_PUSHDATA4) {
+                if (script.length - cursor < 4) {
+                    return false;
+                }
+                length = Utils.readUint32(script, cursor);
+                cursor += 4;
+            } else {
+                continue;
+            }
+            // like the peer, stop at a push running past the end of the script
+            if (length > script.length - cursor) {
+                return false;
+            }
+            int pushLength = (int) length;
+            if (pushLength > 0 && lengths.get(pushLength) && elements.contains(new Element
+                    (script, cursor, pushLength))) {
+                return true;
+            }
+            cursor += pushLength;
+        }
+        return false;
+    }
+
+    /**
+     * A range of a byte array, so a push is looked up where it is in its script.
+     */
+    private static final class Element {
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+        private final int hash;
+
+        Element(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            int hash = 1;
+            for (int i = offset; i < offset + length; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Element)) {
+                return false;
+            }
+            Element other = (Element) o;
+            if (hash != other.hash || length != other.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[offset + i] != other.bytes[other.offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
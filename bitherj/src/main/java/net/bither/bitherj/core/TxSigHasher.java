@@ -0,0 +1,248 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.crypto.TransactionSignature;
+import net.bither.bitherj.script.Script;
+import net.bither.bitherj.script.ScriptOpCodes;
+import net.bither.bitherj.utils.Sha256Hasher;
+import net.bither.bitherj.utils.UnsafeByteArrayOutputStream;
+import net.bither.bitherj.utils.Utils;
+import net.bither.bitherj.utils.VarInt;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Computes legacy signature hashes from a copy of the parts of a tx they cover, taken once. The
+ * tx itself is never touched, so one hasher can serve any number of threads hashing different
+ * inputs at the same time. The bytes hashed are exactly the ones {@link Tx#hashForSignature}
+ * used to produce by blanking and restoring the tx's own inputs and outputs.
+ * <p/>
+ * Every input other than the signed one goes into the hash with an empty script, so the blanked
+ * inputs and the outputs are serialized once and streamed straight into the digest, nothing is
+ * serialized per input. For big txs the digest state after each run of
+ * {@link #CheckpointInputs} blanked inputs is kept as well, so the inputs in front of the signed
+ * one are mostly not hashed again either.
+ */
+final class TxSigHasher {
+    private static final int OutpointLength = 36;
+    // outpoint, empty script, sequence
+    private static final int BlankInLength = OutpointLength + 1 + 4;
+    // value -1 and an empty script, for the outputs in front of the signed one under SINGLE
+    private static final byte[] BlankOut = Utils.hexStringToByteArray("ffffffffffffffff00");
+    private static final byte[] SingleBugHash = Utils.hexStringToByteArray
+            ("0100000000000000000000000000000000000000000000000000000000000000");
+    // inputs between two kept digest states
+    static final int CheckpointInputs = 32;
+
+    private final byte[] head;
+    private final byte[] anyoneCanPayHead;
+    private final long[] sequences;
+    // every input blanked, with its sequence for ALL and with sequence 0 for NONE and SINGLE
+    private final byte[] blankIns;
+    private final byte[] blankInsNoSequence;
+    private final long[] outValues;
+    private final byte[][] outScripts;
+    // every output as serialized for SIGHASH_ALL, count included
+    private final byte[] allOuts;
+    private final long txLockTime;
+
+    private MessageDigest[] checkpoints;
+    private MessageDigest[] checkpointsNoSequence;
+
+    TxSigHasher(Tx tx) {
+        List<In> ins = tx.getIns();
+        head = headFor(tx.getTxVer(), ins.size());
+        anyoneCanPayHead = headFor(tx.getTxVer(), 1);
+        txLockTime = tx.getTxLockTime();
+        sequences = new long[ins.size()];
+        blankIns = new byte[ins.size() * BlankInLength];
+        for (int i = 0; i < ins.size(); i++) {
+            In in = ins.get(i);
+            int offset = i * BlankInLength;
+            System.arraycopy(in.getPrevTxHash(), 0, blankIns, offset, 32);
+            Utils.uint32ToByteArrayLE(in.getPrevOutSn(), blankIns, offset + 32);
+            sequences[i] = in.getInSequence();
+            Utils.uint32ToByteArrayLE(sequences[i], blankIns, offset + OutpointLength + 1);
+        }
+        blankInsNoSequence = blankIns.clone();
+        for (int i = 0; i < ins.size(); i++) {
+            Utils.uint32ToByteArrayLE(0, blankInsNoSequence, i * BlankInLength + OutpointLength
+                    + 1);
+        }
+        List<Out> outs = tx.getOuts();
+        outValues = new long[outs.size()];
+        outScripts = new byte[outs.size()][];
+        for (int i = 0; i < outs.size(); i++) {
+            outValues[i] = outs.get(i).getOutValue();
+            outScripts[i] = outs.get(i).getOutScript();
+        }
+        try {
+            UnsafeByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(outs.size() * 34 + 9);
+            bos.write(new VarInt(outs.size()).encode());
+            for (int i = 0; i < outs.size(); i++) {
+                Utils.int64ToByteStreamLE(outValues[i], bos);
+                bos.write(new VarInt(outScripts[i].length).encode());
+                bos.write(outScripts[i]);
+            }
+            allOuts = bos.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+    }
+
+    int getInCount() {
+        return sequences.length;
+    }
+
+    /**
+     * Same as {@link Tx#hashForSignature(int, byte[], byte)}.
+     */
+    byte[] hash(int inputIndex, byte[] connectedScript, byte sigHashType) {
+        // OP_CODESEPARATOR is a leftover of the original, broken script design; the reference
+        // client strips it from the connected script and so must we to stay on its chain
+        connectedScript = Script.removeAllInstancesOfOp(connectedScript, ScriptOpCodes
+                .OP_CODESEPARATOR);
+        int type = sigHashType & 0x1f;
+        boolean none = type == TransactionSignature.SigHash.NONE.ordinal() + 1;
+        boolean single = type == TransactionSignature.SigHash.SINGLE.ordinal() + 1;
+        boolean anyoneCanPay = (sigHashType & TransactionSignature.SIGHASH_ANYONECANPAY_VALUE) ==
+                TransactionSignature.SIGHASH_ANYONECANPAY_VALUE;
+        if (single && inputIndex >= outValues.length) {
+            // the reference client returns the constant 1 as the "hash" here instead of failing,
+            // and signatures over it are valid on the network
+            return SingleBugHash.clone();
+        }
+        byte[] buffer = new byte[8];
+        MessageDigest digest;
+        if (anyoneCanPay) {
+            digest = Sha256Hasher.threadDigest();
+            digest.update(anyoneCanPayHead);
+            updateIn(digest, blankIns, inputIndex, connectedScript, buffer);
+        } else {
+            // other inputs sign with an empty script, and with NONE and SINGLE their sequence is
+            // not covered either
+            byte[] blanks = none || single ? blankInsNoSequence : blankIns;
+            digest = prefix(none || single, inputIndex);
+            updateIn(digest, blanks, inputIndex, connectedScript, buffer);
+            int next = (inputIndex + 1) * BlankInLength;
+            digest.update(blanks, next, blanks.length - next);
+        }
+        if (none) {
+            digest.update((byte) 0);
+        } else if (single) {
+            // outputs before the input's one are blanked to -1 and no script
+            digest.update(new VarInt(inputIndex + 1).encode());
+            for (int i = 0; i < inputIndex; i++) {
+                digest.update(BlankOut);
+            }
+            Utils.uint64ToByteArrayLE(outValues[inputIndex], buffer, 0);
+            digest.update(buffer, 0, 8);
+            digest.update(new VarInt(outScripts[inputIndex].length).encode());
+            digest.update(outScripts[inputIndex]);
+        } else {
+            digest.update(allOuts);
+        }
+        Utils.uint32ToByteArrayLE(txLockTime, buffer, 0);
+        Utils.uint32ToByteArrayLE(0x000000ff & sigHashType, buffer, 4);
+        digest.update(buffer, 0, 8);
+        byte[] first = digest.digest();
+        return Sha256Hasher.singleDigest(first, 0, first.length);
+    }
+
+    /**
+     * Returns a digest that has taken the head and the blanked inputs in front of the input.
+     */
+    private MessageDigest prefix(boolean noSequence, int inputIndex) {
+        byte[] blanks = noSequence ? blankInsNoSequence : blankIns;
+        MessageDigest[] points = checkpoints(noSequence);
+        MessageDigest digest = null;
+        int from = 0;
+        if (points != null) {
+            int point = inputIndex / CheckpointInputs;
+            digest = copy(points[point]);
+            from = point * CheckpointInputs * BlankInLength;
+        }
+        if (digest == null) {
+            digest = Sha256Hasher.threadDigest();
+            digest.update(head);
+            from = 0;
+        }
+        digest.update(blanks, from, inputIndex * BlankInLength - from);
+        return digest;
+    }
+
+    /**
+     * The digest states after the head and each run of {@link #CheckpointInputs} blanked inputs,
+     * made on first use. Null when the tx is too small for them to pay off or the provider's
+     * digests can not be copied.
+     */
+    private synchronized MessageDigest[] checkpoints(boolean noSequence) {
+        if (sequences.length <= CheckpointInputs) {
+            return null;
+        }
+        MessageDigest[] points = noSequence ? checkpointsNoSequence : checkpoints;
+        if (points == null) {
+            byte[] blanks = noSequence ? blankInsNoSequence : blankIns;
+            points = new MessageDigest[(sequences.length - 1) / CheckpointInputs + 1];
+            MessageDigest digest = Sha256Hasher.newDigest();
+            digest.update(head);
+            for (int i = 0; i < points.length; i++) {
+                points[i] = copy(digest);
+                if (points[i] == null) {
+                    return null;
+                }
+                digest.update(blanks, i * CheckpointInputs * BlankInLength, Math.min
+                        (CheckpointInputs, sequences.length - i * CheckpointInputs) *
+                        BlankInLength);
+            }
+            if (noSequence) {
+                checkpointsNoSequence = points;
+            } else {
+                checkpoints = points;
+            }
+        }
+        return points;
+    }
+
+    private void updateIn(MessageDigest digest, byte[] blanks, int index, byte[] script,
+                          byte[] buffer) {
+        digest.update(blanks, index * BlankInLength, OutpointLength);
+        digest.update(new VarInt(script.length).encode());
+        digest.update(script);
+        Utils.uint32ToByteArrayLE(sequences[index], buffer, 0);
+        digest.update(buffer, 0, 4);
+    }
+
+    private static byte[] headFor(long txVer, int inCount) {
+        byte[] count = new VarInt(inCount).encode();
+        byte[] head = new byte[4 + count.length];
+        Utils.uint32ToByteArrayLE(txVer, head, 0);
+        System.arraycopy(count, 0, head, 4, count.length);
+        return head;
+    }
+
+    private static MessageDigest copy(MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.db.AbstractDb;
+import net.bither.bitherj.utils.Sha256Hash;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * The unspent outs of addresses and hd accounts keyed by outpoint, with each owner's confirmed
+ * and unconfirmed sums kept alongside, so balances and the outs a new tx can spend are map
+ * lookups instead of joins over outs and txs.
+ * <p/>
+ * An owner is loaded from the store the first time it is read. The tx provider then keeps the
+ * set in step as txs are added, confirmed and unconfirmed; the changes it can not follow
+ * cheaply, removed txs and whole histories added at once, {@link #reset()} the set so each owner
+ * is loaded again on its next read.
+ * <p/>
+ * Of unconfirmed txs spending the same out only the first one counts, and neither do txs
+ * spending the outs of one that does not, as the balances were always calculated.
+ */
+public class UtxoSet {
+    // confirmed outs of hd accounts are loaded without their tx's height
+    private static final int UnknownHeight = -1;
+
+    private static UtxoSet uniqueInstance = new UtxoSet();
+
+    private final HashMap<OutPoint, Utxo> utxos = new HashMap<OutPoint, Utxo>();
+    private final HashMap<Sha256Hash, List<Utxo>> utxosByTx = new HashMap<Sha256Hash,
+            List<Utxo>>();
+    private final HashMap<String, Rollup> addressRollups = new HashMap<String, Rollup>();
+    private final HashMap<Integer, Rollup> hdAccountRollups = new HashMap<Integer, Rollup>();
+    // the outs spent by the unconfirmed txs that count, and the ins of each of them
+    private final HashMap<OutPoint, Sha256Hash> unconfirmedSpends = new HashMap<OutPoint,
+            Sha256Hash>();
+    private final HashMap<Sha256Hash, List<OutPoint>> unconfirmedTxIns = new HashMap<Sha256Hash,
+            List<OutPoint>>();
+    private final HashSet<Sha256Hash> invalidTxs = new HashSet<Sha256Hash>();
+
+    UtxoSet() {
+    }
+
+    public static UtxoSet getInstance() {
+        return uniqueInstance;
+    }
+
+    public synchronized long getBalance(String address) {
+        return addressRollup(address).getBalance();
+    }
+
+    public synchronized long getHDAccountBalance(int hdAccountId) {
+        return hdAccountRollup(hdAccountId).getBalance();
+    }
+
+    /**
+     * The unspent outs of the address, each in a tx of its own carrying the height, shaped like
+     * the store's unspent txs of an address for {@link TxBuilder}.
+     */
+    public synchronized List<Tx> getUnspendTxs(String address) {
+        List<Tx> txs = new ArrayList<Tx>();
+        for (Utxo utxo : addressRollup(address).utxos) {
+            Tx tx = new Tx();
+            tx.setTxHash(utxo.txHash);
+            tx.setBlockNo(utxo.blockNo);
+            Out out = utxo.toOut();
+            out.setTx(tx);
+            tx.getOuts().add(out);
+            txs.add(tx);
+        }
+        return txs;
+    }
+
+    public synchronized List<Out> getUnspendOuts(int hdAccountId) {
+        List<Out> outs = new ArrayList<Out>();
+        for (Utxo utxo : hdAccountRollup(hdAccountId).utxos) {
+            outs.add(utxo.toOut());
+        }
+        return outs;
+    }
+
+    /**
+     * Follows a tx just added to the store: the outs it spends are gone and its outs to loaded
+     * owners are unspent.
+     */
+    public synchronized void registerTx(Tx tx) {
+        boolean counts = tx.getBlockNo() != Tx.TX_UNCONFIRMED || trackUnconfirmed(tx);
+        for (In in : tx.getIns()) {
+            spend(new OutPoint(in.getPrevTxHash(), in.getPrevOutSn()));
+        }
+        if (!counts) {
+            return;
+        }
+        for (Out out : tx.getOuts()) {
+            OutPoint outPoint = new OutPoint(tx.getTxHash(), out.getOutSn());
+            if (unconfirmedSpends.containsKey(outPoint)) {
+                // its spending tx came first
+                continue;
+            }
+            if (addressRollups.containsKey(out.getOutAddress()) || hdAccountRollups.containsKey
+                    (out.getHDAccountId())) {
+                add(tx.getTxHash(), out, tx.getBlockNo());
+            }
+        }
+    }
+
+    public synchronized void confirmTx(int blockNo, List<byte[]> txHashes) {
+        if (blockNo == Tx.TX_UNCONFIRMED || txHashes == null) {
+            return;
+        }
+        for (byte[] txHash : txHashes) {
+            Sha256Hash hash = new Sha256Hash(txHash);
+            if (invalidTxs.contains(hash)) {
+                // the store drops the txs it was spending against, load again what is left
+                reset();
+                return;
+            }
+            List<OutPoint> ins = unconfirmedTxIns.remove(hash);
+            if (ins != null) {
+                for (OutPoint outPoint : ins) {
+                    unconfirmedSpends.remove(outPoint);
+                }
+            }
+            List<Utxo> txUtxos = utxosByTx.get(hash);
+            if (txUtxos != null) {
+                for (Utxo utxo : txUtxos) {
+                    setBlockNo(utxo, blockNo);
+                }
+            }
+        }
+    }
+
+    public synchronized void unConfirmTxByBlockNo(int blockNo) {
+        for (Utxo utxo : utxos.values()) {
+            if (utxo.blockNo == UnknownHeight) {
+                reset();
+                return;
+            }
+        }
+        for (Utxo utxo : utxos.values()) {
+            if (utxo.blockNo != Tx.TX_UNCONFIRMED && utxo.blockNo >= blockNo) {
+                setBlockNo(utxo, Tx.TX_UNCONFIRMED);
+            }
+        }
+    }
+
+    /**
+     * Forgets every owner, each is loaded from the store again on its next read.
+     */
+    public synchronized void reset() {
+        utxos.clear();
+        utxosByTx.clear();
+        addressRollups.clear();
+        hdAccountRollups.clear();
+        unconfirmedSpends.clear();
+        unconfirmedTxIns.clear();
+        invalidTxs.clear();
+    }
+
+    protected List<Tx> loadUnspentTxs(String address) {
+        return AbstractDb.txProvider.getUnspendTxWithAddress(address);
+    }
+
+    protected List<Tx> loadUnconfirmedTxs(String address) {
+        return AbstractDb.txProvider.getUnconfirmedTxWithAddress(address);
+    }
+
+    protected List<Out> loadUnspentOuts(int hdAccountId) {
+        return AbstractDb.hdAccountAddressProvider.getUnspendOutByHDAccount(hdAccountId);
+    }
+
+    protected List<Tx> loadUnconfirmedTxs(int hdAccountId) {
+        return AbstractDb.hdAccountAddressProvider.getHDAccountUnconfirmedTx(hdAccountId);
+    }
+
+    private Rollup addressRollup(String address) {
+        Rollup rollup = addressRollups.get(address);
+        if (rollup == null) {
+            rollup = new Rollup();
+            addressRollups.put(address, rollup);
+            trackUnconfirmed(loadUnconfirmedTxs(address));
+            for (Tx tx : loadUnspentTxs(address)) {
+                if (invalidTxs.contains(new Sha256Hash(tx.getTxHash()))) {
+                    continue;
+                }
+                for (Out out : tx.getOuts()) {
+                    rollup.add(add(tx.getTxHash(), out, tx.getBlockNo()));
+                }
+            }
+        }
+        return rollup;
+    }
+
+    private Rollup hdAccountRollup(int hdAccountId) {
+        Rollup rollup = hdAccountRollups.get(hdAccountId);
+        if (rollup == null) {
+            rollup = new Rollup();
+            hdAccountRollups.put(hdAccountId, rollup);
+            List<Tx> unconfirmedTxs = loadUnconfirmedTxs(hdAccountId);
+            trackUnconfirmed(unconfirmedTxs);
+            HashSet<Sha256Hash> unconfirmed = new HashSet<Sha256Hash>();
+            for (Tx tx : unconfirmedTxs) {
+                unconfirmed.add(new Sha256Hash(tx.getTxHash()));
+            }
+            for (Out out : loadUnspentOuts(hdAccountId)) {
+                Sha256Hash hash = new Sha256Hash(out.getTxHash());
+                if (invalidTxs.contains(hash)) {
+                    continue;
+                }
+                rollup.add(add(out.getTxHash(), out, unconfirmed.contains(hash) ? Tx
+                        .TX_UNCONFIRMED : UnknownHeight));
+            }
+        }
+        return rollup;
+    }
+
+    private void trackUnconfirmed(List<Tx> txs) {
+        Collections.sort(txs);
+        // the oldest is last
+        for (int i = txs.size() - 1; i >= 0; i--) {
+            trackUnconfirmed(txs.get(i));
+        }
+    }
+
+    /**
+     * Whether the unconfirmed tx counts: none of its ins spend an out an earlier one spent, or
+     * an out of a tx that does not count.
+     */
+    private boolean trackUnconfirmed(Tx tx) {
+        Sha256Hash hash = new Sha256Hash(tx.getTxHash());
+        if (invalidTxs.contains(hash)) {
+            return false;
+        }
+        if (unconfirmedTxIns.containsKey(hash)) {
+            return true;
+        }
+        List<OutPoint> ins = new ArrayList<OutPoint>(tx.getIns().size());
+        for (In in : tx.getIns()) {
+            OutPoint outPoint = new OutPoint(in.getPrevTxHash(), in.getPrevOutSn());
+            Sha256Hash spentBy = unconfirmedSpends.get(outPoint);
+            if ((spentBy != null && !spentBy.equals(hash)) || invalidTxs.contains(new
+                    Sha256Hash(in.getPrevTxHash()))) {
+                invalidTxs.add(hash);
+                return false;
+            }
+            ins.add(outPoint);
+        }
+        for (OutPoint outPoint : ins) {
+            unconfirmedSpends.put(outPoint, hash);
+        }
+        unconfirmedTxIns.put(hash, ins);
+        return true;
+    }
+
+    private Utxo add(byte[] txHash, Out out, int blockNo) {
+        OutPoint outPoint = new OutPoint(txHash, out.getOutSn());
+        Utxo utxo = utxos.get(outPoint);
+        if (utxo == null) {
+            utxo = new Utxo(txHash, out, blockNo);
+            utxos.put(outPoint, utxo);
+            Sha256Hash hash = new Sha256Hash(txHash);
+            List<Utxo> txUtxos = utxosByTx.get(hash);
+            if (txUtxos == null) {
+                txUtxos = new ArrayList<Utxo>(2);
+                utxosByTx.put(hash, txUtxos);
+            }
+            txUtxos.add(utxo);
+        }
+        for (Rollup rollup : rollupsOf(utxo)) {
+            rollup.add(utxo);
+        }
+        return utxo;
+    }
+
+    private void spend(OutPoint outPoint) {
+        Utxo utxo = utxos.remove(outPoint);
+        if (utxo == null) {
+            return;
+        }
+        for (Rollup rollup : rollupsOf(utxo)) {
+            rollup.remove(utxo);
+        }
+        Sha256Hash hash = new Sha256Hash(utxo.txHash);
+        List<Utxo> txUtxos = utxosByTx.get(hash);
+        txUtxos.remove(utxo);
+        if (txUtxos.isEmpty()) {
+            utxosByTx.remove(hash);
+        }
+    }
+
+    private void setBlockNo(Utxo utxo, int blockNo) {
+        List<Rollup> rollups = rollupsOf(utxo);
+        for (Rollup rollup : rollups) {
+            rollup.remove(utxo);
+        }
+        utxo.blockNo = blockNo;
+        for (Rollup rollup : rollups) {
+            rollup.add(utxo);
+        }
+    }
+
+    private List<Rollup> rollupsOf(Utxo utxo) {
+        List<Rollup> rollups = new ArrayList<Rollup>(2);
+        Rollup rollup = addressRollups.get(utxo.outAddress);
+        if (rollup != null) {
+            rollups.add(rollup);
+        }
+        rollup = hdAccountRollups.get(utxo.hdAccountId);
+        if (rollup != null) {
+            rollups.add(rollup);
+        }
+        return rollups;
+    }
+
+    private static class Utxo {
+        private final byte[] txHash;
+        private final int outSn;
+        private final byte[] outScript;
+        private final long outValue;
+        private final String outAddress;
+        private final int hdAccountId;
+        private int blockNo;
+
+        Utxo(byte[] txHash, Out out, int blockNo) {
+            this.txHash = txHash;
+            this.outSn = out.getOutSn();
+            this.outScript = out.getOutScript();
+            this.outValue = out.getOutValue();
+            this.outAddress = out.getOutAddress();
+            this.hdAccountId = out.getHDAccountId();
+            this.blockNo = blockNo;
+        }
+
+        boolean isConfirmed() {
+            return blockNo != Tx.TX_UNCONFIRMED;
+        }
+
+        Out toOut() {
+            Out out = new Out();
+            out.setTxHash(txHash);
+            out.setOutSn(outSn);
+            out.setOutScript(outScript);
+            out.setOutValue(outValue);
+            out.setOutAddress(outAddress);
+            out.setHDAccountId(hdAccountId);
+            // as the store has it, the height times the value and nothing while unconfirmed
+            if (isConfirmed() && blockNo != UnknownHeight) {
+                out.setCoinDepth((long) blockNo * outValue);
+            }
+            return out;
+        }
+    }
+
+    private static class Rollup {
+        private final LinkedHashSet<Utxo> utxos = new LinkedHashSet<Utxo>();
+        private long confirmed;
+        private long unconfirmed;
+
+        void add(Utxo utxo) {
+            if (utxos.add(utxo)) {
+                if (utxo.isConfirmed()) {
+                    confirmed += utxo.outValue;
+                } else {
+                    unconfirmed += utxo.outValue;
+                }
+            }
+        }
+
+        void remove(Utxo utxo) {
+            if (utxos.remove(utxo)) {
+                if (utxo.isConfirmed()) {
+                    confirmed -= utxo.outValue;
+                } else {
+                    unconfirmed -= utxo.outValue;
+                }
+            }
+        }
+
+        long getBalance() {
+            return confirmed + unconfirmed;
+        }
+    }
+}
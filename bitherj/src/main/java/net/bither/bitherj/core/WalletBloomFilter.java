@@ -0,0 +1,281 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.db.AbstractDb;
+import net.bither.bitherj.utils.Utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The wallet's bloom filter, kept up to date in place. New addresses and the outpoints of new
+ * wallet txs are inserted into the live filter, spent outpoints are only counted. The full
+ * rebuild from the database happens when the filter was invalidated, when it got too full for
+ * the requested false positive rate or when too many of its outpoints are already spent.
+ * <p/>
+ * Bits are only ever set on the live filter, so a filter that is being serialized while an
+ * element goes in still matches everything it matched before.
+ * <p/>
+ * Every element also goes into a {@link TxRelevance} index, which tells the txs peers relay
+ * because of the filter's false positives from the ones that are ours without the database.
+ */
+class WalletBloomFilter {
+    private static final Logger log = LoggerFactory.getLogger(WalletBloomFilter.class);
+
+    // spare capacity a rebuilt filter gets for elements inserted later
+    private static final int ElementHeadroom = 100;
+    // rebuild once the estimated false positive rate is this many times the requested one
+    private static final double RebuildFpRateFactor = 2.0;
+    // rebuild once more than this share of the elements are spent outpoints
+    private static final double RebuildStaleRatio = 0.5;
+
+    private final long tweak;
+
+    private BloomFilter filter;
+    // null until the filter is built, then no relayed tx can be told unrelated
+    private volatile TxRelevance relevance;
+    private int elementCount;
+    private int staleCount;
+    private double builtFpRate;
+    private final HashSet<String> knownAddresses = new HashSet<String>();
+    private int hotExternalCount;
+    private int monitoredExternalCount;
+    private int desktopHDMExternalCount;
+
+    private int rebuildCount;
+    private long lastBuildMillis;
+    private long totalBuildMillis;
+    private long insertedSinceBuild;
+
+    WalletBloomFilter(long tweak) {
+        this.tweak = tweak;
+    }
+
+    /**
+     * Drops the filter, the next call to {@link #getFilter(double)} rebuilds it.
+     */
+    synchronized void invalidate() {
+        filter = null;
+        relevance = null;
+    }
+
+    /**
+     * Returns the filter with every address issued so far, rebuilding it only if needed for
+     * the requested false positive rate.
+     */
+    synchronized BloomFilter getFilter(double fpRate) {
+        if (filter != null && !addNewAddresses()) {
+            filter = null;
+            relevance = null;
+        }
+        if (filter == null || needsRebuild(filter, elementCount, staleCount, fpRate)) {
+            rebuild(fpRate);
+        }
+        return filter;
+    }
+
+    /**
+     * Feeds a newly registered wallet tx into the live filter: its outputs may be spent by us
+     * later, its inputs spend outpoints we no longer need to match.
+     */
+    synchronized void addTx(Tx tx) {
+        if (filter == null) {
+            return;
+        }
+        for (In in : tx.getIns()) {
+            if (filter.contains(outpoint(in.getPrevTxHash(), in.getPrevOutSn()))) {
+                staleCount++;
+            }
+        }
+        // inserting every output is a small superset of the ones that are ours, and it saves
+        // looking each of them up in the database
+        List<Out> outs = tx.getOuts();
+        for (int i = 0; i < outs.size(); i++) {
+            insert(outpoint(tx.getTxHash(), i));
+        }
+    }
+
+    /**
+     * Returns false only when nothing in the tx is an element of the filter, so a peer sent it
+     * as a false positive. Doesn't wait for a rebuild that is going on.
+     */
+    boolean mayBeRelated(Tx tx) {
+        TxRelevance index = relevance;
+        return index == null || index.matches(tx);
+    }
+
+    synchronized int getElementCount() {
+        return elementCount;
+    }
+
+    synchronized int getRebuildCount() {
+        return rebuildCount;
+    }
+
+    synchronized long getLastBuildMillis() {
+        return lastBuildMillis;
+    }
+
+    synchronized long getTotalBuildMillis() {
+        return totalBuildMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("bloom filter: %d elements (%d spent), %d inserted since build, %d " +
+                "rebuilds, last build %dms, total %dms", elementCount, staleCount,
+                insertedSinceBuild, rebuildCount, lastBuildMillis, totalBuildMillis);
+    }
+
+    static boolean needsRebuild(BloomFilter filter, int elementCount, int staleCount, double
+            fpRate) {
+        if (filter.getFalsePositiveRate(elementCount) > fpRate * RebuildFpRateFactor) {
+            return true;
+        }
+        return elementCount > 0 && staleCount > elementCount * RebuildStaleRatio;
+    }
+
+    static byte[] outpoint(byte[] txHash, int outSn) {
+        byte[] outpoint = new byte[txHash.length + 4];
+        System.arraycopy(txHash, 0, outpoint, 0, txHash.length);
+        Utils.uint32ToByteArrayLE(outSn, outpoint, txHash.length);
+        return outpoint;
+    }
+
+    private void insert(byte[] element) {
+        if (filter.insert(element, 0, element.length)) {
+            elementCount++;
+            insertedSinceBuild++;
+        }
+        relevance.insert(element);
+    }
+
+    /**
+     * Inserts addresses issued since the last call. Returns false when an address went away,
+     * which only a rebuild can handle.
+     */
+    private boolean addNewAddresses() {
+        List<Address> addresses = AddressManager.getInstance().getAllAddresses();
+        int previous = knownAddresses.size();
+        int known = 0;
+        for (Address address : addresses) {
+            if (knownAddresses.contains(address.getAddress())) {
+                known++;
+                continue;
+            }
+            knownAddresses.add(address.getAddress());
+            byte[] pub = address.getPubKey();
+            if (pub != null) {
+                insert(pub);
+                insert(Utils.sha256hash160(pub));
+            }
+        }
+        if (known < previous) {
+            return false;
+        }
+        AddressManager addressManager = AddressManager.getInstance();
+        List<byte[]> elements = new ArrayList<byte[]>();
+        if (addressManager.hasHDAccountHot()) {
+            hotExternalCount = addressManager.getHDAccountHot()
+                    .addExternalElementsForBloomFilter(elements, hotExternalCount);
+        }
+        if (addressManager.hasHDAccountMonitored()) {
+            monitoredExternalCount = addressManager.getHDAccountMonitored()
+                    .addExternalElementsForBloomFilter(elements, monitoredExternalCount);
+        }
+        if (addressManager.hasDesktopHDMKeychain()) {
+            desktopHDMExternalCount = addressManager.getDesktopHDMKeychains().get(0)
+                    .addExternalElementsForBloomFilter(elements, desktopHDMExternalCount);
+        }
+        for (byte[] element : elements) {
+            insert(element);
+        }
+        return true;
+    }
+
+    private void rebuild(double fpRate) {
+        long start = System.currentTimeMillis();
+        AddressManager addressManager = AddressManager.getInstance();
+
+        List<Out> outs = new ArrayList<Out>();
+        for (Out out : AbstractDb.txProvider.getOuts()) {
+            if (addressManager.getAddressHashSet().contains(out.getOutAddress())) {
+                outs.add(out);
+            }
+        }
+        List<Address> addresses = addressManager.getAllAddresses();
+        HDAccount hot = addressManager.hasHDAccountHot() ? addressManager.getHDAccountHot() : null;
+        HDAccount monitored = addressManager.hasHDAccountMonitored() ? addressManager
+                .getHDAccountMonitored() : null;
+        DesktopHDMKeychain desktopHDMKeychain = addressManager.hasDesktopHDMKeychain() ?
+                addressManager.getDesktopHDMKeychains().get(0) : null;
+        hotExternalCount = hot != null ? hot.externalAddressCountForBloomFilter() : 0;
+        monitoredExternalCount = monitored != null ? monitored.externalAddressCountForBloomFilter
+                () : 0;
+        desktopHDMExternalCount = desktopHDMKeychain != null ? desktopHDMKeychain
+                .externalAddressCountForBloomFilter() : 0;
+
+        elementCount = addresses.size() * 2 + outs.size() + (hot != null ? hot
+                .elementCountForBloomFilter() : 0) + (monitored != null ? monitored
+                .elementCountForBloomFilter() : 0) + (desktopHDMKeychain != null ?
+                desktopHDMKeychain.elementCountForBloomFilter() : 0);
+        staleCount = 0;
+        insertedSinceBuild = 0;
+        builtFpRate = fpRate;
+        filter = new BloomFilter(elementCount + ElementHeadroom, fpRate, tweak, BloomFilter
+                .BloomUpdate.UPDATE_ALL);
+
+        knownAddresses.clear();
+        List<byte[]> elements = new ArrayList<byte[]>(addresses.size() * 2 + outs.size());
+        for (Address address : addresses) { // add addresses to watch for any tx receiveing
+            // money to the wallet
+            knownAddresses.add(address.getAddress());
+            byte[] pub = address.getPubKey();
+            if (pub != null) {
+                elements.add(pub);
+                elements.add(Utils.sha256hash160(pub));
+            }
+        }
+        for (Out out : outs) {
+            elements.add(out.getOutpointData());
+        }
+        if (hot != null) {
+            elements.addAll(hot.getElementsForBloomFilter());
+        }
+        if (monitored != null) {
+            elements.addAll(monitored.getElementsForBloomFilter());
+        }
+        if (desktopHDMKeychain != null) {
+            elements.addAll(desktopHDMKeychain.getElementsForBloomFilter());
+        }
+        filter.insertAll(elements);
+        TxRelevance index = new TxRelevance();
+        index.insertAll(elements);
+        relevance = index;
+
+        lastBuildMillis = System.currentTimeMillis() - start;
+        totalBuildMillis += lastBuildMillis;
+        rebuildCount++;
+        log.info("rebuilt bloom filter with {} elements at fp rate {} in {}ms", elementCount,
+                builtFpRate, lastBuildMillis);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bither.bitherj.crypto;
+
+import org.spongycastle.math.ec.ECPoint;
+
+import java.math.BigInteger;
+
+/**
+ * The secp256k1 arithmetic behind {@link ECKey}. Every backend must give the same results, they
+ * only differ in speed: signatures are deterministic (RFC 6979) and not yet canonicalised, that
+ * is left to the caller.
+ *
+ * @see ECKey#setBackend(ECBackend)
+ */
+public interface ECBackend {
+    String getName();
+
+    /**
+     * Returns privKey * G.
+     */
+    ECPoint publicPointFromPrivate(BigInteger privKey);
+
+    byte[] publicKeyFromPrivate(BigInteger privKey, boolean compressed);
+
+    ECKey.ECDSASignature sign(byte[] hash, BigInteger privKey);
+
+    boolean verify(byte[] hash, ECKey.ECDSASignature signature, byte[] pub);
+
+    /**
+     * Verifies an ASN.1 encoded signature.
+     */
+    boolean verify(byte[] hash, byte[] signature, byte[] pub);
+}
@@ -20,6 +20,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 
 import net.bither.bitherj.utils.Sha256Hash;
+import net.bither.bitherj.utils.Threading;
 import net.bither.bitherj.utils.Utils;
 
 import org.slf4j.Logger;
@@ -36,7 +37,6 @@ import org.spongycastle.asn1.sec.SECNamedCurves;
 import org.spongycastle.asn1.x9.X9ECParameters;
 import org.spongycastle.asn1.x9.X9IntegerConverter;
 import org.spongycastle.crypto.AsymmetricCipherKeyPair;
-import org.spongycastle.crypto.digests.SHA256Digest;
 import org.spongycastle.crypto.ec.CustomNamedCurves;
 import org.spongycastle.crypto.generators.ECKeyPairGenerator;
 import org.spongycastle.crypto.params.ECDomainParameters;
@@ -44,8 +44,6 @@ import org.spongycastle.crypto.params.ECKeyGenerationParameters;
 import org.spongycastle.crypto.params.ECPrivateKeyParameters;
 import org.spongycastle.crypto.params.ECPublicKeyParameters;
 import org.spongycastle.crypto.params.KeyParameter;
-import org.spongycastle.crypto.signers.ECDSASigner;
-import org.spongycastle.crypto.signers.HMacDSAKCalculator;
 import org.spongycastle.math.ec.ECAlgorithms;
 import org.spongycastle.math.ec.ECPoint;
 import org.spongycastle.math.ec.FixedPointUtil;
@@ -60,6 +58,7 @@ import java.nio.charset.Charset;
 import java.security.SecureRandom;
 import java.security.SignatureException;
 import java.util.Arrays;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -111,6 +110,25 @@ public class ECKey implements Serializable {
 
     }
 
+    private static volatile ECBackend backend = NativeSecp256k1.enabled ? new NativeECBackend() :
+            new FastECBackend();
+
+    /**
+     * Returns the backend that does the curve arithmetic for every key. By default it is the
+     * native one when libsecp256k1 could be loaded and the optimized pure Java one otherwise.
+     */
+    public static ECBackend getBackend() {
+        return backend;
+    }
+
+    public static void setBackend(ECBackend backend) {
+        Preconditions.checkNotNull(backend);
+        if (backend instanceof NativeECBackend) {
+            checkState(NativeSecp256k1.enabled, "libsecp256k1 is not loaded");
+        }
+        ECKey.backend = backend;
+    }
+
     // The two parts of the key. If "priv" is set, "pub" can always be calculated. If "pub" is set but not "priv", we
     // can only verify signatures not make them.
     // TODO: Redesign this class to use consistent internals and more efficient serialization.
@@ -272,10 +290,7 @@ public class ECKey implements Serializable {
      * new BigInteger(1, bytes);</tt>
      */
     public static byte[] publicKeyFromPrivate(BigInteger privKey, boolean compressed) {
-        ECPoint point = CURVE.getG().multiply(privKey);
-        if (compressed)
-            point = compressPoint(point);
-        return point.getEncoded();
+        return backend.publicKeyFromPrivate(privKey, compressed);
     }
 
     /**
@@ -502,11 +517,7 @@ public class ECKey implements Serializable {
             }
         }
 
-        ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
-        ECPrivateKeyParameters privKey = new ECPrivateKeyParameters(privateKeyForSigning, CURVE);
-        signer.init(true, privKey);
-        BigInteger[] components = signer.generateSignature(input);
-        final ECDSASignature signature = new ECDSASignature(components[0], components[1]);
+        final ECDSASignature signature = backend.sign(input, privateKeyForSigning);
         signature.ensureCanonical();
         return signature;
     }
@@ -525,21 +536,29 @@ public class ECKey implements Serializable {
         if (FAKE_SIGNATURES)
             return true;
 
-        if (NativeSecp256k1.enabled)
-            return NativeSecp256k1.verify(data, signature.encodeToDER(), pub);
+        return backend.verify(data, signature, pub);
+    }
 
-        ECDSASigner signer = new ECDSASigner();
-        ECPublicKeyParameters params = new ECPublicKeyParameters(CURVE.getCurve().decodePoint(pub), CURVE);
-        signer.init(false, params);
-        try {
-            return signer.verifySignature(data, signature.r, signature.s);
-        } catch (NullPointerException e) {
-            // Bouncy Castle contains a bug that can cause NPEs given specially crafted signatures. Those signatures
-            // are inherently invalid/attack sigs so we just fail them here rather than crash the thread.
-            log.error("Caught NPE inside bouncy castle");
-            e.printStackTrace();
-            return false;
-        }
+    // fewer signatures than this per thread are not worth handing over
+    private static final int BatchVerifyMinChunk = 8;
+
+    /**
+     * Verifies many signatures at once, in chunks spread over the available cores. Signatures
+     * by the same key share its decoded point. Returns for each signature whether it is valid.
+     */
+    public static boolean[] verify(final List<byte[]> data, final List<ECDSASignature> signatures,
+                                   final List<byte[]> pubs) {
+        checkArgument(data.size() == signatures.size() && data.size() == pubs.size());
+        final boolean[] results = new boolean[data.size()];
+        Threading.runInChunks(results.length, BatchVerifyMinChunk, new Threading.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    results[i] = verify(data.get(i), signatures.get(i), pubs.get(i));
+                }
+            }
+        });
+        return results;
     }
 
     /**
@@ -550,9 +569,10 @@ public class ECKey implements Serializable {
      * @param pub       The public key bytes to use.
      */
     public static boolean verify(byte[] data, byte[] signature, byte[] pub) {
-        if (NativeSecp256k1.enabled)
-            return NativeSecp256k1.verify(data, signature, pub);
-        return verify(data, ECDSASignature.decodeFromDER(signature), pub);
+        if (FAKE_SIGNATURES)
+            return true;
+
+        return backend.verify(data, signature, pub);
     }
 
     /**
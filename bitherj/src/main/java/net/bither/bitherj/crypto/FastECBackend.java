@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bither.bitherj.crypto;
+
+import org.spongycastle.math.ec.ECAlgorithms;
+import org.spongycastle.math.ec.ECMultiplier;
+import org.spongycastle.math.ec.ECPoint;
+import org.spongycastle.math.ec.FixedPointCombMultiplier;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pure Java, but using the faster paths Spongy Castle has and the reference backend leaves
+ * unused. Multiples of G go through the fixed base comb over the table {@link ECKey} builds at
+ * class load, instead of the generic multiplier. Verification computes u1 * G + u2 * Q in one
+ * interleaved windowed NAF pass using the curve's endomorphism, and keeps recently seen public
+ * keys decoded so their window tables are built once per key rather than once per signature.
+ */
+public class FastECBackend extends ReferenceECBackend {
+    // decoded public keys kept with their precomputed windows, a few wallets' worth
+    private static final int PubCacheSize = 256;
+
+    private final ECMultiplier baseMultiplier = new FixedPointCombMultiplier();
+    private final LinkedHashMap<ByteBuffer, ECPoint> pubCache = new LinkedHashMap<ByteBuffer,
+            ECPoint>(PubCacheSize, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, ECPoint> eldest) {
+            return size() > PubCacheSize;
+        }
+    };
+
+    @Override
+    public String getName() {
+        return "fast";
+    }
+
+    @Override
+    public ECPoint publicPointFromPrivate(BigInteger privKey) {
+        return baseMultiplier.multiply(ECKey.CURVE.getG(), privKey);
+    }
+
+    @Override
+    public boolean verify(byte[] hash, ECKey.ECDSASignature signature, byte[] pub) {
+        BigInteger n = ECKey.CURVE.getN();
+        BigInteger r = signature.r;
+        BigInteger s = signature.s;
+        if (r.signum() <= 0 || r.compareTo(n) >= 0 || s.signum() <= 0 || s.compareTo(n) >= 0) {
+            return false;
+        }
+        ECPoint q = decodePub(pub);
+        // the hash is 32 bytes and n is 256 bits, so e is the hash as is
+        BigInteger e = new BigInteger(1, hash);
+        BigInteger w = s.modInverse(n);
+        BigInteger u1 = e.multiply(w).mod(n);
+        BigInteger u2 = r.multiply(w).mod(n);
+        ECPoint point = ECAlgorithms.sumOfTwoMultiplies(ECKey.CURVE.getG(), u1, q, u2).normalize();
+        if (point.isInfinity()) {
+            return false;
+        }
+        return point.getAffineXCoord().toBigInteger().mod(n).equals(r);
+    }
+
+    private ECPoint decodePub(byte[] pub) {
+        ByteBuffer key = ByteBuffer.wrap(pub);
+        synchronized (pubCache) {
+            ECPoint point = pubCache.get(key);
+            if (point != null) {
+                return point;
+            }
+        }
+        ECPoint point = ECKey.CURVE.getCurve().decodePoint(pub);
+        synchronized (pubCache) {
+            pubCache.put(ByteBuffer.wrap(pub.clone()), point);
+        }
+        return point;
+    }
+}
@@ -15,8 +15,6 @@
  */
 package net.bither.bitherj.crypto;
 
-import com.lambdaworks.crypto.SCrypt;
-
 import net.bither.bitherj.utils.Utils;
 
 import org.slf4j.Logger;
@@ -28,6 +26,8 @@ import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.spongycastle.crypto.params.KeyParameter;
 import org.spongycastle.crypto.params.ParametersWithIV;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.security.SecureRandom;
 
@@ -60,7 +60,9 @@ public class KeyCrypterScrypt implements KeyCrypter, Serializable {
 
 
     // Scrypt parameters.
-
+    private int n = BITCOINJ_SCRYPT_N;
+    private int r = BITCOINJ_SCRYPT_R;
+    private int p = BITCOINJ_SCRYPT_P;
 
     private byte[] mSalt;
 
@@ -87,6 +89,18 @@ public class KeyCrypterScrypt implements KeyCrypter, Serializable {
         }
     }
 
+    /**
+     * Encryption/ Decryption with other scrypt parameters than the default N = 16384, r = 8, p = 1. Keys stored
+     * without their parameters, like those of the private key strings, must keep to the defaults.
+     */
+    public KeyCrypterScrypt(byte[] salt, int n, int r, int p) {
+        this(salt);
+        Scrypt.checkParameters(n, r, p);
+        this.n = n;
+        this.r = r;
+        this.p = p;
+    }
+
 
     @Override
     public KeyParameter deriveKey(CharSequence password) throws KeyCrypterException {
@@ -102,7 +116,7 @@ public class KeyCrypterScrypt implements KeyCrypter, Serializable {
                 log.warn("You are using a ScryptParameters with no salt. Your encryption may be vulnerable to a dictionary attack.");
             }
 
-            byte[] keyBytes = SCrypt.scrypt(passwordBytes, salt, BITCOINJ_SCRYPT_N, BITCOINJ_SCRYPT_R, BITCOINJ_SCRYPT_P, KEY_LENGTH);
+            byte[] keyBytes = Scrypt.scrypt(passwordBytes, salt, n, r, p, KEY_LENGTH);
             return new KeyParameter(keyBytes);
         } catch (Exception e) {
             throw new KeyCrypterException("Could not generate key from password and salt.", e);
@@ -202,6 +216,27 @@ public class KeyCrypterScrypt implements KeyCrypter, Serializable {
         return this.mSalt;
     }
 
+    public int getN() {
+        return n;
+    }
+
+    public int getR() {
+        return r;
+    }
+
+    public int getP() {
+        return p;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // written before the parameters could be changed
+        if (n == 0) {
+            n = BITCOINJ_SCRYPT_N;
+            r = BITCOINJ_SCRYPT_R;
+            p = BITCOINJ_SCRYPT_P;
+        }
+    }
 
     @Override
     public String toString() {
@@ -210,7 +245,7 @@ public class KeyCrypterScrypt implements KeyCrypter, Serializable {
 
     @Override
     public int hashCode() {
-        return com.google.common.base.Objects.hashCode(this.mSalt);
+        return com.google.common.base.Objects.hashCode(this.mSalt, n, r, p);
     }
 
     @Override
@@ -223,6 +258,7 @@ public class KeyCrypterScrypt implements KeyCrypter, Serializable {
         }
         final KeyCrypterScrypt other = (KeyCrypterScrypt) obj;
 
-        return com.google.common.base.Objects.equal(this.mSalt, other.getSalt());
+        return com.google.common.base.Objects.equal(this.mSalt, other.getSalt()) && n == other.n && r == other.r
+                && p == other.p;
     }
 }
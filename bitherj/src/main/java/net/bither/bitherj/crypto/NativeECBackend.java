@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bither.bitherj.crypto;
+
+/**
+ * Verifies through libsecp256k1 via {@link NativeSecp256k1}. The JNI wrapper only offers
+ * verification, so key derivation and signing are the ones of {@link FastECBackend}. Only usable
+ * when the library was loaded, see {@link NativeSecp256k1#enabled}.
+ */
+public class NativeECBackend extends FastECBackend {
+    @Override
+    public String getName() {
+        return "native";
+    }
+
+    @Override
+    public boolean verify(byte[] hash, ECKey.ECDSASignature signature, byte[] pub) {
+        return NativeSecp256k1.verify(hash, signature.encodeToDER(), pub);
+    }
+
+    @Override
+    public boolean verify(byte[] hash, byte[] signature, byte[] pub) {
+        return NativeSecp256k1.verify(hash, signature, pub);
+    }
+}
@@ -37,6 +37,7 @@ public class NativeSecp256k1 {
     static {
         try {
             System.loadLibrary("javasecp256k1");
+            enabled = true;
         } catch (UnsatisfiedLinkError e) {
             enabled = false;
         }
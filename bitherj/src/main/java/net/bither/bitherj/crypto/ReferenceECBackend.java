@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bither.bitherj.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.digests.SHA256Digest;
+import org.spongycastle.crypto.params.ECPrivateKeyParameters;
+import org.spongycastle.crypto.params.ECPublicKeyParameters;
+import org.spongycastle.crypto.signers.ECDSASigner;
+import org.spongycastle.crypto.signers.HMacDSAKCalculator;
+import org.spongycastle.math.ec.ECPoint;
+
+import java.math.BigInteger;
+
+/**
+ * Plain Spongy Castle, the way {@link ECKey} always did it. Kept as the baseline the other
+ * backends are checked and measured against.
+ */
+public class ReferenceECBackend implements ECBackend {
+    private static final Logger log = LoggerFactory.getLogger(ReferenceECBackend.class);
+
+    @Override
+    public String getName() {
+        return "reference";
+    }
+
+    @Override
+    public ECPoint publicPointFromPrivate(BigInteger privKey) {
+        return ECKey.CURVE.getG().multiply(privKey);
+    }
+
+    @Override
+    public byte[] publicKeyFromPrivate(BigInteger privKey, boolean compressed) {
+        return publicPointFromPrivate(privKey).getEncoded(compressed);
+    }
+
+    @Override
+    public ECKey.ECDSASignature sign(byte[] hash, BigInteger privKey) {
+        ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
+        signer.init(true, new ECPrivateKeyParameters(privKey, ECKey.CURVE));
+        BigInteger[] components = signer.generateSignature(hash);
+        return new ECKey.ECDSASignature(components[0], components[1]);
+    }
+
+    @Override
+    public boolean verify(byte[] hash, ECKey.ECDSASignature signature, byte[] pub) {
+        ECDSASigner signer = new ECDSASigner();
+        ECPublicKeyParameters params = new ECPublicKeyParameters(ECKey.CURVE.getCurve()
+                .decodePoint(pub), ECKey.CURVE);
+        signer.init(false, params);
+        try {
+            return signer.verifySignature(hash, signature.r, signature.s);
+        } catch (NullPointerException e) {
+            // Bouncy Castle contains a bug that can cause NPEs given specially crafted signatures. Those signatures
+            // are inherently invalid/attack sigs so we just fail them here rather than crash the thread.
+            log.error("Caught NPE inside bouncy castle");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean verify(byte[] hash, byte[] signature, byte[] pub) {
+        return verify(hash, ECKey.ECDSASignature.decodeFromDER(signature), pub);
+    }
+}
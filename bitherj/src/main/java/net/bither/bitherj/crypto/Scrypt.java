@@ -0,0 +1,303 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.crypto;
+
+import com.lambdaworks.crypto.SCrypt;
+
+import net.bither.bitherj.utils.Threading;
+
+import org.spongycastle.crypto.digests.SHA256Digest;
+import org.spongycastle.crypto.macs.HMac;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Semaphore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * scrypt (RFC 7914) working on 32 bit words. The p lanes of a call run on
+ * {@link Threading#COMPUTE_POOL}, and the 128 * r * N byte V arrays are pooled behind soft
+ * references, so they are reused between calls instead of being allocated for every key, and
+ * are still given back when memory gets short. Everything is wiped after use. The V arrays in use
+ * at once may take up to a quarter of the heap, lanes beyond that wait for one to be released,
+ * so a small heap runs them one at a time.
+ * <p/>
+ * Where the native library of lambdaworks scrypt could be loaded, that is still faster for
+ * lanes that can't run in parallel, so it is used for them.
+ */
+public class Scrypt {
+    private static final int Cores = Runtime.getRuntime().availableProcessors();
+    private static final int MaxPooledScratches = Cores + 1;
+    static final int ScratchBudgetKB = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime()
+            .maxMemory() / 4 / 1024);
+
+    static final Semaphore scratchBudget = new Semaphore(ScratchBudgetKB);
+
+    private static final boolean nativeLoaded = loadNative();
+
+    private static final LinkedList<SoftReference<Scratch>> scratches = new
+            LinkedList<SoftReference<Scratch>>();
+
+    public static void checkParameters(int n, int r, int p) {
+        checkArgument(n > 1 && (n & (n - 1)) == 0, "N must be a power of 2 greater than 1");
+        checkArgument(r > 0 && p > 0, "r and p must be positive");
+        checkArgument(n <= Integer.MAX_VALUE / 32 / r, "N is too large for r");
+        checkArgument(p <= Integer.MAX_VALUE / 128 / r, "p is too large for r");
+    }
+
+    public static byte[] scrypt(byte[] passwd, byte[] salt, int n, int r, int p, int dkLen) {
+        checkParameters(n, r, p);
+        checkArgument(dkLen > 0, "dkLen must be positive");
+        if (nativeLoaded && (p == 1 || Cores == 1)) {
+            return SCrypt.scryptN(passwd, salt, n, r, p, dkLen);
+        }
+        return scryptJ(passwd, salt, n, r, p, dkLen);
+    }
+
+    static byte[] scryptJ(byte[] passwd, byte[] salt, final int n, final int r, int p, int
+            dkLen) {
+        checkParameters(n, r, p);
+        checkArgument(dkLen > 0, "dkLen must be positive");
+        final byte[] b = pbkdf2HmacSha256(passwd, salt, p * 128 * r);
+        try {
+            if (p == 1) {
+                Scratch scratch = acquire(n, r);
+                try {
+                    smix(b, 0, n, r, scratch);
+                } finally {
+                    release(scratch);
+                }
+            } else {
+                Threading.runInChunks(p, 1, new Threading.RangeTask() {
+                    @Override
+                    public void run(int from, int to) {
+                        Scratch scratch = acquire(n, r);
+                        try {
+                            for (int i = from; i < to; i++) {
+                                smix(b, i * 128 * r, n, r, scratch);
+                            }
+                        } finally {
+                            release(scratch);
+                        }
+                    }
+                });
+            }
+            return pbkdf2HmacSha256(passwd, b, dkLen);
+        } finally {
+            Arrays.fill(b, (byte) 0);
+        }
+    }
+
+    private static boolean loadNative() {
+        try {
+            // only bound when lambdaworks found a library for this platform
+            SCrypt.scryptN(new byte[1], new byte[1], 2, 1, 1, 1);
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /**
+     * PBKDF2-HMAC-SHA256 with a single iteration, all scrypt needs.
+     */
+    private static byte[] pbkdf2HmacSha256(byte[] passwd, byte[] salt, int dkLen) {
+        HMac mac = new HMac(new SHA256Digest());
+        mac.init(new KeyParameter(passwd));
+        byte[] derived = new byte[dkLen];
+        byte[] u = new byte[32];
+        for (int i = 1, offset = 0; offset < dkLen; i++, offset += 32) {
+            mac.update(salt, 0, salt.length);
+            mac.update((byte) (i >>> 24));
+            mac.update((byte) (i >>> 16));
+            mac.update((byte) (i >>> 8));
+            mac.update((byte) i);
+            mac.doFinal(u, 0);
+            System.arraycopy(u, 0, derived, offset, Math.min(32, dkLen - offset));
+        }
+        Arrays.fill(u, (byte) 0);
+        return derived;
+    }
+
+    private static void smix(byte[] b, int offset, int n, int r, Scratch scratch) {
+        int words = 32 * r;
+        int[] x = scratch.x;
+        int[] v = scratch.v;
+        for (int k = 0; k < words; k++) {
+            int index = offset + k * 4;
+            x[k] = (b[index] & 0xff) | (b[index + 1] & 0xff) << 8 | (b[index + 2] & 0xff) << 16
+                    | (b[index + 3] & 0xff) << 24;
+        }
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(x, 0, v, i * words, words);
+            blockMix(x, scratch.y, r, scratch.t);
+        }
+        int last = (2 * r - 1) * 16;
+        for (int i = 0; i < n; i++) {
+            int j = (x[last] & (n - 1)) * words;
+            for (int k = 0; k < words; k++) {
+                x[k] ^= v[j + k];
+            }
+            blockMix(x, scratch.y, r, scratch.t);
+        }
+        for (int k = 0; k < words; k++) {
+            int index = offset + k * 4;
+            b[index] = (byte) x[k];
+            b[index + 1] = (byte) (x[k] >>> 8);
+            b[index + 2] = (byte) (x[k] >>> 16);
+            b[index + 3] = (byte) (x[k] >>> 24);
+        }
+    }
+
+    /**
+     * BlockMix with Salsa20/8 on the 2 * r blocks of 16 words in b, using y and t as scratch.
+     */
+    private static void blockMix(int[] b, int[] y, int r, int[] t) {
+        System.arraycopy(b, (2 * r - 1) * 16, t, 0, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            for (int k = 0; k < 16; k++) {
+                t[k] ^= b[i * 16 + k];
+            }
+            salsa208(t);
+            // even blocks go to the first half, odd ones to the second
+            System.arraycopy(t, 0, y, ((i & 1) * r + (i >> 1)) * 16, 16);
+        }
+        System.arraycopy(y, 0, b, 0, 32 * r);
+    }
+
+    private static void salsa208(int[] b) {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 =
+                b[7], x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13],
+                x14 = b[14], x15 = b[15];
+        for (int i = 0; i < 8; i += 2) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        b[0] += x0;
+        b[1] += x1;
+        b[2] += x2;
+        b[3] += x3;
+        b[4] += x4;
+        b[5] += x5;
+        b[6] += x6;
+        b[7] += x7;
+        b[8] += x8;
+        b[9] += x9;
+        b[10] += x10;
+        b[11] += x11;
+        b[12] += x12;
+        b[13] += x13;
+        b[14] += x14;
+        b[15] += x15;
+    }
+
+    /**
+     * The share of the budget a scratch takes, a scratch bigger than the whole budget takes all
+     * of it and so runs alone.
+     */
+    private static int budgetKB(int n, int r) {
+        return (int) Math.max(1, Math.min(ScratchBudgetKB, 128L * r * n / 1024));
+    }
+
+    private static Scratch acquire(int n, int r) {
+        scratchBudget.acquireUninterruptibly(budgetKB(n, r));
+        synchronized (scratches) {
+            Iterator<SoftReference<Scratch>> iterator = scratches.iterator();
+            while (iterator.hasNext()) {
+                Scratch scratch = iterator.next().get();
+                if (scratch == null) {
+                    iterator.remove();
+                } else if (scratch.n == n && scratch.r == r) {
+                    iterator.remove();
+                    return scratch;
+                }
+            }
+        }
+        try {
+            return new Scratch(n, r);
+        } catch (OutOfMemoryError e) {
+            scratchBudget.release(budgetKB(n, r));
+            throw e;
+        }
+    }
+
+    private static void release(Scratch scratch) {
+        Arrays.fill(scratch.v, 0);
+        Arrays.fill(scratch.x, 0);
+        Arrays.fill(scratch.y, 0);
+        Arrays.fill(scratch.t, 0);
+        synchronized (scratches) {
+            if (scratches.size() >= MaxPooledScratches) {
+                scratches.removeFirst();
+            }
+            scratches.addLast(new SoftReference<Scratch>(scratch));
+        }
+        scratchBudget.release(budgetKB(scratch.n, scratch.r));
+    }
+
+    private static final class Scratch {
+        private final int n;
+        private final int r;
+        private final int[] v;
+        private final int[] x;
+        private final int[] y;
+        private final int[] t = new int[16];
+
+        private Scratch(int n, int r) {
+            this.n = n;
+            this.r = r;
+            v = new int[32 * r * n];
+            x = new int[32 * r];
+            y = new int[32 * r];
+        }
+    }
+}
@@ -17,10 +17,9 @@
 package net.bither.bitherj.crypto.bip38;
 
 
-import com.lambdaworks.crypto.SCrypt;
-
 import net.bither.bitherj.crypto.DumpedPrivateKey;
 import net.bither.bitherj.crypto.ECKey;
+import net.bither.bitherj.crypto.Scrypt;
 import net.bither.bitherj.crypto.SecureCharSequence;
 import net.bither.bitherj.exception.AddressFormatException;
 import net.bither.bitherj.utils.Sha256Hash;
@@ -30,7 +29,6 @@ import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
-import java.security.GeneralSecurityException;
 import java.util.Arrays;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -76,11 +74,9 @@ public class Bip38 {
         byte[] derived;
         try {
             passwordBytes = convertToByteArray(passphrase);
-            derived = SCrypt.scrypt(convertToByteArray(passphrase), salt, SCRYPT_N, SCRYPT_R, SCRYPT_P, outputSize
-            );
+            // the 8 lanes run in parallel
+            derived = Scrypt.scrypt(passwordBytes, salt, SCRYPT_N, SCRYPT_R, SCRYPT_P, outputSize);
             return derived;
-        } catch (GeneralSecurityException e) {
-            throw new RuntimeException(e);
         } finally {
             // Zero the password bytes.
             if (passwordBytes != null) {
@@ -314,12 +310,7 @@ public class Bip38 {
         byte[] saltPlusOwnerSalt = new byte[12];
         System.arraycopy(bip38Key.salt, 0, saltPlusOwnerSalt, 0, 4);
         System.arraycopy(ownerEntropy, 0, saltPlusOwnerSalt, 4, 8);
-        byte[] derived;
-        try {
-            derived = SCrypt.scrypt(passPoint, saltPlusOwnerSalt, 1024, 1, 1, 64);
-        } catch (GeneralSecurityException e) {
-            throw new RuntimeException(e);
-        }
+        byte[] derived = Scrypt.scrypt(passPoint, saltPlusOwnerSalt, 1024, 1, 1, 64);
         byte[] derivedQuater1 = new byte[16];
         System.arraycopy(derived, 0, derivedQuater1, 0, 16);
         byte[] derivedQuater2 = new byte[16];
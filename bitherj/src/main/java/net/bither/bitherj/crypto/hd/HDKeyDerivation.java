@@ -18,7 +18,9 @@ package net.bither.bitherj.crypto.hd;
 
 import com.google.common.collect.ImmutableList;
 
+import net.bither.bitherj.crypto.ECBackend;
 import net.bither.bitherj.crypto.ECKey;
+import net.bither.bitherj.utils.Threading;
 import net.bither.bitherj.utils.Utils;
 
 import org.spongycastle.crypto.macs.HMac;
@@ -28,6 +30,7 @@ import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.List;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
@@ -49,6 +52,9 @@ public final class HDKeyDerivation {
 
     public static final HMac MASTER_HMAC_SHA512 = HDUtils.createHmacSha512Digest("Bitcoin seed".getBytes());
 
+    // least children a bulk derivation hands to one thread, their points are normalized at once
+    private static final int BulkChunkSize = 64;
+
     /**
      * Generates a new deterministic key from the given seed, which can be any arbitrary byte array. However resist
      * the temptation to use a string as the seed - any key derived from a password is likely to be weak and easily
@@ -225,6 +231,63 @@ public final class HDKeyDerivation {
         return new RawKeyBytes(Ki.getEncoded(true), chainCode);
     }
 
+    /**
+     * Derives the public keys of count softened children of parent from fromIndex on, giving
+     * the same keys as {@link DeterministicKey#deriveSoftened(int)} but much faster: the parent
+     * point and pub are decoded once, each task reuses one HMAC, every I_L * G goes through
+     * the fixed base tables of {@link ECKey#getBackend()} and the resulting points are
+     * normalized together. The children are split up on {@link Threading#COMPUTE_POOL}.
+     *
+     * @throws HDDerivationException if one of the children is invalid, as deriveSoftened would.
+     */
+    public static List<DerivedPub> derivePubs(DeterministicKey parent, final int fromIndex, int
+            count) throws HDDerivationException {
+        checkArgument(fromIndex >= 0 && count >= 0 && (long) fromIndex + count <= (ChildNumber
+                .HARDENED_BIT & 0xffffffffL), "Only softened children can be derived in bulk.");
+        final ECPoint parentPoint = parent.getPubKeyPoint();
+        final byte[] parentPub = ECKey.compressPoint(parentPoint).getEncoded();
+        final byte[] chainCode = parent.getChainCode();
+        final DerivedPub[] pubs = new DerivedPub[count];
+        Threading.runInChunks(count, BulkChunkSize, new Threading.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int chunkFrom = from; chunkFrom < to; chunkFrom += BulkChunkSize) {
+                    derivePubChunk(parentPoint, parentPub, chainCode, fromIndex, chunkFrom, Math
+                            .min(BulkChunkSize, to - chunkFrom), pubs);
+                }
+            }
+        });
+        return Arrays.asList(pubs);
+    }
+
+    private static void derivePubChunk(ECPoint parentPoint, byte[] parentPub, byte[] chainCode,
+                                       int fromIndex, int offset, int count, DerivedPub[] pubs) {
+        HMac hmac = HDUtils.createHmacSha512Digest(chainCode);
+        byte[] data = new byte[37];
+        System.arraycopy(parentPub, 0, data, 0, parentPub.length);
+        byte[] i = new byte[64];
+        ECPoint[] points = new ECPoint[count];
+        ECBackend backend = ECKey.getBackend();
+        for (int k = 0; k < count; k++) {
+            Utils.uint32ToByteArrayBE(fromIndex + offset + k, data, 33);
+            hmac.reset();
+            hmac.update(data, 0, data.length);
+            hmac.doFinal(i, 0);
+            BigInteger ilInt = new BigInteger(1, Arrays.copyOfRange(i, 0, 32));
+            assertLessThanN(ilInt, "Illegal derived key: I_L >= n");
+            points[k] = backend.publicPointFromPrivate(ilInt).add(parentPoint);
+            assertNonInfinity(points[k], "Illegal derived key: derived public key equals infinity.");
+        }
+        Arrays.fill(i, (byte) 0);
+        ECKey.CURVE.getCurve().normalizeAll(points);
+        for (int k = 0; k < count; k++) {
+            byte[] pub = points[k].getEncoded(true);
+            byte[] pubKeyHash = Utils.sha256hash160(pub);
+            pubs[offset + k] = new DerivedPub(fromIndex + offset + k, pub, pubKeyHash, Utils
+                    .toAddress(pubKeyHash));
+        }
+    }
+
     private static void assertNonZero(BigInteger integer, String errorMessage) {
         if (integer.equals(BigInteger.ZERO))
             throw new HDDerivationException(errorMessage);
@@ -240,6 +303,23 @@ public final class HDKeyDerivation {
             throw new HDDerivationException(errorMessage);
     }
 
+    /**
+     * A child public key of {@link #derivePubs(DeterministicKey, int, int)}, with its hash160 and
+     * address.
+     */
+    public static class DerivedPub {
+        public final int index;
+        public final byte[] pub, pubKeyHash;
+        public final String address;
+
+        public DerivedPub(int index, byte[] pub, byte[] pubKeyHash, String address) {
+            this.index = index;
+            this.pub = pub;
+            this.pubKeyHash = pubKeyHash;
+            this.address = address;
+        }
+    }
+
     public static class RawKeyBytes {
         public final byte[] keyBytes, chainCode;
 
@@ -17,13 +17,13 @@
  */
 
 package net.bither.bitherj.crypto.mnemonic;
+import com.google.common.base.Charsets;
 
-import java.io.ByteArrayOutputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import org.spongycastle.crypto.digests.SHA512Digest;
+import org.spongycastle.crypto.macs.HMac;
+import org.spongycastle.crypto.params.KeyParameter;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
 
 /**
  * <p>This is a clean-room implementation of PBKDF2 using RFC 2898 as a reference.</p>
@@ -34,75 +34,193 @@ import javax.crypto.spec.SecretKeySpec;
  * <p/>
  * <p>http://cryptofreek.org/2012/11/29/pbkdf2-pure-java-implementation/<br>
  * Modified to use SHA-512 - Ken Sedgwick ken@bonsai.com</p>
+ * <p/>
+ * <p>After the first one, every iteration hashes a single 64 byte block, so the HMAC key is
+ * absorbed once into inner and outer SHA-512 states and U is kept as eight words, which go
+ * straight into the next compression without being turned into bytes and back. Nothing is
+ * allocated in the iterations.</p>
  */
 public class PBKDF2SHA512 {
-    public static byte[] derive(String P, String S, int c, int dkLen) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    private static final int HLen = 64;
+    private static final int BlockLength = 128;
+
+    private static final long[] IV = {0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL,
+            0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L, 0x510e527fade682d1L, 0x9b05688c2b3e6c1fL,
+            0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L};
+
+    private static final long[] K = {0x428a2f98d728ae22L, 0x7137449123ef65cdL,
+            0xb5c0fbcfec4d3b2fL, 0xe9b5dba58189dbbcL, 0x3956c25bf348b538L, 0x59f111f1b605d019L,
+            0x923f82a4af194f9bL, 0xab1c5ed5da6d8118L, 0xd807aa98a3030242L, 0x12835b0145706fbeL,
+            0x243185be4ee4b28cL, 0x550c7dc3d5ffb4e2L, 0x72be5d74f27b896fL, 0x80deb1fe3b1696b1L,
+            0x9bdc06a725c71235L, 0xc19bf174cf692694L, 0xe49b69c19ef14ad2L, 0xefbe4786384f25e3L,
+            0x0fc19dc68b8cd5b5L, 0x240ca1cc77ac9c65L, 0x2de92c6f592b0275L, 0x4a7484aa6ea6e483L,
+            0x5cb0a9dcbd41fbd4L, 0x76f988da831153b5L, 0x983e5152ee66dfabL, 0xa831c66d2db43210L,
+            0xb00327c898fb213fL, 0xbf597fc7beef0ee4L, 0xc6e00bf33da88fc2L, 0xd5a79147930aa725L,
+            0x06ca6351e003826fL, 0x142929670a0e6e70L, 0x27b70a8546d22ffcL, 0x2e1b21385c26c926L,
+            0x4d2c6dfc5ac42aedL, 0x53380d139d95b3dfL, 0x650a73548baf63deL, 0x766a0abb3c77b2a8L,
+            0x81c2c92e47edaee6L, 0x92722c851482353bL, 0xa2bfe8a14cf10364L, 0xa81a664bbc423001L,
+            0xc24b8b70d0f89791L, 0xc76c51a30654be30L, 0xd192e819d6ef5218L, 0xd69906245565a910L,
+            0xf40e35855771202aL, 0x106aa07032bbd1b8L, 0x19a4c116b8d2d0c8L, 0x1e376c085141ab53L,
+            0x2748774cdf8eeb99L, 0x34b0bcb5e19b48a8L, 0x391c0cb3c5c95a63L, 0x4ed8aa4ae3418acbL,
+            0x5b9cca4f7763e373L, 0x682e6ff3d6b2b8a3L, 0x748f82ee5defb2fcL, 0x78a5636f43172f60L,
+            0x84c87814a1f0ab72L, 0x8cc702081a6439ecL, 0x90befffa23631e28L, 0xa4506cebde82bde9L,
+            0xbef9a3f7b2c67915L, 0xc67178f2e372532bL, 0xca273eceea26619cL, 0xd186b8c721c0c207L,
+            0xeada7dd6cde0eb1eL, 0xf57d4f7fee6ed178L, 0x06f067aa72176fbaL, 0x0a637dc5a2c898a6L,
+            0x113f9804bef90daeL, 0x1b710b35131c471bL, 0x28db77f523047d84L, 0x32caab7b40c72493L,
+            0x3c9ebe0a15c9bebcL, 0x431d67c49c100d4cL, 0x4cc5d4becb3e42b6L, 0x597f299cfc657e2aL,
+            0x5fcb6fab3ad6faecL, 0x6c44198c4a475817L};
 
-        try {
-            int hLen = 20;
-
-            if (dkLen > ((Math.pow(2, 32)) - 1) * hLen) {
-                throw new IllegalArgumentException("derived key too long");
-            } else {
-                int l = (int) Math.ceil((double) dkLen / (double) hLen);
-                // int r = dkLen - (l-1)*hLen;
+    public static byte[] derive(String P, String S, int c, int dkLen) {
+        return derive(P.getBytes(Charsets.UTF_8), S.getBytes(Charsets.UTF_8), c, dkLen);
+    }
 
-                for (int i = 1; i <= l; i++) {
-                    byte[] T = F(P, S, c, i);
-                    baos.write(T);
+    public static byte[] derive(byte[] password, byte[] salt, int c, int dkLen) {
+        if (c < 1) {
+            throw new IllegalArgumentException("iteration count must be positive");
+        }
+        if (dkLen > (Math.pow(2, 32) - 1) * HLen) {
+            throw new IllegalArgumentException("derived key too long");
+        }
+        HMac mac = new HMac(new SHA512Digest());
+        mac.init(new KeyParameter(password));
+        long[] inner = new long[8];
+        long[] outer = new long[8];
+        padStates(password, inner, outer);
+
+        byte[] derived = new byte[dkLen];
+        byte[] u = new byte[HLen];
+        long[] t = new long[8];
+        long[] w = new long[80];
+        long[] h = new long[8];
+        int l = (dkLen + HLen - 1) / HLen;
+        for (int i = 1; i <= l; i++) {
+            mac.update(salt, 0, salt.length);
+            mac.update((byte) (i >>> 24));
+            mac.update((byte) (i >>> 16));
+            mac.update((byte) (i >>> 8));
+            mac.update((byte) i);
+            mac.doFinal(u, 0);
+            F(inner, outer, u, c, t, w, h);
+            int offset = (i - 1) * HLen;
+            for (int k = 0; k < 8 && offset < dkLen; k++) {
+                for (int b = 56; b >= 0 && offset < dkLen; b -= 8) {
+                    derived[offset++] = (byte) (t[k] >>> b);
                 }
             }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
         }
-
-        byte[] baDerived = new byte[dkLen];
-        System.arraycopy(baos.toByteArray(), 0, baDerived, 0, baDerived.length);
-
-        return baDerived;
+        Arrays.fill(u, (byte) 0);
+        Arrays.fill(inner, 0);
+        Arrays.fill(outer, 0);
+        Arrays.fill(t, 0);
+        Arrays.fill(w, 0);
+        Arrays.fill(h, 0);
+        return derived;
     }
 
-    private static byte[] F(String P, String S, int c, int i) throws Exception {
-        byte[] U_LAST = null;
-        byte[] U_XOR = null;
-
-        SecretKeySpec key = new SecretKeySpec(P.getBytes("UTF-8"), "HmacSHA512");
-        Mac mac = Mac.getInstance(key.getAlgorithm());
-        mac.init(key);
-
-        for (int j = 0; j < c; j++) {
-            if (j == 0) {
-                byte[] baS = S.getBytes("UTF-8");
-                byte[] baI = INT(i);
-                byte[] baU = new byte[baS.length + baI.length];
-
-                System.arraycopy(baS, 0, baU, 0, baS.length);
-                System.arraycopy(baI, 0, baU, baS.length, baI.length);
-
-                U_XOR = mac.doFinal(baU);
-                U_LAST = U_XOR;
-                mac.reset();
-            } else {
-                byte[] baU = mac.doFinal(U_LAST);
-                mac.reset();
-
-                for (int k = 0; k < U_XOR.length; k++) {
-                    U_XOR[k] = (byte) (U_XOR[k] ^ baU[k]);
-                }
-
-                U_LAST = baU;
+    /**
+     * XORs U_1, already in u, to U_c into t.
+     */
+    private static void F(long[] inner, long[] outer, byte[] u, int c, long[] t, long[] w,
+                          long[] h) {
+        for (int k = 0; k < 8; k++) {
+            long word = 0;
+            for (int b = 0; b < 8; b++) {
+                word = (word << 8) | (u[k * 8 + b] & 0xff);
+            }
+            t[k] = word;
+            w[k] = word;
+        }
+        for (int j = 1; j < c; j++) {
+            // the message is the previous 64 byte hash after a whole block of key pad
+            padOneHash(w);
+            compress(inner, w, h);
+            System.arraycopy(h, 0, w, 0, 8);
+            padOneHash(w);
+            compress(outer, w, h);
+            for (int k = 0; k < 8; k++) {
+                t[k] ^= h[k];
+                w[k] = h[k];
             }
         }
+    }
 
-        return U_XOR;
+    private static void padOneHash(long[] w) {
+        w[8] = 0x8000000000000000L;
+        for (int k = 9; k < 15; k++) {
+            w[k] = 0;
+        }
+        w[15] = (BlockLength + HLen) * 8;
     }
 
-    private static byte[] INT(int i) {
-        ByteBuffer bb = ByteBuffer.allocate(4);
-        bb.order(ByteOrder.BIG_ENDIAN);
-        bb.putInt(i);
+    private static void padStates(byte[] password, long[] inner, long[] outer) {
+        byte[] key = password;
+        if (key.length > BlockLength) {
+            SHA512Digest digest = new SHA512Digest();
+            digest.update(key, 0, key.length);
+            key = new byte[HLen];
+            digest.doFinal(key, 0);
+        }
+        long[] w = new long[80];
+        for (int k = 0; k < 16; k++) {
+            long word = 0;
+            for (int b = 0; b < 8; b++) {
+                int index = k * 8 + b;
+                word = (word << 8) | (index < key.length ? key[index] & 0xff : 0);
+            }
+            w[k] = word ^ 0x3636363636363636L;
+        }
+        compress(IV, w, inner);
+        for (int k = 0; k < 16; k++) {
+            w[k] ^= 0x3636363636363636L ^ 0x5c5c5c5c5c5c5c5cL;
+        }
+        compress(IV, w, outer);
+        Arrays.fill(w, 0);
+        if (key != password) {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
 
-        return bb.array();
+    /**
+     * One SHA-512 compression of the 16 words at the start of w from state into out. The rest
+     * of w is the message schedule.
+     */
+    private static void compress(long[] state, long[] w, long[] out) {
+        for (int k = 16; k < 80; k++) {
+            long w15 = w[k - 15];
+            long w2 = w[k - 2];
+            long s0 = ((w15 >>> 1) | (w15 << 63)) ^ ((w15 >>> 8) | (w15 << 56)) ^ (w15 >>> 7);
+            long s1 = ((w2 >>> 19) | (w2 << 45)) ^ ((w2 >>> 61) | (w2 << 3)) ^ (w2 >>> 6);
+            w[k] = w[k - 16] + s0 + w[k - 7] + s1;
+        }
+        long a = state[0];
+        long b = state[1];
+        long c = state[2];
+        long d = state[3];
+        long e = state[4];
+        long f = state[5];
+        long g = state[6];
+        long h = state[7];
+        for (int k = 0; k < 80; k++) {
+            long t1 = h + (((e >>> 14) | (e << 50)) ^ ((e >>> 18) | (e << 46)) ^ ((e >>> 41) |
+                    (e << 23))) + ((e & f) ^ (~e & g)) + K[k] + w[k];
+            long t2 = (((a >>> 28) | (a << 36)) ^ ((a >>> 34) | (a << 30)) ^ ((a >>> 39) | (a
+                    << 25))) + ((a & b) ^ (a & c) ^ (b & c));
+            h = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+        out[0] = state[0] + a;
+        out[1] = state[1] + b;
+        out[2] = state[2] + c;
+        out[3] = state[3] + d;
+        out[4] = state[4] + e;
+        out[5] = state[5] + f;
+        out[6] = state[6] + g;
+        out[7] = state[7] + h;
     }
 }
@@ -147,6 +147,56 @@ public abstract class AbstractDb {
     public static final String CREATE_HD_ACCOUNT_ACCOUNT_ID_AND_PATH_TYPE_INDEX = "create index " +
             "idx_hd_address_account_id_path on hd_account_addresses (hd_account_id, path_type);";
 
+    // binary keys, tx and block hashes, scripts, signatures and pubs as blobs instead of Base58
+    public static final String CREATE_BINARY_OUTS_SQL = "create table if not exists outs " +
+            "(tx_hash blob not null" +
+            ", out_sn integer not null" +
+            ", out_script blob not null" +
+            ", out_value integer not null" +
+            ", out_status integer not null" +
+            ", out_address text" +
+            ", hd_account_id integer " +
+            ", primary key (tx_hash, out_sn));";
+    public static final String CREATE_BINARY_INS_SQL = "create table if not exists ins " +
+            "(tx_hash blob not null" +
+            ", in_sn integer not null" +
+            ", prev_tx_hash blob" +
+            ", prev_out_sn integer" +
+            ", in_signature blob" +
+            ", in_sequence integer" +
+            ", primary key (tx_hash, in_sn));";
+    public static final String CREATE_BINARY_ADDRESSTXS_SQL = "create table if not exists " +
+            "addresses_txs " +
+            "(address text not null" +
+            ", tx_hash blob not null" +
+            ", primary key (address, tx_hash));";
+    public static final String CREATE_BINARY_TXS_SQL = "create table if not exists txs " +
+            "(tx_hash blob primary key" +
+            ", tx_ver integer" +
+            ", tx_locktime integer" +
+            ", tx_time integer" +
+            ", block_no integer" +
+            ", source integer);";
+    public static final String CREATE_BINARY_BLOCKS_SQL = "create table if not exists blocks " +
+            "(block_no integer not null" +
+            ", block_hash blob not null primary key" +
+            ", block_root blob not null" +
+            ", block_ver integer not null" +
+            ", block_bits integer not null" +
+            ", block_nonce integer not null" +
+            ", block_time integer not null" +
+            ", block_prev blob" +
+            ", is_main integer not null);";
+    public static final String CREATE_BINARY_HD_ACCOUNT_ADDRESSES = "create table if not exists " +
+            "hd_account_addresses " +
+            "(hd_account_id integer not null" +
+            ", path_type integer not null" +
+            ", address_index integer not null" +
+            ", is_issued integer not null" +
+            ", address text not null" +
+            ", pub blob not null" +
+            ", is_synced integer not null" +
+            ", primary key (address));";
 
     //add hd_accont_id for outs
     public static final String ADD_HD_ACCOUNT_ID_FOR_OUTS = "alter table outs add column " +
@@ -24,8 +24,7 @@ import net.bither.bitherj.db.AbstractDb;
 import net.bither.bitherj.db.IBlockProvider;
 import net.bither.bitherj.db.imp.base.ICursor;
 import net.bither.bitherj.db.imp.base.IDb;
-import net.bither.bitherj.exception.AddressFormatException;
-import net.bither.bitherj.utils.Base58;
+import net.bither.bitherj.db.imp.base.IStatement;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -34,6 +33,9 @@ import java.util.List;
 import javax.annotation.Nullable;
 
 public abstract class AbstractBlockProvider extends AbstractProvider implements IBlockProvider {
+    private static final String INSERT_BLOCK_SQL = "insert or ignore into blocks(block_no," +
+            "block_hash,block_root,block_ver,block_bits,block_nonce,block_time,block_prev," +
+            "is_main) values(?,?,?,?,?,?,?,?,?)";
 
     public List<Block> getAllBlocks() {
         final List<Block> blockItems = new ArrayList<Block>();
@@ -128,7 +130,8 @@ public abstract class AbstractBlockProvider extends AbstractProvider implements
     public Block getBlock(byte[] blockHash) {
         final Block[] item = {null};
         String sql = "select * from blocks where block_hash=?";
-        this.execQueryOneRecord(sql, new String[]{Base58.encode(blockHash)}, new Function<ICursor, Void>() {
+        IDb db = this.getReadDb();
+        this.execQueryOneRecord(db, sql, new Object[]{key(db, blockHash)}, new Function<ICursor, Void>() {
             @Nullable
             @Override
             public Void apply(@Nullable ICursor c) {
@@ -142,7 +145,8 @@ public abstract class AbstractBlockProvider extends AbstractProvider implements
     public Block getOrphanBlockByPrevHash(byte[] prevHash) {
         final Block[] item = {null};
         String sql = "select * from blocks where block_prev=? and is_main=0";
-        this.execQueryOneRecord(sql, new String[]{Base58.encode(prevHash)}, new Function<ICursor, Void>() {
+        IDb db = this.getReadDb();
+        this.execQueryOneRecord(db, sql, new Object[]{key(db, prevHash)}, new Function<ICursor, Void>() {
             @Nullable
             @Override
             public Void apply(@Nullable ICursor c) {
@@ -156,7 +160,8 @@ public abstract class AbstractBlockProvider extends AbstractProvider implements
     public Block getMainChainBlock(byte[] blockHash) {
         final Block[] item = {null};
         String sql = "select * from blocks where block_hash=? and is_main=1";
-        this.execQueryOneRecord(sql, new String[]{Base58.encode(blockHash)}, new Function<ICursor, Void>() {
+        IDb db = this.getReadDb();
+        this.execQueryOneRecord(db, sql, new Object[]{key(db, blockHash)}, new Function<ICursor, Void>() {
             @Nullable
             @Override
             public Void apply(@Nullable ICursor c) {
@@ -182,54 +187,47 @@ public abstract class AbstractBlockProvider extends AbstractProvider implements
 //    }
 
     public void addBlocks(List<Block> blockItemList) {
-        List<Block> addBlockList = new ArrayList<Block>();
-        for (Block item : blockItemList) {
-            if (!this.blockExists(item.getBlockHash())) {
-                addBlockList.add(item);
-            }
+        if (blockItemList.size() == 0) {
+            return;
         }
         IDb writeDb = this.getWriteDb();
         writeDb.beginTransaction();
-        String sql = "insert into blocks(block_no,block_hash,block_root,block_ver,block_bits,block_nonce,block_time,block_prev,is_main) values(?,?,?,?,?,?,?,?,?)";
-        for (Block item : addBlockList) {
-            this.execUpdate(writeDb, sql, new String[] {
-                    Integer.toString(item.getBlockNo())
-                    , Base58.encode(item.getBlockHash())
-                    , Base58.encode(item.getBlockRoot())
-                    , Long.toString(item.getBlockVer())
-                    , Long.toString(item.getBlockBits())
-                    , Long.toString(item.getBlockNonce())
-                    , Long.toString(item.getBlockTime())
-                    , Base58.encode(item.getBlockPrev())
-                    , item.isMain() ? "1" : "0"
-            });
+        // block_hash is the primary key, blocks already stored are skipped by the insert itself
+        IStatement statement = this.compileStatement(writeDb, INSERT_BLOCK_SQL);
+        for (Block item : blockItemList) {
+            bindBlock(writeDb, statement, item);
+            statement.addBatch();
         }
+        statement.executeBatch();
+        statement.close();
         writeDb.endTransaction();
     }
 
     public void addBlock(Block item) {
-        boolean blockExists = blockExists(item.getBlockHash());
-        if (!blockExists) {
-            String sql = "insert into blocks(block_no,block_hash,block_root,block_ver,block_bits,block_nonce,block_time,block_prev,is_main) values(?,?,?,?,?,?,?,?,?)";
-            this.execUpdate(sql, new String[] {
-                    Integer.toString(item.getBlockNo())
-                    , Base58.encode(item.getBlockHash())
-                    , Base58.encode(item.getBlockRoot())
-                    , Long.toString(item.getBlockVer())
-                    , Long.toString(item.getBlockBits())
-                    , Long.toString(item.getBlockNonce())
-                    , Long.toString(item.getBlockTime())
-                    , Base58.encode(item.getBlockPrev())
-                    , item.isMain() ? "1" : "0"
-            });
-        }
+        IDb writeDb = this.getWriteDb();
+        IStatement statement = this.compileStatement(writeDb, INSERT_BLOCK_SQL);
+        bindBlock(writeDb, statement, item);
+        statement.executeUpdate();
+        statement.close();
+    }
+
+    private void bindBlock(IDb db, IStatement statement, Block item) {
+        statement.bindLong(1, item.getBlockNo());
+        bindKey(db, statement, 2, item.getBlockHash());
+        bindKey(db, statement, 3, item.getBlockRoot());
+        statement.bindLong(4, item.getBlockVer());
+        statement.bindLong(5, item.getBlockBits());
+        statement.bindLong(6, item.getBlockNonce());
+        statement.bindLong(7, item.getBlockTime());
+        bindKey(db, statement, 8, item.getBlockPrev());
+        statement.bindLong(9, item.isMain() ? 1 : 0);
     }
 
     public boolean blockExists(byte[] blockHash) {
         String sql = "select count(0) cnt from blocks where block_hash=?";
         final int[] cnt = {0};
-
-        this.execQueryOneRecord(sql, new String[]{Base58.encode(blockHash)}, new Function<ICursor, Void>() {
+        IDb db = this.getReadDb();
+        this.execQueryOneRecord(db, sql, new Object[]{key(db, blockHash)}, new Function<ICursor, Void>() {
             @Nullable
             @Override
             public Void apply(@Nullable ICursor c) {
@@ -242,12 +240,14 @@ public abstract class AbstractBlockProvider extends AbstractProvider implements
 
     public void updateBlock(byte[] blockHash, boolean isMain) {
         String sql = "update blocks set is_main=? where block_hash=?";
-        this.execUpdate(sql, new String[] {isMain ? "1" : "0", Base58.encode(blockHash)});
+        IDb db = this.getWriteDb();
+        this.execUpdate(db, sql, new Object[] {isMain ? 1 : 0, key(db, blockHash)});
     }
 
     public void removeBlock(byte[] blockHash) {
         String sql = "delete from blocks where block_hash=?";
-        this.execUpdate(sql, new String[]{Base58.encode(blockHash)});
+        IDb db = this.getWriteDb();
+        this.execUpdate(db, sql, new Object[]{key(db, blockHash)});
     }
 
     public void cleanOldBlock() {
@@ -295,11 +295,7 @@ public abstract class AbstractBlockProvider extends AbstractProvider implements
         }
         idColumn = c.getColumnIndex(AbstractDb.BlocksColumns.BLOCK_HASH);
         if (idColumn != -1) {
-            try {
-                blockHash = Base58.decode(c.getString(idColumn));
-            } catch (AddressFormatException e) {
-                e.printStackTrace();
-            }
+            blockHash = getKey(c, idColumn);
         }
         idColumn = c.getColumnIndex(AbstractDb.BlocksColumns.BLOCK_NO);
         if (idColumn != -1) {
@@ -311,19 +307,11 @@ public abstract class AbstractBlockProvider extends AbstractProvider implements
         }
         idColumn = c.getColumnIndex(AbstractDb.BlocksColumns.BLOCK_PREV);
         if (idColumn != -1) {
-            try {
-                prevBlock = Base58.decode(c.getString(idColumn));
-            } catch (AddressFormatException e) {
-                e.printStackTrace();
-            }
+            prevBlock = getKey(c, idColumn);
         }
         idColumn = c.getColumnIndex(AbstractDb.BlocksColumns.BLOCK_ROOT);
         if (idColumn != -1) {
-            try {
-                merkleRoot = Base58.decode(c.getString(idColumn));
-            } catch (AddressFormatException e) {
-                e.printStackTrace();
-            }
+            merkleRoot = getKey(c, idColumn);
         }
         idColumn = c.getColumnIndex(AbstractDb.BlocksColumns.BLOCK_TIME);
         if (idColumn != -1) {
@@ -29,8 +29,7 @@ import net.bither.bitherj.db.AbstractDb;
 import net.bither.bitherj.db.IHDAccountAddressProvider;
 import net.bither.bitherj.db.imp.base.ICursor;
 import net.bither.bitherj.db.imp.base.IDb;
-import net.bither.bitherj.exception.AddressFormatException;
-import net.bither.bitherj.utils.Base58;
+import net.bither.bitherj.db.imp.base.IStatement;
 import net.bither.bitherj.utils.Sha256Hash;
 import net.bither.bitherj.utils.Utils;
 
@@ -48,17 +47,19 @@ public abstract class AbstractHDAccountAddressProvider extends AbstractProvider
         String sql = "insert into hd_account_addresses(hd_account_id,path_type,address_index,is_issued,address,pub,is_synced) values(?,?,?,?,?,?,?)";
         IDb writeDb = this.getWriteDb();
         writeDb.beginTransaction();
+        IStatement statement = this.compileStatement(writeDb, sql);
         for (HDAccount.HDAccountAddress hdAccountAddress : hdAccountAddresses) {
-            this.execUpdate(writeDb, sql, new String[] {
-                    Integer.toString(hdAccountAddress.getHdAccountId())
-                    , Integer.toString(hdAccountAddress.getPathType().getValue())
-                    , Integer.toString(hdAccountAddress.getIndex())
-                    , hdAccountAddress.isIssued() ? "1" : "0"
-                    , hdAccountAddress.getAddress()
-                    , Base58.encode(hdAccountAddress.getPub())
-                    , hdAccountAddress.isSyncedComplete() ? "1" : "0"
-            });
+            statement.bindLong(1, hdAccountAddress.getHdAccountId());
+            statement.bindLong(2, hdAccountAddress.getPathType().getValue());
+            statement.bindLong(3, hdAccountAddress.getIndex());
+            statement.bindLong(4, hdAccountAddress.isIssued() ? 1 : 0);
+            statement.bindString(5, hdAccountAddress.getAddress());
+            bindKey(writeDb, statement, 6, hdAccountAddress.getPub());
+            statement.bindLong(7, hdAccountAddress.isSyncedComplete() ? 1 : 0);
+            statement.addBatch();
         }
+        statement.executeBatch();
+        statement.close();
         writeDb.endTransaction();
     }
 
@@ -265,10 +266,9 @@ public abstract class AbstractHDAccountAddressProvider extends AbstractProvider
             public Void apply(@Nullable ICursor c) {
                 int idColumn = c.getColumnIndex(AbstractDb.HDAccountAddressesColumns.PUB);
                 if (idColumn != -1) {
-                    try {
-                        adressPubList.add(Base58.decode(c.getString(idColumn)));
-                    } catch (AddressFormatException e) {
-                        e.printStackTrace();
+                    byte[] pub = getKey(c, idColumn);
+                    if (pub != null) {
+                        adressPubList.add(pub);
                     }
                 }
                 return null;
@@ -446,14 +446,15 @@ public abstract class AbstractHDAccountAddressProvider extends AbstractProvider
     public List<HDAccount.HDAccountAddress> getSigningAddressesForInputs(int hdAccountId, List<In> inList) {
         final List<HDAccount.HDAccountAddress> hdAccountAddressList =
                 new ArrayList<HDAccount.HDAccountAddress>();
+        IDb db = this.getReadDb();
         for (In in : inList) {
             String sql = "select a.address,a.path_type,a.address_index,a.is_synced,a.hd_account_id" +
                     " from hd_account_addresses a ,outs b" +
                     " where a.address=b.out_address" +
                     " and b.tx_hash=? and b.out_sn=? and a.hd_account_id=?";
             OutPoint outPoint = in.getOutpoint();
-            this.execQueryOneRecord(sql, new String[]{Base58.encode(in.getPrevTxHash()), Integer.toString
-                    (outPoint.getOutSn()), Integer.toString(hdAccountId)}, new Function<ICursor, Void>() {
+            this.execQueryOneRecord(db, sql, new Object[]{key(db, in.getPrevTxHash()), outPoint
+                    .getOutSn(), hdAccountId}, new Function<ICursor, Void>() {
                 @Nullable
                 @Override
                 public Void apply(@Nullable ICursor c) {
@@ -532,11 +533,11 @@ public abstract class AbstractHDAccountAddressProvider extends AbstractProvider
     }
 
     public void addInsAndOuts(IDb db, final Tx txItem) {
-        String txHashStr = Base58.encode(txItem.getTxHash());
+        Object txHash = key(db, txItem.getTxHash());
         txItem.setOuts(new ArrayList<Out>());
         txItem.setIns(new ArrayList<In>());
         String sql = "select * from ins where tx_hash=? order by in_sn";
-        this.execQueryLoop(db, sql, new String[]{txHashStr}, new Function<ICursor, Void>() {
+        this.execQueryLoop(db, sql, new Object[]{txHash}, new Function<ICursor, Void>() {
             @Nullable
             @Override
             public Void apply(@Nullable ICursor c) {
@@ -548,7 +549,7 @@ public abstract class AbstractHDAccountAddressProvider extends AbstractProvider
         });
 
         sql = "select * from outs where tx_hash=? order by out_sn";
-        this.execQueryLoop(db, sql, new String[]{txHashStr}, new Function<ICursor, Void>() {
+        this.execQueryLoop(db, sql, new Object[]{txHash}, new Function<ICursor, Void>() {
             @Nullable
             @Override
             public Void apply(@Nullable ICursor c) {
@@ -566,7 +567,8 @@ public abstract class AbstractHDAccountAddressProvider extends AbstractProvider
                 " i.tx_hash=? and o.tx_hash=i.prev_tx_hash and i.prev_out_sn=o.out_sn and o" +
                 ".hd_account_id=?";
         final long[] sum = {0};
-        this.execQueryOneRecord(sql, new String[]{Base58.encode(txHash), Integer.toString(hdAccountId)}, new Function<ICursor, Void>() {
+        IDb db = this.getReadDb();
+        this.execQueryOneRecord(db, sql, new Object[]{key(db, txHash), hdAccountId}, new Function<ICursor, Void>() {
             @Nullable
             @Override
             public Void apply(@Nullable ICursor c) {
@@ -588,7 +590,7 @@ public abstract class AbstractHDAccountAddressProvider extends AbstractProvider
                 " from txs a,addresses_txs b,hd_account_addresses c" +
                 " where a.tx_hash=b.tx_hash and b.address=c.address and c.hd_account_id=?" +
                 " order by ifnull(block_no,4294967295) desc,a.tx_hash";
-        IDb db = this.getReadDb();
+        final IDb db = this.getReadDb();
         final StringBuilder txsStrBuilder = new StringBuilder();
         this.execQueryLoop(db, sql, new String[]{Integer.toString(hdAccountId)}, new Function<ICursor, Void>() {
             @Nullable
@@ -599,8 +601,7 @@ public abstract class AbstractHDAccountAddressProvider extends AbstractProvider
                 txItem.setOuts(new ArrayList<Out>());
                 txItemList.add(txItem);
                 txDict.put(new Sha256Hash(txItem.getTxHash()), txItem);
-                txsStrBuilder.append("'").append(Base58.encode(txItem.getTxHash())).append("'")
-                        .append(",");
+                txsStrBuilder.append(keyLiteral(db, txItem.getTxHash())).append(",");
                 return null;
             }
         });
@@ -647,7 +648,7 @@ public abstract class AbstractHDAccountAddressProvider extends AbstractProvider
                 " where a.tx_hash=b.tx_hash and b.address=c.address and c.hd_account_id=?" +
                 " order by ifnull(block_no,4294967295) desc,a.tx_hash" +
                 " limit ?,?";
-        IDb db = this.getReadDb();
+        final IDb db = this.getReadDb();
         final StringBuilder txsStrBuilder = new StringBuilder();
         this.execQueryLoop(db, sql, new String[]{
                 Integer.toString(hdAccountId)
@@ -662,8 +663,7 @@ public abstract class AbstractHDAccountAddressProvider extends AbstractProvider
                 txItem.setOuts(new ArrayList<Out>());
                 txItemList.add(txItem);
                 txDict.put(new Sha256Hash(txItem.getTxHash()), txItem);
-                txsStrBuilder.append("'").append(Base58.encode(txItem.getTxHash())).append("'")
-                        .append(",");
+                txsStrBuilder.append(keyLiteral(db, txItem.getTxHash())).append(",");
                 return null;
             }
         });
@@ -852,11 +852,7 @@ public abstract class AbstractHDAccountAddressProvider extends AbstractProvider
         }
         idColumn = c.getColumnIndex(AbstractDb.HDAccountAddressesColumns.PUB);
         if (idColumn != -1) {
-            try {
-                pubs = Base58.decode(c.getString(idColumn));
-            } catch (AddressFormatException e) {
-                e.printStackTrace();
-            }
+            pubs = getKey(c, idColumn);
         }
         idColumn = c.getColumnIndex(AbstractDb.HDAccountAddressesColumns.PATH_TYPE);
         if (idColumn != -1) {
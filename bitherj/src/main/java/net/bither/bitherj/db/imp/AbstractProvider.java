@@ -18,11 +18,24 @@ package net.bither.bitherj.db.imp;
 
 import com.google.common.base.Function;
 
+import net.bither.bitherj.db.imp.base.IBatchDb;
+import net.bither.bitherj.db.imp.base.IBinaryKeyDb;
 import net.bither.bitherj.db.imp.base.ICursor;
 import net.bither.bitherj.db.imp.base.IDb;
 import net.bither.bitherj.db.imp.base.IProvider;
+import net.bither.bitherj.db.imp.base.IStatement;
+import net.bither.bitherj.exception.AddressFormatException;
+import net.bither.bitherj.utils.Base58;
+import net.bither.bitherj.utils.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public abstract class AbstractProvider implements IProvider {
+    // the type of a blob column, as android.database.Cursor numbers them
+    private static final int FieldTypeBlob = 4;
+
     @Override
     public void execUpdate(String sql, String[] params) {
         this.getWriteDb().execUpdate(sql, params);
@@ -52,4 +65,227 @@ public abstract class AbstractProvider implements IProvider {
     public void execQueryLoop(IDb db, String sql, String[] params, Function<ICursor, Void> func) {
         db.execQueryLoop(sql, params, func);
     }
+
+    /**
+     * Compiles sql on db when it supports typed statements, otherwise returns a statement that
+     * runs each row through {@link IDb#execUpdate(String, String[])}.
+     */
+    @Override
+    public IStatement compileStatement(IDb db, String sql) {
+        if (db instanceof IBatchDb) {
+            return ((IBatchDb) db).compileStatement(sql);
+        }
+        return new ParamsStatement(db, sql);
+    }
+
+    /**
+     * Whether db stores hashes, scripts and pubs as blobs rather than Base58 strings.
+     */
+    protected static boolean isBinaryKeyDb(IDb db) {
+        return db instanceof IBinaryKeyDb;
+    }
+
+    /**
+     * The param that matches key on db, its bytes on a binary key db and its Base58 otherwise.
+     */
+    protected static Object key(IDb db, byte[] key) {
+        if (key == null || isBinaryKeyDb(db)) {
+            return key;
+        }
+        return Base58.encode(key);
+    }
+
+    protected static void bindKey(IDb db, IStatement statement, int index, byte[] key) {
+        if (key == null) {
+            statement.bindNull(index);
+        } else if (isBinaryKeyDb(db)) {
+            statement.bindBlob(index, key);
+        } else {
+            statement.bindString(index, Base58.encode(key));
+        }
+    }
+
+    /**
+     * key as a sql literal, for the in lists that are built into the sql.
+     */
+    protected static String keyLiteral(IDb db, byte[] key) {
+        if (isBinaryKeyDb(db)) {
+            return "x'" + Utils.bytesToHexString(key) + "'";
+        }
+        return "'" + Base58.encode(key) + "'";
+    }
+
+    /**
+     * Reads a key whichever schema the column is on, null when it is null or not Base58.
+     */
+    public static byte[] getKey(ICursor c, int column) {
+        if (c.isNull(column)) {
+            return null;
+        }
+        if (c.getType(column) == FieldTypeBlob) {
+            return c.getBlob(column);
+        }
+        try {
+            return Base58.decode(c.getString(column));
+        } catch (AddressFormatException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    protected void execUpdate(IDb db, String sql, Object[] params) {
+        if (db instanceof IBinaryKeyDb) {
+            ((IBinaryKeyDb) db).execUpdate(sql, params);
+        } else {
+            db.execUpdate(sql, stringParams(params));
+        }
+    }
+
+    protected void execQueryOneRecord(IDb db, String sql, Object[] params, Function<ICursor,
+            Void> func) {
+        if (db instanceof IBinaryKeyDb) {
+            ((IBinaryKeyDb) db).execQueryOneRecord(sql, params, func);
+        } else {
+            db.execQueryOneRecord(sql, stringParams(params), func);
+        }
+    }
+
+    protected void execQueryLoop(IDb db, String sql, Object[] params, Function<ICursor, Void>
+            func) {
+        if (db instanceof IBinaryKeyDb) {
+            ((IBinaryKeyDb) db).execQueryLoop(sql, params, func);
+        } else {
+            db.execQueryLoop(sql, stringParams(params), func);
+        }
+    }
+
+    private static String[] stringParams(Object[] params) {
+        if (params == null) {
+            return null;
+        }
+        String[] strings = new String[params.length];
+        for (int i = 0; i < params.length; i++) {
+            if (params[i] instanceof byte[]) {
+                throw new IllegalArgumentException("blob params need an IBinaryKeyDb");
+            }
+            strings[i] = params[i] == null ? null : params[i].toString();
+        }
+        return strings;
+    }
+
+    /**
+     * Runs each row through {@link IDb#execUpdate(String, String[])}. That only takes strings,
+     * so the params bound as blobs go into the sql of their row as x'..' literals.
+     */
+    private static class ParamsStatement implements IStatement {
+        private final IDb db;
+        private final String sql;
+        private Object[] params = new Object[0];
+        private final List<Object[]> batch = new ArrayList<Object[]>();
+
+        ParamsStatement(IDb db, String sql) {
+            this.db = db;
+            this.sql = sql;
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            bind(index, value);
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            bind(index, Long.toString(value));
+        }
+
+        @Override
+        public void bindBlob(int index, byte[] value) {
+            bind(index, value == null ? null : value.clone());
+        }
+
+        @Override
+        public void bindNull(int index) {
+            bind(index, null);
+        }
+
+        @Override
+        public void clearBindings() {
+            params = new Object[0];
+        }
+
+        @Override
+        public void executeUpdate() {
+            execute(params);
+        }
+
+        @Override
+        public void addBatch() {
+            batch.add(params.clone());
+        }
+
+        @Override
+        public int executeBatch() {
+            int count = batch.size();
+            for (Object[] row : batch) {
+                execute(row);
+            }
+            batch.clear();
+            return count;
+        }
+
+        @Override
+        public void close() {
+            batch.clear();
+        }
+
+        private void bind(int index, Object value) {
+            if (params.length < index) {
+                params = Arrays.copyOf(params, index);
+            }
+            params[index - 1] = value;
+        }
+
+        private void execute(Object[] row) {
+            boolean hasBlob = false;
+            for (Object param : row) {
+                if (param instanceof byte[]) {
+                    hasBlob = true;
+                    break;
+                }
+            }
+            if (!hasBlob) {
+                String[] strings = new String[row.length];
+                for (int i = 0; i < row.length; i++) {
+                    strings[i] = (String) row[i];
+                }
+                db.execUpdate(sql, strings);
+                return;
+            }
+            StringBuilder inlined = new StringBuilder(sql.length() + 64);
+            List<String> strings = new ArrayList<String>(row.length);
+            char quote = 0;
+            int param = 0;
+            for (int i = 0; i < sql.length(); i++) {
+                char c = sql.charAt(i);
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '\'' || c == '"') {
+                    quote = c;
+                } else if (c == '?') {
+                    Object value = param < row.length ? row[param] : null;
+                    param++;
+                    if (value instanceof byte[]) {
+                        inlined.append("x'").append(Utils.bytesToHexString((byte[]) value))
+                                .append('\'');
+                        continue;
+                    }
+                    strings.add((String) value);
+                }
+                inlined.append(c);
+            }
+            db.execUpdate(inlined.toString(), strings.toArray(new String[strings.size()]));
+        }
+    }
 }
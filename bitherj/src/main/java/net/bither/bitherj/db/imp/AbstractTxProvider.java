@@ -22,12 +22,12 @@ import net.bither.bitherj.BitherjSettings;
 import net.bither.bitherj.core.In;
 import net.bither.bitherj.core.Out;
 import net.bither.bitherj.core.Tx;
+import net.bither.bitherj.core.UtxoSet;
 import net.bither.bitherj.db.AbstractDb;
 import net.bither.bitherj.db.ITxProvider;
 import net.bither.bitherj.db.imp.base.ICursor;
 import net.bither.bitherj.db.imp.base.IDb;
-import net.bither.bitherj.exception.AddressFormatException;
-import net.bither.bitherj.utils.Base58;
+import net.bither.bitherj.db.imp.base.IStatement;
 import net.bither.bitherj.utils.Sha256Hash;
 import net.bither.bitherj.utils.Utils;
 
@@ -104,7 +104,7 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         final List<Tx> txItemList = new ArrayList<Tx>();
         final HashMap<Sha256Hash, Tx> txDict = new HashMap<Sha256Hash, Tx>();
 
-        IDb db = this.getReadDb();
+        final IDb db = this.getReadDb();
 
         String sql = "select b.* from addresses_txs a, txs b" +
                 " where a.tx_hash=b.tx_hash and a.address=? order by ifnull(b.block_no,4294967295) desc limit ?,? ";
@@ -121,7 +121,7 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
                 txItem.setOuts(new ArrayList<Out>());
                 txItemList.add(txItem);
                 txDict.put(new Sha256Hash(txItem.getTxHash()), txItem);
-                txsStrBuilder.append("'").append(Base58.encode(txItem.getTxHash())).append("'").append(",");
+                txsStrBuilder.append(keyLiteral(db, txItem.getTxHash())).append(",");
                 return null;
             }
         });
@@ -209,10 +209,9 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
     public Tx getTxDetailByTxHash(byte[] txHash) {
         final Tx[] txItem = {null};
         final boolean[] txExists = {false};
-        String txHashStr = Base58.encode(txHash);
         String sql = "select * from txs where tx_hash=?";
         IDb db = this.getReadDb();
-        this.execQueryOneRecord(db, sql, new String[]{txHashStr}, new Function<ICursor, Void>() {
+        this.execQueryOneRecord(db, sql, new Object[]{key(db, txHash)}, new Function<ICursor, Void>() {
             @Nullable
 
             @Override
@@ -233,7 +232,8 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         String sql = "select  sum(o.out_value) out_value from ins i,outs o where" +
                 " i.tx_hash=? and o.tx_hash=i.prev_tx_hash and i.prev_out_sn=o.out_sn and o.out_address=?";
         final long[] sum = {0};
-        this.execQueryOneRecord(sql, new String[]{Base58.encode(txHash), address}, new Function<ICursor, Void>() {
+        IDb db = this.getReadDb();
+        this.execQueryOneRecord(db, sql, new Object[]{key(db, txHash), address}, new Function<ICursor, Void>() {
             @Nullable
             @Override
             public Void apply(@Nullable ICursor c) {
@@ -251,7 +251,8 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
     public boolean isExist(byte[] txHash) {
         final boolean[] result = {false};
         String sql = "select count(0) from txs where tx_hash=?";
-        this.execQueryOneRecord(sql, new String[]{Base58.encode(txHash)}, new Function<ICursor, Void>() {
+        IDb db = this.getReadDb();
+        this.execQueryOneRecord(db, sql, new Object[]{key(db, txHash)}, new Function<ICursor, Void>() {
             @Nullable
             @Override
             public Void apply(@Nullable ICursor c) {
@@ -265,59 +266,108 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
     public void add(Tx txItem) {
         IDb db = this.getWriteDb();
         db.beginTransaction();
-        addTxToDb(db, txItem);
+        TxUpdates updates = new TxUpdates(db);
+        addTxToDb(db, txItem, updates);
+        updates.execute();
         db.endTransaction();
+        UtxoSet.getInstance().registerTx(txItem);
     }
 
     public void addTxs(List<Tx> txItems) {
         if (txItems.size() > 0) {
             IDb db = this.getWriteDb();
             db.beginTransaction();
+            // the updates only touch rows the per tx lookups do not read, so they are
+            // collected for the whole list and run as batches at the end
+            TxUpdates updates = new TxUpdates(db);
             for (Tx txItem : txItems) {
-                addTxToDb(db, txItem);
+                addTxToDb(db, txItem, updates);
             }
+            updates.execute();
             db.endTransaction();
+            // histories come in any order, the owners are loaded again from what was stored
+            UtxoSet.getInstance().reset();
         }
     }
 
-    private void addTxToDb(IDb db, Tx txItem) {
+    private void addTxToDb(IDb db, Tx txItem, TxUpdates updates) {
         this.insertTx(db, txItem);
         List<AddressTx> addressesTxsRels = new ArrayList<AddressTx>();
-        List<AddressTx> temp = insertIn(db, txItem);
+        List<AddressTx> temp = insertIn(db, txItem, updates);
         if (temp != null && temp.size() > 0) {
             addressesTxsRels.addAll(temp);
         }
-        temp = insertOut(db, txItem);
+        temp = insertOut(db, txItem, updates);
         if (temp != null && temp.size() > 0) {
             addressesTxsRels.addAll(temp);
         }
-        String sql = "insert or ignore into addresses_txs(address, tx_hash) values(?,?)";
         for (AddressTx addressTx : addressesTxsRels) {
-            this.execUpdate(db, sql, new String[]{addressTx.getAddress(), addressTx.getTxHash()});
+            updates.addressTx.bindString(1, addressTx.getAddress());
+            bindKey(db, updates.addressTx, 2, addressTx.getTxHash());
+            updates.addressTx.addBatch();
+        }
+    }
+
+    /**
+     * The writes of adding txs that can wait for the end of the transaction, each compiled once
+     * and run as one batch.
+     */
+    private class TxUpdates {
+        final IStatement addressTx;
+        final IStatement outStatus;
+        final IStatement outHDAccountId;
+        final IStatement hdAddressIssued;
+        private final IDb db;
+
+        TxUpdates(IDb db) {
+            this.db = db;
+            addressTx = compileStatement(db, "insert or ignore into addresses_txs(address, " +
+                    "tx_hash) values(?,?)");
+            outStatus = compileStatement(db, "update outs set out_status=? where tx_hash=? and" +
+                    " out_sn=?");
+            outHDAccountId = compileStatement(db, "update outs set hd_account_id=? where " +
+                    "tx_hash=? and out_sn=?");
+            hdAddressIssued = compileStatement(db, "update hd_account_addresses set " +
+                    "is_issued=? where path_type=? and address_index<=? and hd_account_id=?");
+        }
+
+        void spent(byte[] txHash, int outSn) {
+            outStatus.bindLong(1, Out.OutStatus.spent.getValue());
+            bindKey(db, outStatus, 2, txHash);
+            outStatus.bindLong(3, outSn);
+            outStatus.addBatch();
+        }
+
+        void execute() {
+            for (IStatement statement : new IStatement[]{addressTx, outStatus, outHDAccountId,
+                    hdAddressIssued}) {
+                statement.executeBatch();
+                statement.close();
+            }
         }
     }
 
     public void remove(byte[] txHash) {
-        String txHashStr = Base58.encode(txHash);
-        List<String> txHashes = new ArrayList<String>();
-        List<String> needRemoveTxHashes = new ArrayList<String>();
-        txHashes.add(txHashStr);
+        List<byte[]> txHashes = new ArrayList<byte[]>();
+        List<byte[]> needRemoveTxHashes = new ArrayList<byte[]>();
+        txHashes.add(txHash);
         while (txHashes.size() > 0) {
-            String thisHash = txHashes.get(0);
+            byte[] thisHash = txHashes.get(0);
             txHashes.remove(0);
             needRemoveTxHashes.add(thisHash);
-            List<String> temp = getRelayTx(thisHash);
+            List<byte[]> temp = getRelayTx(thisHash);
             txHashes.addAll(temp);
         }
         IDb db = this.getWriteDb();
         db.beginTransaction();
-        for (String str : needRemoveTxHashes) {
-            removeSingleTx(db, str);
+        for (byte[] hash : needRemoveTxHashes) {
+            removeSingleTx(db, hash);
         }
         db.endTransaction();
+        UtxoSet.getInstance().reset();
     }
 
-    private void removeSingleTx(IDb db, String tx) {
+    private void removeSingleTx(IDb db, byte[] txHash) {
         String deleteTx = "delete from txs where tx_hash=?";
         String deleteIn = "delete from ins where tx_hash=?";
         String deleteOut = "delete from outs where tx_hash=?";
@@ -326,15 +376,16 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         String existOtherIn = "select count(0) cnt from ins where prev_tx_hash=? and prev_out_sn=?";
         String updatePrevOut = "update outs set out_status=? where tx_hash=? and out_sn=?";
         final List<Object[]> needUpdateOuts = new ArrayList<Object[]>();
-        this.execQueryLoop(db, inSql, new String[]{tx}, new Function<ICursor, Void>() {
+        Object tx = key(db, txHash);
+        this.execQueryLoop(db, inSql, new Object[]{tx}, new Function<ICursor, Void>() {
             @Nullable
             @Override
             public Void apply(@Nullable ICursor c) {
                 int idColumn = c.getColumnIndex(AbstractDb.InsColumns.PREV_TX_HASH);
-                String prevTxHash = null;
+                byte[] prevTxHash = null;
                 int prevOutSn = 0;
                 if (idColumn != -1) {
-                    prevTxHash = c.getString(idColumn);
+                    prevTxHash = getKey(c, idColumn);
                 }
                 idColumn = c.getColumnIndex(AbstractDb.InsColumns.PREV_OUT_SN);
                 if (idColumn != -1) {
@@ -344,13 +395,14 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
                 return null;
             }
         });
-        this.execUpdate(db, deleteAddressesTx, new String[] {tx});
-        this.execUpdate(db, deleteOut, new String[] {tx});
-        this.execUpdate(db, deleteIn, new String[] {tx});
-        this.execUpdate(db, deleteTx, new String[] {tx});
+        this.execUpdate(db, deleteAddressesTx, new Object[] {tx});
+        this.execUpdate(db, deleteOut, new Object[] {tx});
+        this.execUpdate(db, deleteIn, new Object[] {tx});
+        this.execUpdate(db, deleteTx, new Object[] {tx});
         for (Object[] array : needUpdateOuts) {
             final boolean[] isExist = {false};
-            this.execQueryLoop(db, existOtherIn, new String[]{array[0].toString(), array[1].toString()}, new Function<ICursor, Void>() {
+            Object prevTx = key(db, (byte[]) array[0]);
+            this.execQueryLoop(db, existOtherIn, new Object[]{prevTx, array[1]}, new Function<ICursor, Void>() {
                 @Nullable
                 @Override
                 public Void apply(@Nullable ICursor c) {
@@ -361,19 +413,21 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
                 }
             });
             if (isExist[0]) {
-                this.execUpdate(db, updatePrevOut, new String[] {"0", array[0].toString(), array[1].toString()});
+                this.execUpdate(db, updatePrevOut, new Object[] {0, prevTx, array[1]});
             }
         }
     }
 
-    private List<String> getRelayTx(String txHash) {
-        final List<String> relayTxHashes = new ArrayList<String>();
+    private List<byte[]> getRelayTx(byte[] txHash) {
+        final List<byte[]> relayTxHashes = new ArrayList<byte[]>();
         String relayTxSql = "select distinct tx_hash from ins where prev_tx_hash=?";
-        this.execQueryLoop(relayTxSql, new String[]{txHash}, new Function<ICursor, Void>() {
+        IDb db = this.getReadDb();
+        this.execQueryLoop(db, relayTxSql, new Object[]{key(db, txHash)}, new Function<ICursor,
+                Void>() {
             @Nullable
             @Override
             public Void apply(@Nullable ICursor c) {
-                relayTxHashes.add(c.getString(0));
+                relayTxHashes.add(getKey(c, 0));
                 return null;
             }
         });
@@ -387,7 +441,7 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         IDb db = this.getReadDb();
         for (In inItem : txItem.getIns()) {
             final boolean[] isDoubleSpent = {false};
-            this.execQueryOneRecord(db, sql, new String[]{Base58.encode(inItem.getPrevTxHash()), Integer.toString(inItem.getPrevOutSn())}, new Function<ICursor, Void>() {
+            this.execQueryOneRecord(db, sql, new Object[]{key(db, inItem.getPrevTxHash()), inItem.getPrevOutSn()}, new Function<ICursor, Void>() {
                 @Nullable
                 @Override
                 public Void apply(@Nullable ICursor c) {
@@ -401,7 +455,7 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         }
         sql = "select count(0) from addresses_txs where tx_hash=? and address=?";
         final boolean[] isRecordInRel = {false};
-        this.execQueryOneRecord(db, sql, new String[]{Base58.encode(txItem.getTxHash()), address}
+        this.execQueryOneRecord(db, sql, new Object[]{key(db, txItem.getTxHash()), address}
                 , new Function<ICursor, Void>() {
             @Nullable
             @Override
@@ -416,8 +470,8 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         sql = "select count(0) from outs where tx_hash=? and out_sn=? and out_address=?";
         for (In inItem : txItem.getIns()) {
             final int[] cnt = {0};
-            this.execQueryOneRecord(db, sql, new String[]{Base58.encode(inItem.getPrevTxHash())
-                    , Integer.toString(inItem.getPrevOutSn()), address}, new Function<ICursor, Void>() {
+            this.execQueryOneRecord(db, sql, new Object[]{key(db, inItem.getPrevTxHash())
+                    , inItem.getPrevOutSn(), address}, new Function<ICursor, Void>() {
                 @Nullable
                 @Override
                 public Void apply(@Nullable ICursor c) {
@@ -438,7 +492,7 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         IDb db = this.getReadDb();
         for (In inItem : tx.getIns()) {
             final int[] cnt = {0};
-            this.execQueryOneRecord(db, sql, new String[]{Base58.encode(inItem.getPrevTxHash()), Integer.toString(inItem.getPrevOutSn())}, new Function<ICursor, Void>() {
+            this.execQueryOneRecord(db, sql, new Object[]{key(db, inItem.getPrevTxHash()), inItem.getPrevOutSn()}, new Function<ICursor, Void>() {
                 @Nullable
                 @Override
                 public Void apply(@Nullable ICursor c) {
@@ -458,8 +512,8 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         String sql = "select out_address from outs where tx_hash=? and out_sn=?";
         IDb db = this.getReadDb();
         for (In inItem : tx.getIns()) {
-            this.execQueryOneRecord(db, sql, new String[]{Base58.encode(inItem.getPrevTxHash())
-                    , Integer.toString(inItem.getPrevOutSn())}, new Function<ICursor, Void>() {
+            this.execQueryOneRecord(db, sql, new Object[]{key(db, inItem.getPrevTxHash())
+                    , inItem.getPrevOutSn()}, new Function<ICursor, Void>() {
                 @Nullable
                 @Override
                 public Void apply(@Nullable ICursor c) {
@@ -487,7 +541,7 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         db.beginTransaction();
         for (byte[] txHash : txHashes) {
             final int[] cnt = {0};
-            this.execQueryOneRecord(db, existSql, new String[]{Integer.toString(blockNo), Base58.encode(txHash)}, new Function<ICursor, Void>() {
+            this.execQueryOneRecord(db, existSql, new Object[]{blockNo, key(db, txHash)}, new Function<ICursor, Void>() {
                 @Nullable
                 @Override
                 public Void apply(@Nullable ICursor c) {
@@ -498,28 +552,28 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
             if (cnt[0] > 0) {
                 continue;
             }
-            this.execUpdate(db, updateBlockNoSql, new String[] {Integer.toString(blockNo), Base58.encode(txHash)});
-            final List<String> txHashes1 = new ArrayList<String>();
-            this.execQueryLoop(db, doubleSpendSql, new String[]{Base58.encode(txHash)}, new Function<ICursor, Void>() {
+            this.execUpdate(db, updateBlockNoSql, new Object[] {blockNo, key(db, txHash)});
+            final List<byte[]> txHashes1 = new ArrayList<byte[]>();
+            this.execQueryLoop(db, doubleSpendSql, new Object[]{key(db, txHash)}, new Function<ICursor, Void>() {
                 @Nullable
                 @Override
                 public Void apply(@Nullable ICursor c) {
                     int idColumn = c.getColumnIndex("tx_hash");
                     if (idColumn != -1) {
-                        txHashes1.add(c.getString(idColumn));
+                        txHashes1.add(getKey(c, idColumn));
                     }
                     return null;
                 }
             });
-            List<String> needRemoveTxHashes = new ArrayList<String>();
+            List<byte[]> needRemoveTxHashes = new ArrayList<byte[]>();
             while (txHashes1.size() > 0) {
-                String thisHash = txHashes1.get(0);
+                byte[] thisHash = txHashes1.get(0);
                 txHashes1.remove(0);
                 needRemoveTxHashes.add(thisHash);
-                List<String> temp = getRelayTx(thisHash);
+                List<byte[]> temp = getRelayTx(thisHash);
                 txHashes1.addAll(temp);
             }
-            for (String each : needRemoveTxHashes) {
+            for (byte[] each : needRemoveTxHashes) {
                 removeSingleTx(db, each);
             }
         }
@@ -540,11 +594,13 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
                     , Integer.toString(blockNo), Integer.toString(blockTime[0])});
         }
         db.endTransaction();
+        UtxoSet.getInstance().confirmTx(blockNo, txHashes);
     }
 
     public void unConfirmTxByBlockNo(int blockNo) {
         String sql = "update txs set block_no=null where block_no>=?";
         this.execUpdate(sql, new String[] {Integer.toString(blockNo)});
+        UtxoSet.getInstance().unConfirmTxByBlockNo(blockNo);
     }
 
     @Override
@@ -705,7 +761,8 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
 
     public void txSentBySelfHasSaw(byte[] txHash) {
         String sql = "update txs set source=source+1 where tx_hash=? and source>=1";
-        this.execUpdate(sql, new String[]{Base58.encode(txHash)});
+        IDb db = this.getWriteDb();
+        this.execUpdate(db, sql, new Object[]{key(db, txHash)});
     }
 
     public List<Out> getOuts() {
@@ -795,24 +852,31 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         this.execUpdate(db, "drop table " + AbstractDb.Tables.INS + ";", null);
         this.execUpdate(db, "drop table " + AbstractDb.Tables.ADDRESSES_TXS + ";", null);
         this.execUpdate(db, "drop table " + AbstractDb.Tables.PEERS + ";", null);
-        this.execUpdate(db, AbstractDb.CREATE_TXS_SQL, null);
+        boolean binary = isBinaryKeyDb(db);
+        this.execUpdate(db, binary ? AbstractDb.CREATE_BINARY_TXS_SQL : AbstractDb
+                .CREATE_TXS_SQL, null);
         this.execUpdate(db, AbstractDb.CREATE_TX_BLOCK_NO_INDEX, null);
-        this.execUpdate(db, AbstractDb.CREATE_OUTS_SQL, null);
+        this.execUpdate(db, binary ? AbstractDb.CREATE_BINARY_OUTS_SQL : AbstractDb
+                .CREATE_OUTS_SQL, null);
         this.execUpdate(db, AbstractDb.CREATE_OUT_OUT_ADDRESS_INDEX, null);
-        this.execUpdate(db, AbstractDb.CREATE_INS_SQL, null);
+        this.execUpdate(db, binary ? AbstractDb.CREATE_BINARY_INS_SQL : AbstractDb
+                .CREATE_INS_SQL, null);
         this.execUpdate(db, AbstractDb.CREATE_IN_PREV_TX_HASH_INDEX, null);
-        this.execUpdate(db, AbstractDb.CREATE_ADDRESSTXS_SQL, null);
+        this.execUpdate(db, binary ? AbstractDb.CREATE_BINARY_ADDRESSTXS_SQL : AbstractDb
+                .CREATE_ADDRESSTXS_SQL, null);
         this.execUpdate(db, AbstractDb.CREATE_PEER_SQL, null);
         db.endTransaction();
+        UtxoSet.getInstance().reset();
     }
 
     public void completeInSignature(List<In> ins) {
         IDb db = this.getWriteDb();
         db.beginTransaction();
-        String sql = "update ins set in_signature=? where tx_hash=? and in_sn=? and ifnull(in_signature,'')=''";
+        String sql = "update ins set in_signature=? where tx_hash=? and in_sn=? and length" +
+                "(ifnull(in_signature,''))=0";
         for (In in : ins) {
-            this.execUpdate(db, sql, new String[]{Base58.encode(in.getInSignature())
-                    , Base58.encode(in.getTxHash()), Integer.toString(in.getInSn())});
+            this.execUpdate(db, sql, new Object[]{key(db, in.getInSignature())
+                    , key(db, in.getTxHash()), in.getInSn()});
         }
         db.endTransaction();
     }
@@ -821,7 +885,7 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         final int[] result = {0};
         String sql = "select max(txs.block_no) from outs,ins,txs where outs.out_address=? " +
                 "and ins.prev_tx_hash=outs.tx_hash and ins.prev_out_sn=outs.out_sn " +
-                "and ifnull(ins.in_signature,'')='' and txs.tx_hash=ins.tx_hash";
+                "and length(ifnull(ins.in_signature,''))=0 and txs.tx_hash=ins.tx_hash";
         this.execQueryOneRecord(sql, new String[]{address}, new Function<ICursor, Void>() {
             @Nullable
             @Override
@@ -852,11 +916,7 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         }
         idColumn = c.getColumnIndex(AbstractDb.TxsColumns.TX_HASH);
         if (idColumn != -1) {
-            try {
-                txItem.setTxHash(Base58.decode(c.getString(idColumn)));
-            } catch (AddressFormatException e) {
-                e.printStackTrace();
-            }
+            txItem.setTxHash(getKey(c, idColumn));
         }
         idColumn = c.getColumnIndex(AbstractDb.TxsColumns.SOURCE);
         if (idColumn != -1) {
@@ -888,11 +948,7 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         In inItem = new In();
         int idColumn = c.getColumnIndex(AbstractDb.InsColumns.TX_HASH);
         if (idColumn != -1) {
-            try {
-                inItem.setTxHash(Base58.decode(c.getString(idColumn)));
-            } catch (AddressFormatException e) {
-                e.printStackTrace();
-            }
+            inItem.setTxHash(getKey(c, idColumn));
         }
         idColumn = c.getColumnIndex(AbstractDb.InsColumns.IN_SN);
         if (idColumn != -1) {
@@ -900,11 +956,7 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         }
         idColumn = c.getColumnIndex(AbstractDb.InsColumns.PREV_TX_HASH);
         if (idColumn != -1) {
-            try {
-                inItem.setPrevTxHash(Base58.decode(c.getString(idColumn)));
-            } catch (AddressFormatException e) {
-                e.printStackTrace();
-            }
+            inItem.setPrevTxHash(getKey(c, idColumn));
         }
         idColumn = c.getColumnIndex(AbstractDb.InsColumns.PREV_OUT_SN);
         if (idColumn != -1) {
@@ -912,13 +964,9 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         }
         idColumn = c.getColumnIndex(AbstractDb.InsColumns.IN_SIGNATURE);
         if (idColumn != -1) {
-            String inSignature = c.getString(idColumn);
-            if (!Utils.isEmpty(inSignature)) {
-                try {
-                    inItem.setInSignature(Base58.decode(c.getString(idColumn)));
-                } catch (AddressFormatException e) {
-                    e.printStackTrace();
-                }
+            byte[] inSignature = getKey(c, idColumn);
+            if (inSignature != null && inSignature.length > 0) {
+                inItem.setInSignature(inSignature);
             }
         }
         idColumn = c.getColumnIndex(AbstractDb.InsColumns.IN_SEQUENCE);
@@ -932,11 +980,7 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         Out outItem = new Out();
         int idColumn = c.getColumnIndex(AbstractDb.OutsColumns.TX_HASH);
         if (idColumn != -1) {
-            try {
-                outItem.setTxHash(Base58.decode(c.getString(idColumn)));
-            } catch (AddressFormatException e) {
-                e.printStackTrace();
-            }
+            outItem.setTxHash(getKey(c, idColumn));
         }
         idColumn = c.getColumnIndex(AbstractDb.OutsColumns.OUT_SN);
         if (idColumn != -1) {
@@ -944,11 +988,7 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         }
         idColumn = c.getColumnIndex(AbstractDb.OutsColumns.OUT_SCRIPT);
         if (idColumn != -1) {
-            try {
-                outItem.setOutScript(Base58.decode(c.getString(idColumn)));
-            } catch (AddressFormatException e) {
-                e.printStackTrace();
-            }
+            outItem.setOutScript(getKey(c, idColumn));
         }
         idColumn = c.getColumnIndex(AbstractDb.OutsColumns.OUT_VALUE);
         if (idColumn != -1) {
@@ -970,11 +1010,11 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
     }
 
     public void addInsAndOuts(IDb db, final Tx txItem) {
-        String txHashStr = Base58.encode(txItem.getTxHash());
+        Object txHash = key(db, txItem.getTxHash());
         txItem.setOuts(new ArrayList<Out>());
         txItem.setIns(new ArrayList<In>());
         String sql = "select * from ins where tx_hash=? order by in_sn";
-        this.execQueryLoop(db, sql, new String[]{txHashStr}, new Function<ICursor, Void>() {
+        this.execQueryLoop(db, sql, new Object[]{txHash}, new Function<ICursor, Void>() {
             @Nullable
             @Override
             public Void apply(@Nullable ICursor c) {
@@ -986,7 +1026,7 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         });
 
         sql = "select * from outs where tx_hash=? order by out_sn";
-        this.execQueryLoop(db, sql, new String[]{txHashStr}, new Function<ICursor, Void>() {
+        this.execQueryLoop(db, sql, new Object[]{txHash}, new Function<ICursor, Void>() {
             @Nullable
             @Override
             public Void apply(@Nullable ICursor c) {
@@ -1001,7 +1041,7 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
     public void insertTx(IDb db, Tx txItem) {
         final int[] cnt = {0};
         String existSql = "select count(0) cnt from txs where tx_hash=?";
-        this.execQueryOneRecord(db, existSql, new String[]{Base58.encode(txItem.getTxHash())}, new Function<ICursor, Void>() {
+        this.execQueryOneRecord(db, existSql, new Object[]{key(db, txItem.getTxHash())}, new Function<ICursor, Void>() {
             @Nullable
             @Override
             public Void apply(@Nullable ICursor c) {
@@ -1023,14 +1063,20 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
 
 
     public List<AddressTx> insertIn(IDb db, final Tx txItem) {
+        TxUpdates updates = new TxUpdates(db);
+        List<AddressTx> addressTxes = insertIn(db, txItem, updates);
+        updates.execute();
+        return addressTxes;
+    }
+
+    private List<AddressTx> insertIn(IDb db, final Tx txItem, TxUpdates updates) {
         final List<AddressTx> addressTxes = new ArrayList<AddressTx>();
         String existSql = "select count(0) cnt from ins where tx_hash=? and in_sn=?";
         String outAddressSql = "select out_address from outs where tx_hash=? and out_sn=?";
-        String updateOutStatusSql = "update outs set out_status=? where tx_hash=? and out_sn=?";
         for (In inItem : txItem.getIns()) {
             final int[] cnt = {0};
-            this.execQueryOneRecord(db, existSql, new String[]{Base58.encode(inItem.getTxHash())
-                        , Integer.toString(inItem.getInSn())}
+            this.execQueryOneRecord(db, existSql, new Object[]{key(db, inItem.getTxHash())
+                        , inItem.getInSn()}
                     , new Function<ICursor, Void>() {
                 @Nullable
                 @Override
@@ -1046,23 +1092,21 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
                 this.insertInToDb(db, inItem);
             }
 
-            this.execQueryLoop(db, outAddressSql, new String[]{Base58.encode(inItem.getPrevTxHash())
-                        , Integer.toString(inItem.getPrevOutSn())}
+            this.execQueryLoop(db, outAddressSql, new Object[]{key(db, inItem.getPrevTxHash())
+                        , inItem.getPrevOutSn()}
                     , new Function<ICursor, Void>() {
                 @Nullable
                 @Override
                 public Void apply(@Nullable ICursor c) {
                     int idColumn = c.getColumnIndex("out_address");
                     if (idColumn != -1) {
-                        addressTxes.add(new AddressTx(c.getString(idColumn), Base58.encode(txItem
-                                .getTxHash())));
+                        addressTxes.add(new AddressTx(c.getString(idColumn), txItem.getTxHash()));
                     }
                     return null;
                 }
             });
 
-            this.execUpdate(db, updateOutStatusSql, new String[]{Integer.toString(Out.OutStatus.spent.getValue()), Base58
-                    .encode(inItem.getPrevTxHash()), Integer.toString(inItem.getPrevOutSn())});
+            updates.spent(inItem.getPrevTxHash(), inItem.getPrevOutSn());
         }
         return addressTxes;
     }
@@ -1070,17 +1114,21 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
     protected abstract void insertInToDb(IDb db, In in);
 
     public List<AddressTx> insertOut(IDb db, Tx txItem) {
+        TxUpdates updates = new TxUpdates(db);
+        List<AddressTx> addressTxes = insertOut(db, txItem, updates);
+        updates.execute();
+        return addressTxes;
+    }
+
+    private List<AddressTx> insertOut(IDb db, Tx txItem, TxUpdates updates) {
         String existSql = "select count(0) cnt from outs where tx_hash=? and out_sn=?";
-        String updateHDAccountIdSql = "update outs set hd_account_id=? where tx_hash=? and out_sn=?";
         String queryHDAddressSql = "select hd_account_id,path_type,address_index from hd_account_addresses where address=?";
-        String updateHDAddressIssuedSql = "update hd_account_addresses set is_issued=? where path_type=? and address_index<=? and hd_account_id=?";
         String queryPrevTxHashSql = "select tx_hash from ins where prev_tx_hash=? and prev_out_sn=?";
-        String updateOutStatusSql = "update outs set out_status=? where tx_hash=? and out_sn=?";
         final List<AddressTx> addressTxes = new ArrayList<AddressTx>();
         for (final Out outItem : txItem.getOuts()) {
             final int[] cnt = {0};
-            this.execQueryOneRecord(db, existSql, new String[]{Base58.encode(outItem.getTxHash()), Integer
-                    .toString(outItem.getOutSn())}, new Function<ICursor, Void>() {
+            this.execQueryOneRecord(db, existSql, new Object[]{key(db, outItem.getTxHash()),
+                    outItem.getOutSn()}, new Function<ICursor, Void>() {
                 @Nullable
                 @Override
                 public Void apply(@Nullable ICursor c) {
@@ -1095,9 +1143,10 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
                 this.insertOutToDb(db, outItem);
             } else {
                 if (outItem.getHDAccountId() > -1) {
-                    this.execUpdate(db, updateHDAccountIdSql, new String[]{
-                            Integer.toString(outItem.getHDAccountId()), Base58.encode(txItem.getTxHash())
-                            , Integer.toString(outItem.getOutSn())});
+                    updates.outHDAccountId.bindLong(1, outItem.getHDAccountId());
+                    bindKey(db, updates.outHDAccountId, 2, txItem.getTxHash());
+                    updates.outHDAccountId.bindLong(3, outItem.getOutSn());
+                    updates.outHDAccountId.addBatch();
                 }
             }
             if (outItem.getHDAccountId() > -1) {
@@ -1115,54 +1164,58 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
                     }
                 });
                 if (tmpHDAccountId[0] > 0) {
-                    this.execUpdate(db, updateHDAddressIssuedSql
-                            , new String[]{"1", Integer.toString(tmpPathType[0])
-                            , Integer.toString(tmpAddressIndex[0])
-                            , Integer.toString(tmpHDAccountId[0])});
+                    updates.hdAddressIssued.bindLong(1, 1);
+                    updates.hdAddressIssued.bindLong(2, tmpPathType[0]);
+                    updates.hdAddressIssued.bindLong(3, tmpAddressIndex[0]);
+                    updates.hdAddressIssued.bindLong(4, tmpHDAccountId[0]);
+                    updates.hdAddressIssued.addBatch();
                 }
             }
             if (!Utils.isEmpty(outItem.getOutAddress())) {
-                addressTxes.add(new AddressTx(outItem.getOutAddress(), Base58.encode(txItem
-                        .getTxHash())));
+                addressTxes.add(new AddressTx(outItem.getOutAddress(), txItem.getTxHash()));
             }
             final boolean[] isSpentByExistTx = {false};
-            this.execQueryOneRecord(db, queryPrevTxHashSql, new String[]{Base58.encode(txItem.getTxHash())
-                    , Integer.toString(outItem.getOutSn())}, new Function<ICursor, Void>() {
+            this.execQueryOneRecord(db, queryPrevTxHashSql, new Object[]{key(db, txItem
+                    .getTxHash()), outItem.getOutSn()}, new Function<ICursor, Void>() {
                 @Nullable
                 @Override
                 public Void apply(@Nullable ICursor c) {
                     int idColumn = c.getColumnIndex("tx_hash");
                     if (idColumn != -1) {
-                        addressTxes.add(new AddressTx(outItem.getOutAddress(), c.getString(idColumn)));
+                        addressTxes.add(new AddressTx(outItem.getOutAddress(), getKey(c,
+                                idColumn)));
                     }
                     isSpentByExistTx[0] = true;
                     return null;
                 }
             });
             if (isSpentByExistTx[0]) {
-                this.execUpdate(db, updateOutStatusSql, new String[]{Integer.toString(Out.OutStatus.spent.getValue())
-                        , Base58.encode(txItem.getTxHash()), Integer.toString(outItem.getOutSn())});
+                updates.spent(txItem.getTxHash(), outItem.getOutSn());
             }
         }
         return addressTxes;
     }
 
     public byte[] isIdentify(Tx tx) {
-        HashSet<String> result = new HashSet<String>();
+        HashSet<Sha256Hash> result = new HashSet<Sha256Hash>();
+        IDb db = this.getReadDb();
 
         for (In in : tx.getIns()) {
             String queryPrevTxHashSql = "select tx_hash from ins where prev_tx_hash=? and prev_out_sn=?";
-            final HashSet<String> each = new HashSet<String>();
-            this.execQueryOneRecord(this.getReadDb(), queryPrevTxHashSql, new String[]{Base58.encode(in.getPrevTxHash())
-                    , Integer.toString(in.getPrevOutSn())}, new Function<ICursor, Void>() {
+            final HashSet<Sha256Hash> each = new HashSet<Sha256Hash>();
+            this.execQueryOneRecord(db, queryPrevTxHashSql, new Object[]{key(db, in
+                    .getPrevTxHash()), in.getPrevOutSn()}, new Function<ICursor, Void>() {
                 @Nullable
                 @Override
                 public Void apply(@Nullable ICursor c) {
-                    each.add(c.getString(0));
+                    byte[] txHash = getKey(c, 0);
+                    if (txHash != null) {
+                        each.add(new Sha256Hash(txHash));
+                    }
                     return null;
                 }
             });
-            each.remove(Base58.encode(tx.getTxHash()));
+            each.remove(new Sha256Hash(tx.getTxHash()));
             result.retainAll(each);
             if (result.size() == 0) {
                 break;
@@ -1171,12 +1224,7 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
         if (result.size() == 0) {
             return new byte[0];
         } else {
-            try {
-                return Base58.decode((String) result.toArray()[0]);
-            } catch (AddressFormatException e) {
-                e.printStackTrace();
-                return new byte[0];
-            }
+            return result.iterator().next().getBytes();
         }
     }
 
@@ -1184,18 +1232,18 @@ public abstract class AbstractTxProvider extends AbstractProvider implements ITx
 
     public static class AddressTx {
         private String address;
-        private String txHash;
+        private byte[] txHash;
 
-        public AddressTx(String address, String txHash) {
+        public AddressTx(String address, byte[] txHash) {
             this.address = address;
             this.txHash = txHash;
         }
 
-        public String getTxHash() {
+        public byte[] getTxHash() {
             return txHash;
         }
 
-        public void setTxHash(String txHash) {
+        public void setTxHash(byte[] txHash) {
             this.txHash = txHash;
         }
 
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.db.imp;
+
+import com.google.common.base.Function;
+
+import net.bither.bitherj.db.AbstractDb;
+import net.bither.bitherj.db.imp.base.IBatchDb;
+import net.bither.bitherj.db.imp.base.ICursor;
+import net.bither.bitherj.db.imp.base.IStatement;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Moves the tx, block and hd account address tables from Base58 keys to the binary key schema
+ * in one transaction. Each table is renamed, created again with blob columns and copied over a
+ * row at a time through compiled statements, then its indexes are created again. Once it has
+ * run the app opens the db as an {@link net.bither.bitherj.db.imp.base.IBinaryKeyDb}.
+ */
+public class BinaryKeyMigration {
+    private static final String OldSuffix = "_base58";
+    // the type of an integer column, as android.database.Cursor numbers them
+    private static final int FieldTypeInteger = 1;
+
+    private static final List<TableCopy> Tables = Arrays.asList(
+            new TableCopy(AbstractDb.Tables.TXS, AbstractDb.CREATE_BINARY_TXS_SQL,
+                    new String[]{"tx_hash", "tx_ver", "tx_locktime", "tx_time", "block_no",
+                            "source"}, new String[]{"tx_hash"}),
+            new TableCopy(AbstractDb.Tables.INS, AbstractDb.CREATE_BINARY_INS_SQL,
+                    new String[]{"tx_hash", "in_sn", "prev_tx_hash", "prev_out_sn",
+                            "in_signature", "in_sequence"}, new String[]{"tx_hash",
+                    "prev_tx_hash", "in_signature"}),
+            new TableCopy(AbstractDb.Tables.OUTS, AbstractDb.CREATE_BINARY_OUTS_SQL,
+                    new String[]{"tx_hash", "out_sn", "out_script", "out_value",
+                            "out_status", "out_address", "hd_account_id"},
+                    new String[]{"tx_hash", "out_script"}),
+            new TableCopy(AbstractDb.Tables.ADDRESSES_TXS, AbstractDb
+                    .CREATE_BINARY_ADDRESSTXS_SQL, new String[]{"address", "tx_hash"},
+                    new String[]{"tx_hash"}),
+            new TableCopy(AbstractDb.Tables.BLOCKS, AbstractDb.CREATE_BINARY_BLOCKS_SQL,
+                    new String[]{"block_no", "block_hash", "block_root", "block_ver",
+                            "block_bits", "block_nonce", "block_time", "block_prev",
+                            "is_main"}, new String[]{"block_hash", "block_root",
+                    "block_prev"}),
+            new TableCopy(AbstractDb.Tables.HD_ACCOUNT_ADDRESS, AbstractDb
+                    .CREATE_BINARY_HD_ACCOUNT_ADDRESSES, new String[]{"hd_account_id",
+                    "path_type", "address_index", "is_issued", "address", "pub",
+                    "is_synced"}, new String[]{"pub"}));
+
+    private static final String[] Indexes = new String[]{
+            AbstractDb.CREATE_BLOCK_NO_INDEX,
+            AbstractDb.CREATE_BLOCK_PREV_INDEX,
+            AbstractDb.CREATE_OUT_OUT_ADDRESS_INDEX,
+            AbstractDb.CREATE_OUT_HD_ACCOUNT_ID_INDEX,
+            AbstractDb.CREATE_TX_BLOCK_NO_INDEX,
+            AbstractDb.CREATE_IN_PREV_TX_HASH_INDEX,
+            AbstractDb.CREATE_HD_ACCOUNT_ADDRESS_INDEX,
+            AbstractDb.CREATE_HD_ACCOUNT_ACCOUNT_ID_AND_PATH_TYPE_INDEX};
+
+    /**
+     * Runs the migration on a db still on Base58 keys and returns how many rows were copied.
+     * Keys that are not Base58 are copied as null, or end the migration where the column
+     * can't be null.
+     */
+    public static int migrate(IBatchDb db) {
+        int rows = 0;
+        db.beginTransaction();
+        for (TableCopy table : Tables) {
+            db.execUpdate("alter table " + table.name + " rename to " + table.name + OldSuffix,
+                    null);
+            db.execUpdate(table.createSql, null);
+        }
+        for (TableCopy table : Tables) {
+            rows += table.copy(db);
+            // the old indexes go with the old table, so their names are free again
+            db.execUpdate("drop table " + table.name + OldSuffix, null);
+        }
+        for (String index : Indexes) {
+            db.execUpdate(index, null);
+        }
+        db.endTransaction();
+        return rows;
+    }
+
+    private static class TableCopy {
+        private final String name;
+        private final String createSql;
+        private final String[] columns;
+        private final boolean[] keys;
+
+        TableCopy(String name, String createSql, String[] columns, String[] keyColumns) {
+            this.name = name;
+            this.createSql = createSql;
+            this.columns = columns;
+            this.keys = new boolean[columns.length];
+            List<String> keyList = Arrays.asList(keyColumns);
+            for (int i = 0; i < columns.length; i++) {
+                keys[i] = keyList.contains(columns[i]);
+            }
+        }
+
+        int copy(IBatchDb db) {
+            StringBuilder columnList = new StringBuilder();
+            StringBuilder params = new StringBuilder();
+            for (String column : columns) {
+                if (columnList.length() > 0) {
+                    columnList.append(",");
+                    params.append(",");
+                }
+                columnList.append(column);
+                params.append("?");
+            }
+            final IStatement statement = db.compileStatement("insert into " + name + "(" +
+                    columnList + ") values(" + params + ")");
+            final int[] rows = {0};
+            db.execQueryLoop("select " + columnList + " from " + name + OldSuffix, null, new
+                    Function<ICursor, Void>() {
+                @Nullable
+                @Override
+                public Void apply(@Nullable ICursor c) {
+                    bindRow(c, statement);
+                    statement.executeUpdate();
+                    statement.clearBindings();
+                    rows[0]++;
+                    return null;
+                }
+            });
+            statement.close();
+            return rows[0];
+        }
+
+        private void bindRow(ICursor c, IStatement statement) {
+            for (int i = 0; i < columns.length; i++) {
+                int index = c.getColumnIndex(columns[i]);
+                if (c.isNull(index)) {
+                    statement.bindNull(i + 1);
+                } else if (keys[i]) {
+                    byte[] key = AbstractProvider.getKey(c, index);
+                    if (key == null) {
+                        statement.bindNull(i + 1);
+                    } else {
+                        statement.bindBlob(i + 1, key);
+                    }
+                } else if (c.getType(index) == FieldTypeInteger) {
+                    statement.bindLong(i + 1, c.getLong(index));
+                } else {
+                    statement.bindString(i + 1, c.getString(index));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bither.bitherj.db.imp.base;
+
+/**
+ * An {@link IDb} that can compile statements once and bind typed values, so bulk writes do not
+ * go through a string array and a fresh statement per row. Implementations are free to cache
+ * the compiled statement per sql for the life of the connection.
+ */
+public interface IBatchDb extends IDb {
+    IStatement compileStatement(String sql);
+}
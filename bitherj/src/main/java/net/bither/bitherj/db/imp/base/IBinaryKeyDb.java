@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.db.imp.base;
+
+import com.google.common.base.Function;
+
+/**
+ * A db on the binary key schema: tx hashes, block hashes, scripts, signatures and pubs are
+ * stored as blobs instead of Base58 strings, see {@link net.bither.bitherj.db.AbstractDb}.
+ * Params may be strings, numbers, byte arrays bound as blobs, or null.
+ */
+public interface IBinaryKeyDb extends IBatchDb {
+    void execUpdate(String sql, Object[] params);
+    void execQueryOneRecord(String sql, Object[] params, Function<ICursor, Void> func);
+    void execQueryLoop(String sql, Object[] params, Function<ICursor, Void> func);
+}
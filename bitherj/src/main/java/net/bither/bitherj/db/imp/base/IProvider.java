@@ -29,4 +29,6 @@ public interface IProvider {
     void execUpdate(IDb db, String sql, String[] params);
     void execQueryOneRecord(IDb db, String sql, String[] params, Function<ICursor, Void> func);
     void execQueryLoop(IDb db, String sql, String[] params, Function<ICursor, Void> func);
+
+    IStatement compileStatement(IDb db, String sql);
 }
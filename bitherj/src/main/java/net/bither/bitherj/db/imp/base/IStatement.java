@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bither.bitherj.db.imp.base;
+
+/**
+ * A compiled update statement that is bound and run many times. Indexes start at 1, like the
+ * sqlite and jdbc statements behind it.
+ */
+public interface IStatement {
+    void bindString(int index, String value);
+    void bindLong(int index, long value);
+    void bindBlob(int index, byte[] value);
+    void bindNull(int index);
+    void clearBindings();
+
+    /**
+     * Runs the statement once with the current bindings.
+     */
+    void executeUpdate();
+
+    /**
+     * Queues the current bindings as one row of the next {@link #executeBatch()}.
+     */
+    void addBatch();
+
+    /**
+     * Runs every queued row and returns how many there were.
+     */
+    int executeBatch();
+
+    void close();
+}
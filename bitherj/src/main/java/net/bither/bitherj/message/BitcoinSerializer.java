@@ -21,6 +21,7 @@ import net.bither.bitherj.BitherjSettings;
 import net.bither.bitherj.core.BloomFilter;
 import net.bither.bitherj.core.Tx;
 import net.bither.bitherj.exception.ProtocolException;
+import net.bither.bitherj.utils.Sha256Hasher;
 import net.bither.bitherj.utils.Utils;
 
 import org.slf4j.Logger;
@@ -34,6 +35,7 @@ import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static net.bither.bitherj.utils.Utils.bytesToHexString;
 import static net.bither.bitherj.utils.Utils.doubleDigest;
 import static net.bither.bitherj.utils.Utils.readUint32;
@@ -56,6 +58,8 @@ public class BitcoinSerializer {
     private static final int COMMAND_LEN = 12;
 
     private static Map<Class<? extends Message>, String> names = new HashMap<Class<? extends Message>, String>();
+    // The commands we know, which received headers reuse instead of decoding their own
+    private static final String[] commands;
 
     static {
         names.put(VersionMessage.class, "version");
@@ -76,6 +80,7 @@ public class BitcoinSerializer {
         names.put(NotFoundMessage.class, "notfound");
         names.put(MemoryPoolMessage.class, "mempool");
         names.put(RejectMessage.class, "reject");
+        commands = names.values().toArray(new String[names.size()]);
     }
 
     /**
@@ -102,8 +107,7 @@ public class BitcoinSerializer {
 
         Utils.uint32ToByteArrayLE(message.length, header, 4 + COMMAND_LEN);
 
-        byte[] hash = doubleDigest(message);
-        System.arraycopy(hash, 0, header, 4 + COMMAND_LEN + 4, 4);
+        Sha256Hasher.checksumInto(message, 0, message.length, header, 4 + COMMAND_LEN + 4);
         out.write(header);
         out.write(message);
 
@@ -161,6 +165,15 @@ public class BitcoinSerializer {
     public Message deserializePayload(BitcoinPacketHeader header, ByteBuffer in) throws ProtocolException, BufferUnderflowException {
         byte[] payloadBytes = new byte[header.size];
         in.get(payloadBytes, 0, header.size);
+        return deserializePayload(header, payloadBytes);
+    }
+
+    /**
+     * Deserialize a payload which has already been read in full, the message parses the given
+     * array without copying it again.
+     */
+    public Message deserializePayload(BitcoinPacketHeader header, byte[] payloadBytes) throws ProtocolException {
+        checkArgument(payloadBytes.length == header.size);
 
         // Verify the checksum.
         byte[] hash;
@@ -277,13 +290,7 @@ public class BitcoinSerializer {
             // in which case the termination is implicit.
             int mark = cursor;
             for (; header[cursor] != 0 && cursor - mark < COMMAND_LEN; cursor++) ;
-            byte[] commandBytes = new byte[cursor - mark];
-            System.arraycopy(header, mark, commandBytes, 0, cursor - mark);
-            try {
-                command = new String(commandBytes, "US-ASCII");
-            } catch (UnsupportedEncodingException e) {
-                throw new RuntimeException(e);  // Cannot happen.
-            }
+            command = command(header, mark, cursor - mark);
             cursor = mark + COMMAND_LEN;
 
             size = (int) readUint32(header, cursor);
@@ -298,5 +305,25 @@ public class BitcoinSerializer {
             System.arraycopy(header, cursor, checksum, 0, 4);
             cursor += 4;
         }
+
+        private static String command(byte[] header, int offset, int length) {
+            for (String known : commands) {
+                if (known.length() != length) {
+                    continue;
+                }
+                int i = 0;
+                while (i < length && known.charAt(i) == header[offset + i]) {
+                    i++;
+                }
+                if (i == length) {
+                    return known;
+                }
+            }
+            try {
+                return new String(header, offset, length, "US-ASCII");
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);  // Cannot happen.
+            }
+        }
     }
 }
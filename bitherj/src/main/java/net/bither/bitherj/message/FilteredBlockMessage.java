@@ -27,7 +27,6 @@ import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -46,6 +45,7 @@ public class FilteredBlockMessage extends Message {
     // The PartialMerkleTree of transactions
     private PartialMerkleTree merkleTree;
     private List<byte[]> cachedTransactionHashes = null;
+    private volatile boolean verified;
 
     // A set of transactions whose hashes are a subset of getTransactionHashes()
     // These were relayed as a part of the filteredblock getdata, ie likely weren't previously received as loose transactions
@@ -73,7 +73,32 @@ public class FilteredBlockMessage extends Message {
         block = new Block(headerBytes);
         merkleTree = new PartialMerkleTree(bytes, BlockMessage.HEADER_SIZE);
         length = BlockMessage.HEADER_SIZE + merkleTree.getMessageSize();
-        block.setTxHashes(this.getTransactionHashes());
+        // only the matched hashes are read here, hashing the tree is left to verify()
+        try {
+            cachedTransactionHashes = merkleTree.getMatchedTxnHashes();
+        } catch (VerificationException e) {
+            throw new ProtocolException(e);
+        }
+        block.setTxHashes(Collections.unmodifiableList(cachedTransactionHashes));
+    }
+
+    /**
+     * Checks the header's proof of work and that the partial merkle tree hashes to the merkle
+     * root in the header. Can be called from any thread.
+     *
+     * @throws VerificationException If either doesn't hold
+     */
+    public void verify() throws VerificationException {
+        if (verified)
+            return;
+        block.verifyHeader();
+        verifyMerkleRoot();
+        verified = true;
+    }
+
+    protected void verifyMerkleRoot() throws VerificationException {
+        if (!Arrays.equals(block.getBlockRoot(), merkleTree.getMerkleRoot()))
+            throw new VerificationException("Merkle root of block header does not match merkle root of partial merkle tree.");
     }
 
     /**
@@ -82,15 +107,8 @@ public class FilteredBlockMessage extends Message {
      * @throws ProtocolException If the partial merkle block is invalid or the merkle root of the partial merkle block doesnt match the block header
      */
     public List<byte[]> getTransactionHashes() throws VerificationException {
-        if (cachedTransactionHashes != null)
-            return Collections.unmodifiableList(cachedTransactionHashes);
-        List<byte[]> hashesMatched = new LinkedList<byte[]>();
-        byte[] by = merkleTree.getTxnHashAndMerkleRoot(hashesMatched);
-        if (Arrays.equals(block.getBlockRoot(), by)) {
-            cachedTransactionHashes = hashesMatched;
-            return Collections.unmodifiableList(cachedTransactionHashes);
-        } else
-            throw new VerificationException("Merkle root of block header does not match merkle root of partial merkle tree.");
+        verify();
+        return Collections.unmodifiableList(cachedTransactionHashes);
     }
 
     /**
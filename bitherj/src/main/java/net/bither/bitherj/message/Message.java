@@ -55,6 +55,10 @@ public abstract class Message {
 
     protected transient byte[] checksum;
 
+    // False while a lazily parsed message has only read what parse() needs up front, it keeps
+    // its bytes to parse the rest from in maybeParse() and to serialize from until it changes
+    protected transient volatile boolean parsed = true;
+
     // This will be saved by subclasses that implement Serializable.
 //    public NetworkParameters params;
 
@@ -95,19 +99,13 @@ public abstract class Message {
         this.length = length;
         parse();
 
-        if (this.length == UNKNOWN_LENGTH) {
-            this.protocolVersion = protocolVersion;
-            this.bytes = msg;
-            this.cursor = this.offset = offset;
-            this.length = length;
-            parse();
-            checkState(false, "Length field has not been set in constructor for %s after %s parse. " +
-                            "Refer to Message.parseLite() for detail of required Length field contract.",
-                    getClass().getSimpleName(), "full");
-        }
-
+        checkState(this.length != UNKNOWN_LENGTH, "Length field has not been set in constructor " +
+                        "for %s after %s parse. Refer to Message.parseLite() for detail of " +
+                        "required Length field contract.", getClass().getSimpleName(), "full");
 
-        this.bytes = null;
+        if (parsed) {
+            this.bytes = null;
+        }
     }
 
     protected Message(byte[] msg, int offset) throws ProtocolException {
@@ -124,6 +122,44 @@ public abstract class Message {
     // are serialized to the wallet.
     protected abstract void parse() throws ProtocolException;
 
+    /**
+     * Parses what parse() left for later in a message which cleared {@link #parsed}. parse()
+     * has to check the bytes this reads, so it can't fail.
+     */
+    protected void parseLazily() throws ProtocolException {
+    }
+
+    /**
+     * Makes sure the parts of a lazily parsed message are there, anything reading them calls
+     * this first.
+     */
+    protected void maybeParse() {
+        if (parsed) {
+            return;
+        }
+        synchronized (this) {
+            if (parsed) {
+                return;
+            }
+            try {
+                parseLazily();
+            } catch (ProtocolException e) {
+                throw new IllegalStateException(e);
+            }
+            parsed = true;
+        }
+    }
+
+    /**
+     * Drops the kept bytes of a lazily parsed message before it changes, from then on it is
+     * serialized from its parts.
+     */
+    protected void unCache() {
+        maybeParse();
+        bytes = null;
+        checksum = null;
+    }
+
     protected void adjustLength(int newArraySize, int adjustment) {
         if (length == UNKNOWN_LENGTH)
             return;
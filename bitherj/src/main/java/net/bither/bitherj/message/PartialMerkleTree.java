@@ -19,6 +19,7 @@ package net.bither.bitherj.message;
 
 import net.bither.bitherj.exception.ProtocolException;
 import net.bither.bitherj.exception.VerificationException;
+import net.bither.bitherj.utils.Sha256Hasher;
 import net.bither.bitherj.utils.Utils;
 import net.bither.bitherj.utils.VarInt;
 
@@ -107,9 +108,20 @@ public class PartialMerkleTree extends Message {
         public int bitsUsed = 0, hashesUsed = 0;
     }
 
+    // two node hashes per tree level, the children being combined at that level. A tree of any
+    // transaction count fits, they are reused by every tree verified on the thread.
+    private static final ThreadLocal<byte[]> nodeBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[32 * 2 * 32];
+        }
+    };
+
     // recursive function that traverses tree nodes, consuming the bits and hashes produced by TraverseAndBuild.
-    // it returns the hash of the respective node.
-    private byte[] recursiveExtractHashes(int height, int pos, ValuesUsed used, List<byte[]> matchedHashes) throws VerificationException {
+    // it writes the hash of the respective node into out at outOffset, unless out is null and
+    // only the matched txids are wanted.
+    private void recursiveExtractHashes(int height, int pos, ValuesUsed used, List<byte[]> matchedHashes,
+                                        byte[] nodes, byte[] out, int outOffset) throws VerificationException {
         if (used.bitsUsed >= matchedChildBits.length * 8) {
             // overflowed the bits array - failure
             throw new VerificationException("CPartialMerkleTree overflowed its bits array");
@@ -121,20 +133,22 @@ public class PartialMerkleTree extends Message {
                 // overflowed the hash array - failure
                 throw new VerificationException("CPartialMerkleTree overflowed its hash array");
             }
-            if (height == 0 && parentOfMatch) // in case of height 0, we have a matched txid
-                matchedHashes.add(hashes.get(used.hashesUsed));
-            return hashes.get(used.hashesUsed++);
+            byte[] hash = hashes.get(used.hashesUsed++);
+            if (height == 0 && parentOfMatch && matchedHashes != null) // in case of height 0, we have a matched txid
+                matchedHashes.add(hash);
+            if (out != null)
+                System.arraycopy(hash, 0, out, outOffset, 32);
         } else {
             // otherwise, descend into the subtrees to extract matched txids and hashes
-            byte[] left = recursiveExtractHashes(height - 1, pos * 2, used, matchedHashes), right;
-            if (pos * 2 + 1 < getTreeWidth(height - 1))
-                right = recursiveExtractHashes(height - 1, pos * 2 + 1, used, matchedHashes);
-            else
-                right = left;
+            int left = (height - 1) * 64, right = left;
+            recursiveExtractHashes(height - 1, pos * 2, used, matchedHashes, nodes, nodes, left);
+            if (pos * 2 + 1 < getTreeWidth(height - 1)) {
+                right = left + 32;
+                recursiveExtractHashes(height - 1, pos * 2 + 1, used, matchedHashes, nodes, nodes, right);
+            }
             // and combine them before returning
-            return Utils.doubleDigestTwoBuffers(
-                    left, 0, 32,
-                    right, 0, 32);
+            if (out != null)
+                Sha256Hasher.doubleDigestTwoBuffersInto(nodes, left, 32, nodes, right, 32, out, outOffset);
         }
     }
 
@@ -152,7 +166,31 @@ public class PartialMerkleTree extends Message {
      */
     public byte[] getTxnHashAndMerkleRoot(List<byte[]> matchedHashes) throws VerificationException {
         matchedHashes.clear();
+        byte[] merkleRoot = new byte[32];
+        traverse(matchedHashes, merkleRoot);
+        return merkleRoot;
+    }
+
+    /**
+     * Extracts the matched tx hashes without hashing anything. The tree still has to be checked
+     * against the block header with {@link #getMerkleRoot()}.
+     */
+    public List<byte[]> getMatchedTxnHashes() throws VerificationException {
+        List<byte[]> matchedHashes = new ArrayList<byte[]>();
+        traverse(matchedHashes, null);
+        return matchedHashes;
+    }
+
+    /**
+     * Calculates the merkle root of this tree, hashing in buffers kept per thread.
+     */
+    public byte[] getMerkleRoot() throws VerificationException {
+        byte[] merkleRoot = new byte[32];
+        traverse(null, merkleRoot);
+        return merkleRoot;
+    }
 
+    private void traverse(List<byte[]> matchedHashes, byte[] merkleRoot) throws VerificationException {
         // An empty set will not work
         if (transactionCount == 0)
             throw new VerificationException("Got a CPartialMerkleTree with 0 transactions");
@@ -171,13 +209,12 @@ public class PartialMerkleTree extends Message {
             height++;
         // traverse the partial tree
         ValuesUsed used = new ValuesUsed();
-        byte[] merkleRoot = recursiveExtractHashes(height, 0, used, matchedHashes);
+        recursiveExtractHashes(height, 0, used, matchedHashes, merkleRoot == null ? null :
+                nodeBuffers.get(), merkleRoot, 0);
         // verify that all bits were consumed (except for the padding caused by serializing it as a byte sequence)
         if ((used.bitsUsed + 7) / 8 != matchedChildBits.length ||
                 // verify that all hashes were consumed
                 used.hashesUsed != hashes.size())
             throw new VerificationException("Got a CPartialMerkleTree that didn't need all the data it provided");
-
-        return merkleRoot;
     }
 }
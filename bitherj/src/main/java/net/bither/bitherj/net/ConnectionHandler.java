@@ -51,6 +51,9 @@ class ConnectionHandler implements MessageWriteTarget {
     private static final int BUFFER_SIZE_LOWER_BOUND = 4096;
     private static final int BUFFER_SIZE_UPPER_BOUND = 65536;
 
+    private static final ReadBufferPool READ_BUFFER_POOL = new ReadBufferPool
+            (BUFFER_SIZE_UPPER_BOUND, 16);
+
     private static final int OUTBOUND_BUFFER_BYTE_COUNT = Message.MAX_SIZE + 24; // 24 byte
     // message header
 
@@ -58,8 +61,10 @@ class ConnectionHandler implements MessageWriteTarget {
     // methods which leave this
     // class into non-Java classes.
     private final ReentrantLock lock = Threading.lock("nioConnectionHandler");
-    @GuardedBy("lock")
-    private final ByteBuffer readBuff;
+    private final int readBuffSize;
+    // Only touched by the selector thread in handleKey, and only held while it keeps bytes of a
+    // partly read message, otherwise it is back in READ_BUFFER_POOL
+    private ByteBuffer readBuff;
     @GuardedBy("lock")
     private final SocketChannel channel;
     @GuardedBy("lock")
@@ -68,6 +73,8 @@ class ConnectionHandler implements MessageWriteTarget {
     StreamParser parser;
     @GuardedBy("lock")
     private boolean closeCalled = false;
+    @GuardedBy("lock")
+    private boolean readPaused = false;
 
     @GuardedBy("lock")
     private long bytesToWriteRemaining = 0;
@@ -80,13 +87,13 @@ class ConnectionHandler implements MessageWriteTarget {
         this.key = key;
         this.channel = checkNotNull(((SocketChannel) key.channel()));
         if (parser == null) {
-            readBuff = null;
+            readBuffSize = 0;
             closeConnection();
             return;
         }
         this.parser = parser;
-        readBuff = ByteBuffer.allocateDirect(Math.min(Math.max(parser.getMaxMessageSize(),
-                BUFFER_SIZE_LOWER_BOUND), BUFFER_SIZE_UPPER_BOUND));
+        readBuffSize = Math.min(Math.max(parser.getMaxMessageSize(), BUFFER_SIZE_LOWER_BOUND),
+                BUFFER_SIZE_UPPER_BOUND);
         parser.setWriteTarget(this); // May callback into us (eg closeConnection() now)
         connectedHandlers = null;
     }
@@ -180,6 +187,28 @@ class ConnectionHandler implements MessageWriteTarget {
         lock.unlock();
     }
 
+    @Override
+    public void setReadPaused(boolean paused) {
+        lock.lock();
+        try {
+            if (readPaused == paused || !key.isValid()) {
+                return;
+            }
+            readPaused = paused;
+            if (paused) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            } else {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                // Refresh the selector to make sure it gets the new interestOps
+                key.selector().wakeup();
+            }
+        } catch (CancelledKeyException e) {
+            // connection is closing anyway
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     // May NOT be called with lock held
     public void closeConnection() {
@@ -206,6 +235,14 @@ class ConnectionHandler implements MessageWriteTarget {
         }
     }
 
+    // Gives readBuff back to the pool, only called by the selector thread in handleKey
+    private void releaseReadBuff() {
+        if (readBuff != null) {
+            READ_BUFFER_POOL.release(readBuff);
+            readBuff = null;
+        }
+    }
+
     // Handle a SelectionKey which was selected
     // Runs unlocked as the caller is single-threaded (or if not, should enforce that handleKey
     // is only called
@@ -217,17 +254,25 @@ class ConnectionHandler implements MessageWriteTarget {
                 return;
             }
             if (!key.isValid()) {
+                handler.releaseReadBuff();
                 handler.closeConnection(); // Key has been cancelled,
                 // make sure the socket gets closed
                 return;
             }
             if (key.isReadable()) {
+                if (handler.readBuff == null) {
+                    handler.readBuff = READ_BUFFER_POOL.acquire(handler.readBuffSize);
+                }
                 // Do a socket read and invoke the parser's receiveBytes message
                 int read = handler.channel.read(handler.readBuff);
                 if (read == 0) {
+                    if (handler.readBuff.position() == 0) {
+                        handler.releaseReadBuff();
+                    }
                     return; // Was probably waiting on a write
                 } else if (read == -1) { // Socket was closed
                     key.cancel();
+                    handler.releaseReadBuff();
                     handler.closeConnection();
                     return;
                 }
@@ -242,6 +287,10 @@ class ConnectionHandler implements MessageWriteTarget {
                 // keeping relative
                 // position)
                 handler.readBuff.compact();
+                // Nothing left to keep for the next read, let another connection use the buffer
+                if (handler.readBuff.position() == 0) {
+                    handler.releaseReadBuff();
+                }
             }
             if (key.isWritable()) {
                 handler.tryWriteBytes();
@@ -252,6 +301,7 @@ class ConnectionHandler implements MessageWriteTarget {
             if (!(e instanceof CancelledKeyException)) {
                 log.error("Error handling SelectionKey: {}", Throwables.getRootCause(e).getMessage());
             }
+            handler.releaseReadBuff();
             handler.closeConnection();
         }
     }
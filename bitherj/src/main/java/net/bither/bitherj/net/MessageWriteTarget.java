@@ -32,4 +32,11 @@ public interface MessageWriteTarget {
      * event on the network-handling thread where all callbacks occur.
      */
     void closeConnection();
+
+    /**
+     * Stops or resumes reading from the remote server. While reading is paused the socket's
+     * receive buffer fills up and TCP flow control slows the remote end down, without blocking
+     * the network-handling thread.
+     */
+    void setReadPaused(boolean paused);
 }
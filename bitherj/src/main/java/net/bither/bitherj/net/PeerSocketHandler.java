@@ -123,6 +123,23 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
         writeTarget.closeConnection();
     }
 
+    /**
+     * Stops or resumes reading messages from the peer, used to push back on a peer whose
+     * messages are queued faster than they can be processed.
+     */
+    public void setReadPaused(boolean paused) {
+        MessageWriteTarget target;
+        lock.lock();
+        try {
+            target = writeTarget;
+        } finally {
+            lock.unlock();
+        }
+        if (target != null) {
+            target.setReadPaused(paused);
+        }
+    }
+
     @Override
     protected void timeoutOccurred() {
         log.info("{}: Timed out", getAddress());
@@ -139,73 +156,71 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
         checkArgument(buff.position() == 0 && buff.capacity() >= BitcoinSerializer
                 .BitcoinPacketHeader.HEADER_LENGTH + 4);
         try {
-            // Repeatedly try to deserialize messages until we hit a BufferUnderflowException
-            for (int i = 0;
-                 true;
-                 i++) {
-                // If we are in the middle of reading a message, try to fill that one first,
-                // before we expect another
-                if (largeReadBuffer != null) {
-                    // This can only happen in the first iteration
-                    checkState(i == 0);
-                    // Read new bytes into the largeReadBuffer
-                    int bytesToGet = Math.min(buff.remaining(),
-                            largeReadBuffer.length - largeReadBufferPos);
-                    buff.get(largeReadBuffer, largeReadBufferPos, bytesToGet);
-                    largeReadBufferPos += bytesToGet;
-                    // Check the largeReadBuffer's status
-                    if (largeReadBufferPos == largeReadBuffer.length) {
-                        // ...processing a message if one is available
-                        processMessage(serializer.deserializePayload(header, ByteBuffer.wrap(largeReadBuffer)));
-                        largeReadBuffer = null;
-                        header = null;
-                    } else // ...or just returning if we don't have enough bytes yet
-                    {
-                        return buff.position();
-                    }
+            // If we are in the middle of reading a message, try to fill that one first,
+            // before we expect another
+            if (largeReadBuffer != null) {
+                // Read new bytes into the largeReadBuffer
+                int bytesToGet = Math.min(buff.remaining(),
+                        largeReadBuffer.length - largeReadBufferPos);
+                buff.get(largeReadBuffer, largeReadBufferPos, bytesToGet);
+                largeReadBufferPos += bytesToGet;
+                // ...or just return if we don't have enough bytes yet
+                if (largeReadBufferPos < largeReadBuffer.length) {
+                    return buff.position();
                 }
-                // Now try to deserialize any messages left in buff
-                Message message;
+                // ...processing the message from the filled buffer, without copying it again
+                byte[] payload = largeReadBuffer;
+                BitcoinSerializer.BitcoinPacketHeader largeHeader = header;
+                largeReadBuffer = null;
+                header = null;
+                processMessage(serializer.deserializePayload(largeHeader, payload));
+            }
+            // Now deserialize every message which is complete in buff. A message is only taken
+            // out of the buffer once all of it is there, so the one left over at the end of a
+            // read costs no payload array and no exception, it is simply read again next time
+            while (buff.remaining() >= 4 + BitcoinSerializer.BitcoinPacketHeader.HEADER_LENGTH) {
                 int preSerializePosition = buff.position();
                 try {
-                    message = serializer.deserialize(buff);
+                    serializer.seekPastMagicBytes(buff);
                 } catch (BufferUnderflowException e) {
-                    // If we went through the whole buffer without a full message,
-                    // we need to use the largeReadBuffer
-                    if (i == 0 && buff.limit() == buff.capacity()) {
-                        // ...so reposition the buffer to 0 and read the next message header
-                        buff.position(0);
-                        try {
-                            serializer.seekPastMagicBytes(buff);
-                            header = serializer.deserializeHeader(buff);
-                            // Initialize the largeReadBuffer with the next message's size and
-                            // fill it with any bytes
-                            // left in buff
-                            largeReadBuffer = new byte[header.size];
-                            largeReadBufferPos = buff.remaining();
-                            buff.get(largeReadBuffer, 0, largeReadBufferPos);
-                        } catch (BufferUnderflowException e1) {
-                            // If we went through a whole buffer's worth of bytes without getting
-                            // a header, give up
-                            // In cases where the buff is just really small,
-                            // we could create a second largeReadBuffer
-                            // that we use to deserialize the magic+header,
-                            // but that is rather complicated when the buff
-                            // should probably be at least that big anyway (for efficiency)
-                            throw new ProtocolException("No magic bytes+header after reading " +
-                                    buff.capacity() + " bytes");
-                        }
-                    } else {
-                        // Reposition the buffer to its original position,
-                        // which saves us from skipping messages by
-                        // seeking past part of the magic bytes before all of them are in the buffer
-                        buff.position(preSerializePosition);
-                    }
+                    // Only garbage, keep it until the magic bytes arrive
+                    buff.position(preSerializePosition);
+                    break;
+                }
+                if (buff.remaining() < BitcoinSerializer.BitcoinPacketHeader.HEADER_LENGTH) {
+                    // Reposition the buffer to its original position, which saves us from
+                    // skipping messages by seeking past part of the magic bytes
+                    buff.position(preSerializePosition);
+                    break;
+                }
+                BitcoinSerializer.BitcoinPacketHeader messageHeader = serializer
+                        .deserializeHeader(buff);
+                if (buff.remaining() >= messageHeader.size) {
+                    // The payload is copied out rather than parsed from a slice of buff, the
+                    // message keeps its bytes and outlives this call while buff is pooled
+                    processMessage(serializer.deserializePayload(messageHeader, buff));
+                    continue;
+                }
+                if (buff.position() - preSerializePosition + messageHeader.size > buff
+                        .capacity()) {
+                    // The message will never fit in the buffer, so start the largeReadBuffer
+                    // with its size and the bytes we already have
+                    largeReadBuffer = new byte[messageHeader.size];
+                    largeReadBufferPos = buff.remaining();
+                    buff.get(largeReadBuffer, 0, largeReadBufferPos);
+                    header = messageHeader;
                     return buff.position();
                 }
-                // Process our freshly deserialized message
-                processMessage(message);
+                buff.position(preSerializePosition);
+                break;
+            }
+            if (buff.position() == 0 && buff.limit() == buff.capacity()) {
+                // If we went through a whole buffer's worth of bytes without getting a header,
+                // give up
+                throw new ProtocolException("No magic bytes+header after reading " +
+                        buff.capacity() + " bytes");
             }
+            return buff.position();
         } catch (Exception e) {
             exceptionCaught(e);
             return -1; // Returning -1 also throws an IllegalStateException upstream and kills
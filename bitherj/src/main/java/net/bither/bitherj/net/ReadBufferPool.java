@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Direct read buffers shared by connections. A connection only holds one while part of a
+ * message is waiting for the next read, so idle peers and reconnects reuse a few buffers
+ * instead of each allocating its own direct memory, which is only given back on a full gc.
+ */
+class ReadBufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    @GuardedBy("this")
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<ByteBuffer>();
+
+    ReadBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Returns a cleared buffer of the given size, pooled if it is the size this pool keeps.
+     */
+    synchronized ByteBuffer acquire(int size) {
+        if (size == bufferSize && !buffers.isEmpty()) {
+            return buffers.poll();
+        }
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Takes the buffer back. Nothing may use it afterwards.
+     */
+    synchronized void release(ByteBuffer buff) {
+        if (buff.capacity() != bufferSize || buffers.size() >= maxPooled) {
+            return;
+        }
+        buff.clear();
+        buffers.offer(buff);
+    }
+
+    synchronized int size() {
+        return buffers.size();
+    }
+}
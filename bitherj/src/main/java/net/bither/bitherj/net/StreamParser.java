@@ -48,6 +48,8 @@ public interface StreamParser {
      * <li>buff will end with its limit the same as it was previously, and its position set to the position up to which
      * bytes have been read (the same as its return value)</li>
      * <li>buff must be at least the size of a Bitcoin header (incl magic bytes).</li>
+     * <li>buff must not be kept after returning, it goes back to a pool of read buffers once it holds no unread
+     * bytes.</li>
      * </ul>
      *
      * @return The amount of bytes consumed which should not be provided again
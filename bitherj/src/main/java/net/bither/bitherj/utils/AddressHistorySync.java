@@ -0,0 +1,341 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bither.bitherj.utils;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import net.bither.bitherj.core.Tx;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the tx history of many addresses from a paged api at once. The pages of one address
+ * are fetched in order, several addresses are fetched in parallel, and every request to a host
+ * waits for that host's rate limit, which all syncs against the host share.
+ * <p/>
+ * Results are handed to the {@link Committer} on the calling thread, in address order, in
+ * batches of the addresses that are done by then. For HD chains the gap limit is applied in that
+ * same order, and no more addresses are fetched ahead than the gap limit could still need, so
+ * the addresses fetched and committed are exactly the ones a one by one sync would have.
+ */
+public class AddressHistorySync {
+    private static final Logger log = LoggerFactory.getLogger(AddressHistorySync.class);
+
+    public static final int DefaultParallelism = 4;
+    public static final double DefaultRequestsPerSecond = 10;
+
+    private static final HashMap<String, RateLimiter> rateLimiters = new HashMap<String,
+            RateLimiter>();
+
+    public interface PageSource {
+        /**
+         * Fetches one page, counted from 1, of the address's history.
+         */
+        HistoryPage getPage(String address, int page) throws Exception;
+    }
+
+    public interface AddressSource {
+        /**
+         * Returns the address at the index, null if it has not been generated (yet).
+         */
+        String getAddress(int index);
+
+        /**
+         * Whether the address at the index was synced before and needs no fetching.
+         */
+        boolean isSynced(int index);
+    }
+
+    public interface Committer {
+        /**
+         * Stores the histories, which are for consecutive unsynced addresses in index order.
+         * Called on the syncing thread, so it may generate more addresses for the source.
+         */
+        void commit(List<AddressHistory> histories) throws Exception;
+    }
+
+    public static class HistoryPage {
+        private final List<Tx> txs;
+        private final int apiBlockCount;
+        private final boolean last;
+
+        public HistoryPage(List<Tx> txs, int apiBlockCount, boolean last) {
+            this.txs = txs;
+            this.apiBlockCount = apiBlockCount;
+            this.last = last;
+        }
+
+        public List<Tx> getTxs() {
+            return txs;
+        }
+
+        public int getApiBlockCount() {
+            return apiBlockCount;
+        }
+
+        public boolean isLast() {
+            return last;
+        }
+    }
+
+    public static class AddressHistory {
+        private final int index;
+        private final String address;
+        private final List<Tx> txs = new ArrayList<Tx>();
+        private int apiBlockCount;
+        private int pageCount;
+
+        AddressHistory(int index, String address) {
+            this.index = index;
+            this.address = address;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public List<Tx> getTxs() {
+            return txs;
+        }
+
+        public int getApiBlockCount() {
+            return apiBlockCount;
+        }
+
+        public int getPageCount() {
+            return pageCount;
+        }
+    }
+
+    private final PageSource pageSource;
+    private final RateLimiter rateLimiter;
+    private final int parallelism;
+
+    public AddressHistorySync(PageSource pageSource, String host) {
+        this(pageSource, host, DefaultParallelism);
+    }
+
+    /**
+     * The sync waits for the host's shared rate limiter, whose rate is the host's own and is
+     * left alone here, see {@link #setRequestsPerSecond(String, double)}.
+     */
+    public AddressHistorySync(PageSource pageSource, String host, int parallelism) {
+        this.pageSource = pageSource;
+        this.parallelism = parallelism;
+        this.rateLimiter = getRateLimiter(host);
+    }
+
+    /**
+     * Sets the rate of the host's shared rate limiter, for every sync and fetch against the host
+     * from then on. Meant to be called once for a host that allows other than
+     * {@link #DefaultRequestsPerSecond}, before anything fetches from it.
+     */
+    public static void setRequestsPerSecond(String host, double requestsPerSecond) {
+        getRateLimiter(host).setRate(requestsPerSecond);
+    }
+
+    /**
+     * The rate limiter every request to the host waits for, shared by all the syncs and other
+     * fetches against it. Created at {@link #DefaultRequestsPerSecond} when the host is new.
+     */
+    public static RateLimiter getRateLimiter(String host) {
+        synchronized (rateLimiters) {
+            RateLimiter limiter = rateLimiters.get(host);
+            if (limiter == null) {
+                limiter = RateLimiter.create(DefaultRequestsPerSecond);
+                rateLimiters.put(host, limiter);
+            }
+            return limiter;
+        }
+    }
+
+    /**
+     * Syncs every address of the list.
+     */
+    public void sync(final List<String> addresses, Committer committer) throws Exception {
+        sync(new AddressSource() {
+            @Override
+            public String getAddress(int index) {
+                return index < addresses.size() ? addresses.get(index) : null;
+            }
+
+            @Override
+            public boolean isSynced(int index) {
+                return false;
+            }
+        }, Integer.MAX_VALUE, committer);
+    }
+
+    /**
+     * Syncs a chain of addresses from index 0 until more than maxUnused unsynced addresses in a
+     * row have no tx, or the source has no address at the next index. Returns the index after
+     * the last address looked at.
+     */
+    public int sync(AddressSource source, int maxUnused, Committer committer) throws Exception {
+        ThreadPoolExecutor pool = newPool();
+        LinkedList<Slot> slots = new LinkedList<Slot>();
+        int nextIndex = 0;
+        int doneIndex = 0;
+        int unused = 0;
+        try {
+            while (true) {
+                // fetch ahead while the gap limit could still need the addresses
+                int fetching = 0;
+                for (Slot slot : slots) {
+                    if (slot.future != null) {
+                        fetching++;
+                    }
+                }
+                while (fetching < parallelism && fetching < (long) maxUnused + 1 - unused) {
+                    String address = source.getAddress(nextIndex);
+                    if (address == null) {
+                        break;
+                    }
+                    Slot slot = new Slot(nextIndex);
+                    if (!source.isSynced(nextIndex)) {
+                        slot.future = pool.submit(fetchTask(slot.index, address));
+                        fetching++;
+                    }
+                    slots.add(slot);
+                    nextIndex++;
+                }
+                if (slots.isEmpty()) {
+                    // nothing left to fetch and the source has no more addresses
+                    return doneIndex;
+                }
+
+                List<AddressHistory> batch = new ArrayList<AddressHistory>();
+                boolean reachedGap = false;
+                while (!slots.isEmpty() && !reachedGap) {
+                    Slot slot = slots.getFirst();
+                    if (slot.future != null) {
+                        if (!batch.isEmpty() && !slot.future.isDone()) {
+                            break;
+                        }
+                        AddressHistory history;
+                        try {
+                            history = slot.future.get();
+                        } catch (ExecutionException e) {
+                            if (!batch.isEmpty()) {
+                                committer.commit(batch);
+                            }
+                            throw asException(e.getCause());
+                        }
+                        batch.add(history);
+                        if (history.getTxs().size() > 0) {
+                            unused = 0;
+                        } else {
+                            unused++;
+                            reachedGap = unused > maxUnused;
+                        }
+                    }
+                    slots.removeFirst();
+                    doneIndex = slot.index + 1;
+                }
+                if (!batch.isEmpty()) {
+                    committer.commit(batch);
+                }
+                if (reachedGap) {
+                    return doneIndex;
+                }
+            }
+        } finally {
+            for (Slot slot : slots) {
+                if (slot.future != null) {
+                    slot.future.cancel(true);
+                }
+            }
+            pool.shutdownNow();
+        }
+    }
+
+    private Callable<AddressHistory> fetchTask(final int index, final String address) {
+        return new Callable<AddressHistory>() {
+            @Override
+            public AddressHistory call() throws Exception {
+                AddressHistory history = new AddressHistory(index, address);
+                boolean more = true;
+                while (more) {
+                    rateLimiter.acquire();
+                    HistoryPage page = pageSource.getPage(address, history.pageCount + 1);
+                    history.pageCount++;
+                    history.txs.addAll(page.getTxs());
+                    if (page.getApiBlockCount() > 0) {
+                        history.apiBlockCount = page.getApiBlockCount();
+                    }
+                    more = !page.isLast() && page.getTxs().size() > 0;
+                }
+                log.info("history sync got {} txs in {} pages for {}", history.txs.size(),
+                        history.pageCount, address);
+                return history;
+            }
+        };
+    }
+
+    private ThreadPoolExecutor newPool() {
+        return new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.SECONDS, new
+                LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setName("history sync " + index.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private static Exception asException(Throwable cause) {
+        if (cause instanceof Exception) {
+            return (Exception) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new RuntimeException(cause);
+    }
+
+    private static class Slot {
+        private final int index;
+        // null for an address that was synced before
+        private Future<AddressHistory> future;
+
+        Slot(int index) {
+            this.index = index;
+        }
+    }
+}
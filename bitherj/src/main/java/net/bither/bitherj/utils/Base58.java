@@ -19,9 +19,11 @@ package net.bither.bitherj.utils;
 import net.bither.bitherj.crypto.SecureCharSequence;
 import net.bither.bitherj.exception.AddressFormatException;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * <p>Base58 is a way to encode Bitcoin addresses as numbers and letters. Note that this is not the same base58 as used by
@@ -45,6 +47,45 @@ public class Base58 {
 
     private static final int[] INDEXES = new int[128];
 
+    // the number is converted a limb at a time: 5 base58 digits, or 4 bytes
+    private static final int DigitsPerLimb = 5;
+    private static final long Base58Limb = 58L * 58 * 58 * 58 * 58;
+    private static final int BytesPerLimb = 4;
+
+    private static final int ChecksumLength = 4;
+    // version byte and hash160, addresses are public so their checksums may be kept
+    private static final int AddressPayloadLength = 21;
+    private static final int ChecksumCacheSize = 1024;
+
+    private static final ThreadLocal<int[]> limbBuffers = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[16];
+        }
+    };
+
+    private static final ThreadLocal<char[]> charBuffers = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[64];
+        }
+    };
+
+    private static final ThreadLocal<byte[]> byteBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[64];
+        }
+    };
+
+    private static final Map<ByteBuffer, Integer> checksums = new LinkedHashMap<ByteBuffer,
+            Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Integer> eldest) {
+            return size() > ChecksumCacheSize;
+        }
+    };
+
     static {
         for (int i = 0; i < INDEXES.length; i++) {
             INDEXES[i] = -1;
@@ -54,40 +95,76 @@ public class Base58 {
         }
     }
 
-    private static byte[] encodeToBytes(byte[] input) {
-        if (input.length == 0) {
-            return new byte[0];
+    /**
+     * The most chars that encoding length bytes can take.
+     */
+    public static int maxEncodedLength(int length) {
+        return length * 138 / 100 + 1;
+    }
+
+    /**
+     * Encodes length bytes of input into out from outOffset, which needs
+     * {@link #maxEncodedLength(int)} chars free. Returns how many were written.
+     */
+    public static int encode(byte[] input, int offset, int length, char[] out, int outOffset) {
+        int zeros = 0;
+        while (zeros < length && input[offset + zeros] == 0) {
+            ++zeros;
+        }
+        int[] limbs = limbs(length * 8 / 29 + 2);
+        int used = 0;
+        int i = offset + zeros;
+        int end = offset + length;
+        int group = (end - i) % BytesPerLimb;
+        if (group == 0) {
+            group = BytesPerLimb;
         }
-        input = copyOfRange(input, 0, input.length);
-        // Count leading zeroes.
-        int zeroCount = 0;
-        while (zeroCount < input.length && input[zeroCount] == 0) {
-            ++zeroCount;
-        }
-        // The actual encoding.
-        byte[] temp = new byte[input.length * 2];
-        int j = temp.length;
-
-        int startAt = zeroCount;
-        while (startAt < input.length) {
-            byte mod = divmod58(input, startAt);
-            if (input[startAt] == 0) {
-                ++startAt;
+        while (i < end) {
+            long carry = 0;
+            for (int k = 0; k < group; k++) {
+                carry = carry << 8 | (input[i++] & 0xFF);
+            }
+            long shift = 1L << (8 * group);
+            group = BytesPerLimb;
+            for (int j = 0; j < used; j++) {
+                long value = limbs[j] * shift + carry;
+                limbs[j] = (int) (value % Base58Limb);
+                carry = value / Base58Limb;
+            }
+            while (carry > 0) {
+                limbs[used++] = (int) (carry % Base58Limb);
+                carry /= Base58Limb;
             }
-            temp[--j] = (byte) ALPHABET[mod];
         }
 
-        // Strip extra '1' if there are some after decoding.
-        while (j < temp.length && temp[j] == ALPHABET[0]) {
-            ++j;
+        int position = outOffset;
+        for (int k = 0; k < zeros; k++) {
+            out[position++] = ALPHABET[0];
         }
-        // Add as many leading '1' as there were leading zeros.
-        while (--zeroCount >= 0) {
-            temp[--j] = (byte) ALPHABET[0];
+        if (used > 0) {
+            // no leading '1's for the top limb, all its digits for every other
+            int top = limbs[used - 1];
+            int digits = 0;
+            for (long value = top; value > 0; value /= 58) {
+                ++digits;
+            }
+            position = writeDigits(top, digits, out, position);
+            for (int j = used - 2; j >= 0; j--) {
+                position = writeDigits(limbs[j], DigitsPerLimb, out, position);
+            }
+            Arrays.fill(limbs, 0, used, 0);
         }
+        return position - outOffset;
+    }
 
-        byte[] output = copyOfRange(temp, j, temp.length);
-        return output;
+    /**
+     * Appends input in base58 to out.
+     */
+    public static void encode(byte[] input, StringBuilder out) {
+        char[] chars = chars(maxEncodedLength(input.length));
+        int length = encode(input, 0, input.length, chars, 0);
+        out.append(chars, 0, length);
+        Arrays.fill(chars, 0, length, '\0');
     }
 
     /**
@@ -97,72 +174,127 @@ public class Base58 {
         if (input.length == 0) {
             return "";
         }
-        try {
-            return new String(encodeToBytes(input), "US-ASCII");
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-            return "";
-        }
+        char[] chars = chars(maxEncodedLength(input.length));
+        int length = encode(input, 0, input.length, chars, 0);
+        String result = new String(chars, 0, length);
+        Arrays.fill(chars, 0, length, '\0');
+        return result;
     }
 
     public static SecureCharSequence encodeSecure(byte[] input) {
         if (input.length == 0) {
             return new SecureCharSequence(new char[0]);
         }
-        return new SecureCharSequence(Utils.charsFromBytes(encodeToBytes(input)));
+        char[] chars = chars(maxEncodedLength(input.length));
+        int length = encode(input, 0, input.length, chars, 0);
+        SecureCharSequence result = new SecureCharSequence(Arrays.copyOf(chars, length));
+        Arrays.fill(chars, 0, length, '\0');
+        return result;
     }
 
     public static CharSequence encodeChecked(byte[] input) {
-        byte[] result = new byte[input.length + 4];
+        byte[] result = new byte[input.length + ChecksumLength];
         System.arraycopy(input, 0, result, 0, input.length);
-        byte[] check = Utils.doubleDigest(result, 0, input.length);
-        System.arraycopy(check, 0, result, input.length, 4);
+        Utils.uint32ToByteArrayBE(checksum(result, 0, input.length), result, input.length);
         return Base58.encode(result);
     }
 
-    public static byte[] decode(String input) throws AddressFormatException {
-        if (input.length() == 0) {
-            return new byte[0];
-        }
-        byte[] input58 = new byte[input.length()];
-        // Transform the String to a base58 byte sequence
-        for (int i = 0; i < input.length(); ++i) {
-            char c = input.charAt(i);
-
-            int digit58 = -1;
-            if (c >= 0 && c < 128) {
-                digit58 = INDEXES[c];
-            }
-            if (digit58 < 0) {
-                throw new AddressFormatException("Illegal character " + c + " at " + i);
-            }
+    /**
+     * Encodes the version byte and payload with their checksum, the way addresses are.
+     */
+    public static String encodeChecked(int version, byte[] payload) {
+        byte[] bytes = new byte[1 + payload.length + ChecksumLength];
+        bytes[0] = (byte) version;
+        System.arraycopy(payload, 0, bytes, 1, payload.length);
+        Utils.uint32ToByteArrayBE(checksum(bytes, 0, payload.length + 1), bytes, payload.length
+                + 1);
+        return encode(bytes);
+    }
 
-            input58[i] = (byte) digit58;
+    /**
+     * Decodes input into out from outOffset and returns how many bytes were written, at most
+     * as many as input has chars.
+     *
+     * @throws AddressFormatException   if input is not base58.
+     * @throws IllegalArgumentException if out is too short.
+     */
+    public static int decode(CharSequence input, byte[] out, int outOffset) throws
+            AddressFormatException {
+        int length = input.length();
+        int zeros = 0;
+        while (zeros < length && input.charAt(zeros) == ALPHABET[0]) {
+            ++zeros;
         }
-        // Count leading zeroes
-        int zeroCount = 0;
-        while (zeroCount < input58.length && input58[zeroCount] == 0) {
-            ++zeroCount;
+        int[] limbs = limbs(length * 6 / 32 + 2);
+        int used = 0;
+        int i = zeros;
+        int group = (length - i) % DigitsPerLimb;
+        if (group == 0) {
+            group = DigitsPerLimb;
         }
-        // The encoding
-        byte[] temp = new byte[input.length()];
-        int j = temp.length;
-
-        int startAt = zeroCount;
-        while (startAt < input58.length) {
-            byte mod = divmod256(input58, startAt);
-            if (input58[startAt] == 0) {
-                ++startAt;
+        try {
+            while (i < length) {
+                long carry = 0;
+                long multiplier = 1;
+                for (int k = 0; k < group; k++) {
+                    char c = input.charAt(i);
+                    int digit58 = c < 128 ? INDEXES[c] : -1;
+                    if (digit58 < 0) {
+                        throw new AddressFormatException("Illegal character " + c + " at " + i);
+                    }
+                    carry = carry * 58 + digit58;
+                    multiplier *= 58;
+                    ++i;
+                }
+                group = DigitsPerLimb;
+                for (int j = 0; j < used; j++) {
+                    long value = (limbs[j] & 0xFFFFFFFFL) * multiplier + carry;
+                    limbs[j] = (int) value;
+                    carry = value >>> 32;
+                }
+                while (carry > 0) {
+                    limbs[used++] = (int) carry;
+                    carry >>>= 32;
+                }
             }
 
-            temp[--j] = mod;
-        }
-        // Do no add extra leading zeroes, move j to first non null byte.
-        while (j < temp.length && temp[j] == 0) {
-            ++j;
+            int topBytes = 0;
+            if (used > 0) {
+                for (long value = limbs[used - 1] & 0xFFFFFFFFL; value > 0; value >>>= 8) {
+                    ++topBytes;
+                }
+            }
+            int decodedLength = zeros + (used > 0 ? topBytes + (used - 1) * BytesPerLimb : 0);
+            if (outOffset + decodedLength > out.length) {
+                throw new IllegalArgumentException("Output too short");
+            }
+            Arrays.fill(out, outOffset, outOffset + zeros, (byte) 0);
+            int position = outOffset + zeros;
+            if (used > 0) {
+                int top = limbs[used - 1];
+                for (int k = topBytes - 1; k >= 0; k--) {
+                    out[position++] = (byte) (top >>> (8 * k));
+                }
+                for (int j = used - 2; j >= 0; j--) {
+                    Utils.uint32ToByteArrayBE(limbs[j] & 0xFFFFFFFFL, out, position);
+                    position += BytesPerLimb;
+                }
+            }
+            return decodedLength;
+        } finally {
+            Arrays.fill(limbs, 0, used, 0);
         }
+    }
 
-        return copyOfRange(temp, j - zeroCount, temp.length);
+    public static byte[] decode(String input) throws AddressFormatException {
+        if (input.length() == 0) {
+            return new byte[0];
+        }
+        byte[] bytes = bytes(input.length());
+        int length = decode(input, bytes, 0);
+        byte[] result = Arrays.copyOf(bytes, length);
+        Arrays.fill(bytes, 0, length, (byte) 0);
+        return result;
     }
 
 //    public static BigInteger decodeToBigInteger(String input) throws AddressFormatException {
@@ -170,65 +302,95 @@ public class Base58 {
 //    }
 
     /**
-     * Uses the checksum in the last 4 bytes of the decoded data to verify the rest are correct. The checksum is
-     * removed from the returned data.
+     * Decodes input into out from outOffset and verifies its checksum. Returns the length of
+     * the data without the checksum, which is written after it.
      *
      * @throws AddressFormatException if the input is not base 58 or the checksum does not validate.
      */
-    public static byte[] decodeChecked(String input) throws AddressFormatException {
-        byte tmp[] = decode(input);
-        if (tmp.length < 4)
+    public static int decodeChecked(CharSequence input, byte[] out, int outOffset) throws
+            AddressFormatException {
+        int length = decode(input, out, outOffset) - ChecksumLength;
+        if (length < 0) {
             throw new AddressFormatException("Input too short");
-        byte[] bytes = copyOfRange(tmp, 0, tmp.length - 4);
-        byte[] checksum = copyOfRange(tmp, tmp.length - 4, tmp.length);
-
-        tmp = Utils.doubleDigest(bytes);
-        byte[] hash = copyOfRange(tmp, 0, 4);
-        if (!Arrays.equals(checksum, hash))
+        }
+        if (checksum(out, outOffset, length) != (int) Utils.readUint32BE(out, outOffset +
+                length)) {
             throw new AddressFormatException("Checksum does not validate");
-
-        return bytes;
+        }
+        return length;
     }
 
-    //
-    // number -> number / 58, returns number % 58
-    //
-    private static byte divmod58(byte[] number, int startAt) {
-        int remainder = 0;
-        for (int i = startAt; i < number.length; i++) {
-            int digit256 = (int) number[i] & 0xFF;
-            int temp = remainder * 256 + digit256;
-
-            number[i] = (byte) (temp / 58);
-
-            remainder = temp % 58;
+    /**
+     * Uses the checksum in the last 4 bytes of the decoded data to verify the rest are correct. The checksum is
+     * removed from the returned data.
+     *
+     * @throws AddressFormatException if the input is not base 58 or the checksum does not validate.
+     */
+    public static byte[] decodeChecked(String input) throws AddressFormatException {
+        byte[] bytes = bytes(input.length());
+        try {
+            int length = decodeChecked(input, bytes, 0);
+            return Arrays.copyOf(bytes, length);
+        } finally {
+            Arrays.fill(bytes, 0, input.length(), (byte) 0);
         }
-
-        return (byte) remainder;
     }
 
-    //
-    // number -> number / 256, returns number % 256
-    //
-    private static byte divmod256(byte[] number58, int startAt) {
-        int remainder = 0;
-        for (int i = startAt; i < number58.length; i++) {
-            int digit58 = (int) number58[i] & 0xFF;
-            int temp = remainder * 58 + digit58;
-
-            number58[i] = (byte) (temp / 256);
+    /**
+     * The first 4 bytes of the double SHA-256 of the data, big endian. Those of addresses are
+     * kept, as the same few are shown and parsed over and over, while keys never are.
+     */
+    private static int checksum(byte[] data, int offset, int length) {
+        if (length != AddressPayloadLength) {
+            return (int) Utils.readUint32BE(Utils.doubleDigest(data, offset, length), 0);
+        }
+        synchronized (checksums) {
+            Integer checksum = checksums.get(ByteBuffer.wrap(data, offset, length));
+            if (checksum != null) {
+                return checksum;
+            }
+        }
+        int checksum = (int) Utils.readUint32BE(Utils.doubleDigest(data, offset, length), 0);
+        synchronized (checksums) {
+            checksums.put(ByteBuffer.wrap(Arrays.copyOfRange(data, offset, offset + length)),
+                    checksum);
+        }
+        return checksum;
+    }
 
-            remainder = temp % 256;
+    private static int writeDigits(int limb, int digits, char[] out, int position) {
+        for (int k = digits - 1; k >= 0; k--) {
+            out[position + k] = ALPHABET[limb % 58];
+            limb /= 58;
         }
+        return position + digits;
+    }
 
-        return (byte) remainder;
+    private static int[] limbs(int size) {
+        int[] limbs = limbBuffers.get();
+        if (limbs.length < size) {
+            limbs = new int[size];
+            limbBuffers.set(limbs);
+        }
+        return limbs;
     }
 
-    private static byte[] copyOfRange(byte[] source, int from, int to) {
-        byte[] range = new byte[to - from];
-        System.arraycopy(source, from, range, 0, range.length);
+    private static char[] chars(int size) {
+        char[] chars = charBuffers.get();
+        if (chars.length < size) {
+            chars = new char[size];
+            charBuffers.set(chars);
+        }
+        return chars;
+    }
 
-        return range;
+    private static byte[] bytes(int size) {
+        byte[] bytes = byteBuffers.get();
+        if (bytes.length < size) {
+            bytes = new byte[size];
+            byteBuffers.set(bytes);
+        }
+        return bytes;
     }
 
     //added by jjz (bither)
@@ -241,12 +403,7 @@ public class Base58 {
     //added by jjz (bither)
     public static String hexToBase58WithAddress(String hex) {
         byte[] bytes = Utils.hexStringToByteArray(hex);
-        byte[] checksum = copyOfRange(Utils.doubleDigest(bytes), 0, 4);
-        byte[] result = new byte[bytes.length + checksum.length];
-        System.arraycopy(bytes, 0, result, 0, bytes.length);
-        System.arraycopy(checksum, 0, result, bytes.length, 4);
-        String address = encode(result);
-        return address;
+        return encodeChecked(bytes).toString();
     }
 
 }
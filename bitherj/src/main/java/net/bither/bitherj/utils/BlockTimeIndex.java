@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.utils;
+
+import net.bither.bitherj.core.Block;
+import net.bither.bitherj.db.AbstractDb;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The time of each stored block by its height, loaded once and kept across the pages of an
+ * address history sync instead of being rebuilt from all blocks for every page. Heights at or
+ * below the oldest stored block get that block's time, as the history parsers always did.
+ * <p/>
+ * A height above the newest block loaded means the store has grown since, so the blocks are
+ * loaded again; a rollback has to {@link #invalidate()} the index itself.
+ */
+public class BlockTimeIndex {
+    private HashMap<Integer, Integer> times;
+    private int minBlockNo;
+    private int maxBlockNo;
+    // the highest height a load did not reach, not worth loading again for
+    private int missedBlockNo;
+
+    /**
+     * The time of the block at the height, null when no such block is stored.
+     */
+    public synchronized Integer getTime(int height) {
+        if (times == null || (height > maxBlockNo && height > missedBlockNo)) {
+            load();
+            if (height > maxBlockNo) {
+                missedBlockNo = height;
+            }
+        }
+        if (times.isEmpty()) {
+            return null;
+        }
+        if (height <= minBlockNo) {
+            height = minBlockNo;
+        }
+        return times.get(height);
+    }
+
+    public synchronized void invalidate() {
+        times = null;
+    }
+
+    protected List<Block> loadBlocks() {
+        return AbstractDb.blockProvider.getAllBlocks();
+    }
+
+    private void load() {
+        List<Block> blocks = loadBlocks();
+        times = new HashMap<Integer, Integer>(blocks.size() * 4 / 3 + 1);
+        minBlockNo = Integer.MAX_VALUE;
+        maxBlockNo = Integer.MIN_VALUE;
+        missedBlockNo = Integer.MIN_VALUE;
+        for (Block block : blocks) {
+            times.put(block.getBlockNo(), block.getBlockTime());
+            minBlockNo = Math.min(minBlockNo, block.getBlockNo());
+            maxBlockNo = Math.max(maxBlockNo, block.getBlockNo());
+        }
+    }
+}
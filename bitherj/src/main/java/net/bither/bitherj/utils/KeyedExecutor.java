@@ -0,0 +1,300 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bither.bitherj.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks on a small thread pool while keeping submission order per key. Tasks that share a
+ * key run one after another, tasks with different keys run in parallel. A key with no queued
+ * tasks costs nothing.
+ * <p/>
+ * Callers are never blocked. Instead a {@link BacklogListener} is told when a key's queue grows
+ * past the high water mark and again when it drains below the low one, so the producer for that
+ * key can be slowed down at its source.
+ */
+public class KeyedExecutor {
+    private static final Logger log = LoggerFactory.getLogger(KeyedExecutor.class);
+
+    // how many tasks a lane runs before it yields its thread to other lanes
+    private static final int LaneBatchSize = 32;
+
+    public interface BacklogListener {
+        void onBacklogChanged(Object key, boolean saturated);
+    }
+
+    private final String name;
+    private final ThreadPoolExecutor pool;
+    private final HashMap<Object, Lane> lanes = new HashMap<Object, Lane>();
+
+    private BacklogListener backlogListener;
+    private int highWaterMark = Integer.MAX_VALUE;
+    private int lowWaterMark = 0;
+    private final HashMap<Object, int[]> keyWaterMarks = new HashMap<Object, int[]>();
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+
+    public KeyedExecutor(final String name, int threadCount) {
+        this.name = name;
+        pool = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setName(name + " worker " + index.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public void setBacklogListener(BacklogListener listener, int highWaterMark, int
+            lowWaterMark) {
+        synchronized (lanes) {
+            this.backlogListener = listener;
+            this.highWaterMark = highWaterMark;
+            this.lowWaterMark = lowWaterMark;
+        }
+    }
+
+    /**
+     * Gives one key other water marks than the ones passed to
+     * {@link #setBacklogListener(BacklogListener, int, int)}.
+     */
+    public void setWaterMarks(Object key, int highWaterMark, int lowWaterMark) {
+        synchronized (lanes) {
+            keyWaterMarks.put(key, new int[]{highWaterMark, lowWaterMark});
+        }
+    }
+
+    public void execute(Object key, Runnable task) {
+        if (pool.isShutdown()) {
+            log.warn("{} is shut down, drop task for {}", name, key);
+            return;
+        }
+        boolean schedule = false;
+        boolean saturated = false;
+        Lane lane;
+        synchronized (lanes) {
+            lane = lanes.get(key);
+            if (lane == null) {
+                lane = new Lane(key);
+                lanes.put(key, lane);
+            }
+            lane.tasks.offer(new Task(task));
+            pending.incrementAndGet();
+            if (!lane.scheduled) {
+                lane.scheduled = true;
+                schedule = true;
+            }
+            if (!lane.saturated && lane.tasks.size() >= highWaterMark(key)) {
+                lane.saturated = true;
+                saturated = true;
+            }
+        }
+        if (saturated) {
+            notifyBacklog(key, true);
+        }
+        if (schedule) {
+            pool.execute(lane);
+        }
+    }
+
+    /**
+     * Drops every task that has not started yet.
+     */
+    public void clear() {
+        HashMap<Object, Boolean> drained = new HashMap<Object, Boolean>();
+        synchronized (lanes) {
+            for (Lane lane : lanes.values()) {
+                pending.addAndGet(-lane.tasks.size());
+                lane.tasks.clear();
+                if (lane.saturated) {
+                    lane.saturated = false;
+                    drained.put(lane.key, Boolean.TRUE);
+                }
+            }
+        }
+        for (Object key : drained.keySet()) {
+            notifyBacklog(key, false);
+        }
+    }
+
+    public void shutdownNow() {
+        clear();
+        pool.shutdownNow();
+    }
+
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    public int getPendingCount(Object key) {
+        synchronized (lanes) {
+            Lane lane = lanes.get(key);
+            return lane == null ? 0 : lane.tasks.size();
+        }
+    }
+
+    public int getActiveLaneCount() {
+        synchronized (lanes) {
+            return lanes.size();
+        }
+    }
+
+    public long getCompletedTaskCount() {
+        return completed.get();
+    }
+
+    public long getFailedTaskCount() {
+        return failed.get();
+    }
+
+    /**
+     * Average time a task spent queued before it started, in milliseconds.
+     */
+    public double getAverageWaitMillis() {
+        long count = completed.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1000000.0 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1000000.0;
+    }
+
+    public double getAverageRunMillis() {
+        long count = completed.get();
+        return count == 0 ? 0 : totalRunNanos.get() / 1000000.0 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d pending in %d lanes, %d done, %d failed, wait avg %.2fms " +
+                "max %.2fms, run avg %.2fms", name, getPendingCount(), getActiveLaneCount(),
+                getCompletedTaskCount(), getFailedTaskCount(), getAverageWaitMillis(),
+                getMaxWaitMillis(), getAverageRunMillis());
+    }
+
+    // callers hold the lanes lock
+    private int highWaterMark(Object key) {
+        int[] marks = keyWaterMarks.get(key);
+        return marks == null ? highWaterMark : marks[0];
+    }
+
+    private int lowWaterMark(Object key) {
+        int[] marks = keyWaterMarks.get(key);
+        return marks == null ? lowWaterMark : marks[1];
+    }
+
+    private void notifyBacklog(Object key, boolean saturated) {
+        BacklogListener listener = backlogListener;
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.onBacklogChanged(key, saturated);
+        } catch (Exception e) {
+            log.warn("{} backlog listener failed for {}", name, key, e);
+        }
+    }
+
+    private void runTask(Object key, Task task) {
+        long start = System.nanoTime();
+        long wait = start - task.queuedAt;
+        totalWaitNanos.addAndGet(wait);
+        long max = maxWaitNanos.get();
+        while (wait > max && !maxWaitNanos.compareAndSet(max, wait)) {
+            max = maxWaitNanos.get();
+        }
+        try {
+            task.runnable.run();
+        } catch (Throwable t) {
+            failed.incrementAndGet();
+            log.error("exception in " + name + " lane " + key + ": " + t.getMessage(), t);
+        } finally {
+            totalRunNanos.addAndGet(System.nanoTime() - start);
+            completed.incrementAndGet();
+        }
+    }
+
+    private static class Task {
+        final Runnable runnable;
+        final long queuedAt;
+
+        Task(Runnable runnable) {
+            this.runnable = runnable;
+            this.queuedAt = System.nanoTime();
+        }
+    }
+
+    private class Lane implements Runnable {
+        final Object key;
+        final ArrayDeque<Task> tasks = new ArrayDeque<Task>();
+        boolean scheduled;
+        boolean saturated;
+
+        Lane(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < LaneBatchSize; i++) {
+                Task task;
+                boolean drained = false;
+                synchronized (lanes) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        scheduled = false;
+                        lanes.remove(key);
+                        return;
+                    }
+                    pending.decrementAndGet();
+                    if (saturated && tasks.size() <= lowWaterMark(key)) {
+                        saturated = false;
+                        drained = true;
+                    }
+                }
+                if (drained) {
+                    notifyBacklog(key, false);
+                }
+                runTask(key, task);
+            }
+            // give other lanes a turn, this lane stays scheduled
+            if (!pool.isShutdown()) {
+                pool.execute(this);
+            }
+        }
+    }
+}
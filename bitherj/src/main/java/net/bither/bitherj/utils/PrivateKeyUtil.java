@@ -45,6 +45,7 @@ import java.security.SignatureException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PrivateKeyUtil {
     private static final Logger log = LoggerFactory.getLogger(PrivateKeyUtil.class);
@@ -281,7 +282,7 @@ public class PrivateKeyUtil {
             log.error("Backup: PrivateKeyFromString format error");
             return null;
         }
-        ArrayList<Address> list = new ArrayList<Address>();
+        List<String> encryptedStrings = new ArrayList<String>();
         for (int i = 0;
              i < strs.length;
              i += 3) {
@@ -291,20 +292,54 @@ public class PrivateKeyUtil {
             if (strs[i].indexOf(QRCodeUtil.HD_QR_CODE_FLAG) == 0){
                 continue;
             }
-            String encryptedString = strs[i] + QRCodeUtil.QR_CODE_SPLIT + strs[i + 1]
-                    + QRCodeUtil.QR_CODE_SPLIT + strs[i + 2];
-            ECKey key = getECKeyFromSingleString(encryptedString, password);
+            encryptedStrings.add(strs[i] + QRCodeUtil.QR_CODE_SPLIT + strs[i + 1]
+                    + QRCodeUtil.QR_CODE_SPLIT + strs[i + 2]);
+        }
+        List<ECKey> keys = getECKeysFromSingleStrings(encryptedStrings, password);
+        if (keys == null) {
+            return null;
+        }
+        ArrayList<Address> list = new ArrayList<Address>();
+        for (int i = 0; i < keys.size(); i++) {
+            ECKey key = keys.get(i);
+            Address address = new Address(key.toAddress(), key.getPubKey(), encryptedStrings.get
+                    (i), false, key.isFromXRandom());
+            key.clearPrivateKey();
+            list.add(address);
+        }
+        return list;
+    }
 
+    /**
+     * Decrypts the keys on all cores, as each of them takes a full scrypt. Returns null when
+     * one of them could not be decrypted, without starting on the keys left then.
+     */
+    public static List<ECKey> getECKeysFromSingleStrings(final List<String> encryptedStrings,
+                                                         final CharSequence password) {
+        final ECKey[] keys = new ECKey[encryptedStrings.size()];
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        Threading.runInChunks(keys.length, 1, new Threading.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to && !failed.get(); i++) {
+                    keys[i] = getECKeyFromSingleString(encryptedStrings.get(i), password);
+                    if (keys[i] == null) {
+                        failed.set(true);
+                    }
+                }
+            }
+        });
+        for (ECKey key : keys) {
             if (key == null) {
+                for (ECKey decrypted : keys) {
+                    if (decrypted != null) {
+                        decrypted.clearPrivateKey();
+                    }
+                }
                 return null;
-            } else {
-                Address address = new Address(key.toAddress(), key.getPubKey(), encryptedString,
-                        false, key.isFromXRandom());
-                key.clearPrivateKey();
-                list.add(address);
             }
         }
-        return list;
+        return Arrays.asList(keys);
     }
 
     /**
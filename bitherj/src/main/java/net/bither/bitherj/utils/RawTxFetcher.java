@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.utils;
+
+import net.bither.bitherj.core.Tx;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches raw txs by hash for history apis that only list them. The missing txs of a call are
+ * split into batches that are fetched in parallel, so the round trips overlap instead of
+ * queueing one after the other. The raw txs are kept by hash, and a tx another caller is already
+ * fetching is waited for rather than fetched again, so a tx shared between the addresses of a
+ * wallet is only fetched once.
+ * <p/>
+ * Every call gets txs of its own, decoded from the kept bytes: callers set blocks and times on
+ * them and compress their outs for one address.
+ */
+public class RawTxFetcher {
+    public static final int DefaultParallelism = 4;
+    public static final int DefaultBatchSize = 8;
+    public static final int DefaultCacheSize = 2000;
+
+    public interface RawTxSource {
+        /**
+         * Fetches the raw txs of the hashes, in the same order. Hashes are hex strings in the
+         * usual, reversed order.
+         */
+        List<byte[]> getRawTxs(List<String> txHashes) throws Exception;
+    }
+
+    private final RawTxSource source;
+    private final int batchSize;
+    private final ThreadPoolExecutor pool;
+    private final LinkedHashMap<String, byte[]> cache;
+    private final HashMap<String, Future<Map<String, byte[]>>> fetching = new HashMap<String,
+            Future<Map<String, byte[]>>>();
+
+    public RawTxFetcher(RawTxSource source) {
+        this(source, DefaultParallelism, DefaultBatchSize, DefaultCacheSize);
+    }
+
+    public RawTxFetcher(RawTxSource source, int parallelism, int batchSize, final int cacheSize) {
+        this.source = source;
+        this.batchSize = batchSize;
+        cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        pool = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS, new
+                LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setName("raw tx fetch " + index.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the tx of every hash, fetching the ones not known yet. Duplicate hashes are
+     * fetched once. The txs are new instances, not shared with other calls.
+     */
+    public Map<String, Tx> getTxs(List<String> txHashes) throws Exception {
+        LinkedHashSet<String> unique = new LinkedHashSet<String>(txHashes);
+        HashMap<String, byte[]> rawTxs = new HashMap<String, byte[]>();
+        HashMap<String, Future<Map<String, byte[]>>> waiting = new HashMap<String,
+                Future<Map<String, byte[]>>>();
+        synchronized (this) {
+            List<String> missing = new ArrayList<String>();
+            for (String hash : unique) {
+                byte[] rawTx = cache.get(hash);
+                if (rawTx != null) {
+                    rawTxs.put(hash, rawTx);
+                } else if (fetching.containsKey(hash)) {
+                    waiting.put(hash, fetching.get(hash));
+                } else {
+                    missing.add(hash);
+                }
+            }
+            for (int from = 0; from < missing.size(); from += batchSize) {
+                List<String> batch = new ArrayList<String>(missing.subList(from, Math.min
+                        (missing.size(), from + batchSize)));
+                Future<Map<String, byte[]>> future = pool.submit(fetchTask(batch));
+                for (String hash : batch) {
+                    fetching.put(hash, future);
+                    waiting.put(hash, future);
+                }
+            }
+        }
+        for (Map.Entry<String, Future<Map<String, byte[]>>> entry : waiting.entrySet()) {
+            try {
+                rawTxs.put(entry.getKey(), entry.getValue().get().get(entry.getKey()));
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+        HashMap<String, Tx> txs = new HashMap<String, Tx>();
+        for (Map.Entry<String, byte[]> entry : rawTxs.entrySet()) {
+            txs.put(entry.getKey(), new Tx(entry.getValue()));
+        }
+        return txs;
+    }
+
+    public synchronized int getCachedCount() {
+        return cache.size();
+    }
+
+    private Callable<Map<String, byte[]>> fetchTask(final List<String> batch) {
+        return new Callable<Map<String, byte[]>>() {
+            @Override
+            public Map<String, byte[]> call() throws Exception {
+                HashMap<String, byte[]> txs = new HashMap<String, byte[]>();
+                try {
+                    List<byte[]> rawTxs = source.getRawTxs(batch);
+                    if (rawTxs.size() != batch.size()) {
+                        throw new IllegalStateException("asked for " + batch.size() + " raw " +
+                                "txs, got " + rawTxs.size());
+                    }
+                    for (int i = 0; i < batch.size(); i++) {
+                        Tx tx = new Tx(rawTxs.get(i));
+                        String hash = Utils.hashToString(tx.getTxHash());
+                        if (!hash.equalsIgnoreCase(batch.get(i))) {
+                            throw new IllegalStateException("asked for tx " + batch.get(i) + ", " +
+                                    "got " + hash);
+                        }
+                        txs.put(batch.get(i), rawTxs.get(i));
+                    }
+                } finally {
+                    synchronized (RawTxFetcher.this) {
+                        cache.putAll(txs);
+                        for (String hash : batch) {
+                            fetching.remove(hash);
+                        }
+                    }
+                }
+                return txs;
+            }
+        };
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bither.bitherj.utils;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 hashing without a shared lock. Every thread gets its own {@link MessageDigest}, so block,
+ * tx and message hashing on different peer threads never wait on each other.
+ * <p/>
+ * The <code>Into</code> variants write the 32 byte result into a caller supplied buffer and allocate
+ * nothing, which is what the hot paths (message checksums, merkle trees) should use.
+ */
+public class Sha256Hasher {
+    public static final int HASH_LENGTH = 32;
+
+    private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return newDigest();
+        }
+    };
+
+    private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[HASH_LENGTH];
+        }
+    };
+
+    private Sha256Hasher() {
+    }
+
+    /**
+     * Creates a fresh SHA-256 digest, for callers that need to keep one beyond a single call.
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);  // Can't happen.
+        }
+    }
+
+    /**
+     * Returns the digest owned by the calling thread, already reset.
+     */
+    public static MessageDigest threadDigest() {
+        MessageDigest digest = digests.get();
+        digest.reset();
+        return digest;
+    }
+
+    public static byte[] singleDigest(byte[] input, int offset, int length) {
+        MessageDigest digest = threadDigest();
+        digest.update(input, offset, length);
+        return digest.digest();
+    }
+
+    public static byte[] doubleDigest(byte[] input, int offset, int length) {
+        byte[] out = new byte[HASH_LENGTH];
+        doubleDigestInto(input, offset, length, out, 0);
+        return out;
+    }
+
+    public static byte[] doubleDigestTwoBuffers(byte[] input1, int offset1, int length1,
+                                                byte[] input2, int offset2, int length2) {
+        byte[] out = new byte[HASH_LENGTH];
+        doubleDigestTwoBuffersInto(input1, offset1, length1, input2, offset2, length2, out, 0);
+        return out;
+    }
+
+    /**
+     * Writes SHA256(input range) into out[outOffset, outOffset + 32).
+     */
+    public static void singleDigestInto(byte[] input, int offset, int length, byte[] out,
+                                        int outOffset) {
+        MessageDigest digest = threadDigest();
+        digest.update(input, offset, length);
+        finish(digest, out, outOffset);
+    }
+
+    /**
+     * Writes SHA256(SHA256(input range)) into out[outOffset, outOffset + 32). The output may
+     * overlap the input.
+     */
+    public static void doubleDigestInto(byte[] input, int offset, int length, byte[] out,
+                                        int outOffset) {
+        MessageDigest digest = threadDigest();
+        digest.update(input, offset, length);
+        secondRound(digest, out, outOffset);
+    }
+
+    /**
+     * Writes SHA256(SHA256(range 1 + range 2)) into out[outOffset, outOffset + 32). This is the
+     * merkle node combination, the output may be one of the inputs.
+     */
+    public static void doubleDigestTwoBuffersInto(byte[] input1, int offset1, int length1,
+                                                  byte[] input2, int offset2, int length2,
+                                                  byte[] out, int outOffset) {
+        MessageDigest digest = threadDigest();
+        digest.update(input1, offset1, length1);
+        digest.update(input2, offset2, length2);
+        secondRound(digest, out, outOffset);
+    }
+
+    /**
+     * Hashes the remaining bytes of input twice and writes the result into
+     * out[outOffset, outOffset + 32). The input position is advanced to its limit.
+     */
+    public static void doubleDigestInto(ByteBuffer input, byte[] out, int outOffset) {
+        MessageDigest digest = threadDigest();
+        digest.update(input);
+        secondRound(digest, out, outOffset);
+    }
+
+    /**
+     * Hashes the remaining bytes of input twice and puts the 32 byte result into out at its
+     * current position. Both buffers are advanced.
+     */
+    public static void doubleDigestInto(ByteBuffer input, ByteBuffer out) {
+        MessageDigest digest = threadDigest();
+        digest.update(input);
+        byte[] tmp = scratch.get();
+        secondRound(digest, tmp, 0);
+        out.put(tmp, 0, HASH_LENGTH);
+    }
+
+    /**
+     * Writes the first four bytes of SHA256(SHA256(input range)) into out[outOffset, outOffset + 4).
+     */
+    public static void checksumInto(byte[] input, int offset, int length, byte[] out,
+                                    int outOffset) {
+        byte[] tmp = scratch.get();
+        doubleDigestInto(input, offset, length, tmp, 0);
+        System.arraycopy(tmp, 0, out, outOffset, 4);
+    }
+
+    /**
+     * Returns true when the first four bytes of SHA256(SHA256(input range)) match checksum, as
+     * used by the p2p message header and Base58Check.
+     */
+    public static boolean checksumMatches(byte[] input, int offset, int length, byte[] checksum,
+                                          int checksumOffset) {
+        byte[] tmp = scratch.get();
+        doubleDigestInto(input, offset, length, tmp, 0);
+        return tmp[0] == checksum[checksumOffset] && tmp[1] == checksum[checksumOffset + 1]
+                && tmp[2] == checksum[checksumOffset + 2] && tmp[3] == checksum[checksumOffset + 3];
+    }
+
+    private static void secondRound(MessageDigest digest, byte[] out, int outOffset) {
+        finish(digest, out, outOffset);
+        digest.update(out, outOffset, HASH_LENGTH);
+        finish(digest, out, outOffset);
+    }
+
+    private static void finish(MessageDigest digest, byte[] out, int outOffset) {
+        try {
+            digest.digest(out, outOffset, HASH_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package net.bither.bitherj.utils;
 
+import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.CycleDetectingLockFactory;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -24,12 +25,17 @@ import com.google.common.util.concurrent.Uninterruptibles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.annotation.Nonnull;
@@ -145,6 +151,84 @@ public class Threading {
         };
     }
 
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    // Parallel CPU bound work
+    //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public interface RangeTask {
+        void run(int from, int to);
+    }
+
+    private static final int COMPUTE_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * A fixed pool with a daemon thread per core, for splitting up CPU bound work like signing or verifying many
+     * inputs. Tasks on it must not wait for other tasks on it.
+     */
+    public static final ExecutorService COMPUTE_POOL = Executors.newFixedThreadPool(COMPUTE_THREADS,
+            new ThreadFactory() {
+                private final AtomicInteger index = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new ComputeThread(r);
+                    t.setName("Threading.COMPUTE_POOL worker " + index.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /**
+     * Splits [0, size) into about one chunk per core, none shorter than minChunk, and runs them on
+     * {@link #COMPUTE_POOL} with the calling thread taking the first chunk. Returns when every chunk is done and
+     * rethrows the first exception a chunk threw. Called from a {@link #COMPUTE_POOL} thread, as a task nested in
+     * another one, it runs the whole range on that thread instead of waiting for the pool.
+     */
+    public static void runInChunks(int size, int minChunk, final RangeTask task) {
+        if (Thread.currentThread() instanceof ComputeThread) {
+            task.run(0, size);
+            return;
+        }
+        int chunk = Math.max(Math.max(1, minChunk), (size + COMPUTE_THREADS - 1) / COMPUTE_THREADS);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int from = chunk; from < size; from += chunk) {
+            final int chunkFrom = from;
+            final int chunkTo = Math.min(size, from + chunk);
+            futures.add(COMPUTE_POOL.submit(new Runnable() {
+                @Override
+                public void run() {
+                    task.run(chunkFrom, chunkTo);
+                }
+            }));
+        }
+        Throwable failure = null;
+        try {
+            task.run(0, Math.min(size, chunk));
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        for (Future<?> future : futures) {
+            try {
+                Uninterruptibles.getUninterruptibly(future);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure != null) {
+            throw Throwables.propagate(failure);
+        }
+    }
+
+    private static class ComputeThread extends Thread {
+        ComputeThread(Runnable r) {
+            super(r);
+        }
+    }
+
     /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     //
     // Cycle detecting lock factories
@@ -20,18 +20,20 @@ import net.bither.bitherj.AbstractApp;
 import net.bither.bitherj.BitherjSettings;
 import net.bither.bitherj.api.BitherMytransactionsApi;
 import net.bither.bitherj.api.BlockChainMytransactionsApi;
+import net.bither.bitherj.api.BlockChainRawTxApi;
+import net.bither.bitherj.api.http.BitherUrl;
+import net.bither.bitherj.api.http.HttpClientPool;
 import net.bither.bitherj.core.*;
 import net.bither.bitherj.db.AbstractDb;
 import net.bither.bitherj.exception.ScriptException;
 import net.bither.bitherj.qrcode.QRCodeUtil;
 
-import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
 
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -43,122 +45,112 @@ import java.util.Map;
 public class TransactionsUtil {
 
     private static final Logger log = LoggerFactory.getLogger(TransactionsUtil.class);
-    private static final String TX = "tx";
-    private static final String BLOCK_COUNT = "block_count";
     private static final String TX_CNT = "tx_cnt";
     // TODO: blockChain.info
     private static final String BLOCK_CHAIN_HEIGHT = "height";
-    private static final String BLOCK_CHAIN_TX = "n_tx";
-    private static final String BLOCK_CHAIN_TXS = "txs";
-    private static final String BLOCK_CHAIN_BLOCK_HEIGHT = "block_height";
-    private static final String BLOCK_CHAIN_TX_INDEX = "tx_index";
     private static final String BLOCK_CHAIN_CNT = "n_tx";
 
 
     private static List<UnSignTransaction> unsignTxs = new ArrayList<UnSignTransaction>();
 
+    private static final BlockTimeIndex blockTimeIndex = new BlockTimeIndex();
+    private static final RawTxFetcher blockChainRawTxFetcher = new RawTxFetcher(new RawTxFetcher
+            .RawTxSource() {
+        @Override
+        public List<byte[]> getRawTxs(List<String> txHashes) throws Exception {
+            List<byte[]> rawTxs = new ArrayList<byte[]>();
+            for (String txHash : txHashes) {
+                AddressHistorySync.getRateLimiter(BitherUrl.BITHER_DNS.BITHER_BLOCKCHAIN_DOMAIN)
+                        .acquire();
+                BlockChainRawTxApi blockChainRawTxApi = new BlockChainRawTxApi(txHash);
+                blockChainRawTxApi.handleHttpGet();
+                rawTxs.add(Hex.decode(blockChainRawTxApi.getResult().trim()));
+            }
+            return rawTxs;
+        }
+    });
+
     /**
      *  TODO: get data from blockChain.info
      */
-    private  static List<Tx> getTransactionsFromBlockChain(
-            JSONObject jsonObject, int storeBlockHeight) throws Exception {
+    private static AddressHistorySync.HistoryPage getBlockChainPage(String address) throws
+            Exception {
+        final int storeBlockHeight = BlockChain.getInstance().getLastBlock().getBlockNo();
+        final List<String> hashes = new ArrayList<String>();
+        final List<Integer> heights = new ArrayList<Integer>();
+        BlockChainMytransactionsApi blockChainMytransactionsApi = new
+                BlockChainMytransactionsApi(address);
+        blockChainMytransactionsApi.handleHttpGet(new HttpClientPool.BodyReader() {
+            @Override
+            public void read(Reader reader) throws Exception {
+                TxHistoryReader.readBlockChain(reader, new TxHistoryReader.TxHashConsumer() {
+                    @Override
+                    public void onTxHash(int height, String txHash) {
+                        if (height > storeBlockHeight && storeBlockHeight > 0) {
+                            return;
+                        }
+                        hashes.add(txHash);
+                        heights.add(height);
+                    }
+                });
+            }
+        });
+        // the page only lists the txs, their raw bytes are fetched in parallel batches
+        Map<String, Tx> txs = blockChainRawTxFetcher.getTxs(hashes);
         List<Tx> transactions = new ArrayList<Tx>();
-        List<Block> blocks = AbstractDb.blockProvider.getAllBlocks();
-        Map<Integer, Integer> blockMapList = new HashMap<Integer, Integer>();
-        int minBlockNo = blocks.get(blocks.size() - 1).getBlockNo();
-        for (Block block : blocks) {
-            blockMapList.put(block.getBlockNo(), block.getBlockTime());
-            if (minBlockNo > block.getBlockNo()) {
-                minBlockNo = block.getBlockNo();
+        for (int i = 0; i < hashes.size(); i++) {
+            Tx tx = txs.get(hashes.get(i));
+            tx.setBlockNo(heights.get(i));
+            Integer time = blockTimeIndex.getTime(heights.get(i));
+            if (time != null) {
+                tx.setTxTime(time);
             }
+            transactions.add(tx);
         }
-
-        if (!jsonObject.isNull(BLOCK_CHAIN_TX)) {
-            JSONArray txsArray = jsonObject.getJSONArray(BLOCK_CHAIN_TXS);
-            for (int i = 0; i < txsArray.length(); i++) {
-                JSONObject txJSON = txsArray.getJSONObject(i);
-                if (!txJSON.has(BLOCK_CHAIN_BLOCK_HEIGHT)) {
-                    continue;
-                }
-                int height = txJSON.getInt(BLOCK_CHAIN_BLOCK_HEIGHT);
-                if (height > storeBlockHeight && storeBlockHeight > 0) {
-                    continue;
-                }
-                Integer timeKey = height;
-                if (height <= minBlockNo) {
-                    timeKey = minBlockNo;
-                }
-                // TODO: get single tx hex format data
-                int txIndex = txJSON.getInt(BLOCK_CHAIN_TX_INDEX);
-
-                String txHex = getTxHexByIndex(txIndex);
-
-                byte[] decodeTxHex = Hex.decode(txHex);
-                // byte[] txBytes = Base64.encode(decodeTxHex, Base64.DEFAULT);
-
-                Tx tx = new Tx(decodeTxHex);
-                tx.setBlockNo(height);
-
-                if (blockMapList.containsKey(timeKey)) {
-                    tx.setTxTime(blockMapList.get(timeKey));
-                }
-                transactions.add(tx);
-            }
+        // TODO: get the latest block number from blockChain.info
+        int apiBlockCount = 0;
+        JSONObject jsonObjectBlockChain = getLatestBlockNumberFromBlockchain();
+        if (!jsonObjectBlockChain.isNull(BLOCK_CHAIN_HEIGHT)) {
+            apiBlockCount = jsonObjectBlockChain.getInt(BLOCK_CHAIN_HEIGHT);
         }
-        return transactions;
-
-    }
-
-    private static String getTxHexByIndex(int txIndex) throws Exception {
-        BlockChainMytransactionsApi blockChainMytransactionsApi = new BlockChainMytransactionsApi(txIndex);
-        blockChainMytransactionsApi.handleHttpGet();
-        String rel = blockChainMytransactionsApi.getResult();
-        return rel;
+        return new AddressHistorySync.HistoryPage(transactions, apiBlockCount, true);
     }
     /**
      *  end
      */
 
 
-    private static List<Tx> getTransactionsFromBither(
-            JSONObject jsonObject, int storeBlockHeight) throws JSONException {
-        List<Tx> transactions = new ArrayList<Tx>();
-        List<Block> blocks = AbstractDb.blockProvider.getAllBlocks();
-        Map<Integer, Integer> blockMapList = new HashMap<Integer, Integer>();
-        int minBlockNo = blocks.get(blocks.size() - 1).getBlockNo();
-        for (Block block : blocks) {
-            blockMapList.put(block.getBlockNo(), block.getBlockTime());
-            if (minBlockNo > block.getBlockNo()) {
-                minBlockNo = block.getBlockNo();
-            }
-        }
-        if (!jsonObject.isNull(TX)) {
-            JSONArray txsArray = jsonObject.getJSONArray(TX);
-            for (int i = 0; i < txsArray.length(); i++) {
-                JSONArray txArray = txsArray.getJSONArray(i);
-                if (txArray.length() < 2) {
-                    continue;
-                }
-                int height = txArray.getInt(0);
-                if (height > storeBlockHeight && storeBlockHeight > 0) {
-                    continue;
-                }
-                String txString = txArray.getString(1);
-                byte[] txBytes = Base64.decode(txString, Base64.DEFAULT);
-                Tx tx = new Tx(txBytes);
-                tx.setBlockNo(height);
-                Integer timeKey = height;
-                if (height <= minBlockNo) {
-                    timeKey = minBlockNo;
-                }
-                if (blockMapList.containsKey(timeKey)) {
-                    tx.setTxTime(blockMapList.get(timeKey));
-                }
-                transactions.add(tx);
+    /**
+     * One page of the address's txs from bither.net, decoded tx by tx as the response arrives.
+     */
+    private static AddressHistorySync.HistoryPage getBitherPage(String address, int page) throws
+            Exception {
+        final int storeBlockHeight = BlockChain.getInstance().getLastBlock().getBlockNo();
+        final List<Tx> transactions = new ArrayList<Tx>();
+        final int[] apiBlockCount = new int[1];
+        BitherMytransactionsApi bitherMytransactionsApi = new BitherMytransactionsApi(address,
+                page);
+        bitherMytransactionsApi.handleHttpGet(new HttpClientPool.BodyReader() {
+            @Override
+            public void read(Reader reader) throws Exception {
+                apiBlockCount[0] = TxHistoryReader.readBither(reader, new TxHistoryReader
+                        .TxConsumer() {
+                    @Override
+                    public void onTx(int height, Tx tx) {
+                        if (height > storeBlockHeight && storeBlockHeight > 0) {
+                            return;
+                        }
+                        tx.setBlockNo(height);
+                        Integer time = blockTimeIndex.getTime(height);
+                        if (time != null) {
+                            tx.setTxTime(time);
+                        }
+                        transactions.add(tx);
+                    }
+                });
             }
-        }
-        return transactions;
-
+        });
+        return new AddressHistorySync.HistoryPage(transactions, apiBlockCount[0], false);
     }
 
     public static List<In> getInSignatureFromBither(String str) {
@@ -247,14 +239,16 @@ public class TransactionsUtil {
         if (AbstractApp.bitherjSetting.getAppMode() != BitherjSettings.AppMode.HOT) {
             return;
         }
+        // blocks may have been rolled back since the last sync
+        blockTimeIndex.invalidate();
         // TODO: web type
         int flag = AbstractApp.bitherjSetting.getApiConfig().value();
         getTxForAddress(flag);
         if (AddressManager.getInstance().getHDAccountHot() != null) {
-            getTxForHDAccount(AddressManager.getInstance().getHDAccountHot().getHdSeedId(), flag);
+            getTxForHDAccount(AddressManager.getInstance().getHDAccountHot(), flag);
         }
         if(AddressManager.getInstance().hasHDAccountMonitored()){
-            getTxForHDAccountMoitored(AddressManager.getInstance().getHDAccountMonitored().getHdSeedId(), flag);
+            getTxForHDAccount(AddressManager.getInstance().getHDAccountMonitored(), flag);
 
         }
         if (AddressManager.getInstance().hasDesktopHDMKeychain()) {
@@ -264,460 +258,194 @@ public class TransactionsUtil {
         }
 
     }
-    private static void getTxForHDAccountMoitored(int hdSeedId, final int webType) throws Exception {
-        for (AbstractHD.PathType pathType : AbstractHD.PathType.values()) {
-            HDAccount.HDAccountAddress hdAccountAddress;
-//            boolean hasTx = true;
-            int unusedAddressCnt = 0; //HDAccount.MaxUnusedNewAddressCount
-            int maxUnusedAddressCount = HDAccount.MaxUnusedNewAddressCount;
-            int addressIndex = 0;
-            while (unusedAddressCnt <= maxUnusedAddressCount) {
-                Block storedBlock = BlockChain.getInstance().getLastBlock();
-                int storeBlockHeight = storedBlock.getBlockNo();
-                hdAccountAddress = AbstractDb.hdAccountAddressProvider.addressForPath(hdSeedId,
-                        pathType, addressIndex);
-                if (hdAccountAddress == null) {
-//                    hasTx = false;
-                    unusedAddressCnt += 1;
-                    log.warn("hd monitor address is null path {} ,index {}", pathType, addressIndex);
-                    continue;
-                }
-                if (hdAccountAddress.isSyncedComplete()) {
-                    log.info("hd monitor address is synced path {} ,index {}, {}", pathType,
-                            addressIndex, hdAccountAddress.getAddress());
-                    addressIndex++;
-                    continue;
-                }
-
-                int apiBlockCount = 0;
-                int txSum = 0;
-                boolean needGetTxs = true;
-                int page = 1;
-
-                List<Tx> transactions;
-
-                log.info("hd monitor address will sync path {} ,index {}, {}", pathType, addressIndex, hdAccountAddress.getAddress());
-                while (needGetTxs) {
-                    // TODO: get data from bither.net else from blockchain.info
-                    if (webType == 0) {
-                        BitherMytransactionsApi bitherMytransactionsApi = new BitherMytransactionsApi(
-                                hdAccountAddress.getAddress(), page);
-                        bitherMytransactionsApi.handleHttpGet();
-                        String txResult = bitherMytransactionsApi.getResult();
-                        JSONObject jsonObject = new JSONObject(txResult);
-
-                        if (!jsonObject.isNull(BLOCK_COUNT)) {
-                            apiBlockCount = jsonObject.getInt(BLOCK_COUNT);
-                        }
-                        int txCnt = jsonObject.getInt(TX_CNT);
-                        // TODO: HDAccount
-                        transactions = TransactionsUtil.getTransactionsFromBither(jsonObject, storeBlockHeight);
-                        transactions = AddressManager.getInstance().compressTxsForHDAccount(transactions);
-
-                        Collections.sort(transactions, new ComparatorTx());
-                        // address.initTxs(transactions);
-                        AddressManager.getInstance().getHDAccountMonitored().initTxs(transactions);
-
-                        txSum = txSum + transactions.size();
-                        needGetTxs = transactions.size() > 0;
-                        page++;
-
-                    }else {
-                        BlockChainMytransactionsApi blockChainMytransactionsApi = new BlockChainMytransactionsApi(hdAccountAddress.getAddress());
-                        blockChainMytransactionsApi.handleHttpGet();
-                        String txResult = blockChainMytransactionsApi.getResult();
-                        JSONObject jsonObject = new JSONObject(txResult);
-                        // TODO: get the latest block number from blockChain.info
-                        JSONObject jsonObjectBlockChain = getLatestBlockNumberFromBlockchain();
-                        if (!jsonObjectBlockChain.isNull(BLOCK_CHAIN_HEIGHT)) {
-                            apiBlockCount = jsonObjectBlockChain.getInt(BLOCK_CHAIN_HEIGHT);
-                        }
-                        int txCnt = jsonObject.getInt(BLOCK_CHAIN_CNT);
-                        // TODO: get transactions from blockChain.info
-                        transactions = TransactionsUtil.getTransactionsFromBlockChain(jsonObject, storeBlockHeight);
-                        transactions = AddressManager.getInstance().compressTxsForHDAccount(transactions);
-
-                        Collections.sort(transactions, new ComparatorTx());
-                        // address.initTxs(transactions);
-                        AddressManager.getInstance().getHDAccountMonitored().initTxs(transactions);
-                        txSum = txSum + transactions.size();
-                        needGetTxs = false;
-
-                    }
-                }
-                /*
-                while (needGetTxs) {
-                    BitherMytransactionsApi bitherMytransactionsApi = new BitherMytransactionsApi(
-                            hdAccountAddress.getAddress(), page, flag);
-                    bitherMytransactionsApi.handleHttpGet();
-                    String txResult = bitherMytransactionsApi.getResult();
-                    JSONObject jsonObject = new JSONObject(txResult);
-                    if (!jsonObject.isNull(BLOCK_COUNT)) {
-                        apiBlockCount = jsonObject.getInt(BLOCK_COUNT);
-                    }
-                    int txCnt = jsonObject.getInt(TX_CNT);
-                    List<Tx> transactions = TransactionsUtil.getTransactionsFromBither(
-                            jsonObject, storeBlockHeight);
-                    transactions = AddressManager.getInstance().compressTxsForHDAccount(transactions);
-                    Collections.sort(transactions, new ComparatorTx());
-                    AddressManager.getInstance().getHDAccountMonitored().initTxs(transactions);
-                    txSum = txSum + transactions.size();
-                    needGetTxs = transactions.size() > 0;
-                    page++;
-                }
-                */
-                if (apiBlockCount < storeBlockHeight && storeBlockHeight - apiBlockCount < 100) {
-                    BlockChain.getInstance().rollbackBlock(apiBlockCount);
-                }
-
-                log.info("hd monitor address did sync {} tx, path {} ,index {}, {}", txSum, pathType, addressIndex, hdAccountAddress.getAddress());
-                hdAccountAddress.setSyncedComplete(true);
-                AddressManager.getInstance().getHDAccountMonitored().updateSyncComplete(hdAccountAddress);
-
-                if (txSum > 0) {
-                    if (pathType == AbstractHD.PathType.EXTERNAL_ROOT_PATH) {
-                        AddressManager.getInstance().getHDAccountMonitored().updateIssuedExternalIndex(addressIndex);
-                    } else {
-                        AddressManager.getInstance().getHDAccountMonitored().updateIssuedInternalIndex(addressIndex);
+    private static void getTxForHDAccount(final HDAccount account, final int webType) throws
+            Exception {
+        final int hdSeedId = account.getHdSeedId();
+        AddressHistorySync sync = newHistorySync(webType);
+        for (final AbstractHD.PathType pathType : AbstractHD.PathType.values()) {
+            final HashMap<Integer, HDAccount.HDAccountAddress> accountAddresses = new
+                    HashMap<Integer, HDAccount.HDAccountAddress>();
+            int addressIndex = sync.sync(new AddressHistorySync.AddressSource() {
+                @Override
+                public String getAddress(int index) {
+                    HDAccount.HDAccountAddress hdAccountAddress = AbstractDb
+                            .hdAccountAddressProvider.addressForPath(hdSeedId, pathType, index);
+                    if (hdAccountAddress == null) {
+                        log.warn("hd address is null path {} ,index {}", pathType, index);
+                        return null;
                     }
-                    AddressManager.getInstance().getHDAccountMonitored().supplyEnoughKeys(false);
-//                    hasTx = true;
-                    unusedAddressCnt = 0;
-                } else {
-//                    hasTx = false;
-                    unusedAddressCnt += 1;
+                    accountAddresses.put(index, hdAccountAddress);
+                    return hdAccountAddress.getAddress();
                 }
-                addressIndex++;
-            }
-            AbstractDb.hdAccountAddressProvider.updateSyncedForIndex(hdSeedId, pathType, addressIndex - 1);
-        }
-    }
 
-    private static void getTxForHDAccount(int hdSeedId, final int webType) throws Exception {
-        for (AbstractHD.PathType pathType : AbstractHD.PathType.values()) {
-            HDAccount.HDAccountAddress hdAccountAddress;
-//            boolean hasTx = true;
-            int unusedAddressCnt = 0; //HDAccount.MaxUnusedNewAddressCount
-            int maxUnusedAddressCount = HDAccount.MaxUnusedNewAddressCount;
-            int addressIndex = 0;
-            while (unusedAddressCnt <= maxUnusedAddressCount) {
-                Block storedBlock = BlockChain.getInstance().getLastBlock();
-                int storeBlockHeight = storedBlock.getBlockNo();
-                hdAccountAddress = AbstractDb.hdAccountAddressProvider.addressForPath(hdSeedId,
-                        pathType, addressIndex);
-                if (hdAccountAddress == null) {
-//                    hasTx = false;
-                    unusedAddressCnt += 1;
-                    log.warn("hd address is null path {} ,index {}", pathType, addressIndex);
-                    continue;
+                @Override
+                public boolean isSynced(int index) {
+                    return accountAddresses.get(index).isSyncedComplete();
                 }
-                if (hdAccountAddress.isSyncedComplete()) {
-                    log.info("hd address is synced path {} ,index {}, {}", pathType,
-                            addressIndex, hdAccountAddress.getAddress());
-                    addressIndex++;
-                    continue;
-                }
-                int apiBlockCount = 0;
-                int txSum = 0;
-                boolean needGetTxs = true;
-                int page = 1;
-                // TODO
-                List<Tx> transactions;
-
-
-                log.info("hd address will sync path {} ,index {}, {}", pathType, addressIndex, hdAccountAddress.getAddress());
-                while (needGetTxs) {
-                    // TODO: get data from bither.net else from blockchain.info
-                    if (webType == 0) {
-                        BitherMytransactionsApi bitherMytransactionsApi = new BitherMytransactionsApi(
-                                hdAccountAddress.getAddress(), page);
-                        bitherMytransactionsApi.handleHttpGet();
-                        String txResult = bitherMytransactionsApi.getResult();
-                        JSONObject jsonObject = new JSONObject(txResult);
-
-                        if (!jsonObject.isNull(BLOCK_COUNT)) {
-                            apiBlockCount = jsonObject.getInt(BLOCK_COUNT);
-                        }
-                        int txCnt = jsonObject.getInt(TX_CNT);
-                        transactions = TransactionsUtil.getTransactionsFromBither(jsonObject, storeBlockHeight);
-                        transactions = AddressManager.getInstance().compressTxsForHDAccount(transactions);
-
+            }, HDAccount.MaxUnusedNewAddressCount, new AddressHistorySync.Committer() {
+                @Override
+                public void commit(List<AddressHistorySync.AddressHistory> histories) throws
+                        Exception {
+                    boolean hasTx = false;
+                    for (AddressHistorySync.AddressHistory history : histories) {
+                        List<Tx> transactions = AddressManager.getInstance()
+                                .compressTxsForHDAccount(history.getTxs());
                         Collections.sort(transactions, new ComparatorTx());
-                        // address.initTxs(transactions);
-                        AddressManager.getInstance().getHDAccountHot().initTxs(transactions);
-                        txSum = txSum + transactions.size();
-                        needGetTxs = transactions.size() > 0;
-                        page++;
-
-                    }else {
-                        BlockChainMytransactionsApi blockChainMytransactionsApi = new BlockChainMytransactionsApi(hdAccountAddress.getAddress());
-                        blockChainMytransactionsApi.handleHttpGet();
-                        String txResult = blockChainMytransactionsApi.getResult();
-                        JSONObject jsonObject = new JSONObject(txResult);
-                        // TODO: get the latest block number from blockChain.info
-                        JSONObject jsonObjectBlockChain = getLatestBlockNumberFromBlockchain();
-                        if (!jsonObjectBlockChain.isNull(BLOCK_CHAIN_HEIGHT)) {
-                            apiBlockCount = jsonObjectBlockChain.getInt(BLOCK_CHAIN_HEIGHT);
+                        account.initTxs(transactions);
+                        rollbackIfApiBehind(history.getApiBlockCount());
+
+                        log.info("hd address did sync {} tx, path {} ,index {}, {}",
+                                transactions.size(), pathType, history.getIndex(), history
+                                        .getAddress());
+                        HDAccount.HDAccountAddress hdAccountAddress = accountAddresses.remove
+                                (history.getIndex());
+                        hdAccountAddress.setSyncedComplete(true);
+                        account.updateSyncComplete(hdAccountAddress);
+                        if (transactions.size() > 0) {
+                            if (pathType == AbstractHD.PathType.EXTERNAL_ROOT_PATH) {
+                                account.updateIssuedExternalIndex(history.getIndex());
+                            } else {
+                                account.updateIssuedInternalIndex(history.getIndex());
+                            }
+                            hasTx = true;
                         }
-                        int txCnt = jsonObject.getInt(BLOCK_CHAIN_CNT);
-                        // TODO: get transactions from blockChain.info
-                        transactions = TransactionsUtil.getTransactionsFromBlockChain(jsonObject, storeBlockHeight);
-                        transactions = AddressManager.getInstance().compressTxsForHDAccount(transactions);
-
-                        Collections.sort(transactions, new ComparatorTx());
-                        // address.initTxs(transactions);
-                        AddressManager.getInstance().getHDAccountHot().initTxs(transactions);
-                        txSum = txSum + transactions.size();
-                        needGetTxs = false;
-
-                    }
-                }
-                /*
-                while (needGetTxs) {
-                    BitherMytransactionsApi bitherMytransactionsApi = new BitherMytransactionsApi(
-                            hdAccountAddress.getAddress(), page, flag);
-                    bitherMytransactionsApi.handleHttpGet();
-                    String txResult = bitherMytransactionsApi.getResult();
-                    JSONObject jsonObject = new JSONObject(txResult);
-                    if (!jsonObject.isNull(BLOCK_COUNT)) {
-                        apiBlockCount = jsonObject.getInt(BLOCK_COUNT);
                     }
-                    int txCnt = jsonObject.getInt(TX_CNT);
-                    List<Tx> transactions = TransactionsUtil.getTransactionsFromBither(
-                            jsonObject, storeBlockHeight);
-                    transactions = AddressManager.getInstance().compressTxsForHDAccount(transactions);
-                    Collections.sort(transactions, new ComparatorTx());
-                    AddressManager.getInstance().getHDAccountHot().initTxs(transactions);
-                    txSum = txSum + transactions.size();
-                    needGetTxs = transactions.size() > 0;
-                    page++;
-                }
-                */
-                if (apiBlockCount < storeBlockHeight && storeBlockHeight - apiBlockCount < 100) {
-                    BlockChain.getInstance().rollbackBlock(apiBlockCount);
-                }
-
-                log.info("hd address did sync {} tx, path {} ,index {}, {}", txSum, pathType, addressIndex, hdAccountAddress.getAddress());
-                hdAccountAddress.setSyncedComplete(true);
-                AddressManager.getInstance().getHDAccountHot().updateSyncComplete(hdAccountAddress);
-
-                if (txSum > 0) {
-                    if (pathType == AbstractHD.PathType.EXTERNAL_ROOT_PATH) {
-                        AddressManager.getInstance().getHDAccountHot().updateIssuedExternalIndex(addressIndex);
-                    } else {
-                        AddressManager.getInstance().getHDAccountHot().updateIssuedInternalIndex(addressIndex);
+                    if (hasTx) {
+                        account.supplyEnoughKeys(false);
                     }
-                    AddressManager.getInstance().getHDAccountHot().supplyEnoughKeys(false);
-//                    hasTx = true;
-                    unusedAddressCnt = 0;
-                } else {
-//                    hasTx = false;
-                    unusedAddressCnt += 1;
                 }
-                addressIndex++;
-            }
-            AbstractDb.hdAccountAddressProvider.updateSyncedForIndex(hdSeedId, pathType, addressIndex - 1);
+            });
+            AbstractDb.hdAccountAddressProvider.updateSyncedForIndex(hdSeedId, pathType,
+                    addressIndex - 1);
         }
     }
 
-    private static void getTxForDesktopHDM(DesktopHDMKeychain desktopHDMKeychain, final int webType) throws Exception {
-        for (AbstractHD.PathType pathType : AbstractHD.PathType.values()) {
-            DesktopHDMAddress desktopHDMAddress;
-            boolean hasTx = true;
-            int addressIndex = 0;
-            while (hasTx) {
-                Block storedBlock = BlockChain.getInstance().getLastBlock();
-                int storeBlockHeight = storedBlock.getBlockNo();
-                desktopHDMAddress = AbstractDb.desktopTxProvider.addressForPath(desktopHDMKeychain,
-                        pathType, addressIndex);
-                if (desktopHDMAddress == null) {
-                    hasTx = false;
-                    log.warn("AccountAddress", "address is null path {} ,index {}", pathType, addressIndex);
-                    continue;
-                }
-                if (desktopHDMAddress.isSyncComplete()) {
-                    addressIndex++;
-                    continue;
+    private static void getTxForDesktopHDM(final DesktopHDMKeychain desktopHDMKeychain, final int
+            webType) throws Exception {
+        AddressHistorySync sync = newHistorySync(webType);
+        for (final AbstractHD.PathType pathType : AbstractHD.PathType.values()) {
+            final HashMap<Integer, DesktopHDMAddress> desktopHDMAddresses = new HashMap<Integer,
+                    DesktopHDMAddress>();
+            // a desktop HDM chain ends at its first address without txs
+            sync.sync(new AddressHistorySync.AddressSource() {
+                @Override
+                public String getAddress(int index) {
+                    DesktopHDMAddress desktopHDMAddress = AbstractDb.desktopTxProvider
+                            .addressForPath(desktopHDMKeychain, pathType, index);
+                    if (desktopHDMAddress == null) {
+                        log.warn("desktop hdm address is null path {} ,index {}", pathType,
+                                index);
+                        return null;
+                    }
+                    desktopHDMAddresses.put(index, desktopHDMAddress);
+                    return desktopHDMAddress.getAddress();
                 }
-                int apiBlockCount = 0;
-                int txSum = 0;
-                boolean needGetTxs = true;
-                int page = 1;
-                // TODO
-                List<Tx> transactions;
-
-                while (needGetTxs) {
-                    // TODO: get data from bither.net else from blockchain.info
-                    if (webType == 0) {
-                        BitherMytransactionsApi bitherMytransactionsApi = new BitherMytransactionsApi(
-                                desktopHDMAddress.getAddress(), page);
-                        bitherMytransactionsApi.handleHttpGet();
-                        String txResult = bitherMytransactionsApi.getResult();
-                        JSONObject jsonObject = new JSONObject(txResult);
-
-                        if (!jsonObject.isNull(BLOCK_COUNT)) {
-                            apiBlockCount = jsonObject.getInt(BLOCK_COUNT);
-                        }
-                        int txCnt = jsonObject.getInt(TX_CNT);
-                        transactions = TransactionsUtil.getTransactionsFromBither(jsonObject, storeBlockHeight);
-                        transactions = AddressManager.getInstance().compressTxsForDesktopHDM(transactions);
 
+                @Override
+                public boolean isSynced(int index) {
+                    return desktopHDMAddresses.get(index).isSyncComplete();
+                }
+            }, 0, new AddressHistorySync.Committer() {
+                @Override
+                public void commit(List<AddressHistorySync.AddressHistory> histories) throws
+                        Exception {
+                    boolean hasTx = false;
+                    for (AddressHistorySync.AddressHistory history : histories) {
+                        List<Tx> transactions = AddressManager.getInstance()
+                                .compressTxsForDesktopHDM(history.getTxs());
                         Collections.sort(transactions, new ComparatorTx());
-                        // address.initTxs(transactions);
                         desktopHDMKeychain.initTxs(transactions);
-                        txSum = txSum + transactions.size();
-                        needGetTxs = transactions.size() > 0;
-                        page++;
-
-                    }else {
-                        BlockChainMytransactionsApi blockChainMytransactionsApi = new BlockChainMytransactionsApi(desktopHDMAddress.getAddress());
-                        blockChainMytransactionsApi.handleHttpGet();
-                        String txResult = blockChainMytransactionsApi.getResult();
-                        JSONObject jsonObject = new JSONObject(txResult);
-                        // TODO: get the latest block number from blockChain.info
-                        JSONObject jsonObjectBlockChain = getLatestBlockNumberFromBlockchain();
-                        if (!jsonObjectBlockChain.isNull(BLOCK_CHAIN_HEIGHT)) {
-                            apiBlockCount = jsonObjectBlockChain.getInt(BLOCK_CHAIN_HEIGHT);
+                        rollbackIfApiBehind(history.getApiBlockCount());
+
+                        DesktopHDMAddress desktopHDMAddress = desktopHDMAddresses.remove(history
+                                .getIndex());
+                        desktopHDMAddress.setSyncComplete(true);
+                        desktopHDMKeychain.updateSyncComplete(desktopHDMAddress);
+                        if (transactions.size() > 0) {
+                            if (pathType == AbstractHD.PathType.EXTERNAL_ROOT_PATH) {
+                                desktopHDMKeychain.updateIssuedExternalIndex(history.getIndex());
+                            } else {
+                                desktopHDMKeychain.updateIssuedInternalIndex(history.getIndex());
+                            }
+                            hasTx = true;
+                        } else {
+                            AbstractDb.desktopTxProvider.updateSyncdForIndex(pathType, history
+                                    .getIndex());
                         }
-                        int txCnt = jsonObject.getInt(BLOCK_CHAIN_CNT);
-                        // TODO: get transactions from blockChain.info
-                        transactions = TransactionsUtil.getTransactionsFromBlockChain(jsonObject, storeBlockHeight);
-                        transactions = AddressManager.getInstance().compressTxsForDesktopHDM(transactions);
-
-                        Collections.sort(transactions, new ComparatorTx());
-                        // address.initTxs(transactions);
-                        desktopHDMKeychain.initTxs(transactions);
-                        txSum = txSum + transactions.size();
-                        needGetTxs = false;
-
-                    }
-                }
-                /*
-                while (needGetTxs) {
-                    BitherMytransactionsApi bitherMytransactionsApi = new BitherMytransactionsApi(
-                            desktopHDMAddress.getAddress(), page, flag);
-                    bitherMytransactionsApi.handleHttpGet();
-                    String txResult = bitherMytransactionsApi.getResult();
-                    JSONObject jsonObject = new JSONObject(txResult);
-                    if (!jsonObject.isNull(BLOCK_COUNT)) {
-                        apiBlockCount = jsonObject.getInt(BLOCK_COUNT);
                     }
-                    int txCnt = jsonObject.getInt(TX_CNT);
-                    List<Tx> transactions = TransactionsUtil.getTransactionsFromBither(
-                            jsonObject, storeBlockHeight);
-                    transactions = AddressManager.getInstance().compressTxsForDesktopHDM(transactions);
-                    Collections.sort(transactions, new ComparatorTx());
-                    desktopHDMKeychain.initTxs(transactions);
-                    txSum = txSum + transactions.size();
-                    needGetTxs = transactions.size() > 0;
-                    page++;
-                }
-                */
-                if (apiBlockCount < storeBlockHeight && storeBlockHeight - apiBlockCount < 100) {
-                    BlockChain.getInstance().rollbackBlock(apiBlockCount);
-                }
-
-                desktopHDMAddress.setSyncComplete(true);
-                desktopHDMKeychain.updateSyncComplete(desktopHDMAddress);
-
-                if (txSum > 0) {
-                    if (pathType == AbstractHD.PathType.EXTERNAL_ROOT_PATH) {
-                        desktopHDMKeychain.updateIssuedExternalIndex(addressIndex);
-                    } else {
-                        desktopHDMKeychain.updateIssuedInternalIndex(addressIndex);
+                    if (hasTx) {
+                        desktopHDMKeychain.supplyEnoughKeys(false);
                     }
-                    desktopHDMKeychain.supplyEnoughKeys(false);
-                    hasTx = true;
-                } else {
-                    hasTx = false;
-                    AbstractDb.desktopTxProvider.updateSyncdForIndex(pathType, addressIndex);
                 }
-            }
-            addressIndex++;
+            });
         }
-
-
     }
 
     private static void getTxForAddress(final int webType) throws Exception {
+        final List<Address> addresses = new ArrayList<Address>();
+        List<String> addressStrings = new ArrayList<String>();
         for (Address address : AddressManager.getInstance().getAllAddresses()) {
-            Block storedBlock = BlockChain.getInstance().getLastBlock();
-            int storeBlockHeight = storedBlock.getBlockNo();
             if (!address.isSyncComplete()) {
-                int apiBlockCount = 0;
-                int txSum = 0;
-                boolean needGetTxs = true;
-                int page = 1;
-                // TODO
-                List<Tx> transactions = new ArrayList<Tx>();
-
-                while (needGetTxs) {
-
-                    // TODO: get data from bither.net else from blockchain.info
-                    if (webType == 0) {
-                        BitherMytransactionsApi bitherMytransactionsApi = new BitherMytransactionsApi(
-                                address.getAddress(), page);
-                        bitherMytransactionsApi.handleHttpGet();
-                        String txResult = bitherMytransactionsApi.getResult();
-                        JSONObject jsonObject = new JSONObject(txResult);
-
-                        if (!jsonObject.isNull(BLOCK_COUNT)) {
-                            apiBlockCount = jsonObject.getInt(BLOCK_COUNT);
-                        }
-                        int txCnt = jsonObject.getInt(TX_CNT);
-                        transactions = TransactionsUtil.getTransactionsFromBither(jsonObject, storeBlockHeight);
-                        transactions = AddressManager.getInstance().compressTxsForApi(transactions, address);
-
-                        Collections.sort(transactions, new ComparatorTx());
-                        address.initTxs(transactions);
-                        txSum = txSum + transactions.size();
-                        needGetTxs = transactions.size() > 0;
-                        page++;
-
-                    }else {
-                        BlockChainMytransactionsApi blockChainMytransactionsApi = new BlockChainMytransactionsApi(address.getAddress());
-                        blockChainMytransactionsApi.handleHttpGet();
-                        String txResult = blockChainMytransactionsApi.getResult();
-                        JSONObject jsonObject = new JSONObject(txResult);
-                        // TODO: get the latest block number from blockChain.info
-                        JSONObject jsonObjectBlockChain = getLatestBlockNumberFromBlockchain();
-                        if (!jsonObjectBlockChain.isNull(BLOCK_CHAIN_HEIGHT)) {
-                            apiBlockCount = jsonObjectBlockChain.getInt(BLOCK_CHAIN_HEIGHT);
-                        }
-                        int txCnt = jsonObject.getInt(BLOCK_CHAIN_CNT);
-                        // TODO: get transactions from blockChain.info
-                        transactions = TransactionsUtil.getTransactionsFromBlockChain(jsonObject, storeBlockHeight);
-                        transactions = AddressManager.getInstance().compressTxsForApi(transactions, address);
-
-                        Collections.sort(transactions, new ComparatorTx());
-                        address.initTxs(transactions);
-                        txSum = txSum + transactions.size();
-                        needGetTxs = false;
-
-                    }
-                    /*
+                addresses.add(address);
+                addressStrings.add(address.getAddress());
+            }
+        }
+        if (addresses.size() == 0) {
+            return;
+        }
+        newHistorySync(webType).sync(addressStrings, new AddressHistorySync.Committer() {
+            @Override
+            public void commit(List<AddressHistorySync.AddressHistory> histories) throws
+                    Exception {
+                for (AddressHistorySync.AddressHistory history : histories) {
+                    Address address = addresses.get(history.getIndex());
+                    List<Tx> transactions = AddressManager.getInstance().compressTxsForApi
+                            (history.getTxs(), address);
                     Collections.sort(transactions, new ComparatorTx());
                     address.initTxs(transactions);
-                    txSum = txSum + transactions.size();
-                    needGetTxs = transactions.size() > 0;
-                    page++;
-                    */
+                    rollbackIfApiBehind(history.getApiBlockCount());
+
+                    address.setSyncComplete(true);
+                    if (address instanceof HDMAddress) {
+                        HDMAddress hdmAddress = (HDMAddress) address;
+                        hdmAddress.updateSyncComplete();
+                    } else {
+                        address.updateSyncComplete();
+                    }
                 }
+            }
+        });
+    }
 
-                if (apiBlockCount < storeBlockHeight && storeBlockHeight - apiBlockCount < 100) {
-                    BlockChain.getInstance().rollbackBlock(apiBlockCount);
+    /**
+     * The pages of an address's history from bither.net, or in one go from blockchain.info.
+     */
+    private static AddressHistorySync newHistorySync(final int webType) {
+        if (webType == 0) {
+            return new AddressHistorySync(new AddressHistorySync.PageSource() {
+                @Override
+                public AddressHistorySync.HistoryPage getPage(String address, int page) throws
+                        Exception {
+                    return getBitherPage(address, page);
                 }
-                address.setSyncComplete(true);
-                if (address instanceof HDMAddress) {
-                    HDMAddress hdmAddress = (HDMAddress) address;
-                    hdmAddress.
-                            updateSyncComplete();
-                } else {
-                    address.updateSyncComplete();
+            }, BitherUrl.BITHER_DNS.BITHER_BITCOIN_DOMAIN);
+        } else {
+            return new AddressHistorySync(new AddressHistorySync.PageSource() {
+                @Override
+                public AddressHistorySync.HistoryPage getPage(String address, int page) throws
+                        Exception {
+                    return getBlockChainPage(address);
                 }
-            }
+            }, BitherUrl.BITHER_DNS.BITHER_BLOCKCHAIN_DOMAIN);
         }
+    }
 
+    private static void rollbackIfApiBehind(int apiBlockCount) {
+        int storeBlockHeight = BlockChain.getInstance().getLastBlock().getBlockNo();
+        if (apiBlockCount < storeBlockHeight && storeBlockHeight - apiBlockCount < 100) {
+            BlockChain.getInstance().rollbackBlock(apiBlockCount);
+            blockTimeIndex.invalidate();
+        }
     }
 
     // TODO: get the latest block info of JSON format from blockChain.info
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bither.bitherj.utils;
+
+import net.bither.bitherj.core.Tx;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.Reader;
+
+/**
+ * Decodes tx history pages straight from the response stream. Only the value of one entry of
+ * the tx list is held at a time; it is turned into a {@link Tx}, or a hash for apis that only
+ * list them, and handed over before the next one is read, so neither the body nor a json tree of
+ * the page is ever in memory as a whole.
+ */
+public class TxHistoryReader {
+    private static final String BITHER_TX = "tx";
+    private static final String BITHER_BLOCK_COUNT = "block_count";
+    private static final String BLOCK_CHAIN_TXS = "txs";
+    private static final String BLOCK_CHAIN_BLOCK_HEIGHT = "block_height";
+    private static final String BLOCK_CHAIN_HASH = "hash";
+
+    public interface TxConsumer {
+        void onTx(int height, Tx tx) throws Exception;
+    }
+
+    public interface TxHashConsumer {
+        void onTxHash(int height, String txHash) throws Exception;
+    }
+
+    private interface FieldReader {
+        void read(String key, JSONTokener x) throws Exception;
+    }
+
+    private interface ElementReader {
+        void read(Object element) throws Exception;
+    }
+
+    /**
+     * Reads a bither.net page, {"block_count":..., "tx":[[height, base64 tx], ...]}, and returns
+     * its block count, 0 when it has none.
+     */
+    public static int readBither(Reader reader, final TxConsumer consumer) throws Exception {
+        final int[] blockCount = new int[1];
+        readObject(new JSONTokener(reader), new FieldReader() {
+            @Override
+            public void read(String key, JSONTokener x) throws Exception {
+                if (BITHER_TX.equals(key)) {
+                    readArray(x, new ElementReader() {
+                        @Override
+                        public void read(Object element) throws Exception {
+                            if (!(element instanceof JSONArray)) {
+                                return;
+                            }
+                            JSONArray txArray = (JSONArray) element;
+                            if (txArray.length() < 2) {
+                                return;
+                            }
+                            Tx tx = new Tx(Base64.decode(txArray.getString(1), Base64.DEFAULT));
+                            consumer.onTx(txArray.getInt(0), tx);
+                        }
+                    });
+                } else if (BITHER_BLOCK_COUNT.equals(key)) {
+                    Object value = x.nextValue();
+                    if (value instanceof Number) {
+                        blockCount[0] = ((Number) value).intValue();
+                    }
+                } else {
+                    x.nextValue();
+                }
+            }
+        });
+        return blockCount[0];
+    }
+
+    /**
+     * Reads a blockchain.info address page, {"txs":[{"hash":..., "block_height":...}, ...]},
+     * skipping the txs that are not in a block yet.
+     */
+    public static void readBlockChain(Reader reader, final TxHashConsumer consumer) throws
+            Exception {
+        readObject(new JSONTokener(reader), new FieldReader() {
+            @Override
+            public void read(String key, JSONTokener x) throws Exception {
+                if (BLOCK_CHAIN_TXS.equals(key)) {
+                    readArray(x, new ElementReader() {
+                        @Override
+                        public void read(Object element) throws Exception {
+                            if (!(element instanceof JSONObject)) {
+                                return;
+                            }
+                            JSONObject txJSON = (JSONObject) element;
+                            if (!txJSON.has(BLOCK_CHAIN_BLOCK_HEIGHT)) {
+                                return;
+                            }
+                            consumer.onTxHash(txJSON.getInt(BLOCK_CHAIN_BLOCK_HEIGHT), txJSON
+                                    .getString(BLOCK_CHAIN_HASH));
+                        }
+                    });
+                } else {
+                    x.nextValue();
+                }
+            }
+        });
+    }
+
+    private static void readObject(JSONTokener x, FieldReader fieldReader) throws Exception {
+        if (x.nextClean() != '{') {
+            throw x.syntaxError("A JSONObject text must begin with '{'");
+        }
+        while (true) {
+            char c = x.nextClean();
+            if (c == '}') {
+                return;
+            }
+            if (c != '"' && c != '\'') {
+                throw x.syntaxError("Expected a key");
+            }
+            String key = x.nextString(c);
+            if (x.nextClean() != ':') {
+                throw x.syntaxError("Expected a ':' after a key");
+            }
+            fieldReader.read(key, x);
+            c = x.nextClean();
+            if (c == '}') {
+                return;
+            }
+            if (c != ',') {
+                throw x.syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+
+    /**
+     * Reads an array one element at a time; a null instead of the array reads as empty.
+     */
+    private static void readArray(JSONTokener x, ElementReader elementReader) throws Exception {
+        char c = x.nextClean();
+        if (c != '[') {
+            x.back();
+            if (x.nextValue() == JSONObject.NULL) {
+                return;
+            }
+            throw x.syntaxError("A JSONArray text must start with '['");
+        }
+        if (x.nextClean() == ']') {
+            return;
+        }
+        x.back();
+        while (true) {
+            elementReader.read(x.nextValue());
+            c = x.nextClean();
+            if (c == ']') {
+                return;
+            }
+            if (c != ',') {
+                throw x.syntaxError("Expected a ',' or ']'");
+            }
+        }
+    }
+}
@@ -42,8 +42,6 @@ import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -72,15 +70,6 @@ public class Utils {
 
 
     public static final BigInteger NEGATIVE_ONE = BigInteger.valueOf(-1);
-    private static final MessageDigest digest;
-
-    static {
-        try {
-            digest = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);  // Can't happen.
-        }
-    }
 
     public static long longHash(@Nonnull final byte[] bytes) {
 
@@ -218,22 +207,14 @@ public class Utils {
      * Calculates the SHA-256 hash of the given byte range, and then hashes the resulting hash
      * again. This is
      * standard procedure in Bitcoin. The resulting hash is in big endian form.
+     * Uses a per-thread digest, see {@link Sha256Hasher}.
      */
     public static byte[] doubleDigest(byte[] input, int offset, int length) {
-        synchronized (digest) {
-            digest.reset();
-            digest.update(input, offset, length);
-            byte[] first = digest.digest();
-            return digest.digest(first);
-        }
+        return Sha256Hasher.doubleDigest(input, offset, length);
     }
 
     public static byte[] singleDigest(byte[] input, int offset, int length) {
-        synchronized (digest) {
-            digest.reset();
-            digest.update(input, offset, length);
-            return digest.digest();
-        }
+        return Sha256Hasher.singleDigest(input, offset, length);
     }
 
     /**
@@ -241,13 +222,8 @@ public class Utils {
      */
     public static byte[] doubleDigestTwoBuffers(byte[] input1, int offset1, int length1,
                                                 byte[] input2, int offset2, int length2) {
-        synchronized (digest) {
-            digest.reset();
-            digest.update(input1, offset1, length1);
-            digest.update(input2, offset2, length2);
-            byte[] first = digest.digest();
-            return digest.digest(first);
-        }
+        return Sha256Hasher.doubleDigestTwoBuffers(input1, offset1, length1, input2, offset2,
+                length2);
     }
 
     /**
@@ -346,16 +322,12 @@ public class Utils {
      * Calculates RIPEMD160(SHA256(input)). This is used in Address calculations.
      */
     public static byte[] sha256hash160(byte[] input) {
-        try {
-            byte[] sha256 = MessageDigest.getInstance("SHA-256").digest(input);
-            RIPEMD160Digest digest = new RIPEMD160Digest();
-            digest.update(sha256, 0, sha256.length);
-            byte[] out = new byte[20];
-            digest.doFinal(out, 0);
-            return out;
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);  // Cannot happen.
-        }
+        byte[] sha256 = Sha256Hasher.singleDigest(input, 0, input.length);
+        RIPEMD160Digest digest = new RIPEMD160Digest();
+        digest.update(sha256, 0, sha256.length);
+        byte[] out = new byte[20];
+        digest.doFinal(out, 0);
+        return out;
     }
 
     /**
@@ -698,13 +670,7 @@ public class Utils {
 
         int version = BitherjSettings.addressHeader;
         checkArgument(version < 256 && version >= 0);
-
-        byte[] addressBytes = new byte[1 + pubKeyHash.length + 4];
-        addressBytes[0] = (byte) version;
-        System.arraycopy(pubKeyHash, 0, addressBytes, 1, pubKeyHash.length);
-        byte[] check = Utils.doubleDigest(addressBytes, 0, pubKeyHash.length + 1);
-        System.arraycopy(check, 0, addressBytes, pubKeyHash.length + 1, 4);
-        return Base58.encode(addressBytes);
+        return Base58.encodeChecked(version, pubKeyHash);
     }
 
     public static String toP2SHAddress(byte[] pubKeyHash) {
@@ -713,13 +679,7 @@ public class Utils {
 
         int version = BitherjSettings.p2shHeader;
         checkArgument(version < 256 && version >= 0);
-
-        byte[] addressBytes = new byte[1 + pubKeyHash.length + 4];
-        addressBytes[0] = (byte) version;
-        System.arraycopy(pubKeyHash, 0, addressBytes, 1, pubKeyHash.length);
-        byte[] check = Utils.doubleDigest(addressBytes, 0, pubKeyHash.length + 1);
-        System.arraycopy(check, 0, addressBytes, pubKeyHash.length + 1, 4);
-        return Base58.encode(addressBytes);
+        return Base58.encodeChecked(version, pubKeyHash);
     }
 
     public static int getAddressHeader(String address) throws AddressFormatException {
@@ -0,0 +1,186 @@
+package net.bither.bitherj.api.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpClientPoolTest {
+    private HttpServer server;
+    private String base;
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private final List<String> acceptEncodings = Collections.synchronizedList(new
+            ArrayList<String>());
+    private final List<String> cookies = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws IOException {
+        // otherwise the stub's small writes on a kept alive connection wait for delayed acks
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                acceptEncodings.add(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+                cookies.add(exchange.getRequestHeaders().getFirst("Cookie"));
+                String path = exchange.getRequestURI().getPath();
+                byte[] body = ("{\"path\":\"" + path + "\"}\n").getBytes("utf-8");
+                int code = 200;
+                if (path.startsWith("/status/")) {
+                    code = Integer.parseInt(path.substring("/status/".length()));
+                } else if (path.startsWith("/gzip")) {
+                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                    GZIPOutputStream gzip = new GZIPOutputStream(bos);
+                    gzip.write(body);
+                    gzip.close();
+                    body = bos.toByteArray();
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                } else if (path.startsWith("/cookie")) {
+                    exchange.getResponseHeaders().set("Set-Cookie", "session=1; Path=/");
+                }
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                exchange.sendResponseHeaders(code, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+        HttpClientPool.resetEndpointStats();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionsKeptAlive() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            assertEquals("{\"path\":\"/api/v1/" + i + "\"}", get(base + "/api/v1/" + i));
+        }
+        assertEquals(1, clientPorts.size());
+
+        HttpClientPool.EndpointStats stats = HttpClientPool.getEndpointStats().get("127.0.0" +
+                ".1/api/v1/*");
+        assertEquals(50, stats.getRequestCount());
+        assertEquals(0, stats.getErrorCount());
+    }
+
+    @Test
+    public void testConcurrentCallsBounded() throws Exception {
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < HttpClientPool.MaxConnectionsPerRoute * 2; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 10; i++) {
+                            get(base + "/rawtx/" + Integer.toHexString(0x10000000 + i));
+                        }
+                    } catch (Exception e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(clientPorts.size() <= HttpClientPool.MaxConnectionsPerRoute);
+        assertEquals(HttpClientPool.MaxConnectionsPerRoute * 2 * 10, HttpClientPool
+                .getEndpointStats().get("127.0.0.1/rawtx/*").getRequestCount());
+    }
+
+    @Test
+    public void testGzipDecoded() throws Exception {
+        assertEquals("{\"path\":\"/gzip\"}", get(base + "/gzip"));
+        assertTrue(acceptEncodings.get(0).contains("gzip"));
+    }
+
+    @Test
+    public void testNoCookiesKeptForOtherApi() throws Exception {
+        get(base + "/cookie");
+        get(base + "/cookie");
+        assertEquals(2, cookies.size());
+        assertNull(cookies.get(1));
+    }
+
+    @Test
+    public void testErrorsCounted() throws Exception {
+        try {
+            get(base + "/status/500");
+            fail();
+        } catch (Http500Exception e) {
+            assertTrue(e.getMessage().startsWith("500:"));
+        }
+        try {
+            new HttpsGetResponse<String>() {
+                {
+                    setUrl(base + "/status/404");
+                }
+
+                @Override
+                public void setResult(String response) {
+                    this.result = response;
+                }
+            }.handleHttpGet();
+            fail();
+        } catch (HttpException e) {
+            assertTrue(e.getMessage().startsWith("404,"));
+        }
+        assertEquals(2, HttpClientPool.getEndpointStats().get("127.0.0.1/status/*")
+                .getErrorCount());
+        assertEquals(2, HttpClientPool.getEndpointStats().get("127.0.0.1/status/*")
+                .getRequestCount());
+    }
+
+    private static String get(String url) throws Exception {
+        StubApi api = new StubApi(url);
+        api.handleHttpGet();
+        return api.getResult();
+    }
+
+    private static class StubApi extends HttpGetResponse<String> {
+        StubApi(String url) {
+            setUrl(url);
+            setHttpType(HttpSetting.HttpType.OtherApi);
+        }
+
+        @Override
+        public void setResult(String response) {
+            this.result = response;
+        }
+    }
+}
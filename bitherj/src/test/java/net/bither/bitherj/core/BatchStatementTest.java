@@ -0,0 +1,201 @@
+package net.bither.bitherj.core;
+
+import com.google.common.base.Function;
+
+import net.bither.bitherj.db.imp.AbstractBlockProvider;
+import net.bither.bitherj.db.imp.base.IBatchDb;
+import net.bither.bitherj.db.imp.base.ICursor;
+import net.bither.bitherj.db.imp.base.IDb;
+import net.bither.bitherj.db.imp.base.IStatement;
+import net.bither.bitherj.utils.Base58;
+import net.bither.bitherj.utils.Utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchStatementTest {
+
+    @Test
+    public void testFallbackRunsOneUpdatePerRow() {
+        RecordingDb db = new RecordingDb();
+        new BlockProvider(db).addBlocks(blocks(3));
+        assertEquals(3, db.updates.size());
+        assertEquals("begin", db.events.get(0));
+        assertEquals("end", db.events.get(db.events.size() - 1));
+        assertTrue(db.sql.get(0).startsWith("insert or ignore into blocks"));
+        String[] params = db.updates.get(1);
+        assertEquals("101", params[0]);
+        assertEquals(Base58.encode(blocks(3).get(1).getBlockHash()), params[1]);
+        assertEquals("1", params[8]);
+    }
+
+    @Test
+    public void testBatchDbCompilesOnce() {
+        RecordingBatchDb db = new RecordingBatchDb();
+        new BlockProvider(db).addBlocks(blocks(1000));
+        assertEquals(1, db.statements.size());
+        RecordingStatement statement = db.statements.get(0);
+        assertEquals(1000, statement.rows);
+        assertEquals(1, statement.batches);
+        assertTrue(statement.closed);
+        assertEquals(0, db.updates.size());
+        assertEquals(Long.valueOf(1099), statement.lastLongs.get(0));
+    }
+
+    @Test
+    public void testFallbackInlinesBlobs() {
+        RecordingDb db = new RecordingDb();
+        IStatement statement = new BlockProvider(db).compileStatement(db, "insert into t " +
+                "values (?, '?', ?, ?)");
+        statement.bindLong(1, 7);
+        statement.bindBlob(2, new byte[]{0x01, (byte) 0xab});
+        statement.bindString(3, "a");
+        statement.addBatch();
+        statement.bindBlob(2, null);
+        statement.executeUpdate();
+        statement.executeBatch();
+        assertEquals("insert into t values (?, '?', ?, ?)", db.sql.get(0));
+        assertArrayEquals(new String[]{"7", null, "a"}, db.updates.get(0));
+        // the quoted ? is no param
+        assertEquals("insert into t values (?, '?', x'01AB', ?)", db.sql.get(1));
+        assertArrayEquals(new String[]{"7", "a"}, db.updates.get(1));
+    }
+
+    private static List<Block> blocks(int count) {
+        List<Block> blocks = new ArrayList<Block>();
+        for (int i = 0; i < count; i++) {
+            byte[] hash = new byte[32];
+            hash[0] = (byte) i;
+            hash[1] = (byte) (i >> 8);
+            Block block = new Block(1, Utils.bytesToHexString(new byte[32]), Utils
+                    .bytesToHexString(hash), 0, 0, 0, 100 + i);
+            block.setBlockHash(hash);
+            block.setMain(true);
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    private static class BlockProvider extends AbstractBlockProvider {
+        private final IDb db;
+
+        BlockProvider(IDb db) {
+            this.db = db;
+        }
+
+        @Override
+        public IDb getReadDb() {
+            return db;
+        }
+
+        @Override
+        public IDb getWriteDb() {
+            return db;
+        }
+    }
+
+    private static class RecordingDb implements IDb {
+        final List<String> events = new ArrayList<String>();
+        final List<String> sql = new ArrayList<String>();
+        final List<String[]> updates = new ArrayList<String[]>();
+
+        @Override
+        public void beginTransaction() {
+            events.add("begin");
+        }
+
+        @Override
+        public void endTransaction() {
+            events.add("end");
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void execUpdate(String sql, String[] params) {
+            events.add("update");
+            this.sql.add(sql);
+            updates.add(params);
+        }
+
+        @Override
+        public void execQueryOneRecord(String sql, String[] params, Function<ICursor, Void>
+                func) {
+        }
+
+        @Override
+        public void execQueryLoop(String sql, String[] params, Function<ICursor, Void> func) {
+        }
+    }
+
+    private static class RecordingBatchDb extends RecordingDb implements IBatchDb {
+        final List<RecordingStatement> statements = new ArrayList<RecordingStatement>();
+
+        @Override
+        public IStatement compileStatement(String sql) {
+            RecordingStatement statement = new RecordingStatement();
+            statements.add(statement);
+            return statement;
+        }
+    }
+
+    private static class RecordingStatement implements IStatement {
+        final List<Long> lastLongs = new ArrayList<Long>();
+        int rows;
+        int batches;
+        boolean closed;
+
+        @Override
+        public void bindString(int index, String value) {
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            if (index == 1) {
+                lastLongs.clear();
+            }
+            lastLongs.add(value);
+        }
+
+        @Override
+        public void bindBlob(int index, byte[] value) {
+        }
+
+        @Override
+        public void bindNull(int index) {
+        }
+
+        @Override
+        public void clearBindings() {
+        }
+
+        @Override
+        public void executeUpdate() {
+            rows++;
+        }
+
+        @Override
+        public void addBatch() {
+            rows++;
+        }
+
+        @Override
+        public int executeBatch() {
+            batches++;
+            return rows;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
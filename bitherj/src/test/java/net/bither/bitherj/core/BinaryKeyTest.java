@@ -0,0 +1,505 @@
+package net.bither.bitherj.core;
+
+import com.google.common.base.Function;
+
+import net.bither.bitherj.db.imp.AbstractBlockProvider;
+import net.bither.bitherj.db.imp.AbstractProvider;
+import net.bither.bitherj.db.imp.AbstractTxProvider;
+import net.bither.bitherj.db.imp.BinaryKeyMigration;
+import net.bither.bitherj.db.imp.base.IBatchDb;
+import net.bither.bitherj.db.imp.base.IBinaryKeyDb;
+import net.bither.bitherj.db.imp.base.ICursor;
+import net.bither.bitherj.db.imp.base.IDb;
+import net.bither.bitherj.db.imp.base.IStatement;
+import net.bither.bitherj.utils.Base58;
+import net.bither.bitherj.utils.Utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryKeyTest {
+    private static final int FieldTypeNull = 0;
+    private static final int FieldTypeInteger = 1;
+    private static final int FieldTypeString = 3;
+    private static final int FieldTypeBlob = 4;
+
+    @Test
+    public void testProvidersBindBytes() {
+        BinaryDb db = new BinaryDb();
+        byte[] txHash = hash(1);
+        new TxProvider(db).isExist(txHash);
+        assertSame(txHash, db.params.get(0)[0]);
+
+        byte[] blockHash = hash(2);
+        new BlockProvider(db).removeBlock(blockHash);
+        assertSame(blockHash, db.params.get(1)[0]);
+        new BlockProvider(db).addBlock(block(blockHash));
+        assertArrayEquals(blockHash, db.statements.get(0).blobs.get(2));
+        assertEquals(3, db.statements.get(0).blobs.size());
+
+        // the ins and outs of a page of txs are read with their hashes as blob literals
+        db.rows = rows(new String[]{"tx_hash", "block_no"}, new Object[]{txHash, 5});
+        List<Tx> txs = new TxProvider(db).getTxAndDetailByAddress("address", 1);
+        assertEquals(1, txs.size());
+        assertArrayEquals(txHash, txs.get(0).getTxHash());
+        assertTrue(db.sql.get(db.sql.size() - 1).contains("in (x'" + Utils.bytesToHexString
+                (txHash) + "')"));
+    }
+
+    @Test
+    public void testBase58DbUnchanged() {
+        Base58Db db = new Base58Db();
+        byte[] txHash = hash(3);
+        new TxProvider(db).isExist(txHash);
+        new TxProvider(db).txSentBySelfHasSaw(txHash);
+        assertEquals(Base58.encode(txHash), db.params.get(0)[0]);
+        assertEquals(Base58.encode(txHash), db.params.get(1)[0]);
+
+        db.rows = rows(new String[]{"tx_hash", "block_no"}, new Object[]{Base58.encode(txHash),
+                null});
+        List<Tx> txs = new TxProvider(db).getTxAndDetailByAddress("address", 1);
+        assertArrayEquals(txHash, txs.get(0).getTxHash());
+        assertEquals(Tx.TX_UNCONFIRMED, txs.get(0).getBlockNo());
+        assertTrue(db.sql.get(db.sql.size() - 1).contains("in ('" + Base58.encode(txHash) +
+                "')"));
+    }
+
+    @Test
+    public void testGetKey() {
+        byte[] key = hash(4);
+        ICursor c = firstRow(rows(new String[]{"blob", "text", "none", "bad"}, new Object[]{key,
+                Base58.encode(key), null, "0OIl"}));
+        assertSame(key, AbstractProvider.getKey(c, 0));
+        assertArrayEquals(key, AbstractProvider.getKey(c, 1));
+        assertNull(AbstractProvider.getKey(c, 2));
+        assertNull(AbstractProvider.getKey(c, 3));
+    }
+
+    @Test
+    public void testMigration() {
+        byte[] txHash = hash(5);
+        byte[] prevTxHash = hash(6);
+        byte[] script = new byte[]{0x76, (byte) 0xa9, 0x14};
+        MigratingDb db = new MigratingDb();
+        db.tables.put("txs_base58", rows(new String[]{"tx_hash", "tx_ver", "tx_locktime",
+                "tx_time", "block_no", "source"}, new Object[]{Base58.encode(txHash), 1, 0,
+                1400000000, null, 0}));
+        db.tables.put("ins_base58", rows(new String[]{"tx_hash", "in_sn", "prev_tx_hash",
+                "prev_out_sn", "in_signature", "in_sequence"}, new Object[]{Base58.encode
+                (txHash), 0, Base58.encode(prevTxHash), 1, null, -1}));
+        db.tables.put("outs_base58", rows(new String[]{"tx_hash", "out_sn", "out_script",
+                "out_value", "out_status", "out_address", "hd_account_id"}, new Object[]{Base58
+                .encode(txHash), 0, Base58.encode(script), 5000, 0, "1Address", null}));
+
+        assertEquals(3, BinaryKeyMigration.migrate(db));
+        assertEquals("begin", db.events.get(0));
+        assertEquals("end", db.events.get(db.events.size() - 1));
+        assertEquals("alter table txs rename to txs_base58", db.sql.get(0));
+        assertTrue(db.sql.get(1).contains("tx_hash blob primary key"));
+        // every old table goes before the first index is made again
+        int lastDrop = -1;
+        int firstIndex = -1;
+        for (int i = 0; i < db.sql.size(); i++) {
+            if (db.sql.get(i).startsWith("drop table")) {
+                lastDrop = i;
+            } else if (firstIndex < 0 && db.sql.get(i).startsWith("create index")) {
+                firstIndex = i;
+            }
+        }
+        assertTrue(lastDrop >= 0 && lastDrop < firstIndex);
+        assertTrue(db.sql.contains("drop table hd_account_addresses_base58"));
+
+        RecordingStatement ins = db.statement("insert into ins");
+        assertArrayEquals(txHash, ins.blobs.get(1));
+        assertArrayEquals(prevTxHash, ins.blobs.get(3));
+        assertTrue(ins.nulls.contains(5));
+        assertEquals(Long.valueOf(-1), ins.longs.get(6));
+        RecordingStatement outs = db.statement("insert into outs");
+        assertArrayEquals(script, outs.blobs.get(3));
+        assertEquals("1Address", outs.strings.get(6));
+        assertEquals(1, outs.rows);
+        assertTrue(outs.closed);
+    }
+
+    @Test
+    public void testWalletKeySize() {
+        // the keys of a wallet's txs, each held by the tx, its 2 ins and their prev_tx_hash
+        // index, its 2 outs and 2 addresses_txs rows
+        long base58Bytes = 0;
+        long binaryBytes = 0;
+        for (int i = 0; i < 1000; i++) {
+            byte[] txHash = hash(i);
+            String encoded = Base58.encode(txHash);
+            base58Bytes += encoded.length() * 9;
+            binaryBytes += txHash.length * 9;
+            assertArrayEquals(txHash, AbstractProvider.getKey(firstRow(rows(new
+                    String[]{"tx_hash"}, new Object[]{encoded})), 0));
+        }
+        assertTrue(binaryBytes < base58Bytes);
+    }
+
+    private static byte[] hash(int n) {
+        return Utils.doubleDigest(new byte[]{(byte) n, (byte) (n >> 8), (byte) (n >> 16)});
+    }
+
+    private static Block block(byte[] hash) {
+        Block block = new Block(1, Utils.bytesToHexString(new byte[32]), Utils.bytesToHexString
+                (hash), 0, 0, 0, 100);
+        block.setBlockHash(hash);
+        return block;
+    }
+
+    private static List<Map<String, Object>> rows(String[] columns, Object[]... values) {
+        List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        for (Object[] row : values) {
+            Map<String, Object> map = new HashMap<String, Object>();
+            for (int i = 0; i < columns.length; i++) {
+                map.put(columns[i], row[i]);
+            }
+            map.put("", Arrays.asList(columns));
+            rows.add(map);
+        }
+        return rows;
+    }
+
+    private static ICursor firstRow(List<Map<String, Object>> rows) {
+        RowsCursor c = new RowsCursor(rows);
+        c.moveToNext();
+        return c;
+    }
+
+    private static class TxProvider extends AbstractTxProvider {
+        private final IDb db;
+
+        TxProvider(IDb db) {
+            this.db = db;
+        }
+
+        @Override
+        public IDb getReadDb() {
+            return db;
+        }
+
+        @Override
+        public IDb getWriteDb() {
+            return db;
+        }
+
+        @Override
+        protected void insertTxToDb(IDb db, Tx tx) {
+        }
+
+        @Override
+        protected void insertInToDb(IDb db, In in) {
+        }
+
+        @Override
+        protected void insertOutToDb(IDb db, Out out) {
+        }
+    }
+
+    private static class BlockProvider extends AbstractBlockProvider {
+        private final IDb db;
+
+        BlockProvider(IDb db) {
+            this.db = db;
+        }
+
+        @Override
+        public IDb getReadDb() {
+            return db;
+        }
+
+        @Override
+        public IDb getWriteDb() {
+            return db;
+        }
+    }
+
+    private static class Base58Db implements IBatchDb {
+        final List<String> events = new ArrayList<String>();
+        final List<String> sql = new ArrayList<String>();
+        final List<Object[]> params = new ArrayList<Object[]>();
+        final List<RecordingStatement> statements = new ArrayList<RecordingStatement>();
+        // what the first query answers, the rest find nothing
+        List<Map<String, Object>> rows;
+
+        @Override
+        public void beginTransaction() {
+            events.add("begin");
+        }
+
+        @Override
+        public void endTransaction() {
+            events.add("end");
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public IStatement compileStatement(String sql) {
+            RecordingStatement statement = new RecordingStatement(sql);
+            statements.add(statement);
+            return statement;
+        }
+
+        @Override
+        public void execUpdate(String sql, String[] params) {
+            record(sql, params);
+        }
+
+        @Override
+        public void execQueryOneRecord(String sql, String[] params, Function<ICursor, Void>
+                func) {
+            query(sql, params, func, true);
+        }
+
+        @Override
+        public void execQueryLoop(String sql, String[] params, Function<ICursor, Void> func) {
+            query(sql, params, func, false);
+        }
+
+        void record(String sql, Object[] params) {
+            this.sql.add(sql);
+            this.params.add(params);
+        }
+
+        void query(String sql, Object[] params, Function<ICursor, Void> func, boolean one) {
+            record(sql, params);
+            List<Map<String, Object>> result = rowsFor(sql);
+            if (result == null) {
+                return;
+            }
+            RowsCursor c = new RowsCursor(result);
+            while (c.moveToNext()) {
+                func.apply(c);
+                if (one) {
+                    break;
+                }
+            }
+        }
+
+        List<Map<String, Object>> rowsFor(String sql) {
+            List<Map<String, Object>> result = rows;
+            rows = null;
+            return result;
+        }
+    }
+
+    private static class BinaryDb extends Base58Db implements IBinaryKeyDb {
+        @Override
+        public void execUpdate(String sql, Object[] params) {
+            record(sql, params);
+        }
+
+        @Override
+        public void execQueryOneRecord(String sql, Object[] params, Function<ICursor, Void>
+                func) {
+            query(sql, params, func, true);
+        }
+
+        @Override
+        public void execQueryLoop(String sql, Object[] params, Function<ICursor, Void> func) {
+            query(sql, params, func, false);
+        }
+    }
+
+    private static class MigratingDb extends Base58Db {
+        final Map<String, List<Map<String, Object>>> tables = new HashMap<String,
+                List<Map<String, Object>>>();
+
+        @Override
+        List<Map<String, Object>> rowsFor(String sql) {
+            return tables.get(sql.substring(sql.lastIndexOf(' ') + 1));
+        }
+
+        RecordingStatement statement(String prefix) {
+            for (RecordingStatement statement : statements) {
+                if (statement.sql.startsWith(prefix)) {
+                    return statement;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class RecordingStatement implements IStatement {
+        final String sql;
+        final Map<Integer, byte[]> blobs = new HashMap<Integer, byte[]>();
+        final Map<Integer, String> strings = new HashMap<Integer, String>();
+        final Map<Integer, Long> longs = new HashMap<Integer, Long>();
+        final List<Integer> nulls = new ArrayList<Integer>();
+        int rows;
+        boolean closed;
+
+        RecordingStatement(String sql) {
+            this.sql = sql;
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            strings.put(index, value);
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            longs.put(index, value);
+        }
+
+        @Override
+        public void bindBlob(int index, byte[] value) {
+            blobs.put(index, value);
+        }
+
+        @Override
+        public void bindNull(int index) {
+            nulls.add(index);
+        }
+
+        @Override
+        public void clearBindings() {
+        }
+
+        @Override
+        public void executeUpdate() {
+            rows++;
+        }
+
+        @Override
+        public void addBatch() {
+            rows++;
+        }
+
+        @Override
+        public int executeBatch() {
+            return rows;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Rows of column values, typed the way sqlite reports them.
+     */
+    private static class RowsCursor implements ICursor {
+        private final List<Map<String, Object>> rows;
+        private int position = -1;
+
+        RowsCursor(List<Map<String, Object>> rows) {
+            this.rows = rows;
+        }
+
+        private List<?> columns() {
+            return (List<?>) rows.get(0).get("");
+        }
+
+        private Object value(int column) {
+            return rows.get(position).get(columns().get(column));
+        }
+
+        @Override
+        public int getCount() {
+            return rows.size();
+        }
+
+        @Override
+        public boolean moveToNext() {
+            position++;
+            return position < rows.size();
+        }
+
+        @Override
+        public int getColumnIndex(String column) {
+            return columns().indexOf(column);
+        }
+
+        @Override
+        public int getColumnIndexOrThrow(String column) throws IllegalArgumentException {
+            int index = getColumnIndex(column);
+            if (index < 0) {
+                throw new IllegalArgumentException(column);
+            }
+            return index;
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return (byte[]) value(column);
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = value(column);
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = value(column);
+            return value == null ? 0 : ((Number) value).longValue();
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = value(column);
+            if (value == null) {
+                return FieldTypeNull;
+            } else if (value instanceof byte[]) {
+                return FieldTypeBlob;
+            } else if (value instanceof Number) {
+                return FieldTypeInteger;
+            }
+            return FieldTypeString;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return value(column) == null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+    }
+}
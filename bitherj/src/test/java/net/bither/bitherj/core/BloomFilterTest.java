@@ -0,0 +1,185 @@
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.utils.Utils;
+import net.bither.bitherj.utils.VarInt;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+
+    // BIP37 filter vectors, the same ones the reference client tests against
+    @Test
+    public void testBip37Vectors() {
+        BloomFilter filter = new BloomFilter(3, 0.01, 0, BloomFilter.BloomUpdate.UPDATE_ALL);
+        filter.insert(Utils.hexStringToByteArray("99108ad8ed9bb6274d3980bab5a85c048f0950c8"));
+        assertTrue(filter.contains(Utils.hexStringToByteArray
+                ("99108ad8ed9bb6274d3980bab5a85c048f0950c8")));
+        // one bit different in first byte
+        assertFalse(filter.contains(Utils.hexStringToByteArray
+                ("19108ad8ed9bb6274d3980bab5a85c048f0950c8")));
+        filter.insert(Utils.hexStringToByteArray("b5a2c786d9ef4658287ced5914b37a1b4aa32eee"));
+        filter.insert(Utils.hexStringToByteArray("b9300670b4c5366e95b2699e8b18bc75e5f729c5"));
+        assertEquals("03614e9b050000000000000001", Utils.bytesToHexString(filter
+                .bitcoinSerialize()).toLowerCase());
+
+        filter = new BloomFilter(3, 0.01, 2147483649L, BloomFilter.BloomUpdate.UPDATE_ALL);
+        List<byte[]> elements = new ArrayList<byte[]>();
+        elements.add(Utils.hexStringToByteArray("99108ad8ed9bb6274d3980bab5a85c048f0950c8"));
+        elements.add(Utils.hexStringToByteArray("b5a2c786d9ef4658287ced5914b37a1b4aa32eee"));
+        elements.add(Utils.hexStringToByteArray("b9300670b4c5366e95b2699e8b18bc75e5f729c5"));
+        assertEquals(3, filter.insertAll(elements));
+        assertEquals("03ce4299050000000100008001", Utils.bytesToHexString(filter
+                .bitcoinSerialize()).toLowerCase());
+        assertEquals(0, filter.insertAll(elements));
+    }
+
+    @Test
+    public void testSlicesAndBuffers() {
+        Random random = new Random(4);
+        byte[] element = new byte[33];
+        random.nextBytes(element);
+        byte[] padded = new byte[element.length + 7];
+        System.arraycopy(element, 0, padded, 5, element.length);
+
+        BloomFilter filter = new BloomFilter(100, 0.0001, random.nextLong());
+        assertTrue(filter.insert(padded, 5, element.length));
+        assertFalse(filter.insert(element, 0, element.length));
+        assertTrue(filter.contains(element));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(padded.length);
+        direct.put(padded);
+        direct.position(5);
+        direct.limit(5 + element.length);
+        assertTrue(filter.contains(direct));
+        assertEquals(5, direct.position());
+        ByteBuffer heap = ByteBuffer.wrap(padded, 5, element.length).slice();
+        assertTrue(filter.contains(heap));
+
+        List<byte[]> others = new ArrayList<byte[]>();
+        for (int i = 0; i < 10; i++) {
+            byte[] other = new byte[20 + i];
+            random.nextBytes(other);
+            others.add(other);
+        }
+        assertFalse(filter.containsAny(others));
+        others.add(element);
+        assertTrue(filter.containsAny(others));
+    }
+
+    /**
+     * Builds the same wallet sized filters through the per-function reference hash and through
+     * the filter itself and checks the wire bytes are identical.
+     */
+    @Test
+    public void testWireCompatibility() {
+        Random random = new Random(5);
+        List<byte[]> elements = new ArrayList<byte[]>();
+        for (int i = 0; i < 2000; i++) {
+            // pubs, hash160s and outpoints
+            byte[] element = new byte[i % 3 == 0 ? 33 : (i % 3 == 1 ? 20 : 36)];
+            random.nextBytes(element);
+            elements.add(element);
+        }
+        long tweak = random.nextLong();
+        for (double fpRate : new double[]{BloomFilter.DEFAULT_BLOOM_FILTER_FP_RATE, BloomFilter
+                .BLOOM_REDUCED_FALSEPOSITIVE_RATE}) {
+            BloomFilter filter = new BloomFilter(elements.size(), fpRate, tweak, BloomFilter
+                    .BloomUpdate.UPDATE_ALL);
+            byte[] wire = filter.bitcoinSerialize();
+            ReferenceFilter reference = new ReferenceFilter(wire);
+            filter.insertAll(elements);
+            for (byte[] element : elements) {
+                reference.insert(element);
+            }
+            assertArrayEquals(reference.serialize(), filter.bitcoinSerialize());
+        }
+    }
+
+    /**
+     * The filter as it hashed before, one full MurmurHash3 run per hash function.
+     */
+    static class ReferenceFilter {
+        private final byte[] data;
+        final long hashFuncs;
+        private final long nTweak;
+        private final byte nFlags;
+
+        ReferenceFilter(byte[] wire) {
+            VarInt size = new VarInt(wire, 0);
+            int offset = size.getOriginalSizeInBytes();
+            data = new byte[(int) size.value];
+            System.arraycopy(wire, offset, data, 0, data.length);
+            offset += data.length;
+            hashFuncs = Utils.readUint32(wire, offset);
+            nTweak = Utils.readUint32(wire, offset + 4);
+            nFlags = wire[offset + 8];
+        }
+
+        void insert(byte[] object) {
+            for (int i = 0; i < hashFuncs; i++) {
+                Utils.setBitLE(data, hash(i, object));
+            }
+        }
+
+        byte[] serialize() {
+            byte[] size = new VarInt(data.length).encode();
+            byte[] wire = new byte[size.length + data.length + 9];
+            System.arraycopy(size, 0, wire, 0, size.length);
+            System.arraycopy(data, 0, wire, size.length, data.length);
+            int offset = size.length + data.length;
+            Utils.uint32ToByteArrayLE(hashFuncs, wire, offset);
+            Utils.uint32ToByteArrayLE(nTweak, wire, offset + 4);
+            wire[offset + 8] = nFlags;
+            return wire;
+        }
+
+        private int hash(int hashNum, byte[] object) {
+            int h1 = (int) (hashNum * 0xFBA4C795L + nTweak);
+            final int c1 = 0xcc9e2d51;
+            final int c2 = 0x1b873593;
+            int numBlocks = (object.length / 4) * 4;
+            for (int i = 0; i < numBlocks; i += 4) {
+                int k1 = (object[i] & 0xFF) | ((object[i + 1] & 0xFF) << 8) | ((object[i + 2] &
+                        0xFF) << 16) | ((object[i + 3] & 0xFF) << 24);
+                k1 *= c1;
+                k1 = Integer.rotateLeft(k1, 15);
+                k1 *= c2;
+                h1 ^= k1;
+                h1 = Integer.rotateLeft(h1, 13);
+                h1 = h1 * 5 + 0xe6546b64;
+            }
+            int k1 = 0;
+            switch (object.length & 3) {
+                case 3:
+                    k1 ^= (object[numBlocks + 2] & 0xff) << 16;
+                case 2:
+                    k1 ^= (object[numBlocks + 1] & 0xff) << 8;
+                case 1:
+                    k1 ^= (object[numBlocks] & 0xff);
+                    k1 *= c1;
+                    k1 = Integer.rotateLeft(k1, 15);
+                    k1 *= c2;
+                    h1 ^= k1;
+                default:
+                    break;
+            }
+            h1 ^= object.length;
+            h1 ^= h1 >>> 16;
+            h1 *= 0x85ebca6b;
+            h1 ^= h1 >>> 13;
+            h1 *= 0xc2b2ae35;
+            h1 ^= h1 >>> 16;
+            return (int) ((h1 & 0xFFFFFFFFL) % (data.length * 8));
+        }
+    }
+}
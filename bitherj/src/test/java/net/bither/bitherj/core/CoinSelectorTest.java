@@ -0,0 +1,206 @@
+package net.bither.bitherj.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CoinSelectorTest {
+    private static final long FeeBase = 10000;
+    private static final int InSize = 149;
+    private static final int FixedSize = 10 + 34;
+    private static final int ChangeSize = 34;
+    private static final long MinChange = Tx.MIN_NONDUST_OUTPUT;
+
+    @Test
+    public void testBranchAndBoundNeedsNoChange() {
+        long[] values = new long[]{700000, 400000, 250000, 120000, 90000, 60000};
+        // 400000 + 120000 pay it with 2 inputs, priced at 10000 plus 10 for each of the 342
+        // bytes, and 1000 over
+        long amount = 400000 + 120000 - 13420 - 1000;
+        CoinSelector.Payment payment = payment(amount);
+        CoinSelector.Selection selection = new CoinSelector.BranchAndBound().select(values,
+                sizes(values.length), payment, deadline());
+        assertNotNull(selection);
+        assertEquals(0, selection.getChange());
+        assertValid(values, payment, amount, selection);
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 3)), indexes(selection));
+        assertEquals(14420, selection.getFee());
+
+        // nothing close enough without change
+        assertNull(new CoinSelector.BranchAndBound().select(new long[]{700000}, sizes(1),
+                payment, deadline()));
+    }
+
+    @Test
+    public void testKnapsackLeavesChange() {
+        long[] values = new long[]{700000, 400000, 250000, 120000, 90000, 60000};
+        long amount = 300000;
+        CoinSelector.Payment payment = payment(amount);
+        CoinSelector.Selection selection = new CoinSelector.Knapsack(new Random(1)).select
+                (values, sizes(values.length), payment, deadline());
+        assertValid(values, payment, amount, selection);
+        assertTrue(selection.getChange() >= MinChange);
+        assertEquals(payment.getFee(FixedSize + ChangeSize + InSize * selection.getIndexes()
+                .length), selection.getFee());
+        // 250000 + 60000 is under, 250000 + 90000 the closest above
+        assertEquals(2, selection.getIndexes().length);
+        assertEquals(250000 + 90000 - amount - FeeBase, selection.getChange());
+    }
+
+    @Test
+    public void testLargestFirst() {
+        long[] values = new long[]{60000, 700000, 90000, 400000};
+        long amount = 1000000;
+        CoinSelector.Payment payment = payment(amount);
+        CoinSelector.Selection selection = new CoinSelector.LargestFirst().select(values, sizes
+                (values.length), payment, deadline());
+        assertValid(values, payment, amount, selection);
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 3)), indexes(selection));
+
+        assertNull(new CoinSelector.LargestFirst().select(values, sizes(values.length),
+                payment(1250000 - FeeBase), deadline()));
+        assertNull(new CoinSelector().select(values, sizes(values.length), payment(1250000 -
+                FeeBase)));
+    }
+
+    @Test
+    public void testSelectionsAlwaysPay() {
+        Random random = new Random(7);
+        CoinSelector.Strategy[] strategies = new CoinSelector.Strategy[]{new CoinSelector
+                .BranchAndBound(), new CoinSelector.Knapsack(new Random(3)), new CoinSelector
+                .LargestFirst()};
+        int found = 0;
+        for (int round = 0; round < 200; round++) {
+            long[] values = new long[1 + random.nextInt(40)];
+            long total = 0;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = 1000 + (long) (random.nextDouble() * random.nextDouble() * 10000000);
+                total += values[i];
+            }
+            long amount = MinChange + (long) (random.nextDouble() * total);
+            CoinSelector.Payment payment = payment(amount);
+            for (CoinSelector.Strategy strategy : strategies) {
+                CoinSelector.Selection selection = strategy.select(values, sizes(values.length),
+                        payment, deadline());
+                if (selection != null) {
+                    assertValid(values, payment, amount, selection);
+                    found++;
+                }
+            }
+            CoinSelector.Selection selection = new CoinSelector().select(values, sizes(values
+                    .length), payment);
+            // only when everything is short of the fee of spending everything
+            if (selection == null) {
+                assertTrue(total - amount < payment.getFee(FixedSize + InSize * values.length +
+                        ChangeSize) + FeeBase + values.length);
+            }
+        }
+        assertTrue(found > 300);
+    }
+
+    @Test
+    public void testLargeWallets() {
+        long[] values = largeWallet(10000);
+        long amount = total(values) / 3;
+        CoinSelector.Payment payment = payment(amount);
+        for (CoinSelector.Strategy strategy : strategies()) {
+            CoinSelector.Selection selection = strategy.select(values, sizes(values.length),
+                    payment, deadline());
+            if (selection != null) {
+                assertValid(values, payment, amount, selection);
+            }
+        }
+        assertTrue(greedy(values, payment, amount) > 0);
+    }
+
+    static long[] largeWallet(int count) {
+        Random random = new Random(count);
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            // mostly small receives, a few large ones
+            values[i] = 5460 + (long) (Math.pow(random.nextDouble(), 4) * 50000000);
+        }
+        return values;
+    }
+
+    static long total(long[] values) {
+        long total = 0;
+        for (long value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    static CoinSelector.Strategy[] strategies() {
+        return new CoinSelector.Strategy[]{new CoinSelector.BranchAndBound(), new
+                CoinSelector.Knapsack(new Random(3)), new CoinSelector.LargestFirst()};
+    }
+
+    // the greedy selection, taking outs in order until they pay and starting over whenever the
+    // fee grows
+    static int greedy(long[] values, CoinSelector.Payment payment, long amount) {
+        int lastSize = 0;
+        while (true) {
+            long needed = amount + payment.getFee(lastSize);
+            long sum = 0;
+            int count = 0;
+            while (sum < needed) {
+                sum += values[count++];
+            }
+            int size = FixedSize + ChangeSize + InSize * count;
+            if (size / 1000 > lastSize / 1000) {
+                lastSize = size;
+                continue;
+            }
+            return count;
+        }
+    }
+
+    static void assertValid(long[] values, CoinSelector.Payment payment, long amount,
+                                    CoinSelector.Selection selection) {
+        assertNotNull(selection);
+        Set<Integer> indexes = indexes(selection);
+        assertEquals(selection.getIndexes().length, indexes.size());
+        long total = 0;
+        for (int index : indexes) {
+            total += values[index];
+        }
+        assertEquals(total, amount + selection.getFee() + selection.getChange());
+        int size = FixedSize + InSize * indexes.size();
+        if (selection.getChange() > 0) {
+            assertTrue(selection.getChange() >= MinChange);
+            size += ChangeSize;
+        }
+        assertTrue(selection.getFee() >= payment.getFee(size));
+    }
+
+    private static Set<Integer> indexes(CoinSelector.Selection selection) {
+        Set<Integer> indexes = new HashSet<Integer>();
+        for (int index : selection.getIndexes()) {
+            indexes.add(index);
+        }
+        return indexes;
+    }
+
+    static CoinSelector.Payment payment(long amount) {
+        return new CoinSelector.Payment(amount, FixedSize, ChangeSize, FeeBase, MinChange);
+    }
+
+    static int[] sizes(int count) {
+        int[] sizes = new int[count];
+        Arrays.fill(sizes, InSize);
+        return sizes;
+    }
+
+    static long deadline() {
+        return System.nanoTime() + CoinSelector.DefaultTimeBudgetMillis * 1000000;
+    }
+}
@@ -0,0 +1,166 @@
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.AbstractApp;
+import net.bither.bitherj.BitherjSettings;
+import net.bither.bitherj.ISetting;
+import net.bither.bitherj.NotificationService;
+import net.bither.bitherj.db.AbstractDb;
+import net.bither.bitherj.db.IAddressProvider;
+import net.bither.bitherj.db.IDesktopAddressProvider;
+import net.bither.bitherj.db.IHDAccountAddressProvider;
+import net.bither.bitherj.db.IHDAccountProvider;
+import net.bither.bitherj.db.ITxProvider;
+import net.bither.bitherj.qrcode.QRCodeUtil;
+
+import org.apache.http.client.CookieStore;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Puts an empty hot wallet database in place of the real one, with the tx provider answering
+ * through the given handler, until {@link #restore()}.
+ */
+class FakeWalletDb {
+    final List<Address> addresses = new ArrayList<Address>();
+
+    private final ITxProvider txProvider = AbstractDb.txProvider;
+    private final IAddressProvider addressProvider = AbstractDb.addressProvider;
+    private final IHDAccountAddressProvider hdAccountAddressProvider = AbstractDb
+            .hdAccountAddressProvider;
+    private final IHDAccountProvider hdAccountProvider = AbstractDb.hdAccountProvider;
+    private final IDesktopAddressProvider desktopAddressProvider = AbstractDb
+            .desktopAddressProvider;
+    private final NotificationService notificationService = AbstractApp.notificationService;
+    private final ISetting setting = AbstractApp.bitherjSetting;
+
+    FakeWalletDb(InvocationHandler txHandler) {
+        AbstractDb.txProvider = fake(ITxProvider.class, txHandler);
+        AbstractDb.addressProvider = fake(IAddressProvider.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getAddresses")) {
+                    return new ArrayList<Address>(addresses);
+                }
+                return empty(method.getReturnType());
+            }
+        });
+        AbstractDb.hdAccountAddressProvider = fake(IHDAccountAddressProvider.class, new
+                InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("updateOutHDAccountId")) {
+                    return args[0];
+                }
+                return empty(method.getReturnType());
+            }
+        });
+        AbstractDb.hdAccountProvider = fake(IHDAccountProvider.class, null);
+        AbstractDb.desktopAddressProvider = fake(IDesktopAddressProvider.class, null);
+        AbstractApp.notificationService = fake(NotificationService.class, null);
+        AbstractApp.bitherjSetting = new HotSetting();
+    }
+
+    void restore() {
+        AbstractDb.txProvider = txProvider;
+        AbstractDb.addressProvider = addressProvider;
+        AbstractDb.hdAccountAddressProvider = hdAccountAddressProvider;
+        AbstractDb.hdAccountProvider = hdAccountProvider;
+        AbstractDb.desktopAddressProvider = desktopAddressProvider;
+        AbstractApp.notificationService = notificationService;
+        AbstractApp.bitherjSetting = setting;
+    }
+
+    /**
+     * A provider answering every call it is not told about with nothing.
+     */
+    static <T> T fake(Class<T> type, final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, new
+                InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (handler != null) {
+                    return handler.invoke(proxy, method, args);
+                }
+                return empty(method.getReturnType());
+            }
+        }));
+    }
+
+    static Object empty(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == byte[].class) {
+            return new byte[0];
+        } else if (type.isAssignableFrom(ArrayList.class)) {
+            return new ArrayList<Object>();
+        } else if (type.isAssignableFrom(HashMap.class)) {
+            return new HashMap<Object, Object>();
+        }
+        return null;
+    }
+
+    private static class HotSetting extends ISetting {
+        @Override
+        public BitherjSettings.AppMode getAppMode() {
+            return BitherjSettings.AppMode.HOT;
+        }
+
+        @Override
+        public boolean getBitherjDoneSyncFromSpv() {
+            return true;
+        }
+
+        @Override
+        public void setBitherjDoneSyncFromSpv(boolean isDone) {
+        }
+
+        @Override
+        public boolean getDownloadSpvFinish() {
+            return true;
+        }
+
+        @Override
+        public void setDownloadSpvFinish(boolean finish) {
+        }
+
+        @Override
+        public QRCodeUtil.QRQuality getQRQuality() {
+            return QRCodeUtil.QRQuality.Normal;
+        }
+
+        @Override
+        public BitherjSettings.TransactionFeeMode getTransactionFeeMode() {
+            return BitherjSettings.TransactionFeeMode.Low;
+        }
+
+        @Override
+        public BitherjSettings.ApiConfig getApiConfig() {
+            return null;
+        }
+
+        @Override
+        public File getPrivateDir(String dirName) {
+            return null;
+        }
+
+        @Override
+        public boolean isApplicationRunInForeground() {
+            return true;
+        }
+
+        @Override
+        public CookieStore getCookieStore() {
+            return null;
+        }
+    }
+}
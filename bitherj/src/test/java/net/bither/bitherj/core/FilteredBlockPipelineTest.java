@@ -0,0 +1,283 @@
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.exception.ProtocolException;
+import net.bither.bitherj.exception.VerificationException;
+import net.bither.bitherj.message.FilteredBlockMessage;
+import net.bither.bitherj.message.PartialMerkleTree;
+import net.bither.bitherj.utils.Utils;
+import net.bither.bitherj.utils.VarInt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FilteredBlockPipelineTest {
+    private static final String Zero =
+            "0000000000000000000000000000000000000000000000000000000000000000";
+    private static final String Genesis =
+            "000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f";
+    private static final String GenesisRoot =
+            "4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b";
+    private static final String Block1Root =
+            "0e3e2357e806b6cdb1f70b54c3a3a17b6714ee1f0e68bebb44a74b1efd512098";
+
+    @Test
+    public void testPartialTrees() throws Exception {
+        Random random = new Random(1);
+        for (int count : new int[]{1, 2, 3, 7, 16, 100, 2001}) {
+            for (int round = 0; round < 5; round++) {
+                List<byte[]> txHashes = hashes(random, count);
+                boolean[] matches = new boolean[count];
+                List<byte[]> matched = new ArrayList<byte[]>();
+                for (int i = 0; i < count; i++) {
+                    matches[i] = random.nextInt(round + 2) == 0;
+                    if (matches[i]) {
+                        matched.add(txHashes.get(i));
+                    }
+                }
+                byte[] root = calcHash(txHashes, height(count), 0);
+                PartialMerkleTree tree = new PartialMerkleTree(merkleBlock(new byte[80],
+                        txHashes, matches), 80);
+                assertArrayEquals(root, tree.getMerkleRoot());
+                assertHashes(matched, tree.getMatchedTxnHashes());
+                List<byte[]> extracted = new ArrayList<byte[]>();
+                assertArrayEquals(root, tree.getTxnHashAndMerkleRoot(extracted));
+                assertHashes(matched, extracted);
+            }
+        }
+    }
+
+    @Test
+    public void testBlocksComeOutInOrder() throws Exception {
+        // real headers, so the proof of work is checked too
+        byte[] coinbase = Utils.reverseBytes(Utils.hexStringToByteArray(GenesisRoot));
+        FilteredBlockPipeline pipeline = new FilteredBlockPipeline();
+        pipeline.add(new FilteredBlockMessage(merkleBlock(genesisHeader(), hashList(coinbase),
+                new boolean[]{true})));
+        assertTrue(pipeline.isWaitingForTxs());
+        assertTrue(pipeline.takeCompleted(true).isEmpty());
+
+        byte[] block1Coinbase = Utils.reverseBytes(Utils.hexStringToByteArray(Block1Root));
+        pipeline.add(new FilteredBlockMessage(merkleBlock(block1Header(), hashList
+                (block1Coinbase), new boolean[]{false})));
+        assertEquals(2, pipeline.size());
+        assertFalse(pipeline.provideTransaction(tx(block1Coinbase)));
+        Tx tx = tx(coinbase);
+        assertTrue(pipeline.provideTransaction(tx));
+        assertFalse(pipeline.isWaitingForTxs());
+
+        List<FilteredBlockPipeline.Entry> completed = pipeline.takeCompleted(true);
+        assertEquals(2, completed.size());
+        assertEquals(Genesis, Utils.hashToString(completed.get(0).getBlock().getBlockHash())
+                .toLowerCase());
+        assertEquals(1, completed.get(0).getTxs().size());
+        assertSame(tx, completed.get(0).getTxs().get(0));
+        assertEquals(0, completed.get(1).getTxs().size());
+        assertEquals(0, pipeline.size());
+    }
+
+    @Test
+    public void testBadTree() throws Exception {
+        Random random = new Random(2);
+        FilteredBlockPipeline pipeline = new FilteredBlockPipeline();
+        pipeline.add(new FilteredBlockMessage(merkleBlock(block1Header(), hashList(Utils
+                .reverseBytes(Utils.hexStringToByteArray(Block1Root))), new boolean[]{false})));
+        // a tree that isn't the one in the header
+        pipeline.add(new FilteredBlockMessage(merkleBlock(genesisHeader(), hashes(random, 5),
+                new boolean[5])));
+        pipeline.add(new FilteredBlockMessage(merkleBlock(block1Header(), hashList(Utils
+                .reverseBytes(Utils.hexStringToByteArray(Block1Root))), new boolean[]{false})));
+        try {
+            pipeline.takeCompleted(true);
+            fail();
+        } catch (VerificationException e) {
+            assertTrue(e.getMessage().contains("Merkle root"));
+        }
+        assertEquals(0, pipeline.size());
+
+        // bits that don't add up are found out when the message is read
+        byte[] bytes = merkleBlock(genesisHeader(), hashes(random, 5), new boolean[5]);
+        bytes[bytes.length - 1] = (byte) 0xff;
+        try {
+            new FilteredBlockMessage(bytes);
+            fail();
+        } catch (ProtocolException e) {
+        }
+    }
+
+    @Test
+    public void testCatchUp() throws Exception {
+        // merkleblocks of 2000 tx blocks with a few matches each, as after days offline
+        Random random = new Random(3);
+        int count = 200;
+        List<byte[]> payloads = new ArrayList<byte[]>();
+        List<List<byte[]>> matchedTxs = new ArrayList<List<byte[]>>();
+        for (int i = 0; i < count; i++) {
+            List<byte[]> txHashes = hashes(random, 2000);
+            boolean[] matches = new boolean[txHashes.size()];
+            List<byte[]> matched = new ArrayList<byte[]>();
+            for (int m = 0; m < i % 4; m++) {
+                int index = random.nextInt(txHashes.size());
+                if (!matches[index]) {
+                    matches[index] = true;
+                    matched.add(txHashes.get(index));
+                }
+            }
+            byte[] header = new byte[80];
+            System.arraycopy(calcHash(txHashes, height(txHashes.size()), 0), 0, header, 36, 32);
+            payloads.add(merkleBlock(header, txHashes, matches));
+            matchedTxs.add(matched);
+        }
+        List<FilteredBlockMessage> messages = messages(payloads);
+        FilteredBlockPipeline pipeline = new FilteredBlockPipeline();
+        int relayed = 0;
+        for (int i = 0; i < count; i++) {
+            pipeline.add(messages.get(i));
+            for (byte[] txHash : matchedTxs.get(i)) {
+                assertTrue(pipeline.provideTransaction(tx(txHash)));
+            }
+            relayed += pipeline.takeCompleted(i == count - 1).size();
+        }
+        assertEquals(count, relayed);
+    }
+
+    private static List<FilteredBlockMessage> messages(List<byte[]> payloads) throws
+            ProtocolException {
+        List<FilteredBlockMessage> messages = new ArrayList<FilteredBlockMessage>();
+        for (byte[] payload : payloads) {
+            messages.add(new UnminedFilteredBlock(payload));
+        }
+        return messages;
+    }
+
+    /**
+     * A merkleblock whose header has no proof of work, only its tree is checked.
+     */
+    private static class UnminedFilteredBlock extends FilteredBlockMessage {
+        UnminedFilteredBlock(byte[] payloadBytes) throws ProtocolException {
+            super(payloadBytes);
+        }
+
+        @Override
+        public void verify() throws VerificationException {
+            verifyMerkleRoot();
+        }
+    }
+
+    private static void assertHashes(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i));
+        }
+    }
+
+    /**
+     * Builds the partial merkle tree the way a peer does and puts it after the header.
+     */
+    private static byte[] merkleBlock(byte[] header, List<byte[]> txHashes, boolean[] matches)
+            throws Exception {
+        List<Boolean> bits = new ArrayList<Boolean>();
+        List<byte[]> hashes = new ArrayList<byte[]>();
+        traverseAndBuild(txHashes, matches, height(txHashes.size()), 0, bits, hashes);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(header, 0, 80);
+        Utils.uint32ToByteStreamLE(txHashes.size(), stream);
+        stream.write(new VarInt(hashes.size()).encode());
+        for (byte[] hash : hashes) {
+            stream.write(hash);
+        }
+        byte[] flags = new byte[(bits.size() + 7) / 8];
+        for (int i = 0; i < bits.size(); i++) {
+            if (bits.get(i)) {
+                flags[i / 8] |= 1 << (i % 8);
+            }
+        }
+        stream.write(new VarInt(flags.length).encode());
+        stream.write(flags);
+        return stream.toByteArray();
+    }
+
+    private static void traverseAndBuild(List<byte[]> txHashes, boolean[] matches, int height,
+                                         int pos, List<Boolean> bits, List<byte[]> hashes) {
+        boolean parentOfMatch = false;
+        for (int p = pos << height; p < (pos + 1) << height && p < txHashes.size(); p++) {
+            parentOfMatch |= matches[p];
+        }
+        bits.add(parentOfMatch);
+        if (height == 0 || !parentOfMatch) {
+            hashes.add(calcHash(txHashes, height, pos));
+        } else {
+            traverseAndBuild(txHashes, matches, height - 1, pos * 2, bits, hashes);
+            if (pos * 2 + 1 < width(txHashes.size(), height - 1)) {
+                traverseAndBuild(txHashes, matches, height - 1, pos * 2 + 1, bits, hashes);
+            }
+        }
+    }
+
+    private static byte[] calcHash(List<byte[]> txHashes, int height, int pos) {
+        if (height == 0) {
+            return txHashes.get(pos);
+        }
+        byte[] left = calcHash(txHashes, height - 1, pos * 2);
+        byte[] right = pos * 2 + 1 < width(txHashes.size(), height - 1) ? calcHash(txHashes,
+                height - 1, pos * 2 + 1) : left;
+        byte[] both = Arrays.copyOf(left, 64);
+        System.arraycopy(right, 0, both, 32, 32);
+        return Utils.doubleDigest(both);
+    }
+
+    private static int width(int count, int height) {
+        return (count + (1 << height) - 1) >> height;
+    }
+
+    private static int height(int count) {
+        int height = 0;
+        while (width(count, height) > 1) {
+            height++;
+        }
+        return height;
+    }
+
+    private static List<byte[]> hashes(Random random, int count) {
+        List<byte[]> hashes = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            hashes.add(hash);
+        }
+        return hashes;
+    }
+
+    private static List<byte[]> hashList(byte[] hash) {
+        List<byte[]> hashes = new ArrayList<byte[]>();
+        hashes.add(hash);
+        return hashes;
+    }
+
+    private static Tx tx(byte[] txHash) {
+        Tx tx = new Tx();
+        tx.setTxHash(txHash);
+        return tx;
+    }
+
+    private static byte[] genesisHeader() {
+        return Arrays.copyOf(new Block(1, Zero, GenesisRoot, 1231006505, 0x1d00ffffL,
+                2083236893L, 0).bitcoinSerialize(), 80);
+    }
+
+    private static byte[] block1Header() {
+        return Arrays.copyOf(new Block(1, Genesis, Block1Root, 1231469665, 0x1d00ffffL,
+                2573394689L, 1).bitcoinSerialize(), 80);
+    }
+}
@@ -0,0 +1,121 @@
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.BitherjSettings;
+import net.bither.bitherj.utils.Utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HeaderIndexTest {
+
+    @Test
+    public void testLookups() {
+        List<Block> chain = chain(1000, 500, 0);
+        HeaderIndex index = new HeaderIndex();
+        index.load(chain);
+        assertEquals(500, index.size());
+
+        Block block = chain.get(123);
+        Block found = index.get(block.getBlockHash());
+        assertArrayEquals(block.getBlockHash(), found.getBlockHash());
+        assertArrayEquals(block.getBlockPrev(), found.getBlockPrev());
+        assertArrayEquals(block.getBlockRoot(), found.getBlockRoot());
+        assertEquals(block.getBlockTime(), found.getBlockTime());
+        assertEquals(block.getBlockNo(), found.getBlockNo());
+        assertTrue(found.isMain());
+
+        assertArrayEquals(block.getBlockHash(), index.getMain(1123).getBlockHash());
+        assertEquals(block.getBlockTime(), index.getMainTime(1123));
+        assertEquals(-1, index.getMainTime(999));
+        assertEquals(-1, index.getMainTime(1500));
+        assertEquals(chain.get(23).getBlockTime(), index.ancestorTime(block.getBlockHash(), 100));
+        assertEquals(-1, index.ancestorTime(block.getBlockHash(), 124));
+        assertNull(index.get(hash(1, 99999)));
+    }
+
+    @Test
+    public void testForkAndRollback() {
+        List<Block> chain = chain(1000, 100, 0);
+        HeaderIndex index = new HeaderIndex();
+        index.load(chain);
+        // a side chain forking off at 1049
+        List<Block> fork = chain(1050, 60, 1);
+        fork.get(0).setBlockPrev(chain.get(49).getBlockHash());
+        for (Block block : fork) {
+            block.setMain(false);
+        }
+        index.putAll(fork);
+        assertNull(index.getMainChainBlock(fork.get(10).getBlockHash()));
+        assertArrayEquals(chain.get(60).getBlockHash(), index.getMain(1060).getBlockHash());
+
+        for (int i = 50; i < chain.size(); i++) {
+            index.setMain(chain.get(i).getBlockHash(), false);
+        }
+        for (Block block : fork) {
+            index.setMain(block.getBlockHash(), true);
+        }
+        assertArrayEquals(fork.get(10).getBlockHash(), index.getMain(1060).getBlockHash());
+        assertArrayEquals(fork.get(59).getBlockHash(), index.getMain(1109).getBlockHash());
+        assertFalse(index.get(chain.get(60).getBlockHash()).isMain());
+        assertEquals(chain.get(0).getBlockTime(), index.ancestorTime(fork.get(59)
+                .getBlockHash(), 109));
+
+        index.removeAbove(1080);
+        assertEquals(-1, index.getMainTime(1081));
+        assertNull(index.get(fork.get(40).getBlockHash()));
+        assertArrayEquals(fork.get(30).getBlockHash(), index.getMain(1080).getBlockHash());
+        assertEquals(81 + 31, index.size());
+    }
+
+    @Test
+    public void testCompactsToRecentHeights() {
+        int interval = BitherjSettings.BLOCK_DIFFICULTY_INTERVAL;
+        List<Block> chain = chain(0, HeaderIndex.LoadLimit + 10, 0);
+        HeaderIndex index = new HeaderIndex();
+        for (Block block : chain) {
+            index.put(block);
+        }
+        assertTrue(index.size() <= HeaderIndex.LoadLimit);
+        int top = chain.size() - 1;
+        assertArrayEquals(chain.get(top).getBlockHash(), index.getMain(top).getBlockHash());
+        assertEquals(chain.get(top - interval).getBlockTime(), index.getMainTime(top - interval));
+        assertEquals(chain.get(top - interval).getBlockTime(), index.ancestorTime(chain.get(top)
+                .getBlockHash(), interval));
+        assertNull(index.get(chain.get(0).getBlockHash()));
+    }
+
+    private static List<Block> chain(int startHeight, int count, int seed) {
+        List<Block> blocks = new ArrayList<Block>();
+        byte[] prev = new byte[32];
+        for (int i = 0; i < count; i++) {
+            int height = startHeight + i;
+            byte[] hash = hash(seed, height);
+            Block block = new Block(2, Utils.bytesToHexString(prev), Utils.bytesToHexString
+                    (hash), 1400000000 + height * 600 + seed, 0x1d00ffffL, height, height);
+            block.setBlockHash(hash);
+            block.setBlockPrev(prev);
+            block.setBlockRoot(hash);
+            block.setMain(true);
+            blocks.add(block);
+            prev = hash;
+        }
+        return blocks;
+    }
+
+    private static byte[] hash(int seed, int height) {
+        byte[] hash = new byte[32];
+        Arrays.fill(hash, (byte) seed);
+        Utils.uint32ToByteArrayLE(height, hash, 0);
+        Utils.uint32ToByteArrayLE(height * 31 + seed, hash, 28);
+        return hash;
+    }
+}
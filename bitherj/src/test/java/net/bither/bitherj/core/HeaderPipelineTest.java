@@ -0,0 +1,80 @@
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.utils.Utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HeaderPipelineTest {
+    private static final String Zero =
+            "0000000000000000000000000000000000000000000000000000000000000000";
+    private static final String Genesis =
+            "000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f";
+    private static final String Block1 =
+            "00000000839a8e6886ab5951d76f411475428afc90947ee320161bbf18eb6048";
+
+    @Test
+    public void testHeadersPass() {
+        assertEquals(Genesis, Utils.hashToString(genesis().getBlockHash()).toLowerCase());
+        assertEquals(Block1, Utils.hashToString(block1().getBlockHash()).toLowerCase());
+        HeaderPipeline pipeline = new HeaderPipeline(4);
+        List<Block> blocks = headers(2000, -1);
+        assertEquals(2000, pipeline.verify(blocks));
+        assertEquals(1, pipeline.getBatchCount());
+        assertEquals(0, pipeline.verify(new ArrayList<Block>()));
+        assertEquals(3, pipeline.verify(headers(3, -1)));
+    }
+
+    @Test
+    public void testStopsAtFirstBadHeader() {
+        HeaderPipeline pipeline = new HeaderPipeline(4);
+        // in the calling thread's chunk, in a pooled chunk and on a chunk boundary
+        assertEquals(17, pipeline.verify(headers(2000, 17)));
+        assertEquals(1234, pipeline.verify(headers(2000, 1234)));
+        assertEquals(1750, pipeline.verify(headers(2000, 1750)));
+        assertEquals(1999, pipeline.verify(headers(2000, 1999)));
+        assertEquals(4, pipeline.getBatchCount());
+    }
+
+    @Test
+    public void testTimings() {
+        HeaderPipeline pipeline = new HeaderPipeline(2);
+        pipeline.verify(headers(2000, -1));
+        pipeline.record(HeaderPipeline.StageLink, 3000000);
+        pipeline.record(HeaderPipeline.StageLink, 2000000);
+        assertEquals(5, pipeline.getTotalMillis(HeaderPipeline.StageLink));
+        assertEquals(2, pipeline.getLastMillis(HeaderPipeline.StageLink));
+        assertEquals(0, pipeline.getTotalMillis(HeaderPipeline.StageStore));
+        assertTrue(pipeline.toString().contains("2000 headers"));
+    }
+
+    private static List<Block> headers(int count, int bad) {
+        List<Block> blocks = new ArrayList<Block>();
+        for (int i = 0; i < count; i++) {
+            blocks.add(i == bad ? tampered() : (i % 2 == 0 ? genesis() : block1()));
+        }
+        return blocks;
+    }
+
+    private static Block genesis() {
+        return new Block(1, Zero, "4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b",
+                1231006505, 0x1d00ffffL, 2083236893L, 0);
+    }
+
+    private static Block block1() {
+        return new Block(1, Genesis,
+                "0e3e2357e806b6cdb1f70b54c3a3a17b6714ee1f0e68bebb44a74b1efd512098", 1231469665,
+                0x1d00ffffL, 2573394689L, 1);
+    }
+
+    private static Block tampered() {
+        return new Block(1, Genesis,
+                "0e3e2357e806b6cdb1f70b54c3a3a17b6714ee1f0e68bebb44a74b1efd512098", 1231469665,
+                0x1d00ffffL, 2573394690L, 1);
+    }
+}
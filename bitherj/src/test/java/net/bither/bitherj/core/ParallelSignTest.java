@@ -0,0 +1,112 @@
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.crypto.ECKey;
+import net.bither.bitherj.crypto.TransactionSignature;
+import net.bither.bitherj.qrcode.QRCodeUtil;
+import net.bither.bitherj.qrcode.SaltForQRCode;
+import net.bither.bitherj.script.Script;
+import net.bither.bitherj.script.ScriptBuilder;
+import net.bither.bitherj.utils.PrivateKeyUtil;
+import net.bither.bitherj.utils.Utils;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelSignTest {
+    private static final String Password = "parallel sign test";
+
+    @Test
+    public void testHashingLeavesTxAlone() {
+        ECKey key = new ECKey(BigInteger.valueOf(1000003));
+        Tx tx = unsignedTx(new ECKey[]{key}, 20);
+        byte[] before = tx.bitcoinSerialize();
+        byte sigHashType = (byte) TransactionSignature.calcSigHashValue(TransactionSignature
+                .SigHash.ALL, false);
+        List<byte[]> hashes = tx.getUnsignedInHashes();
+        assertEquals(20, hashes.size());
+        for (int i = 0; i < hashes.size(); i++) {
+            byte[] hash = tx.hashForSignature(i, tx.getIns().get(i).getPrevOutScript(),
+                    sigHashType);
+            assertArrayEquals(hash, hashes.get(i));
+            assertTrue(i == 0 || !Arrays.equals(hash, hashes.get(i - 1)));
+        }
+        assertArrayEquals(before, tx.bitcoinSerialize());
+        for (In in : tx.getIns()) {
+            assertEquals(0, in.getInSignature().length);
+        }
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        BigInteger[] privs = new BigInteger[]{BigInteger.valueOf(1000003), BigInteger.valueOf
+                (2000003)};
+        ECKey[] keys = new ECKey[privs.length];
+        HashMap<String, Address> addressMap = new HashMap<String, Address>();
+        for (int i = 0; i < privs.length; i++) {
+            keys[i] = new ECKey(privs[i], null, true);
+            addressMap.put(keys[i].toAddress(), new KeyAddress(encryptedString(privs[i])));
+        }
+        int inCount = 12;
+
+        Tx sequential = unsignedTx(keys, inCount);
+        sequential.signInputs(TransactionSignature.SigHash.ALL, addressMap, Password);
+        Tx parallel = unsignedTx(keys, inCount);
+        parallel.signInputsInParallel(TransactionSignature.SigHash.ALL, addressMap, Password);
+
+        assertArrayEquals(sequential.bitcoinSerialize(), parallel.bitcoinSerialize());
+        List<byte[]> hashes = unsignedTx(keys, inCount).getUnsignedInHashes();
+        for (int i = 0; i < inCount; i++) {
+            In in = parallel.getIns().get(i);
+            byte[] sig = new Script(in.getInSignature()).getChunks().get(0).data;
+            assertTrue(ECKey.verify(hashes.get(i), Arrays.copyOf(sig, sig.length - 1),
+                    keys[i % keys.length].getPubKey()));
+        }
+    }
+
+    private static Tx unsignedTx(ECKey[] keys, int inCount) {
+        Tx tx = new Tx();
+        for (int i = 0; i < inCount; i++) {
+            In in = new In();
+            byte[] prevTxHash = new byte[32];
+            Arrays.fill(prevTxHash, (byte) (i + 1));
+            in.setPrevTxHash(prevTxHash);
+            in.setPrevOutSn(i % 3);
+            in.setPrevOutScript(ScriptBuilder.createOutputScript(keys[i % keys.length].toAddress
+                    ()).getProgram());
+            in.setInSignature(new byte[0]);
+            tx.addInput(in);
+        }
+        tx.addOutput(100000, keys[0].toAddress());
+        tx.addOutput(2000, keys[keys.length - 1].toAddress());
+        return tx;
+    }
+
+    private static String encryptedString(BigInteger priv) {
+        ECKey encrypted = PrivateKeyUtil.encrypt(new ECKey(priv, null, true), Password);
+        String[] strings = QRCodeUtil.splitString(PrivateKeyUtil.getEncryptedString(encrypted));
+        strings[2] = Utils.bytesToHexString(new SaltForQRCode(Utils.hexStringToByteArray
+                (strings[2]), true, false).getQrCodeSalt());
+        return Utils.joinString(strings, QRCodeUtil.QR_CODE_SPLIT);
+    }
+
+    private static class KeyAddress extends Address {
+        private final String encryptedKey;
+
+        KeyAddress(String encryptedKey) {
+            this.encryptedKey = encryptedKey;
+        }
+
+        @Override
+        public String getFullEncryptPrivKey() {
+            return encryptedKey;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package net.bither.bitherj.core;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import net.bither.bitherj.message.BitcoinSerializer;
+import net.bither.bitherj.message.InventoryMessage;
+import net.bither.bitherj.message.Message;
+import net.bither.bitherj.net.PeerSocketHandler;
+import net.bither.bitherj.utils.Utils;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PeerFramingTest {
+    private static Level serializerLevel;
+
+    @BeforeClass
+    public static void setUpClass() {
+        // the serializer logs every message in hex at debug
+        Logger logger = (Logger) LoggerFactory.getLogger(BitcoinSerializer.class);
+        serializerLevel = logger.getLevel();
+        logger.setLevel(Level.INFO);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        ((Logger) LoggerFactory.getLogger(BitcoinSerializer.class)).setLevel(serializerLevel);
+    }
+
+    @Test
+    public void testSplitReads() throws Exception {
+        List<Tx> txs = new ArrayList<Tx>();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        BitcoinSerializer serializer = new BitcoinSerializer();
+        // some garbage the peer sent between messages is skipped
+        stream.write(new byte[]{1, 2, 3});
+        for (int i = 0; i < 300; i++) {
+            // every tenth tx is larger than the read buffer
+            Tx tx = tx(i, i % 10 == 0 ? 10000 : 25);
+            txs.add(tx);
+            serializer.serialize(tx, stream);
+            serializer.serialize(inv(i, 1 + i % 50), stream);
+        }
+        byte[] bytes = stream.toByteArray();
+
+        for (int seed = 0; seed < 5; seed++) {
+            Random random = new Random(seed);
+            CollectingHandler handler = new CollectingHandler();
+            feed(handler, bytes, 4096, 1 + random.nextInt(3000), random);
+            assertEquals(600, handler.messages.size());
+            for (int i = 0; i < 300; i++) {
+                Tx tx = (Tx) handler.messages.get(i * 2);
+                assertArrayEquals(txs.get(i).getTxHash(), tx.getTxHash());
+                assertArrayEquals(txs.get(i).bitcoinSerialize(), tx.bitcoinSerialize());
+                InventoryMessage inv = (InventoryMessage) handler.messages.get(i * 2 + 1);
+                assertEquals(1 + i % 50, inv.getItems().size());
+                assertEquals(inv(i, 1 + i % 50).getItems(), inv.getItems());
+            }
+        }
+    }
+
+    /**
+     * Reads the bytes as a connection does: into the read buffer, hands what is there to the
+     * parser and keeps what it left for the next read.
+     */
+    static void feed(PeerSocketHandler handler, byte[] bytes, int bufferSize, int
+            readSize, Random random) {
+        ByteBuffer buff = ByteBuffer.allocateDirect(bufferSize);
+        int offset = 0;
+        while (offset < bytes.length) {
+            int size = random == null ? readSize : 1 + random.nextInt(readSize);
+            size = Math.min(Math.min(size, buff.remaining()), bytes.length - offset);
+            buff.put(bytes, offset, size);
+            offset += size;
+            buff.flip();
+            int consumed = handler.receiveBytes(buff);
+            assertEquals(buff.position(), consumed);
+            buff.compact();
+        }
+    }
+
+    static InventoryMessage inv(int n, int items) {
+        InventoryMessage inv = new InventoryMessage();
+        for (int i = 0; i < items; i++) {
+            inv.addTransaction(tx(n * 100 + i, 25));
+        }
+        return inv;
+    }
+
+    static Tx tx(int n, int scriptSize) {
+        Tx tx = new Tx();
+        In in = new In();
+        byte[] prevTxHash = new byte[32];
+        Utils.uint32ToByteArrayLE(n, prevTxHash, 0);
+        in.setPrevTxHash(prevTxHash);
+        in.setInSignature(new byte[107]);
+        tx.addInput(in);
+        tx.addOutput(new Out(tx, 10000 + n, new byte[scriptSize]));
+        tx.addOutput(new Out(tx, 20000 + n, new byte[25]));
+        tx.recalculateTxHash();
+        return tx;
+    }
+
+    static class CollectingHandler extends PeerSocketHandler {
+        private final List<Message> messages = new ArrayList<Message>();
+
+        CollectingHandler() {
+            super(new InetSocketAddress("127.0.0.1", 8333));
+        }
+
+        @Override
+        protected void processMessage(Message m) {
+            messages.add(m);
+        }
+
+        @Override
+        protected void exceptionCaught(Exception e) {
+            throw new AssertionError(e);
+        }
+
+        @Override
+        public void connectionClosed() {
+        }
+
+        @Override
+        public void connectionOpened() {
+        }
+    }
+}
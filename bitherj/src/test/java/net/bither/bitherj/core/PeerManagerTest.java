@@ -18,8 +18,69 @@ package net.bither.bitherj.core;
 
 import org.junit.Test;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
 public class PeerManagerTest {
 
+    @Test
+    public void testFloodingPeerIsPaused() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        // registering a tx is stuck until released, then finds it stored already
+        FakeWalletDb db = new FakeWalletDb(new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("isIdentify")) {
+                    release.await(10, TimeUnit.SECONDS);
+                    return new byte[1];
+                }
+                return FakeWalletDb.empty(method.getReturnType());
+            }
+        });
+        final List<Boolean> paused = Collections.synchronizedList(new ArrayList<Boolean>());
+        Peer peer = new Peer(InetAddress.getByName("127.0.0.2")) {
+            @Override
+            public void setReadPaused(boolean readPaused) {
+                paused.add(readPaused);
+            }
+        };
+        PeerManager peerManager = PeerManager.instance();
+        Field runningField = PeerManager.class.getDeclaredField("running");
+        runningField.setAccessible(true);
+        AtomicBoolean running = (AtomicBoolean) runningField.get(peerManager);
+        boolean wasRunning = running.getAndSet(true);
+        try {
+            Tx tx = new Tx();
+            tx.addOutput(new Out(tx, 100000, new byte[]{0x51}));
+            tx.recalculateTxHash();
+            for (int i = 0; i < 600; i++) {
+                peerManager.relayedTransaction(peer, tx, false);
+            }
+            assertEquals(Collections.singletonList(true), new ArrayList<Boolean>(paused));
+            release.countDown();
+            for (int i = 0; i < 100 && paused.size() < 2; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(2, paused.size());
+            assertFalse(paused.get(1));
+        } finally {
+            running.set(wasRunning);
+            release.countDown();
+            db.restore();
+        }
+    }
+
     @Test
     public void testNormal() throws InterruptedException {
         Block block = new Block(2, "00000000000000000ee9b585e0a707347d7c80f3a905f48fa32d448917335366", "4d60e37c7086096e85c11324d70112e61e74fc38a5c5153587a0271fd22b65c5", 1400928750
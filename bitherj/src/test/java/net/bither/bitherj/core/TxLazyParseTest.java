@@ -0,0 +1,148 @@
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.exception.ProtocolException;
+import net.bither.bitherj.utils.Utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TxLazyParseTest {
+
+    @Test
+    public void testServedFromItsBytes() throws Exception {
+        Tx built = tx(1, 3, 2);
+        byte[] bytes = built.bitcoinSerialize();
+        Tx tx = new Tx(bytes);
+        // nothing had to be rebuilt, not even for the hash
+        assertSame(bytes, tx.unsafeBitcoinSerialize());
+        assertArrayEquals(built.getTxHash(), tx.getTxHash());
+        assertEquals(bytes.length, tx.getMessageSize());
+        assertEquals(built.getTxLockTime(), tx.getTxLockTime());
+
+        // reading the ins and outs doesn't change that
+        assertEquals(3, tx.getIns().size());
+        assertEquals(2, tx.getOuts().size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(built.getIns().get(i), tx.getIns().get(i));
+        }
+        for (int i = 0; i < 2; i++) {
+            assertEquals(built.getOuts().get(i).getOutValue(), tx.getOuts().get(i).getOutValue());
+            assertArrayEquals(built.getOuts().get(i).getOutScript(), tx.getOuts().get(i)
+                    .getOutScript());
+            assertArrayEquals(built.getTxHash(), tx.getOuts().get(i).getTxHash());
+        }
+        assertSame(bytes, tx.unsafeBitcoinSerialize());
+        assertEquals(built, tx);
+    }
+
+    @Test
+    public void testChangeDropsBytes() throws Exception {
+        byte[] bytes = tx(2, 2, 2).bitcoinSerialize();
+        Tx tx = new Tx(bytes);
+        byte[] hash = tx.getTxHash();
+        tx.getIns().get(1).setInSignature(new byte[]{1, 2, 3});
+        byte[] changed = tx.bitcoinSerialize();
+        assertNotSame(bytes, tx.unsafeBitcoinSerialize());
+        assertFalse(Arrays.equals(bytes, changed));
+        assertArrayEquals(new byte[]{1, 2, 3}, new Tx(changed).getIns().get(1).getInSignature());
+        // like any other change, until it is recalculated
+        assertArrayEquals(hash, tx.getTxHash());
+        tx.recalculateTxHash();
+        assertArrayEquals(Utils.doubleDigest(changed), tx.getTxHash());
+
+        tx = new Tx(bytes);
+        tx.getOuts().get(0).setOutValue(1);
+        assertEquals(1, new Tx(tx.bitcoinSerialize()).getOuts().get(0).getOutValue());
+
+        tx = new Tx(bytes);
+        tx.addOutput(new Out(tx, 5000, new byte[]{0x51}));
+        assertEquals(3, new Tx(tx.bitcoinSerialize()).getOuts().size());
+    }
+
+    @Test
+    public void testTruncatedTx() {
+        byte[] bytes = tx(3, 2, 2).bitcoinSerialize();
+        for (int length : new int[]{3, 10, 45, bytes.length / 2, bytes.length - 1}) {
+            try {
+                new Tx(Arrays.copyOf(bytes, length));
+                fail("" + length);
+            } catch (ProtocolException e) {
+                // still found out when the tx arrives, not when its outs are read
+            }
+        }
+        // a script length running far past the message
+        byte[] broken = bytes.clone();
+        broken[4 + 1 + 36] = (byte) 0xfe;
+        broken[4 + 1 + 36 + 4] = (byte) 0x7f;
+        try {
+            new Tx(broken);
+            fail();
+        } catch (ProtocolException e) {
+        }
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        byte[] header = new byte[80];
+        Utils.uint32ToByteArrayLE(2, header, 0);
+        stream.write(header);
+        stream.write(3);
+        Tx[] txs = new Tx[]{tx(10, 1, 1), tx(11, 2, 2), tx(12, 1, 3)};
+        for (Tx tx : txs) {
+            stream.write(tx.bitcoinSerialize());
+        }
+        byte[] bytes = stream.toByteArray();
+
+        Block block = new Block(bytes);
+        assertArrayEquals(Utils.doubleDigest(header), block.getBlockHash());
+        assertEquals(bytes.length, block.getMessageSize());
+        assertArrayEquals(bytes, block.bitcoinSerialize());
+
+        assertEquals(3, block.getTransactions().size());
+        for (int i = 0; i < txs.length; i++) {
+            Tx tx = block.getTransactions().get(i);
+            assertArrayEquals(txs[i].getTxHash(), tx.getTxHash());
+            assertEquals(txs[i].getOuts().size(), tx.getOuts().size());
+        }
+        assertArrayEquals(bytes, block.bitcoinSerialize());
+
+        try {
+            new Block(Arrays.copyOf(bytes, bytes.length - 1));
+            fail();
+        } catch (ProtocolException e) {
+        }
+    }
+
+    private static Tx tx(int n, int inCount, int outCount) {
+        Tx tx = new Tx();
+        tx.setTxLockTime(n);
+        for (int i = 0; i < inCount; i++) {
+            In in = new In();
+            byte[] prevTxHash = new byte[32];
+            Utils.uint32ToByteArrayLE(n, prevTxHash, 0);
+            in.setPrevTxHash(prevTxHash);
+            in.setPrevOutSn(i);
+            byte[] signature = new byte[107];
+            signature[0] = (byte) i;
+            in.setInSignature(signature);
+            tx.addInput(in);
+        }
+        for (int i = 0; i < outCount; i++) {
+            byte[] script = new byte[25];
+            script[0] = (byte) n;
+            tx.addOutput(new Out(tx, 10000 * (i + 1) + n, script));
+        }
+        tx.recalculateTxHash();
+        return tx;
+    }
+}
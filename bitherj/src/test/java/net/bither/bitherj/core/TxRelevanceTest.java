@@ -0,0 +1,180 @@
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.utils.Utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TxRelevanceTest {
+
+    @Test
+    public void testOutputs() {
+        Random random = new Random(1);
+        byte[] pub = bytes(random, 33);
+        byte[] multiSig = bytes(random, 71);
+        TxRelevance index = new TxRelevance();
+        index.insertAll(Arrays.asList(pub, Utils.sha256hash160(pub), multiSig, Utils
+                .sha256hash160(multiSig)));
+
+        assertTrue(index.matches(tx(random, p2pkh(Utils.sha256hash160(pub)))));
+        assertTrue(index.matches(tx(random, p2sh(Utils.sha256hash160(multiSig)))));
+        // pay to pubkey
+        byte[] p2pk = new byte[35];
+        p2pk[0] = 33;
+        System.arraycopy(pub, 0, p2pk, 1, 33);
+        p2pk[34] = (byte) 0xac;
+        assertTrue(index.matches(tx(random, p2pk)));
+
+        assertFalse(index.matches(tx(random, p2pkh(bytes(random, 20)))));
+        // only part of a push
+        byte[] longer = Arrays.copyOf(Utils.sha256hash160(pub), 21);
+        assertFalse(index.matches(tx(random, new byte[]{0x76, (byte) 0xa9, 21}, longer)));
+        // a push running past the end of the script
+        assertFalse(index.matches(tx(random, new byte[]{0x4d, (byte) 0xff, (byte) 0xff, 1})));
+        assertFalse(index.matches(tx(random, new byte[]{0x4e, 1})));
+    }
+
+    @Test
+    public void testInputs() {
+        Random random = new Random(2);
+        byte[] pub = bytes(random, 33);
+        Tx funding = tx(random, p2pkh(bytes(random, 20)));
+        TxRelevance index = new TxRelevance();
+        index.insert(pub);
+        index.insert(WalletBloomFilter.outpoint(funding.getTxHash(), 0));
+
+        // spending one of our outpoints
+        Tx spend = spend(random, funding.getTxHash(), 0, bytes(random, 72), bytes(random, 33));
+        assertTrue(index.matches(spend));
+        assertFalse(index.matches(spend(random, funding.getTxHash(), 1, bytes(random, 72), bytes
+                (random, 33))));
+        // signed with one of our keys
+        assertTrue(index.matches(spend(random, bytes(random, 32), 0, bytes(random, 72), pub)));
+
+        // matching doesn't make a tx's outpoints ours, only registering it does
+        Tx child = spend(random, spend.getTxHash(), 0, bytes(random, 72), bytes(random, 33));
+        assertFalse(index.matches(child));
+        assertEquals(2, index.size());
+        index.insert(WalletBloomFilter.outpoint(spend.getTxHash(), 0));
+        assertTrue(index.matches(child));
+    }
+
+    @Test
+    public void testFalsePositives() {
+        // a loose filter relays a lot more than the wallet's txs, they must all be told apart
+        Random random = new Random(3);
+        List<byte[]> hash160s = new ArrayList<byte[]>();
+        TxRelevance index = new TxRelevance();
+        BloomFilter filter = new BloomFilter(2000, 0.01, 7, BloomFilter.BloomUpdate.UPDATE_ALL);
+        for (int i = 0; i < 1000; i++) {
+            byte[] pub = bytes(random, 33);
+            hash160s.add(Utils.sha256hash160(pub));
+            for (byte[] element : new byte[][]{pub, Utils.sha256hash160(pub)}) {
+                filter.insert(element);
+                index.insert(element);
+            }
+        }
+        int relayed = 0;
+        for (int i = 0; i < 200000; i++) {
+            byte[] hash160 = bytes(random, 20);
+            if (filter.contains(hash160)) {
+                relayed++;
+                assertFalse(index.matches(tx(random, p2pkh(hash160))));
+            }
+        }
+        assertTrue(relayed > 0);
+        for (byte[] hash160 : hash160s) {
+            assertTrue(index.matches(tx(random, p2pkh(hash160))));
+        }
+    }
+
+    @Test
+    public void testRejectsUnrelated() {
+        // unrelated relayed txs against a wallet's worth of elements
+        Random random = new Random(4);
+        TxRelevance index = new TxRelevance();
+        for (int i = 0; i < 10000; i++) {
+            byte[] pub = bytes(random, 33);
+            index.insert(pub);
+            index.insert(Utils.sha256hash160(pub));
+            index.insert(WalletBloomFilter.outpoint(bytes(random, 32), i % 3));
+        }
+        for (int i = 0; i < 2000; i++) {
+            Tx tx = spend(random, bytes(random, 32), 0, bytes(random, 72), bytes(random, 33));
+            tx.addOutput(new Out(tx, 20000, p2pkh(bytes(random, 20))));
+            tx.recalculateTxHash();
+            assertFalse(index.matches(tx));
+        }
+        assertEquals(30000, index.size());
+    }
+
+    private static Tx tx(Random random, byte[]... scriptParts) {
+        Tx tx = spend(random, bytes(random, 32), 0, bytes(random, 72), bytes(random, 33));
+        int length = 0;
+        for (byte[] part : scriptParts) {
+            length += part.length;
+        }
+        byte[] script = new byte[length];
+        int offset = 0;
+        for (byte[] part : scriptParts) {
+            System.arraycopy(part, 0, script, offset, part.length);
+            offset += part.length;
+        }
+        tx.addOutput(new Out(tx, 10000, script));
+        tx.addOutput(new Out(tx, 20000, p2pkh(bytes(random, 20))));
+        tx.recalculateTxHash();
+        return tx;
+    }
+
+    private static Tx spend(Random random, byte[] prevTxHash, int prevOutSn, byte[] signature,
+                            byte[] pub) {
+        Tx tx = new Tx();
+        In in = new In();
+        in.setPrevTxHash(prevTxHash);
+        in.setPrevOutSn(prevOutSn);
+        byte[] script = new byte[2 + signature.length + pub.length];
+        script[0] = (byte) signature.length;
+        System.arraycopy(signature, 0, script, 1, signature.length);
+        script[1 + signature.length] = (byte) pub.length;
+        System.arraycopy(pub, 0, script, 2 + signature.length, pub.length);
+        in.setInSignature(script);
+        tx.addInput(in);
+        tx.addOutput(new Out(tx, random.nextInt(100000), p2pkh(bytes(random, 20))));
+        tx.recalculateTxHash();
+        return tx;
+    }
+
+    private static byte[] p2pkh(byte[] hash160) {
+        byte[] script = new byte[25];
+        script[0] = 0x76;
+        script[1] = (byte) 0xa9;
+        script[2] = 20;
+        System.arraycopy(hash160, 0, script, 3, 20);
+        script[23] = (byte) 0x88;
+        script[24] = (byte) 0xac;
+        return script;
+    }
+
+    private static byte[] p2sh(byte[] hash160) {
+        byte[] script = new byte[23];
+        script[0] = (byte) 0xa9;
+        script[1] = 20;
+        System.arraycopy(hash160, 0, script, 2, 20);
+        script[22] = (byte) 0x87;
+        return script;
+    }
+
+    private static byte[] bytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,151 @@
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.crypto.ECKey;
+import net.bither.bitherj.crypto.TransactionSignature;
+import net.bither.bitherj.script.Script;
+import net.bither.bitherj.script.ScriptBuilder;
+import net.bither.bitherj.script.ScriptOpCodes;
+import net.bither.bitherj.utils.Utils;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TxSigHasherTest {
+    private static final int[] SigHashTypes = new int[]{1, 2, 3, 0x81, 0x82, 0x83, 0};
+
+    @Test
+    public void testMatchesSimplifiedCopy() {
+        Random random = new Random(42);
+        // below, at and well above the checkpoint interval
+        int[] inCounts = new int[]{1, 2, 5, TxSigHasher.CheckpointInputs, TxSigHasher
+                .CheckpointInputs + 1, 150};
+        for (int inCount : inCounts) {
+            Tx tx = randomTx(random, inCount, 1 + random.nextInt(inCount + 3));
+            TxSigHasher hasher = new TxSigHasher(tx);
+            for (int type : SigHashTypes) {
+                for (int i = 0; i < inCount; i++) {
+                    byte[] script = randomScript(random);
+                    assertArrayEquals("inputs " + inCount + " type " + type + " input " + i,
+                            referenceHash(tx, i, script, (byte) type), hasher.hash(i, script,
+                                    (byte) type));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testVerifyLargeTx() {
+        ECKey[] keys = new ECKey[]{new ECKey(BigInteger.valueOf(3000017), null, true), new ECKey
+                (BigInteger.valueOf(4000037), null, true)};
+        Tx tx = new Tx();
+        for (int i = 0; i < 70; i++) {
+            In in = new In();
+            byte[] prevTxHash = new byte[32];
+            Arrays.fill(prevTxHash, (byte) i);
+            in.setPrevTxHash(prevTxHash);
+            in.setPrevOutSn(i);
+            in.setPrevOutScript(ScriptBuilder.createOutputScript(keys[i % 2].toAddress())
+                    .getProgram());
+            in.setInSignature(new byte[0]);
+            tx.addInput(in);
+        }
+        tx.addOutput(500000, keys[0].toAddress());
+        List<byte[]> hashes = tx.getUnsignedInHashes();
+        for (int i = 0; i < hashes.size(); i++) {
+            TransactionSignature sig = new TransactionSignature(keys[i % 2].sign(hashes.get(i)),
+                    TransactionSignature.SigHash.ALL, false);
+            tx.getIns().get(i).setInSignature(ScriptBuilder.createInputScript(sig, keys[i % 2])
+                    .getProgram());
+        }
+        assertTrue(tx.verifySignatures());
+    }
+
+    /**
+     * The simplified copy of the tx the reference client hashes, built and serialized as a
+     * separate tx.
+     */
+    static byte[] referenceHash(Tx tx, int index, byte[] script, byte sigHashType) {
+        script = Script.removeAllInstancesOfOp(script, ScriptOpCodes.OP_CODESEPARATOR);
+        boolean none = (sigHashType & 0x1f) == TransactionSignature.SigHash.NONE.ordinal() + 1;
+        boolean single = (sigHashType & 0x1f) == TransactionSignature.SigHash.SINGLE.ordinal() +
+                1;
+        boolean anyoneCanPay = (sigHashType & TransactionSignature.SIGHASH_ANYONECANPAY_VALUE)
+                != 0;
+        if (single && index >= tx.getOuts().size()) {
+            return Utils.hexStringToByteArray
+                    ("0100000000000000000000000000000000000000000000000000000000000000");
+        }
+        Tx copy = new Tx();
+        copy.setTxVer(tx.getTxVer());
+        copy.setTxLockTime(tx.getTxLockTime());
+        for (int i = 0; i < tx.getIns().size(); i++) {
+            if (anyoneCanPay && i != index) {
+                continue;
+            }
+            In in = tx.getIns().get(i);
+            In blank = new In();
+            blank.setPrevTxHash(in.getPrevTxHash());
+            blank.setPrevOutSn(in.getPrevOutSn());
+            blank.setInSignature(i == index ? script : new byte[0]);
+            blank.setInSequence(i == index || !(none || single) ? in.getInSequence() : 0);
+            copy.addInput(blank);
+        }
+        if (single) {
+            for (int i = 0; i < index; i++) {
+                copy.addOutput(new Out(copy, -1, new byte[0]));
+            }
+            Out out = tx.getOuts().get(index);
+            copy.addOutput(new Out(copy, out.getOutValue(), out.getOutScript()));
+        } else if (!none) {
+            for (Out out : tx.getOuts()) {
+                copy.addOutput(new Out(copy, out.getOutValue(), out.getOutScript()));
+            }
+        }
+        byte[] serialized = copy.bitcoinSerialize();
+        byte[] preimage = Arrays.copyOf(serialized, serialized.length + 4);
+        Utils.uint32ToByteArrayLE(0x000000ff & sigHashType, preimage, serialized.length);
+        return Utils.doubleDigest(preimage);
+    }
+
+    static Tx randomTx(Random random, int inCount, int outCount) {
+        Tx tx = new Tx();
+        tx.setTxVer(1 + random.nextInt(2));
+        tx.setTxLockTime(random.nextInt(500000));
+        for (int i = 0; i < inCount; i++) {
+            In in = new In();
+            byte[] prevTxHash = new byte[32];
+            random.nextBytes(prevTxHash);
+            in.setPrevTxHash(prevTxHash);
+            in.setPrevOutSn(random.nextInt(10));
+            in.setInSignature(randomScript(random));
+            in.setInSequence(random.nextBoolean() ? In.NO_SEQUENCE : random.nextInt() &
+                    0xffffffffL);
+            tx.addInput(in);
+        }
+        for (int i = 0; i < outCount; i++) {
+            tx.addOutput(new Out(tx, random.nextInt(100000000), randomScript(random)));
+        }
+        return tx;
+    }
+
+    private static byte[] randomScript(Random random) {
+        // well formed pushes with the odd OP_CODESEPARATOR in between
+        byte[] script = new byte[random.nextInt(4) * 22];
+        for (int offset = 0; offset < script.length; offset += 22) {
+            script[offset] = (byte) (random.nextInt(5) == 0 ? ScriptOpCodes.OP_CODESEPARATOR :
+                    ScriptOpCodes.OP_DUP);
+            script[offset + 1] = 20;
+            for (int i = offset + 2; i < offset + 22; i++) {
+                script[i] = (byte) random.nextInt();
+            }
+        }
+        return script;
+    }
+}
@@ -0,0 +1,325 @@
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.utils.Utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class UtxoSetTest {
+    private static final int HDAccountId = 1;
+
+    // what the tx provider has stored
+    private final List<Tx> store = new ArrayList<Tx>();
+    private int txCount;
+
+    @Test
+    public void testBalanceFollowsTxs() {
+        Tx c1 = tx(100, new Object[0], "A", 5000L, "B", 1000L);
+        store.add(c1);
+        StoreUtxoSet utxoSet = new StoreUtxoSet();
+        assertEquals(5000, utxoSet.getBalance("A"));
+        assertEquals(1000, utxoSet.getBalance("B"));
+
+        Tx u1 = tx(Tx.TX_UNCONFIRMED, new Object[]{c1, 0}, "B", 3000L, "A", 1900L);
+        register(utxoSet, u1);
+        assertEquals(1900, utxoSet.getBalance("A"));
+        assertEquals(4000, utxoSet.getBalance("B"));
+        assertSameAsLoaded(utxoSet, "A", "B");
+        List<Tx> unspent = utxoSet.getUnspendTxs("A");
+        assertEquals(1, unspent.size());
+        assertEquals(Tx.TX_UNCONFIRMED, unspent.get(0).getBlockNo());
+        assertEquals(1900, unspent.get(0).getOuts().get(0).getOutValue());
+        assertEquals(0, unspent.get(0).getOuts().get(0).getCoinDepth());
+
+        confirm(utxoSet, 101, u1);
+        assertEquals(1900, utxoSet.getBalance("A"));
+        assertEquals(101 * 1900, utxoSet.getUnspendTxs("A").get(0).getOuts().get(0)
+                .getCoinDepth());
+        assertSameAsLoaded(utxoSet, "A", "B");
+
+        u1.setBlockNo(Tx.TX_UNCONFIRMED);
+        utxoSet.unConfirmTxByBlockNo(101);
+        assertEquals(0, utxoSet.getUnspendTxs("A").get(0).getOuts().get(0).getCoinDepth());
+        assertEquals(4000, utxoSet.getBalance("B"));
+        assertSameAsLoaded(utxoSet, "A", "B");
+
+        // unrelated txs do not load anything
+        register(utxoSet, tx(Tx.TX_UNCONFIRMED, new Object[0], "C", 10L));
+        assertEquals(2, utxoSet.loads);
+    }
+
+    @Test
+    public void testDoubleSpendCountsTheFirst() {
+        Tx c1 = tx(100, new Object[0], "A", 5000L);
+        store.add(c1);
+        StoreUtxoSet utxoSet = new StoreUtxoSet();
+        assertEquals(0, utxoSet.getBalance("B"));
+
+        Tx u1 = tx(Tx.TX_UNCONFIRMED, new Object[]{c1, 0}, "B", 4000L);
+        Tx u2 = tx(Tx.TX_UNCONFIRMED, new Object[]{c1, 0}, "B", 4500L);
+        Tx u3 = tx(Tx.TX_UNCONFIRMED, new Object[]{u2, 0}, "B", 100L);
+        register(utxoSet, u1);
+        register(utxoSet, u2);
+        register(utxoSet, u3);
+        assertEquals(4000, utxoSet.getBalance("B"));
+        assertEquals(referenceBalance("B"), utxoSet.getBalance("B"));
+        assertEquals(0, utxoSet.getBalance("A"));
+        assertSameAsLoaded(utxoSet, "A", "B");
+
+        // the store drops the tx the rival spent against
+        store.remove(u1);
+        confirm(utxoSet, 101, u2);
+        assertEquals(100, utxoSet.getBalance("B"));
+        assertEquals(referenceBalance("B"), utxoSet.getBalance("B"));
+        assertSameAsLoaded(utxoSet, "A", "B");
+    }
+
+    @Test
+    public void testHDAccount() {
+        Tx c1 = tx(100, new Object[0], "h0", 7000L, "A", 1L, "h3", 500L);
+        Tx u1 = tx(Tx.TX_UNCONFIRMED, new Object[0], "h1", 2000L);
+        store.add(c1);
+        store.add(u1);
+        StoreUtxoSet utxoSet = new StoreUtxoSet();
+        assertEquals(9500, utxoSet.getHDAccountBalance(HDAccountId));
+        assertEquals(3, utxoSet.getUnspendOuts(HDAccountId).size());
+
+        Tx u2 = tx(Tx.TX_UNCONFIRMED, new Object[]{c1, 0}, "A", 6000L, "h2", 900L);
+        register(utxoSet, u2);
+        assertEquals(3400, utxoSet.getHDAccountBalance(HDAccountId));
+        List<Out> outs = utxoSet.getUnspendOuts(HDAccountId);
+        assertEquals(3, outs.size());
+        for (Out out : outs) {
+            assertEquals(HDAccountId, out.getHDAccountId());
+        }
+        assertEquals(1, utxoSet.loads);
+
+        // the hd outs were loaded without their heights
+        utxoSet.unConfirmTxByBlockNo(100);
+        c1.setBlockNo(Tx.TX_UNCONFIRMED);
+        assertEquals(3400, utxoSet.getHDAccountBalance(HDAccountId));
+        assertEquals(2, utxoSet.loads);
+    }
+
+    private void register(UtxoSet utxoSet, Tx tx) {
+        store.add(tx);
+        utxoSet.registerTx(tx);
+    }
+
+    private void confirm(UtxoSet utxoSet, int blockNo, Tx tx) {
+        tx.setBlockNo(blockNo);
+        utxoSet.confirmTx(blockNo, Arrays.asList(tx.getTxHash()));
+    }
+
+    private void assertSameAsLoaded(UtxoSet utxoSet, String... addresses) {
+        StoreUtxoSet loaded = new StoreUtxoSet();
+        for (String address : addresses) {
+            assertEquals(loaded.getBalance(address), utxoSet.getBalance(address));
+            assertEquals(outPoints(loaded.getUnspendTxs(address)), outPoints(utxoSet
+                    .getUnspendTxs(address)));
+        }
+    }
+
+    private static Set<String> outPoints(List<Tx> txs) {
+        Set<String> result = new HashSet<String>();
+        for (Tx tx : txs) {
+            Out out = tx.getOuts().get(0);
+            result.add(Utils.hashToString(out.getTxHash()) + ":" + out.getOutSn() + ":" + tx
+                    .getBlockNo());
+        }
+        return result;
+    }
+
+    /**
+     * The confirmed unspent outs and the unconfirmed txs of the address, as the balance was
+     * calculated before the set.
+     */
+    private long referenceBalance(String address) {
+        long balance = 0;
+        for (Tx tx : unspentTxs(address)) {
+            if (tx.getBlockNo() != Tx.TX_UNCONFIRMED) {
+                balance += tx.getOuts().get(0).getOutValue();
+            }
+        }
+        List<Tx> txs = unconfirmedTxs(address);
+        Collections.sort(txs);
+        Set<String> invalidTx = new HashSet<String>();
+        Set<OutPoint> spentOut = new HashSet<OutPoint>();
+        Set<OutPoint> unspendOut = new HashSet<OutPoint>();
+        for (int i = txs.size() - 1; i >= 0; i--) {
+            Set<OutPoint> spent = new HashSet<OutPoint>();
+            Tx tx = txs.get(i);
+            boolean spendsInvalid = false;
+            for (In in : tx.getIns()) {
+                spent.add(new OutPoint(in.getPrevTxHash(), in.getPrevOutSn()));
+                spendsInvalid |= invalidTx.contains(Utils.hashToString(in.getPrevTxHash()));
+            }
+            if (Utils.isIntersects(spent, spentOut) || spendsInvalid) {
+                invalidTx.add(Utils.hashToString(tx.getTxHash()));
+                continue;
+            }
+            spentOut.addAll(spent);
+            for (Out out : tx.getOuts()) {
+                if (address.equals(out.getOutAddress())) {
+                    unspendOut.add(new OutPoint(tx.getTxHash(), out.getOutSn()));
+                    balance += out.getOutValue();
+                }
+            }
+            spent.clear();
+            spent.addAll(unspendOut);
+            spent.retainAll(spentOut);
+            for (OutPoint o : spent) {
+                unspendOut.remove(o);
+                balance -= find(o).getOutValue();
+            }
+        }
+        return balance;
+    }
+
+    private boolean isSpent(Out out) {
+        for (Tx tx : store) {
+            for (In in : tx.getIns()) {
+                if (Arrays.equals(in.getPrevTxHash(), out.getTxHash()) && in.getPrevOutSn() ==
+                        out.getOutSn()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Out find(OutPoint outPoint) {
+        for (Tx tx : store) {
+            if (Arrays.equals(tx.getTxHash(), outPoint.getTxHash())) {
+                return tx.getOuts().get(outPoint.getOutSn());
+            }
+        }
+        return null;
+    }
+
+    private List<Tx> unspentTxs(String address) {
+        List<Tx> result = new ArrayList<Tx>();
+        for (Tx tx : store) {
+            for (Out out : tx.getOuts()) {
+                if (address.equals(out.getOutAddress()) && !isSpent(out)) {
+                    Tx unspent = new Tx();
+                    unspent.setTxHash(tx.getTxHash());
+                    unspent.setBlockNo(tx.getBlockNo());
+                    unspent.getOuts().add(out);
+                    result.add(unspent);
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<Tx> unconfirmedTxs(String address) {
+        List<Tx> result = new ArrayList<Tx>();
+        for (Tx tx : store) {
+            if (tx.getBlockNo() != Tx.TX_UNCONFIRMED) {
+                continue;
+            }
+            boolean related = false;
+            for (Out out : tx.getOuts()) {
+                related |= address.equals(out.getOutAddress());
+            }
+            for (In in : tx.getIns()) {
+                Out prev = find(new OutPoint(in.getPrevTxHash(), in.getPrevOutSn()));
+                related |= prev != null && address.equals(prev.getOutAddress());
+            }
+            if (related) {
+                result.add(tx);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A tx spending the given txs' outs, {tx, outSn, ...}, paying the given addresses,
+     * {address, value, ...}. Addresses starting with h belong to the hd account.
+     */
+    private Tx tx(int blockNo, Object[] prevs, Object... outs) {
+        Tx tx = new Tx();
+        tx.setTxTime(++txCount);
+        for (int i = 0; i < prevs.length; i += 2) {
+            In in = new In();
+            in.setPrevTxHash(((Tx) prevs[i]).getTxHash());
+            in.setPrevOutSn((Integer) prevs[i + 1]);
+            in.setInSignature(new byte[]{1, 2, 3});
+            tx.addInput(in);
+        }
+        if (prevs.length == 0) {
+            In in = new In();
+            byte[] prevTxHash = new byte[32];
+            prevTxHash[0] = (byte) txCount;
+            in.setPrevTxHash(prevTxHash);
+            in.setInSignature(new byte[]{1, 2, 3});
+            tx.addInput(in);
+        }
+        for (int i = 0; i < outs.length; i += 2) {
+            Out out = new Out(tx, (Long) outs[i + 1], new byte[]{0x51});
+            tx.addOutput(out);
+        }
+        tx.recalculateTxHash();
+        for (int i = 0; i < outs.length; i += 2) {
+            Out out = tx.getOuts().get(i / 2);
+            out.setOutAddress((String) outs[i]);
+            if (((String) outs[i]).startsWith("h")) {
+                out.setHDAccountId(HDAccountId);
+            }
+        }
+        tx.setBlockNo(blockNo);
+        return tx;
+    }
+
+    private class StoreUtxoSet extends UtxoSet {
+        private int loads;
+
+        @Override
+        protected List<Tx> loadUnspentTxs(String address) {
+            loads++;
+            return unspentTxs(address);
+        }
+
+        @Override
+        protected List<Tx> loadUnconfirmedTxs(String address) {
+            return unconfirmedTxs(address);
+        }
+
+        @Override
+        protected List<Out> loadUnspentOuts(int hdAccountId) {
+            loads++;
+            List<Out> result = new ArrayList<Out>();
+            for (Tx tx : store) {
+                for (Out out : tx.getOuts()) {
+                    if (out.getHDAccountId() == hdAccountId && !isSpent(out)) {
+                        result.add(out);
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        protected List<Tx> loadUnconfirmedTxs(int hdAccountId) {
+            List<Tx> result = new ArrayList<Tx>();
+            for (Tx tx : store) {
+                for (Out out : tx.getOuts()) {
+                    if (tx.getBlockNo() == Tx.TX_UNCONFIRMED && out.getHDAccountId() ==
+                            hdAccountId && !result.contains(tx)) {
+                        result.add(tx);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package net.bither.bitherj.core;
+
+import net.bither.bitherj.crypto.ECKey;
+import net.bither.bitherj.script.ScriptBuilder;
+import net.bither.bitherj.utils.Sha256Hash;
+import net.bither.bitherj.utils.Utils;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WalletBloomFilterTest {
+
+    @Test
+    public void testRebuildThreshold() {
+        double fpRate = BloomFilter.DEFAULT_BLOOM_FILTER_FP_RATE;
+        BloomFilter filter = new BloomFilter(1000, fpRate, 0, BloomFilter.BloomUpdate.UPDATE_ALL);
+        assertFalse(WalletBloomFilter.needsRebuild(filter, 1000, 0, fpRate));
+        // a little over the sized count is still fine, several times it is not
+        assertFalse(WalletBloomFilter.needsRebuild(filter, 1050, 0, fpRate));
+        assertTrue(WalletBloomFilter.needsRebuild(filter, 2000, 0, fpRate));
+        // a much lower rate, as asked for during chain sync, needs a bigger filter
+        assertTrue(WalletBloomFilter.needsRebuild(filter, 1000, 0, BloomFilter
+                .BLOOM_REDUCED_FALSEPOSITIVE_RATE));
+        // mostly spent outpoints
+        assertFalse(WalletBloomFilter.needsRebuild(filter, 1000, 400, fpRate));
+        assertTrue(WalletBloomFilter.needsRebuild(filter, 1000, 600, fpRate));
+    }
+
+    @Test
+    public void testOutpointMatchesOut() {
+        byte[] txHash = new byte[32];
+        new Random(3).nextBytes(txHash);
+        Out out = new Out();
+        out.setTxHash(txHash);
+        out.setOutSn(258);
+        assertArrayEquals(out.getOutpointData(), WalletBloomFilter.outpoint(txHash, 258));
+
+        BloomFilter filter = new BloomFilter(10, BloomFilter.DEFAULT_BLOOM_FILTER_FP_RATE, 0);
+        filter.insert(out.getOutpointData());
+        assertTrue(filter.contains(WalletBloomFilter.outpoint(txHash, 258)));
+        assertFalse(filter.contains(WalletBloomFilter.outpoint(Utils.reverseBytes(txHash), 258)));
+    }
+
+    @Test
+    public void testRelayedTxReachesFilter() throws Exception {
+        final Set<Sha256Hash> stored = new HashSet<Sha256Hash>();
+        // an empty wallet database with one address, keeping the txs it is given
+        FakeWalletDb db = new FakeWalletDb(new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("add")) {
+                    stored.add(new Sha256Hash(((Tx) args[0]).getTxHash()));
+                    return null;
+                }
+                if (method.getName().equals("isExist")) {
+                    return stored.contains(new Sha256Hash((byte[]) args[0]));
+                }
+                return FakeWalletDb.empty(method.getReturnType());
+            }
+        });
+        try {
+            ECKey key = ECKey.generateECKey(new SecureRandom());
+            Address address = new Address(key.toAddress(), key.getPubKey(), 0, true, false,
+                    false, null);
+            db.addresses.add(address);
+            PeerManager peerManager = PeerManager.instance();
+            WalletBloomFilter walletFilter = peerManager.getWalletBloomFilter();
+            walletFilter.invalidate();
+            walletFilter.getFilter(BloomFilter.DEFAULT_BLOOM_FILTER_FP_RATE);
+
+            Tx tx = new Tx();
+            In in = new In();
+            byte[] prevTxHash = new byte[32];
+            new Random(4).nextBytes(prevTxHash);
+            in.setPrevTxHash(prevTxHash);
+            in.setInSignature(new byte[0]);
+            tx.addInput(in);
+            tx.addOutput(new Out(tx, 100000, ScriptBuilder.createOutputScript(address
+                    .getAddress()).getProgram()));
+            tx.recalculateTxHash();
+            assertFalse(walletFilter.getFilter(BloomFilter.DEFAULT_BLOOM_FILTER_FP_RATE)
+                    .contains(outpoint(tx.getTxHash(), 0)));
+            Tx spend = new Tx();
+            In spendIn = new In();
+            spendIn.setPrevTxHash(tx.getTxHash());
+            spendIn.setInSignature(new byte[0]);
+            spend.addInput(spendIn);
+            spend.addOutput(new Out(spend, 90000, new byte[]{0x51}));
+            spend.recalculateTxHash();
+            assertFalse(walletFilter.mayBeRelated(spend));
+
+            peerManager.registerRelayedTx(new Peer(InetAddress.getByName("127.0.0.1")), tx,
+                    false);
+            assertTrue(stored.contains(new Sha256Hash(tx.getTxHash())));
+            // so a later spend of it from another wallet still matches
+            assertTrue(walletFilter.getFilter(BloomFilter.DEFAULT_BLOOM_FILTER_FP_RATE)
+                    .contains(outpoint(tx.getTxHash(), 0)));
+            assertTrue(walletFilter.mayBeRelated(spend));
+        } finally {
+            db.restore();
+        }
+    }
+
+    private static byte[] outpoint(byte[] txHash, int outSn) {
+        return WalletBloomFilter.outpoint(txHash, outSn);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 http://Bither.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bither.bitherj.crypto;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ECBackendTest {
+
+    @Test
+    public void testBackendsAgree() {
+        ECBackend reference = new ReferenceECBackend();
+        Random random = new Random(8);
+        for (ECBackend backend : backends()) {
+            for (int i = 0; i < 20; i++) {
+                BigInteger priv = privateKey(random);
+                byte[] hash = new byte[32];
+                random.nextBytes(hash);
+                assertArrayEquals(reference.publicKeyFromPrivate(priv, true), backend
+                        .publicKeyFromPrivate(priv, true));
+                byte[] pub = backend.publicKeyFromPrivate(priv, false);
+                assertArrayEquals(reference.publicKeyFromPrivate(priv, false), pub);
+
+                ECKey.ECDSASignature signature = backend.sign(hash, priv);
+                ECKey.ECDSASignature expected = reference.sign(hash, priv);
+                assertEquals(expected.r, signature.r);
+                assertEquals(expected.s, signature.s);
+                assertTrue(backend.verify(hash, signature, pub));
+                assertTrue(reference.verify(hash, signature, pub));
+                assertTrue(backend.verify(hash, signature.encodeToDER(), pub));
+
+                hash[0]++;
+                assertFalse(backend.verify(hash, signature, pub));
+                assertFalse(backend.verify(hash, new ECKey.ECDSASignature(signature.r, BigInteger
+                        .ZERO), pub));
+            }
+        }
+    }
+
+    @Test
+    public void testBatchVerify() {
+        Random random = new Random(9);
+        List<byte[]> hashes = new ArrayList<byte[]>();
+        List<ECKey.ECDSASignature> signatures = new ArrayList<ECKey.ECDSASignature>();
+        List<byte[]> pubs = new ArrayList<byte[]>();
+        ECKey[] keys = new ECKey[]{new ECKey(privateKey(random), null, true), new ECKey
+                (privateKey(random), null, false)};
+        for (int i = 0; i < 100; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            ECKey key = keys[i % keys.length];
+            hashes.add(hash);
+            signatures.add(key.sign(hash));
+            pubs.add(key.getPubKey());
+        }
+        pubs.set(37, keys[0].getPubKey());
+        boolean[] results = ECKey.verify(hashes, signatures, pubs);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals("signature " + i, i != 37, results[i]);
+        }
+        assertEquals(0, ECKey.verify(new ArrayList<byte[]>(), new ArrayList<ECKey
+                .ECDSASignature>(), new ArrayList<byte[]>()).length);
+    }
+
+    static List<ECBackend> backends() {
+        List<ECBackend> backends = new ArrayList<ECBackend>();
+        backends.add(new FastECBackend());
+        if (NativeSecp256k1.enabled) {
+            backends.add(new NativeECBackend());
+        }
+        return backends;
+    }
+
+    static BigInteger privateKey(Random random) {
+        BigInteger priv;
+        do {
+            priv = new BigInteger(256, random);
+        } while (priv.signum() == 0 || priv.compareTo(ECKey.CURVE.getN()) >= 0);
+        return priv;
+    }
+}
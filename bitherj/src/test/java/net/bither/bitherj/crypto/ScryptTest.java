@@ -0,0 +1,132 @@
+package net.bither.bitherj.crypto;
+
+import com.lambdaworks.crypto.SCrypt;
+
+import net.bither.bitherj.utils.PrivateKeyUtil;
+import net.bither.bitherj.utils.Utils;
+
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ScryptTest {
+    // RFC 7914 section 12: password, salt, N, r, p, derived key
+    private static final String[][] Vectors = {
+            {"", "", "16", "1", "1", "77d6576238657b203b19ca42c18a0497f16b4844e3074ae8dfdffa3fede2" +
+                    "1442fcd0069ded0948f8326a753a0fc81f17e8d3e0fb2e0d3628cf35e20c38d18906"},
+            {"password", "NaCl", "1024", "8", "16", "fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc823" +
+                    "7830e77376634b3731622eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa" +
+                    "2cc0640"},
+            {"pleaseletmein", "SodiumChloride", "16384", "8", "1", "7023bdcb3afd7348461c06cd81fd38" +
+                    "ebfda8fbba904f8e3ea9b543f6545da1f2d5432955613f0fcf62d49705242a9af9e61e85dc0d65" +
+                    "1e40dfcf017b45575887"}};
+
+    static final String Password = "aTestPassword";
+
+    @Test
+    public void testVectors() {
+        for (String[] vector : Vectors) {
+            byte[] derived = Scrypt.scrypt(vector[0].getBytes(), vector[1].getBytes(), Integer
+                    .parseInt(vector[2]), Integer.parseInt(vector[3]), Integer.parseInt
+                    (vector[4]), vector[5].length() / 2);
+            assertEquals(vector[5], Utils.bytesToHexString(derived).toLowerCase());
+            derived = Scrypt.scryptJ(vector[0].getBytes(), vector[1].getBytes(), Integer.parseInt
+                    (vector[2]), Integer.parseInt(vector[3]), Integer.parseInt(vector[4]),
+                    vector[5].length() / 2);
+            assertEquals(vector[5], Utils.bytesToHexString(derived).toLowerCase());
+        }
+    }
+
+    @Test
+    public void testSameAsLambdaworks() throws Exception {
+        Random random = new Random(5);
+        for (int i = 0; i < 20; i++) {
+            byte[] password = new byte[1 + random.nextInt(40)];
+            byte[] salt = new byte[random.nextInt(20)];
+            random.nextBytes(password);
+            random.nextBytes(salt);
+            int n = 2 << random.nextInt(8);
+            int r = 1 + random.nextInt(4);
+            int p = 1 + random.nextInt(4);
+            int dkLen = 1 + random.nextInt(100);
+            byte[] expected = SCrypt.scryptJ(password, salt, n, r, p, dkLen);
+            assertArrayEquals(expected, Scrypt.scryptJ(password, salt, n, r, p, dkLen));
+            assertArrayEquals(expected, Scrypt.scrypt(password, salt, n, r, p, dkLen));
+        }
+        try {
+            Scrypt.scrypt(new byte[1], new byte[1], 1000, 8, 1, 32);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testScratchBudget() throws Exception {
+        byte[] expected = SCrypt.scrypt(new byte[]{1}, new byte[]{2}, 1024, 8, 4, 32);
+        assertArrayEquals(expected, Scrypt.scryptJ(new byte[]{1}, new byte[]{2}, 1024, 8, 4, 32));
+        assertEquals(Scrypt.ScratchBudgetKB, Scrypt.scratchBudget.availablePermits());
+
+        // a heap with room for a single 1MB V array runs the lanes one after the other
+        int drained = Scrypt.scratchBudget.drainPermits();
+        Scrypt.scratchBudget.release(1024);
+        try {
+            assertArrayEquals(expected, Scrypt.scryptJ(new byte[]{1}, new byte[]{2}, 1024, 8, 4,
+                    32));
+            assertEquals(1024, Scrypt.scratchBudget.availablePermits());
+        } finally {
+            Scrypt.scratchBudget.drainPermits();
+            Scrypt.scratchBudget.release(drained);
+        }
+    }
+
+    @Test
+    public void testTunableCrypter() {
+        byte[] salt = new byte[KeyCrypterScrypt.SALT_LENGTH];
+        KeyCrypterScrypt standard = new KeyCrypterScrypt(salt);
+        KeyCrypterScrypt light = new KeyCrypterScrypt(salt, 1024, 8, 2);
+        assertEquals(16384, standard.getN());
+        assertEquals(2, light.getP());
+        assertFalse(standard.equals(light));
+        byte[] key = light.deriveKey(Password).getKey();
+        assertArrayEquals(Scrypt.scrypt(passwordBytes(), salt, 1024, 8, 2, KeyCrypterScrypt
+                .KEY_LENGTH), key);
+        EncryptedPrivateKey encrypted = light.encrypt(new byte[32], light.deriveKey(Password));
+        assertArrayEquals(new byte[32], light.decrypt(encrypted, light.deriveKey(Password)));
+    }
+
+    @Test
+    public void testManyKeys() {
+        List<String> strings = new ArrayList<String>();
+        List<String> addresses = new ArrayList<String>();
+        for (int i = 0; i < 4; i++) {
+            ECKey key = ECKey.generateECKey(new SecureRandom());
+            addresses.add(key.toAddress());
+            strings.add(PrivateKeyUtil.getEncryptedString(PrivateKeyUtil.encrypt(key, Password)));
+        }
+        List<ECKey> decrypted = PrivateKeyUtil.getECKeysFromSingleStrings(strings, Password);
+        assertEquals(4, decrypted.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(addresses.get(i), decrypted.get(i).toAddress());
+        }
+        assertNull(PrivateKeyUtil.getECKeysFromSingleStrings(strings, "wrong password"));
+    }
+
+    static byte[] passwordBytes() {
+        // as KeyCrypterScrypt turns a password into bytes
+        byte[] bytes = new byte[Password.length() * 2];
+        for (int i = 0; i < Password.length(); i++) {
+            bytes[i * 2] = (byte) (Password.charAt(i) >> 8);
+            bytes[i * 2 + 1] = (byte) Password.charAt(i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,55 @@
+package net.bither.bitherj.crypto.hd;
+
+import net.bither.bitherj.utils.Utils;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class HDBulkDerivationTest {
+
+    @Test
+    public void testSameAsOneByOne() {
+        DeterministicKey external = external();
+        // crosses several tasks and ends inside one
+        List<HDKeyDerivation.DerivedPub> pubs = HDKeyDerivation.derivePubs(external, 37, 300);
+        assertEquals(300, pubs.size());
+        for (int i = 0; i < pubs.size(); i++) {
+            HDKeyDerivation.DerivedPub pub = pubs.get(i);
+            DeterministicKey key = external.deriveSoftened(37 + i);
+            assertEquals(37 + i, pub.index);
+            assertArrayEquals(key.getPubKey(), pub.pub);
+            assertArrayEquals(key.getPubKeyHash(), pub.pubKeyHash);
+            assertEquals(Utils.toAddress(key.getPubKeyHash()), pub.address);
+        }
+        assertEquals(0, HDKeyDerivation.derivePubs(external, 5, 0).size());
+        assertEquals(pubs.get(10).address, HDKeyDerivation.derivePubs(external, 47, 1).get(0)
+                .address);
+    }
+
+    @Test
+    public void testOnlySoftened() {
+        try {
+            HDKeyDerivation.derivePubs(external(), ChildNumber.HARDENED_BIT - 1, 2);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            HDKeyDerivation.derivePubs(external(), -1, 2);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    private static DeterministicKey external() {
+        DeterministicKey master = HDKeyDerivation.createMasterPrivateKey(Utils
+                .hexStringToByteArray("000102030405060708090a0b0c0d0e0f"));
+        DeterministicKey account = master.deriveHardened(44).deriveHardened(0).deriveHardened(0);
+        return HDKeyDerivation.createMasterPubKeyFromExtendedBytes(account.deriveSoftened(0)
+                .getPubKeyExtended());
+    }
+}
@@ -0,0 +1,96 @@
+package net.bither.bitherj.crypto.mnemonic;
+
+import net.bither.bitherj.utils.Utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PBKDF2SHA512Test {
+    // password, salt, iterations, derived key
+    private static final String[][] Vectors = {
+            {"password", "salt", "1", "867f70cf1ade02cff3752599a3a53dc4af34c7a669815ae5d513554e" +
+                    "1c8cf252c02d470a285a0501bad999bfe943c08f050235d7d68b1da55e63f73b60a57fce"},
+            {"password", "salt", "2", "e1d9c16aa681708a45f5c7c4e215ceb66e011a2e9f0040713f18aefd" +
+                    "b866d53cf76cab2868a39b9f7840edce4fef5a82be67335c77a6068e04112754f27ccf4e"},
+            {"password", "salt", "4096", "d197b1b33db0143e018b12f3d1d1479e6cdebdcc97c5c0f87f6902" +
+                    "e072f457b5143f30602641b3d55cd335988cb36b84376060ecd532e039b742a239434af2d5"},
+            // two blocks, the second cut short
+            {"passwordPASSWORDpassword", "saltSALTsaltSALTsaltSALTsaltSALTsalt", "4096",
+                    "8c0511f4c6e597c6ac6315d8f0362e225f3c501495ba23b868c005174dc4ee71115b59f9e60c" +
+                            "d9532fa33e0f75aefe30225c583a186cd82bd4daea9724a3d3b804f75bdd41494fa3" +
+                            "24cab24bcc680fb3b96a30cf5d21fac3c2875913919f3399b1d9ce7e"}};
+
+    @Test
+    public void testVectors() {
+        for (String[] vector : Vectors) {
+            int dkLen = vector[3].length() / 2;
+            byte[] derived = PBKDF2SHA512.derive(vector[0], vector[1], Integer.parseInt
+                    (vector[2]), dkLen);
+            assertEquals(vector[3], Utils.bytesToHexString(derived).toLowerCase());
+        }
+        // a password longer than a block is hashed first
+        char[] p = new char[200];
+        Arrays.fill(p, 'p');
+        assertEquals("0499d2f52a54272883fc04786c49cbfe54771bb53aa16a2f8d3fdad6a6ef15fad0133b49b8e0" +
+                "8dc4bbd208c754356edd34d0e5e2516c4975f9150c616cc96d35", Utils.bytesToHexString
+                (PBKDF2SHA512.derive(new String(p), "salt", 3, 64)).toLowerCase());
+    }
+
+    @Test
+    public void testBip39Seeds() throws Exception {
+        String[] vectors = new MnemonicCodeTest().vectors;
+        for (int i = 0; i < vectors.length; i += 3) {
+            byte[] seed = MnemonicCode.toSeed(MnemonicCodeTest.split(vectors[i + 1]), "TREZOR");
+            assertEquals(vectors[i + 2], Utils.bytesToHexString(seed).toLowerCase());
+        }
+    }
+
+    @Test
+    public void testSameAsLegacy() throws Exception {
+        for (int dkLen : new int[]{1, 20, 63, 64, 65, 128, 150}) {
+            assertArrayEquals(legacyDerive("pass", "mnemonic", 5, dkLen), PBKDF2SHA512.derive
+                    ("pass", "mnemonic", 5, dkLen));
+        }
+        // a bip39 seed
+        String words = "legal winner thank year wave sausage worth useful legal winner thank yellow";
+        assertArrayEquals(legacyDerive(words, "mnemonicTREZOR", 2048, 64), PBKDF2SHA512.derive
+                (words, "mnemonicTREZOR", 2048, 64));
+    }
+
+    /**
+     * The implementation before, one Mac for each block and 20 byte blocks of 64 byte hashes.
+     */
+    static byte[] legacyDerive(String P, String S, int c, int dkLen) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int l = (int) Math.ceil((double) dkLen / 20.0);
+        for (int i = 1; i <= l; i++) {
+            SecretKeySpec key = new SecretKeySpec(P.getBytes("UTF-8"), "HmacSHA512");
+            Mac mac = Mac.getInstance(key.getAlgorithm());
+            mac.init(key);
+            byte[] baS = S.getBytes("UTF-8");
+            byte[] baU = new byte[baS.length + 4];
+            System.arraycopy(baS, 0, baU, 0, baS.length);
+            System.arraycopy(ByteBuffer.allocate(4).putInt(i).array(), 0, baU, baS.length, 4);
+            byte[] uXor = mac.doFinal(baU);
+            byte[] uLast = uXor;
+            for (int j = 1; j < c; j++) {
+                byte[] u = mac.doFinal(uLast);
+                for (int k = 0; k < uXor.length; k++) {
+                    uXor[k] = (byte) (uXor[k] ^ u[k]);
+                }
+                uLast = u;
+            }
+            baos.write(uXor);
+        }
+        return Arrays.copyOf(baos.toByteArray(), dkLen);
+    }
+}
@@ -0,0 +1,51 @@
+package net.bither.bitherj.net;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ReadBufferPoolTest {
+    @Test
+    public void testReuse() {
+        ReadBufferPool pool = new ReadBufferPool(4096, 2);
+        ByteBuffer buff = pool.acquire(4096);
+        assertTrue(buff.isDirect());
+        assertEquals(4096, buff.capacity());
+        buff.put(new byte[100]).flip();
+        pool.release(buff);
+        assertEquals(1, pool.size());
+
+        // handed out again cleared
+        ByteBuffer again = pool.acquire(4096);
+        assertSame(buff, again);
+        assertEquals(0, again.position());
+        assertEquals(4096, again.limit());
+        assertEquals(0, pool.size());
+        assertNotSame(again, pool.acquire(4096));
+    }
+
+    @Test
+    public void testBounds() {
+        ReadBufferPool pool = new ReadBufferPool(4096, 2);
+        ByteBuffer[] buffs = new ByteBuffer[3];
+        for (int i = 0; i < buffs.length; i++) {
+            buffs[i] = pool.acquire(4096);
+        }
+        for (ByteBuffer buff : buffs) {
+            pool.release(buff);
+        }
+        assertEquals(2, pool.size());
+
+        // other sizes are neither taken from nor kept in the pool
+        ByteBuffer small = pool.acquire(1024);
+        assertEquals(1024, small.capacity());
+        assertEquals(2, pool.size());
+        pool.release(small);
+        assertEquals(2, pool.size());
+    }
+}
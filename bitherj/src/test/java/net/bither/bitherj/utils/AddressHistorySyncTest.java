@@ -0,0 +1,286 @@
+package net.bither.bitherj.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import net.bither.bitherj.api.http.HttpGetResponse;
+import net.bither.bitherj.api.http.HttpSetting;
+import net.bither.bitherj.core.In;
+import net.bither.bitherj.core.Out;
+import net.bither.bitherj.core.Tx;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AddressHistorySyncTest {
+    private static final int MaxUnused = 20;
+    private static final int PagesPerUsedAddress = 2;
+
+    private HttpServer server;
+    private final Set<Integer> usedIndexes = new HashSet<Integer>(Arrays.asList(0, 1, 5, 24));
+    private final List<String> requested = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private volatile int failIndex = -1;
+
+    @Before
+    public void setUp() throws IOException {
+        // /q/<index>/p/<page>, used addresses have two pages of txs then an empty one
+        // otherwise the stub's small writes on a kept alive connection wait for delayed acks
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/q/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int now = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), now));
+                }
+                try {
+                    String[] parts = exchange.getRequestURI().getPath().split("/");
+                    int index = Integer.parseInt(parts[2]);
+                    int page = Integer.parseInt(parts[4]);
+                    requested.add(index + "/" + page);
+                    Thread.sleep(15);
+                    JSONObject json = new JSONObject();
+                    json.put("block_count", 350000);
+                    JSONArray txs = new JSONArray();
+                    if (usedIndexes.contains(index) && page <= PagesPerUsedAddress) {
+                        for (int i = 0; i < 3; i++) {
+                            txs.put(new JSONArray().put(349000 + page).put(Base64.encodeToString
+                                    (tx(index, page, i).bitcoinSerialize(), Base64.DEFAULT)));
+                        }
+                    }
+                    json.put("tx", txs);
+                    byte[] body = json.toString().getBytes("utf-8");
+                    exchange.sendResponseHeaders(index == failIndex ? 500 : 200, body.length);
+                    OutputStream os = exchange.getResponseBody();
+                    os.write(body);
+                    os.close();
+                } catch (Exception e) {
+                    throw new IOException(e);
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testGapLimitMatchesOneByOne() throws Exception {
+        final List<Integer> committed = new ArrayList<Integer>();
+        final List<Integer> batchSizes = new ArrayList<Integer>();
+        final int[] txCount = new int[1];
+        AddressSourceWithSynced source = new AddressSourceWithSynced(new int[]{Integer
+                .MAX_VALUE}, 3);
+
+        int end = newSync(4, 1000).sync(source, MaxUnused, new AddressHistorySync.Committer() {
+            @Override
+            public void commit(List<AddressHistorySync.AddressHistory> histories) {
+                batchSizes.add(histories.size());
+                for (AddressHistorySync.AddressHistory history : histories) {
+                    committed.add(history.getIndex());
+                    txCount[0] += history.getTxs().size();
+                }
+            }
+        });
+
+        // the last used address is 24, then 21 unused ones end the chain
+        assertEquals(46, end);
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 46; i++) {
+            if (i != 3) {
+                expected.add(i);
+            }
+        }
+        assertEquals(expected, committed);
+        assertEquals(usedIndexes.size() * PagesPerUsedAddress * 3, txCount[0]);
+        for (String request : requested) {
+            int index = Integer.parseInt(request.split("/")[0]);
+            assertTrue(request, index < 46 && index != 3);
+        }
+        assertEquals(45 + usedIndexes.size() * PagesPerUsedAddress, requested.size());
+        assertTrue(maxRunning.get() > 1);
+        assertTrue(batchSizes.size() < committed.size());
+    }
+
+    @Test
+    public void testStopsWhereSourceEnds() throws Exception {
+        // like an HD chain: MaxUnused more addresses are generated past every used one
+        final int[] generated = new int[]{MaxUnused + 1};
+        final List<Integer> committed = new ArrayList<Integer>();
+        int end = newSync(3, 1000).sync(new AddressSourceWithSynced(generated, -1), MaxUnused,
+                new AddressHistorySync.Committer() {
+            @Override
+            public void commit(List<AddressHistorySync.AddressHistory> histories) {
+                for (AddressHistorySync.AddressHistory history : histories) {
+                    committed.add(history.getIndex());
+                    if (history.getTxs().size() > 0) {
+                        generated[0] = Math.max(generated[0], history.getIndex() + MaxUnused + 1);
+                    }
+                }
+            }
+        });
+        assertEquals(45, end);
+        assertEquals(45, committed.size());
+    }
+
+    @Test
+    public void testFailureCommitsWhatCameBefore() throws Exception {
+        failIndex = 7;
+        List<String> addresses = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            addresses.add(String.valueOf(i));
+        }
+        final List<Integer> committed = new ArrayList<Integer>();
+        try {
+            newSync(4, 1000).sync(addresses, new AddressHistorySync.Committer() {
+                @Override
+                public void commit(List<AddressHistorySync.AddressHistory> histories) {
+                    for (AddressHistorySync.AddressHistory history : histories) {
+                        committed.add(history.getIndex());
+                    }
+                }
+            });
+            fail();
+        } catch (Exception e) {
+            assertTrue(e.getMessage().startsWith("500"));
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6), committed);
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        List<String> addresses = new ArrayList<String>();
+        for (int i = 10; i < 20; i++) {
+            addresses.add(String.valueOf(i));
+        }
+        long start = System.currentTimeMillis();
+        newSync(8, 25).sync(addresses, new AddressHistorySync.Committer() {
+            @Override
+            public void commit(List<AddressHistorySync.AddressHistory> histories) {
+            }
+        });
+        // 10 requests at 25 per second, the first one goes right away
+        assertTrue(System.currentTimeMillis() - start >= 340);
+        assertFalse(requested.isEmpty());
+    }
+
+    @Test
+    public void testSharedRateLimiter() {
+        String host = "127.0.0.1:" + server.getAddress().getPort();
+        AddressHistorySync.setRequestsPerSecond(host, 3);
+        AddressHistorySync.PageSource source = new AddressHistorySync.PageSource() {
+            @Override
+            public AddressHistorySync.HistoryPage getPage(String address, int page) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        // syncs against the host keep its rate, and other hosts start at the default
+        new AddressHistorySync(source, host);
+        new AddressHistorySync(source, host, 8);
+        assertEquals(3, AddressHistorySync.getRateLimiter(host).getRate(), 0);
+        assertEquals(AddressHistorySync.DefaultRequestsPerSecond, AddressHistorySync
+                .getRateLimiter(host + "/other").getRate(), 0);
+    }
+
+    private AddressHistorySync newSync(int parallelism, double requestsPerSecond) {
+        final String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/q/";
+        // a host of its own for each test's server, at the rate the test wants
+        String host = "127.0.0.1:" + server.getAddress().getPort();
+        AddressHistorySync.setRequestsPerSecond(host, requestsPerSecond);
+        return new AddressHistorySync(new AddressHistorySync.PageSource() {
+            @Override
+            public AddressHistorySync.HistoryPage getPage(String address, int page) throws
+                    Exception {
+                StubApi api = new StubApi(base + address + "/p/" + page);
+                api.handleHttpGet();
+                JSONObject json = new JSONObject(api.getResult());
+                JSONArray array = json.getJSONArray("tx");
+                List<Tx> txs = new ArrayList<Tx>();
+                for (int i = 0; i < array.length(); i++) {
+                    Tx tx = new Tx(Base64.decode(array.getJSONArray(i).getString(1), Base64
+                            .DEFAULT));
+                    tx.setBlockNo(array.getJSONArray(i).getInt(0));
+                    txs.add(tx);
+                }
+                return new AddressHistorySync.HistoryPage(txs, json.getInt("block_count"),
+                        false);
+            }
+        }, host, parallelism);
+    }
+
+    private static Tx tx(int index, int page, int n) {
+        Tx tx = new Tx();
+        In in = new In();
+        byte[] prevTxHash = new byte[32];
+        prevTxHash[0] = (byte) index;
+        prevTxHash[1] = (byte) page;
+        prevTxHash[2] = (byte) n;
+        in.setPrevTxHash(prevTxHash);
+        in.setInSignature(new byte[]{1, 2, 3});
+        tx.addInput(in);
+        tx.addOutput(new Out(tx, 10000 + n, new byte[]{0x51}));
+        return tx;
+    }
+
+    private static class AddressSourceWithSynced implements AddressHistorySync.AddressSource {
+        private final int[] generated;
+        private final int syncedIndex;
+
+        AddressSourceWithSynced(int[] generated, int syncedIndex) {
+            this.generated = generated;
+            this.syncedIndex = syncedIndex;
+        }
+
+        @Override
+        public String getAddress(int index) {
+            return index < generated[0] ? String.valueOf(index) : null;
+        }
+
+        @Override
+        public boolean isSynced(int index) {
+            return index == syncedIndex;
+        }
+    }
+
+    private static class StubApi extends HttpGetResponse<String> {
+        StubApi(String url) {
+            setUrl(url);
+            setHttpType(HttpSetting.HttpType.OtherApi);
+        }
+
+        @Override
+        public void setResult(String response) {
+            this.result = response;
+        }
+    }
+}
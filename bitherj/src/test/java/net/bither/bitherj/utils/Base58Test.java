@@ -0,0 +1,219 @@
+package net.bither.bitherj.utils;
+
+import net.bither.bitherj.exception.AddressFormatException;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class Base58Test {
+    private static final String[][] Vectors = new String[][]{
+            {"", ""},
+            {"61", "2g"},
+            {"626262", "a3gV"},
+            {"636363", "aPEr"},
+            {"73696d706c792061206c6f6e6720737472696e67", "2cFupjhnEsSn59qHXstmK2ffpLv2"},
+            {"00eb15231dfceb60925886b67d065299925915aeb172c06647",
+                    "1NS17iag9jJgTHD1VXjvLCEnZuQ3rJDE9L"},
+            {"516b6fcd0f", "ABnLTmg"},
+            {"bf4f89001e670274dd", "3SEo3LWLoPntC"},
+            {"572e4794", "3EFU7m"},
+            {"ecac89cad93923c02321", "EJDM8drfXA6uyA"},
+            {"10c8511e", "Rt5zm"},
+            {"00000000000000000000", "1111111111"}};
+
+    private static final String Genesis = "1A1zP1eP5QGefi2DMPTfTL5SLmv7DivfNa";
+
+    @Test
+    public void testVectors() throws Exception {
+        for (String[] vector : Vectors) {
+            byte[] bytes = Utils.hexStringToByteArray(vector[0]);
+            assertEquals(vector[1], Base58.encode(bytes));
+            assertArrayEquals(bytes, Base58.decode(vector[1]));
+        }
+    }
+
+    @Test
+    public void testMatchesPlainConversion() throws Exception {
+        Random random = new Random(58);
+        for (int i = 0; i < 3000; i++) {
+            byte[] bytes = new byte[random.nextInt(90)];
+            random.nextBytes(bytes);
+            // runs of leading zero bytes and zero limbs inside
+            int zeros = random.nextInt(4);
+            for (int k = 0; k < zeros && k < bytes.length; k++) {
+                bytes[k] = 0;
+            }
+            if (bytes.length > 10 && random.nextBoolean()) {
+                Arrays.fill(bytes, 5, 10, (byte) 0);
+            }
+            String expected = reference(bytes);
+            assertEquals(expected, Base58.encode(bytes));
+            assertArrayEquals(bytes, Base58.decode(expected));
+        }
+    }
+
+    @Test
+    public void testIntoBuffers() throws Exception {
+        byte[] bytes = Utils.hexStringToByteArray(Vectors[5][0]);
+        char[] chars = new char[3 + Base58.maxEncodedLength(bytes.length)];
+        int length = Base58.encode(bytes, 0, bytes.length, chars, 3);
+        assertEquals(Vectors[5][1], new String(chars, 3, length));
+        // part of an array
+        length = Base58.encode(bytes, 1, 4, chars, 0);
+        assertEquals(Base58.encode(Arrays.copyOfRange(bytes, 1, 5)), new String(chars, 0,
+                length));
+
+        StringBuilder builder = new StringBuilder("address ");
+        Base58.encode(bytes, builder);
+        assertEquals("address " + Vectors[5][1], builder.toString());
+
+        byte[] out = new byte[30];
+        out[0] = 9;
+        length = Base58.decode(Vectors[5][1], out, 1);
+        assertEquals(bytes.length, length);
+        assertEquals(9, out[0]);
+        assertArrayEquals(bytes, Arrays.copyOfRange(out, 1, 1 + length));
+        try {
+            Base58.decode(Vectors[5][1], new byte[24], 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            Base58.decode("1NS17iag0jJgTHD1VXjv", out, 0);
+            fail();
+        } catch (AddressFormatException e) {
+            assertEquals("Illegal character 0 at 8", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testChecked() throws Exception {
+        byte[] hash160 = Utils.hexStringToByteArray("62e907b15cbf27d5425399ebf6f0fb50ebb88f18");
+        assertEquals(Genesis, Base58.encodeChecked(0, hash160));
+        // twice, the second time with the checksum kept
+        assertEquals(Genesis, Base58.encodeChecked(0, hash160));
+        assertEquals(Genesis, Base58.encodeChecked(Base58.decodeChecked(Genesis))
+                .toString());
+        byte[] payload = Base58.decodeChecked(Genesis);
+        assertEquals(21, payload.length);
+        assertArrayEquals(hash160, Arrays.copyOfRange(payload, 1, 21));
+
+        byte[] out = new byte[25];
+        assertEquals(21, Base58.decodeChecked(Genesis, out, 0));
+        assertArrayEquals(payload, Arrays.copyOf(out, 21));
+
+        // a longer payload, like a private key, is checked the same way
+        byte[] key = new byte[34];
+        new Random(1).nextBytes(key);
+        assertArrayEquals(key, Base58.decodeChecked(Base58.encodeChecked(key).toString()));
+
+        String broken = Genesis.substring(0, 33) + "b";
+        try {
+            Base58.decodeChecked(broken);
+            fail();
+        } catch (AddressFormatException e) {
+            assertEquals("Checksum does not validate", e.getMessage());
+        }
+        try {
+            Base58.decodeChecked("2g");
+            fail();
+        } catch (AddressFormatException e) {
+            assertEquals("Input too short", e.getMessage());
+        }
+    }
+
+    private static String reference(byte[] bytes) {
+        StringBuilder result = new StringBuilder();
+        BigInteger value = new BigInteger(1, bytes);
+        BigInteger base = BigInteger.valueOf(58);
+        while (value.signum() > 0) {
+            BigInteger[] divided = value.divideAndRemainder(base);
+            result.append(Base58.ALPHABET[divided[1].intValue()]);
+            value = divided[0];
+        }
+        for (int i = 0; i < bytes.length && bytes[i] == 0; i++) {
+            result.append(Base58.ALPHABET[0]);
+        }
+        return result.reverse().toString();
+    }
+
+    /**
+     * The encoding as it was, a division of the whole number per digit.
+     */
+    static String legacyEncode(byte[] input) {
+        input = Arrays.copyOf(input, input.length);
+        int zeroCount = 0;
+        while (zeroCount < input.length && input[zeroCount] == 0) {
+            ++zeroCount;
+        }
+        byte[] temp = new byte[input.length * 2];
+        int j = temp.length;
+        int startAt = zeroCount;
+        while (startAt < input.length) {
+            int remainder = 0;
+            for (int i = startAt; i < input.length; i++) {
+                int value = remainder * 256 + (input[i] & 0xFF);
+                input[i] = (byte) (value / 58);
+                remainder = value % 58;
+            }
+            if (input[startAt] == 0) {
+                ++startAt;
+            }
+            temp[--j] = (byte) Base58.ALPHABET[remainder];
+        }
+        while (j < temp.length && temp[j] == Base58.ALPHABET[0]) {
+            ++j;
+        }
+        while (--zeroCount >= 0) {
+            temp[--j] = (byte) Base58.ALPHABET[0];
+        }
+        return new String(temp, j, temp.length - j);
+    }
+
+    static byte[] legacyDecode(String input) throws AddressFormatException {
+        byte[] input58 = new byte[input.length()];
+        for (int i = 0; i < input.length(); ++i) {
+            char c = input.charAt(i);
+            int digit58 = -1;
+            for (int k = 0; k < Base58.ALPHABET.length; k++) {
+                if (Base58.ALPHABET[k] == c) {
+                    digit58 = k;
+                }
+            }
+            if (digit58 < 0) {
+                throw new AddressFormatException("Illegal character " + c + " at " + i);
+            }
+            input58[i] = (byte) digit58;
+        }
+        int zeroCount = 0;
+        while (zeroCount < input58.length && input58[zeroCount] == 0) {
+            ++zeroCount;
+        }
+        byte[] temp = new byte[input.length()];
+        int j = temp.length;
+        int startAt = zeroCount;
+        while (startAt < input58.length) {
+            int remainder = 0;
+            for (int i = startAt; i < input58.length; i++) {
+                int value = remainder * 58 + (input58[i] & 0xFF);
+                input58[i] = (byte) (value / 256);
+                remainder = value % 256;
+            }
+            if (input58[startAt] == 0) {
+                ++startAt;
+            }
+            temp[--j] = (byte) remainder;
+        }
+        while (j < temp.length && temp[j] == 0) {
+            ++j;
+        }
+        return Arrays.copyOfRange(temp, j - zeroCount, temp.length);
+    }
+}
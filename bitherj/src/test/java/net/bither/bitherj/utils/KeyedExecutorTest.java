@@ -0,0 +1,155 @@
+package net.bither.bitherj.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KeyedExecutorTest {
+
+    @Test
+    public void testOrderPerKey() throws Exception {
+        KeyedExecutor executor = new KeyedExecutor("test", 4);
+        final int keys = 8;
+        final int tasksPerKey = 500;
+        final List<List<Integer>> seen = new ArrayList<List<Integer>>();
+        for (int k = 0; k < keys; k++) {
+            seen.add(Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+        final CountDownLatch done = new CountDownLatch(keys * tasksPerKey);
+        for (int i = 0; i < tasksPerKey; i++) {
+            for (int k = 0; k < keys; k++) {
+                final int key = k;
+                final int index = i;
+                executor.execute(key, new Runnable() {
+                    @Override
+                    public void run() {
+                        seen.get(key).add(index);
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (List<Integer> order : seen) {
+            assertEquals(tasksPerKey, order.size());
+            for (int i = 0; i < tasksPerKey; i++) {
+                assertEquals(i, order.get(i).intValue());
+            }
+        }
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testKeysRunInParallel() throws Exception {
+        KeyedExecutor executor = new KeyedExecutor("test", 2);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch otherRan = new CountDownLatch(1);
+        executor.execute("chain", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocked.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        executor.execute("tx", new Runnable() {
+            @Override
+            public void run() {
+                otherRan.countDown();
+            }
+        });
+        // the tx lane must not wait behind the blocked chain lane
+        assertTrue(otherRan.await(2, TimeUnit.SECONDS));
+        blocked.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testBacklogNotification() throws Exception {
+        KeyedExecutor executor = new KeyedExecutor("test", 1);
+        final List<Boolean> events = Collections.synchronizedList(new ArrayList<Boolean>());
+        executor.setBacklogListener(new KeyedExecutor.BacklogListener() {
+            @Override
+            public void onBacklogChanged(Object key, boolean saturated) {
+                events.add(saturated);
+            }
+        }, 10, 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(21);
+        executor.execute("peer", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+                done.countDown();
+            }
+        });
+        for (int i = 0; i < 20; i++) {
+            executor.execute("peer", new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(executor.getPendingCount("peer") >= 10);
+        assertEquals(1, events.size());
+        assertTrue(events.get(0));
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, events.size());
+        assertTrue(!events.get(1));
+        assertEquals(0, executor.getPendingCount());
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testKeyWaterMarks() throws Exception {
+        KeyedExecutor executor = new KeyedExecutor("test", 1);
+        final List<Object> saturatedKeys = Collections.synchronizedList(new ArrayList<Object>());
+        executor.setBacklogListener(new KeyedExecutor.BacklogListener() {
+            @Override
+            public void onBacklogChanged(Object key, boolean saturated) {
+                if (saturated) {
+                    saturatedKeys.add(key);
+                }
+            }
+        }, 10, 2);
+        executor.setWaterMarks("chain", 50, 20);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        executor.execute("blocker", blocked);
+        for (int i = 0; i < 20; i++) {
+            executor.execute("chain", blocked);
+            executor.execute("peer", blocked);
+        }
+        // only the peer lane is past its mark
+        assertEquals(Collections.<Object>singletonList("peer"), new ArrayList<Object>
+                (saturatedKeys));
+        for (int i = 0; i < 30; i++) {
+            executor.execute("chain", blocked);
+        }
+        assertEquals(2, saturatedKeys.size());
+        assertEquals("chain", saturatedKeys.get(1));
+        release.countDown();
+        executor.shutdownNow();
+    }
+}
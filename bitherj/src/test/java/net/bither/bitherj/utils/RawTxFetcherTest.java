@@ -0,0 +1,276 @@
+package net.bither.bitherj.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import net.bither.bitherj.api.http.HttpGetResponse;
+import net.bither.bitherj.api.http.HttpSetting;
+import net.bither.bitherj.core.Block;
+import net.bither.bitherj.core.In;
+import net.bither.bitherj.core.Out;
+import net.bither.bitherj.core.Tx;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RawTxFetcherTest {
+    static final int Latency = 10;
+
+    private HttpServer server;
+    private final HashMap<String, String> rawTxs = new HashMap<String, String>();
+    final List<String> hashes = new ArrayList<String>();
+    private final ConcurrentHashMap<String, AtomicInteger> served = new ConcurrentHashMap<String,
+            AtomicInteger>();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < 200; i++) {
+            Tx tx = tx(i);
+            String hash = Utils.hashToString(tx.getTxHash());
+            hashes.add(hash);
+            rawTxs.put(hash, Utils.bytesToHexString(tx.bitcoinSerialize()));
+        }
+        // /rawtx/<hash> like blockchain.info, and /rawtxs/<hash>,<hash>... comma separated
+        // otherwise the stub's small writes on a kept alive connection wait for delayed acks
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                String[] path = exchange.getRequestURI().getPath().split("/");
+                StringBuilder body = new StringBuilder();
+                for (String hash : path[2].split(",")) {
+                    served.putIfAbsent(hash, new AtomicInteger());
+                    served.get(hash).incrementAndGet();
+                    if (body.length() > 0) {
+                        body.append(',');
+                    }
+                    body.append(rawTxs.containsKey(hash) ? rawTxs.get(hash) : rawTxs.get(hashes
+                            .get(0)));
+                }
+                try {
+                    Thread.sleep(Latency);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                byte[] bytes = body.toString().getBytes("utf-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(bytes);
+                os.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testSharedTxsFetchedOnce() throws Exception {
+        final RawTxFetcher fetcher = new RawTxFetcher(singleSource());
+        // three addresses whose histories overlap, synced at the same time
+        final List<List<String>> pages = new ArrayList<List<String>>();
+        pages.add(hashes.subList(0, 60));
+        pages.add(hashes.subList(40, 100));
+        pages.add(new ArrayList<String>(hashes.subList(50, 70)));
+        pages.get(2).addAll(hashes.subList(50, 70));
+        final List<Map<String, Tx>> results = Collections.synchronizedList(new
+                ArrayList<Map<String, Tx>>());
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final List<String> page : pages) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results.add(fetcher.getTxs(page));
+                    } catch (Exception e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        for (Map<String, Tx> result : results) {
+            for (Map.Entry<String, Tx> entry : result.entrySet()) {
+                assertEquals(entry.getKey(), Utils.hashToString(entry.getValue().getTxHash()));
+            }
+        }
+        assertEquals(100, served.size());
+        for (AtomicInteger count : served.values()) {
+            assertEquals(1, count.get());
+        }
+        assertEquals(100, requests.get());
+        assertEquals(100, fetcher.getCachedCount());
+
+        // a later page only hits the cache
+        Map<String, Tx> again = fetcher.getTxs(hashes.subList(10, 20));
+        assertEquals(100, requests.get());
+        // each caller gets its own txs, changing them doesn't reach the cache or other callers
+        Tx tx = again.get(hashes.get(10));
+        tx.setBlockNo(5);
+        tx.setOuts(new ArrayList<Out>());
+        Tx other = fetcher.getTxs(Arrays.asList(hashes.get(10))).get(hashes.get(10));
+        assertNotSame(tx, other);
+        assertEquals(hashes.get(10), Utils.hashToString(other.getTxHash()));
+        assertFalse(other.getOuts().isEmpty());
+        assertFalse(other.getBlockNo() == 5);
+    }
+
+    @Test
+    public void testWrongTxRejected() throws Exception {
+        RawTxFetcher fetcher = new RawTxFetcher(singleSource());
+        List<String> asked = new ArrayList<String>(hashes.subList(0, 3));
+        asked.add("00000000000000000000000000000000000000000000000000000000000000ff");
+        try {
+            fetcher.getTxs(asked);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("00ff"));
+        }
+        assertEquals(3, fetcher.getCachedCount());
+    }
+
+    @Test
+    public void testBlockTimeIndex() {
+        final AtomicInteger loads = new AtomicInteger();
+        final List<Block> blocks = new ArrayList<Block>();
+        for (int i = 100; i <= 110; i++) {
+            blocks.add(block(i));
+        }
+        BlockTimeIndex index = new BlockTimeIndex() {
+            @Override
+            protected List<Block> loadBlocks() {
+                loads.incrementAndGet();
+                return new ArrayList<Block>(blocks);
+            }
+        };
+        assertEquals(Integer.valueOf(100 * 600), index.getTime(100));
+        assertEquals(Integer.valueOf(105 * 600), index.getTime(105));
+        // older txs get the oldest stored block's time
+        assertEquals(Integer.valueOf(100 * 600), index.getTime(7));
+        assertEquals(1, loads.get());
+
+        // above the newest block loaded: loaded again, but only once for that height
+        assertNull(index.getTime(111));
+        assertNull(index.getTime(111));
+        assertEquals(2, loads.get());
+        blocks.add(block(111));
+        blocks.add(block(112));
+        assertEquals(Integer.valueOf(112 * 600), index.getTime(112));
+        assertEquals(Integer.valueOf(111 * 600), index.getTime(111));
+        assertEquals(3, loads.get());
+
+        blocks.remove(blocks.size() - 1);
+        index.invalidate();
+        assertEquals(Integer.valueOf(111 * 600), index.getTime(111));
+        assertEquals(4, loads.get());
+    }
+
+    /**
+     * The stub's /rawtx/ api, one hash per request.
+     */
+    RawTxFetcher.RawTxSource singleSource() {
+        final String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/rawtx/";
+        return new RawTxFetcher.RawTxSource() {
+            @Override
+            public List<byte[]> getRawTxs(List<String> txHashes) throws Exception {
+                List<byte[]> result = new ArrayList<byte[]>();
+                for (String hash : txHashes) {
+                    result.add(Hex.decode(get(base + hash).trim()));
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * The stub's /rawtxs/ api, taking several hashes per request.
+     */
+    RawTxFetcher.RawTxSource batchSource() {
+        final String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/rawtxs/";
+        return new RawTxFetcher.RawTxSource() {
+            @Override
+            public List<byte[]> getRawTxs(List<String> txHashes) throws Exception {
+                List<byte[]> result = new ArrayList<byte[]>();
+                for (String hex : get(base + Utils.joinString(txHashes, ",")).split(",")) {
+                    result.add(Hex.decode(hex));
+                }
+                return result;
+            }
+        };
+    }
+
+    static String get(String url) throws Exception {
+        StubApi api = new StubApi(url);
+        api.handleHttpGet();
+        return api.getResult();
+    }
+
+    private static Tx tx(int n) {
+        Tx tx = new Tx();
+        In in = new In();
+        byte[] prevTxHash = new byte[32];
+        prevTxHash[0] = (byte) n;
+        prevTxHash[1] = (byte) (n >> 8);
+        in.setPrevTxHash(prevTxHash);
+        in.setInSignature(new byte[]{1, 2, 3});
+        tx.addInput(in);
+        tx.addOutput(new Out(tx, 10000 + n, new byte[]{0x51}));
+        tx.recalculateTxHash();
+        return tx;
+    }
+
+    private static Block block(int blockNo) {
+        Block block = new Block();
+        block.setBlockNo(blockNo);
+        block.setBlockTime(blockNo * 600);
+        return block;
+    }
+
+    private static class StubApi extends HttpGetResponse<String> {
+        StubApi(String url) {
+            setUrl(url);
+            setHttpType(HttpSetting.HttpType.OtherApi);
+        }
+
+        @Override
+        public void setResult(String response) {
+            this.result = response;
+        }
+    }
+}
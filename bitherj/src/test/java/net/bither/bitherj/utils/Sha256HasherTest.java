@@ -0,0 +1,59 @@
+package net.bither.bitherj.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Sha256HasherTest {
+    // The genesis block header and its hash, as a known answer.
+    private static final String GENESIS_HEADER = "0100000000000000000000000000000000000000000000000000000000000000000000003ba3edfd7a7b12b27ac72c3e67768f617fc81bc3888a51323a9fb8aa4b1e5e4a29ab5f49ffff001d1dac2b7c";
+    private static final String GENESIS_HASH = "000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f";
+
+    @Test
+    public void testKnownAnswer() {
+        byte[] header = Utils.hexStringToByteArray(GENESIS_HEADER);
+        assertEquals(GENESIS_HASH, Utils.hashToString(Utils.doubleDigest(header)).toLowerCase());
+
+        byte[] out = new byte[40];
+        Sha256Hasher.doubleDigestInto(header, 0, header.length, out, 8);
+        assertArrayEquals(Utils.doubleDigest(header), Arrays.copyOfRange(out, 8, 40));
+
+        ByteBuffer in = ByteBuffer.wrap(header);
+        ByteBuffer direct = ByteBuffer.allocateDirect(32);
+        Sha256Hasher.doubleDigestInto(in, direct);
+        assertEquals(header.length, in.position());
+        byte[] fromBuffer = new byte[32];
+        direct.flip();
+        direct.get(fromBuffer);
+        assertArrayEquals(Utils.doubleDigest(header), fromBuffer);
+
+        assertTrue(Sha256Hasher.checksumMatches(header, 0, header.length, out, 8));
+    }
+
+    @Test
+    public void testMerkleCombineInPlace() {
+        Random random = new Random(1);
+        byte[] left = new byte[32];
+        byte[] right = new byte[32];
+        random.nextBytes(left);
+        random.nextBytes(right);
+        byte[] expected = legacyDoubleDigestTwoBuffers(left, right);
+        assertArrayEquals(expected, Utils.doubleDigestTwoBuffers(left, 0, 32, right, 0, 32));
+        Sha256Hasher.doubleDigestTwoBuffersInto(left, 0, 32, right, 0, 32, left, 0);
+        assertArrayEquals(expected, left);
+    }
+
+    private static byte[] legacyDoubleDigestTwoBuffers(byte[] left, byte[] right) {
+        MessageDigest digest = Sha256Hasher.newDigest();
+        digest.update(left);
+        digest.update(right);
+        return digest.digest(digest.digest());
+    }
+}
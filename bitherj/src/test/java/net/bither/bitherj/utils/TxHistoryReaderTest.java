@@ -0,0 +1,262 @@
+package net.bither.bitherj.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import net.bither.bitherj.api.http.HttpClientPool;
+import net.bither.bitherj.api.http.HttpGetResponse;
+import net.bither.bitherj.api.http.HttpSetting;
+import net.bither.bitherj.core.In;
+import net.bither.bitherj.core.Out;
+import net.bither.bitherj.core.Tx;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TxHistoryReaderTest {
+
+    @Test
+    public void testBitherMatchesJsonTree() throws Exception {
+        String page = bitherPage(0, 50, true);
+        final List<Tx> txs = new ArrayList<Tx>();
+        final List<Integer> heights = new ArrayList<Integer>();
+        int blockCount = TxHistoryReader.readBither(new StringReader(page), new TxHistoryReader
+                .TxConsumer() {
+            @Override
+            public void onTx(int height, Tx tx) {
+                heights.add(height);
+                txs.add(tx);
+            }
+        });
+
+        // what the history parser used to do with the whole page
+        JSONObject json = new JSONObject(page);
+        assertEquals(json.getInt("block_count"), blockCount);
+        JSONArray array = json.getJSONArray("tx");
+        int n = 0;
+        for (int i = 0; i < array.length(); i++) {
+            JSONArray txArray = array.getJSONArray(i);
+            if (txArray.length() < 2) {
+                continue;
+            }
+            assertEquals(txArray.getInt(0), heights.get(n).intValue());
+            assertArrayEquals(Base64.decode(txArray.getString(1), Base64.DEFAULT), txs.get(n)
+                    .bitcoinSerialize());
+            n++;
+        }
+        assertEquals(50, n);
+        assertEquals(n, txs.size());
+    }
+
+    @Test
+    public void testBitherOddPages() throws Exception {
+        TxHistoryReader.TxConsumer none = new TxHistoryReader.TxConsumer() {
+            @Override
+            public void onTx(int height, Tx tx) {
+                throw new AssertionError();
+            }
+        };
+        assertEquals(0, TxHistoryReader.readBither(new StringReader("{}"), none));
+        assertEquals(7, TxHistoryReader.readBither(new StringReader(" { \"tx\" : null , " +
+                "\"block_count\" : 7 } "), none));
+        assertEquals(8, TxHistoryReader.readBither(new StringReader("{\"tx\":[], \"other\":{\"a\"" +
+                ":[1,{\"b\":\"]}\"}]},\"block_count\":8}"), none));
+    }
+
+    @Test
+    public void testBlockChain() throws Exception {
+        String page = "{\"hash160\":\"00\",\"n_tx\":3,\"txs\":[" +
+                "{\"hash\":\"aa\",\"inputs\":[{\"prev_out\":{\"n\":0}}],\"block_height\":100}," +
+                "{\"hash\":\"bb\",\"out\":[{\"value\":5,\"script\":\"76\"}]}," +
+                "{\"block_height\":102,\"hash\":\"cc\"}],\"final_balance\":0}";
+        final List<String> found = new ArrayList<String>();
+        TxHistoryReader.readBlockChain(new StringReader(page), new TxHistoryReader
+                .TxHashConsumer() {
+            @Override
+            public void onTxHash(int height, String txHash) {
+                found.add(height + ":" + txHash);
+            }
+        });
+        assertEquals(2, found.size());
+        assertEquals("100:aa", found.get(0));
+        assertEquals("102:cc", found.get(1));
+    }
+
+    @Test
+    public void testReadsOneTxAtATime() throws Exception {
+        final int count = 20000;
+        final GeneratedPage reader = new GeneratedPage(count);
+        final int[] seen = new int[1];
+        final int[] maxAhead = new int[1];
+        TxHistoryReader.readBither(reader, new TxHistoryReader.TxConsumer() {
+            @Override
+            public void onTx(int height, Tx tx) {
+                // how much of the page has been read past the end of this tx's entry
+                int ahead = reader.position - reader.entryEnds.get(seen[0]);
+                maxAhead[0] = Math.max(maxAhead[0], ahead);
+                seen[0]++;
+            }
+        });
+        assertEquals(count, seen[0]);
+        // the page is megabytes long, never more than a buffer of it is held
+        assertTrue(reader.position > 100 * 8192);
+        assertTrue("read ahead " + maxAhead[0], maxAhead[0] <= 8192);
+    }
+
+    @Test
+    public void testStreamedOverHttp() throws Exception {
+        // otherwise the stub's small writes on a kept alive connection wait for delayed acks
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        final byte[] body = bitherPage(0, 500, false).getBytes("utf-8");
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.start();
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/page";
+            StubApi api = new StubApi(url);
+            api.handleHttpGet();
+            JSONArray array = new JSONObject(api.getResult()).getJSONArray("tx");
+            List<Tx> treeTxs = new ArrayList<Tx>();
+            for (int i = 0; i < array.length(); i++) {
+                treeTxs.add(new Tx(Base64.decode(array.getJSONArray(i).getString(1), Base64
+                        .DEFAULT)));
+            }
+
+            final List<Tx> streamedTxs = new ArrayList<Tx>();
+            new StubApi(url).handleHttpGet(new HttpClientPool.BodyReader() {
+                @Override
+                public void read(Reader reader) throws Exception {
+                    TxHistoryReader.readBither(reader, new TxHistoryReader.TxConsumer() {
+                        @Override
+                        public void onTx(int height, Tx tx) {
+                            streamedTxs.add(tx);
+                        }
+                    });
+                }
+            });
+
+            assertEquals(500, streamedTxs.size());
+            assertEquals(treeTxs.size(), streamedTxs.size());
+            for (int i = 0; i < treeTxs.size(); i++) {
+                assertArrayEquals(treeTxs.get(i).getTxHash(), streamedTxs.get(i).getTxHash());
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static String bitherPage(int from, int count, boolean odd) throws Exception {
+        StringBuilder page = new StringBuilder("{");
+        if (odd) {
+            page.append("\"tx_cnt\":").append(count).append(",");
+        }
+        page.append("\"tx\":[");
+        for (int i = from; i < from + count; i++) {
+            if (i > from) {
+                page.append(',');
+            }
+            page.append(entry(i));
+            if (odd && i % 10 == 0) {
+                page.append(",[").append(i).append("]");
+            }
+        }
+        page.append("],\"block_count\":350000}");
+        return page.toString();
+    }
+
+    private static String entry(int i) {
+        return "[" + (300000 + i) + ",\"" + Base64.encodeToString(tx(i).bitcoinSerialize(),
+                Base64.NO_WRAP) + "\"]";
+    }
+
+    private static Tx tx(int n) {
+        Tx tx = new Tx();
+        In in = new In();
+        byte[] prevTxHash = new byte[32];
+        Utils.uint32ToByteArrayLE(n, prevTxHash, 0);
+        in.setPrevTxHash(prevTxHash);
+        in.setInSignature(new byte[107]);
+        tx.addInput(in);
+        tx.addOutput(new Out(tx, 10000 + n, new byte[25]));
+        tx.addOutput(new Out(tx, 20000 + n, new byte[25]));
+        return tx;
+    }
+
+    /**
+     * A bither page made up as it is read, keeping track of where each entry ends.
+     */
+    private static class GeneratedPage extends Reader {
+        private final int count;
+        private final List<Integer> entryEnds = new ArrayList<Integer>();
+        private String chunk = "{\"tx\":[";
+        private int chunkOffset;
+        private int next;
+        private int position;
+
+        GeneratedPage(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (chunkOffset == chunk.length()) {
+                if (next > count) {
+                    return -1;
+                }
+                if (next == count) {
+                    chunk = "],\"block_count\":1}";
+                } else {
+                    chunk = (next > 0 ? "," : "") + entry(next);
+                    entryEnds.add(position + chunk.length());
+                }
+                chunkOffset = 0;
+                next++;
+            }
+            int n = Math.min(length, chunk.length() - chunkOffset);
+            chunk.getChars(chunkOffset, chunkOffset + n, buffer, offset);
+            chunkOffset += n;
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class StubApi extends HttpGetResponse<String> {
+        StubApi(String url) {
+            setUrl(url);
+            setHttpType(HttpSetting.HttpType.OtherApi);
+        }
+
+        @Override
+        public void setResult(String response) {
+            this.result = response;
+        }
+    }
+}